@@ -0,0 +1,77 @@
+package com.t8webs.tvtrackerapi.benchmarks;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded H2 database with the TvTracker schema, standing in for SQL Server during benchmarks
+ * <p>
+ *     The schema is the one the unit tests load, copied onto the benchmark classpath by the build.
+ * </p>
+ */
+public class BenchmarkDatabase implements AutoCloseable {
+
+    public static final String USERNAME = "bench";
+
+    private static final AtomicInteger databaseCount = new AtomicInteger();
+
+    private final JdbcConnectionPool dataSource;
+
+    public BenchmarkDatabase() throws SQLException {
+        String url = "jdbc:h2:mem:bench" + databaseCount.incrementAndGet()
+                + ";MODE=MSSQLServer;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE";
+        dataSource = JdbcConnectionPool.create(url, "sa", "");
+
+        try (Connection conn = dataSource.getConnection();
+             Statement statement = conn.createStatement()) {
+            statement.execute("RUNSCRIPT FROM 'classpath:/schema.sql'");
+        }
+    }
+
+    /**
+     * Inserts media entries for {@link #USERNAME} with ids 1 to rows
+     *
+     * @param rows number of entries to insert
+     */
+    public void seedMediaEntries(int rows) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement statement = conn.prepareStatement("INSERT INTO MediaEntry"
+                     + "(id, title, username, type, platform, description, imageUrl, watched) VALUES (?,?,?,?,?,?,?,?)")) {
+            for (int i = 0; i < rows; i++) {
+                statement.setInt(1, i + 1);
+                statement.setString(2, "Title " + i);
+                statement.setString(3, USERNAME);
+                statement.setString(4, i % 3 == 0 ? "movie" : "tv");
+                statement.setString(5, i % 2 == 0 ? "Netflix" : "Hulu");
+                statement.setString(6, "A description of title number " + i + " long enough to look realistic.");
+                statement.setString(7, "https://images.example.com/" + i + ".jpg");
+                statement.setBoolean(8, i % 4 == 0);
+                statement.addBatch();
+
+                if (i % 1000 == 999) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+
+    public JdbcConnectionPool getDataSource() {
+        return dataSource;
+    }
+
+    @Override
+    public void close() {
+        try (Connection conn = dataSource.getConnection();
+             Statement statement = conn.createStatement()) {
+            statement.execute("SHUTDOWN");
+        } catch (SQLException ignored) {
+        }
+        dataSource.dispose();
+    }
+}
@@ -0,0 +1,113 @@
+package com.t8webs.tvtrackerapi.benchmarks;
+
+import com.t8webs.tvtrackerapi.enterprise.dao.DbQuery;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building DbQuery statements on their own, and running them against the embedded database
+ * <p>
+ *     The build benchmarks queue each statement as a batch row, which builds the SQL and its parameters without
+ *     touching a connection. Run with -prof gc to report allocation per operation.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DbQueryBenchmark {
+
+    private static final int SEEDED_ROWS = 1000;
+
+    private BenchmarkDatabase database;
+    private int nextId;
+    private int insertedRows;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase();
+        database.seedMediaEntries(SEEDED_ROWS);
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeInsertedRows() throws SQLException {
+        try (Connection conn = database.getDataSource().getConnection();
+             Statement statement = conn.createStatement()) {
+            statement.execute("DELETE FROM MediaEntry WHERE id > " + SEEDED_ROWS);
+        }
+        insertedRows = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public DbQuery buildWhere() {
+        DbQuery query = new DbQuery(null);
+        query.setTableName("MediaEntry");
+        query.addWhere("username", BenchmarkDatabase.USERNAME);
+        query.addWhere("id", 42);
+        query.addWhere("platform", "Netflix");
+        query.addDeleteBatch();
+        return query;
+    }
+
+    @Benchmark
+    public DbQuery buildUpdate() {
+        DbQuery query = new DbQuery(null);
+        query.setTableName("MediaEntry");
+        setColumns(query);
+        query.addWhere("id", 42);
+        query.addUpdateBatch();
+        return query;
+    }
+
+    @Benchmark
+    public DbQuery buildInsert() {
+        DbQuery query = new DbQuery(null);
+        query.setTableName("MediaEntry");
+        setColumns(query);
+        query.addInsertBatch();
+        return query;
+    }
+
+    @Benchmark
+    public boolean update() {
+        DbQuery query = newQuery();
+        setColumns(query);
+        query.addWhere("id", (nextId++ % SEEDED_ROWS) + 1);
+        return query.update();
+    }
+
+    @Benchmark
+    public boolean insert() {
+        DbQuery query = newQuery();
+        query.setColumnValue("id", SEEDED_ROWS + ++insertedRows);
+        setColumns(query);
+        return query.insert();
+    }
+
+    private DbQuery newQuery() {
+        DbQuery query = new DbQuery(database.getDataSource());
+        query.setTableName("MediaEntry");
+        return query;
+    }
+
+    private static void setColumns(DbQuery query) {
+        query.setColumnValue("title", "Benchmark Title");
+        query.setColumnValue("username", BenchmarkDatabase.USERNAME);
+        query.setColumnValue("type", "tv");
+        query.setColumnValue("platform", "Netflix");
+        query.setColumnValue("description", "A description long enough to look realistic.");
+        query.setColumnValue("imageUrl", "https://images.example.com/benchmark.jpg");
+        query.setColumnValue("watched", false);
+    }
+}
@@ -0,0 +1,71 @@
+package com.t8webs.tvtrackerapi.benchmarks;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serializing a user's media entries the way the controller does, as a whole list for /getMediaEntries
+ * and one entry at a time for /exportMediaEntries
+ * <p>
+ *     The ObjectMapper is configured like Spring Boot's. Run with -prof gc to report allocation per operation.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MediaEntryJsonBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int entries;
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private List<MediaEntry> mediaEntries;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mediaEntries = new ArrayList<>();
+        for (int i = 0; i < entries; i++) {
+            MediaEntry mediaEntry = new MediaEntry();
+            mediaEntry.setId(i + 1);
+            mediaEntry.setTitle("Title " + i);
+            mediaEntry.setUsername(BenchmarkDatabase.USERNAME);
+            mediaEntry.setType(i % 3 == 0 ? "movie" : "tv");
+            mediaEntry.setPlatform(i % 2 == 0 ? "Netflix" : "Hulu");
+            mediaEntry.setDescription("A description of title number " + i + " long enough to look realistic.");
+            mediaEntry.setImageUrl("https://images.example.com/" + i + ".jpg");
+            mediaEntry.setWatched(i % 4 == 0);
+            mediaEntry.setChangeSeq(i + 1);
+            mediaEntries.add(mediaEntry);
+        }
+    }
+
+    @Benchmark
+    public byte[] writeList() throws IOException {
+        return objectMapper.writeValueAsBytes(mediaEntries);
+    }
+
+    @Benchmark
+    public byte[] streamEntries() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.setRootValueSeparator(null);
+            for (MediaEntry mediaEntry : mediaEntries) {
+                generator.writeObject(mediaEntry);
+                generator.writeRaw('\n');
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,84 @@
+package com.t8webs.tvtrackerapi.benchmarks;
+
+import com.t8webs.tvtrackerapi.enterprise.dao.DbQuery;
+import com.t8webs.tvtrackerapi.enterprise.dao.MediaEntryRowMapper;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the HashMap-per-row result path with RowMapper for a user's media entries
+ * <p>
+ *     Run with -prof gc to report allocation per operation.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RowMappingBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    int rows;
+
+    private BenchmarkDatabase database;
+
+    private final MediaEntryRowMapper rowMapper = new MediaEntryRowMapper();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase();
+        database.seedMediaEntries(rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public List<MediaEntry> hashMapRows() {
+        DbQuery query = newQuery();
+        query.addWhere("username", BenchmarkDatabase.USERNAME);
+        return parse(query.select());
+    }
+
+    @Benchmark
+    public List<MediaEntry> rowMapper() {
+        DbQuery query = newQuery();
+        query.addWhere("username", BenchmarkDatabase.USERNAME);
+        return query.select(rowMapper);
+    }
+
+    private DbQuery newQuery() {
+        DbQuery query = new DbQuery(database.getDataSource());
+        query.setTableName("MediaEntry");
+        return query;
+    }
+
+    /**
+     * The string keyed parse MediaEntryDAO used before RowMapper
+     */
+    private static List<MediaEntry> parse(ArrayList<HashMap<String, Object>> results) {
+        ArrayList<MediaEntry> mediaEntries = new ArrayList<>();
+        for (HashMap<String, Object> valuesMap: results) {
+            MediaEntry mediaEntry = new MediaEntry();
+            mediaEntry.setId((Integer) valuesMap.get("id"));
+            mediaEntry.setTitle((String) valuesMap.get("title"));
+            mediaEntry.setType((String) valuesMap.get("type"));
+            mediaEntry.setPlatform((String) valuesMap.get("platform"));
+            mediaEntry.setDescription((String) valuesMap.get("description"));
+            mediaEntry.setImageUrl((String) valuesMap.get("imageUrl"));
+            mediaEntry.setWatched((Boolean) valuesMap.get("watched"));
+            mediaEntry.setUsername((String) valuesMap.get("username"));
+            mediaEntries.add(mediaEntry);
+        }
+        return mediaEntries;
+    }
+}
@@ -0,0 +1,119 @@
+package com.t8webs.tvtrackerapi.benchmarks;
+
+import com.t8webs.tvtrackerapi.enterprise.cache.CacheInvalidationBus;
+import com.t8webs.tvtrackerapi.enterprise.dao.IUserAccountDAO;
+import com.t8webs.tvtrackerapi.enterprise.dao.ReplicaRouter;
+import com.t8webs.tvtrackerapi.enterprise.dao.ShardRouter;
+import com.t8webs.tvtrackerapi.enterprise.dao.UserAccountDAO;
+import com.t8webs.tvtrackerapi.enterprise.dto.UserAccount;
+import com.t8webs.tvtrackerapi.enterprise.dto.UserSession;
+import com.t8webs.tvtrackerapi.enterprise.service.RequestCoalescer;
+import com.t8webs.tvtrackerapi.enterprise.service.TokenSigner;
+import com.t8webs.tvtrackerapi.enterprise.service.UserAccountService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.security.SecureRandom;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures issuing and checking tokens in UserAccountService, for random tokens found in the session cache, for
+ * a token compared against a loaded UserAccount, and for signed tokens
+ * <p>
+ *     The services are wired by a Spring context over a {@link BenchmarkDatabase}, as the application wires them.
+ *     Run with -prof gc to report allocation per operation.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TokenBenchmark {
+
+    private static final String USERNAME = BenchmarkDatabase.USERNAME;
+
+    private BenchmarkDatabase database;
+    private AnnotationConfigApplicationContext context;
+    private UserAccountService userAccountService;
+    private TokenSigner tokenSigner;
+
+    private UserAccount userAccount;
+    private String sessionToken;
+    private String signedToken;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = new BenchmarkDatabase();
+
+        context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", Map.of(
+                "tvtracker.node-id", "bench",
+                "tvtracker.token.mode", "signed",
+                "tvtracker.token.keys", "bench:" + Base64.getEncoder().encodeToString(new byte[32]))));
+        context.registerBean(CacheManager.class, () -> new CaffeineCacheManager());
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        context.registerBean(ShardRouter.class, () -> new ShardRouter(
+                List.of(new ReplicaRouter(database.getDataSource(), Map.of(), "bench", 1000)), 128, 0));
+        context.registerBean(IUserAccountDAO.class, UserAccountDAO::new);
+        context.registerBean(CacheInvalidationBus.class);
+        context.registerBean(RequestCoalescer.class);
+        context.registerBean(TokenSigner.class);
+        context.registerBean(UserAccountService.class);
+        context.refresh();
+
+        userAccountService = context.getBean(UserAccountService.class);
+        tokenSigner = context.getBean(TokenSigner.class);
+
+        byte[] randomBytes = new byte[24];
+        new SecureRandom().nextBytes(randomBytes);
+        Instant expiresAt = Instant.now().plus(Duration.ofHours(1));
+        sessionToken = Base64.getUrlEncoder().encodeToString(randomBytes);
+        signedToken = tokenSigner.issue(USERNAME, expiresAt);
+        context.getBean(CacheManager.class).getCache("userSessions")
+                .put(USERNAME, new UserSession(USERNAME, sessionToken, expiresAt));
+
+        userAccount = new UserAccount();
+        userAccount.setUsername(USERNAME);
+        userAccount.setToken(sessionToken);
+        userAccount.setLastLogin(new Timestamp(System.currentTimeMillis()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        database.close();
+    }
+
+    @Benchmark
+    public String issueSignedToken() {
+        return tokenSigner.issue(USERNAME, Instant.now().plus(Duration.ofHours(1)));
+    }
+
+    @Benchmark
+    public boolean isTokenValidFromSession() throws Exception {
+        return userAccountService.isTokenValid(USERNAME, sessionToken);
+    }
+
+    @Benchmark
+    public boolean isTokenValidForAccount() throws Exception {
+        return userAccountService.isTokenValid(userAccount, sessionToken);
+    }
+
+    @Benchmark
+    public boolean isTokenValidSigned() throws Exception {
+        return userAccountService.isTokenValid(USERNAME, signedToken);
+    }
+}
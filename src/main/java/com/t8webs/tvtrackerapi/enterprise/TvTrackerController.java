@@ -1,10 +1,29 @@
 package com.t8webs.tvtrackerapi.enterprise;
 
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.t8webs.tvtrackerapi.enterprise.cache.CacheInvalidationBus;
+import com.t8webs.tvtrackerapi.enterprise.config.CacheStatistics;
+import com.t8webs.tvtrackerapi.enterprise.dao.DbConcurrencyLimiter;
+import com.t8webs.tvtrackerapi.enterprise.dao.DbPoolMetrics;
+import com.t8webs.tvtrackerapi.enterprise.dao.ShardRouter;
+import com.t8webs.tvtrackerapi.enterprise.dao.SlowQueryLog;
 import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryChanges;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryFilter;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryVersion;
 import com.t8webs.tvtrackerapi.enterprise.dto.UserAccount;
+import com.t8webs.tvtrackerapi.enterprise.service.DbExecutor;
+import com.t8webs.tvtrackerapi.enterprise.service.IMediaEntryAsyncService;
 import com.t8webs.tvtrackerapi.enterprise.service.IMediaEntryService;
+import com.t8webs.tvtrackerapi.enterprise.service.IUserAccountAsyncService;
 import com.t8webs.tvtrackerapi.enterprise.service.IUserAccountService;
+import com.t8webs.tvtrackerapi.enterprise.service.MediaEntryImporter;
+import com.t8webs.tvtrackerapi.enterprise.service.RequestCoalescer;
+import com.t8webs.tvtrackerapi.enterprise.trace.TraceCollector;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,10 +33,18 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * The controller for Tv Tracker REST endpoints and web UI.
@@ -35,9 +62,41 @@ public class TvTrackerController {
     IUserAccountService userAccountService;
     @Autowired
     IMediaEntryService mediaEntryService;
+    @Autowired
+    IUserAccountAsyncService userAccountAsyncService;
+    @Autowired
+    IMediaEntryAsyncService mediaEntryAsyncService;
+    @Autowired
+    DbExecutor dbExecutor;
+    @Autowired
+    MediaEntryImporter mediaEntryImporter;
+    @Autowired
+    DbPoolMetrics dbPoolMetrics;
+    @Autowired
+    ObjectMapper objectMapper;
+    @Autowired
+    CacheStatistics cacheStatistics;
+    @Autowired
+    RequestCoalescer requestCoalescer;
+    @Autowired
+    CacheInvalidationBus cacheInvalidationBus;
+    @Autowired
+    ShardRouter shardRouter;
+    @Autowired
+    DbConcurrencyLimiter dbConcurrencyLimiter;
+    @Autowired(required = false)
+    PrometheusMeterRegistry prometheusMeterRegistry;
+    @Autowired
+    SlowQueryLog slowQueryLog;
+    @Autowired
+    TraceCollector traceCollector;
 
     Logger log = LoggerFactory.getLogger(this.getClass());
 
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int MAX_BATCH_SIZE = 500;
+
     @GetMapping("/_status/healthz")
     public ResponseEntity readinessProbe() {
         HttpHeaders headers = new HttpHeaders();
@@ -45,6 +104,152 @@ public class TvTrackerController {
         return new ResponseEntity(headers, HttpStatus.OK);
     }
 
+    /**
+     * Returns database connection pool statistics
+     *
+     * @return active, idle and pending connection counts along with wait times and timeouts
+     */
+    @GetMapping("/_status/pool")
+    public ResponseEntity poolStatus() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new ResponseEntity(dbPoolMetrics.snapshot(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Returns cache statistics
+     *
+     * @return size, hit, miss and eviction counts for each cache
+     */
+    @GetMapping("/_status/caches")
+    public ResponseEntity cacheStatus() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new ResponseEntity(cacheStatistics.snapshot(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Returns request coalescing statistics
+     *
+     * @return number of database loads run and of concurrent duplicate loads avoided, for each kind of load
+     */
+    @GetMapping("/_status/loads")
+    public ResponseEntity loadStatus() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new ResponseEntity(requestCoalescer.snapshot(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Returns cross-node cache invalidation statistics
+     *
+     * @return queued, coalesced, published and received invalidation counts
+     */
+    @GetMapping("/_status/invalidations")
+    public ResponseEntity invalidationStatus() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new ResponseEntity(cacheInvalidationBus.snapshot(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Returns read replica statistics
+     *
+     * @return lag and read counts for each replica, and the reasons reads fell back to the primary, for each shard
+     */
+    @GetMapping("/_status/replicas")
+    public ResponseEntity replicaStatus() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new ResponseEntity(shardRouter.replicaSnapshot(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Returns shard statistics
+     *
+     * @return shard counts and the number of users moved by an ongoing rebalance
+     */
+    @GetMapping("/_status/shards")
+    public ResponseEntity shardStatus() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new ResponseEntity(shardRouter.snapshot(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Returns database concurrency limit statistics
+     *
+     * @return permits in use, waiting threads and wait times, along with rejected and timed out waits
+     */
+    @GetMapping("/_status/db-concurrency")
+    public ResponseEntity dbConcurrencyStatus() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new ResponseEntity(dbConcurrencyLimiter.snapshot(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Returns statistics of the executor running async service calls
+     *
+     * @return active threads, queued calls, and submitted, completed, rejected and failed call counts
+     */
+    @GetMapping("/_status/db-executor")
+    public ResponseEntity dbExecutorStatus() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new ResponseEntity(dbExecutor.snapshot(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Returns the slowest and most frequent statements, grouped by fingerprint
+     *
+     * @param limit number of fingerprints to list in each table
+     * @return run counts, slow run counts, rows, and mean and max times with the mean of each phase, for each
+     * fingerprint
+     */
+    @GetMapping("/_status/slow-queries")
+    public ResponseEntity slowQueryStatus(@RequestParam(value="limit", defaultValue="20") int limit) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new ResponseEntity(slowQueryLog.snapshot(Math.max(0, Math.min(limit, 500))), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Returns the most recent sampled request traces, newest first
+     *
+     * @param limit number of traces to return
+     * @param minMillis shortest request duration to return
+     * @param traceId id of one trace to return, as given in a response's X-Trace-Id header
+     * @return span counts and, for each trace, its spans ordered by start time
+     */
+    @GetMapping("/_status/traces")
+    public ResponseEntity traces(@RequestParam(value="limit", defaultValue="20") int limit,
+                                 @RequestParam(value="minMillis", defaultValue="0") long minMillis,
+                                 @RequestParam(value="traceId", required=false) String traceId) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new ResponseEntity(traceCollector.snapshot(Math.max(0, Math.min(limit, 200)), minMillis, traceId), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Returns metrics in the Prometheus text format
+     *
+     * Returns one of the following status codes:
+     * 200: metrics were written.
+     * 404: Prometheus export is disabled.
+     *
+     * @return request, statement, connection pool, cache and token check metrics
+     */
+    @GetMapping("/_status/metrics")
+    public ResponseEntity metrics() {
+        if(prometheusMeterRegistry == null)
+            return new ResponseEntity(HttpStatus.NOT_FOUND);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.parseMediaType(TextFormat.CONTENT_TYPE_004));
+        return new ResponseEntity(prometheusMeterRegistry.scrape(), headers, HttpStatus.OK);
+    }
+
     /**
      * Create a new user account record from the user account data provided.
      *
@@ -138,42 +343,166 @@ public class TvTrackerController {
     }
 
     /**
-     * Returns all media entries tied to the given username
+     * Revoke the user's session token
      *
-     * 200: successfully returned media entry records.
+     * Returns one of the following status codes:
+     * 200: token revoked.
      * 401: authentication token is invalid.
      * 500: SQL Database error occurred.
      *
      * @param username String uniquely identifying a user
-     * @return List user's media entries
+     * @param token session token to revoke
+     * @return HttpStatus
      */
-    @GetMapping("/getMediaEntries")
-    public ResponseEntity getUsersMediaEntries(@RequestParam(value="username", required=true) String username, @RequestParam(value="token", required=true) String token) {
+    @PostMapping("/logout")
+    public ResponseEntity logoutUser(@RequestParam(value="username", required=true) String username, @RequestParam(value="token", required=true) String token) {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
-        List<MediaEntry> mediaEntries;
-        log.debug("Entering retrieve user media entries endpoint.");
+        log.debug("Entering logout endpoint.");
 
         try {
-            // authenticate request
-            if (isTokenInvalid(username, token)) {
+            if (!userAccountService.revokeToken(username, token)) {
                 log.info("Unauthorized token");
                 return new ResponseEntity(headers, HttpStatus.UNAUTHORIZED);
             }
-
-            mediaEntries = mediaEntryService.fetchMediaEntriesByUsername(username);
-
         } catch (Exception e) {
-            log.error("There was a problem retrieving media entries. Message: " + e.getMessage(), e);
+            log.error("There was a problem revoking the token. Message: " + e.getMessage(), e);
             return new ResponseEntity(headers, HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
-        if (mediaEntries == null) {
-            log.info("Null entry received.");
-            return new ResponseEntity(headers, HttpStatus.INTERNAL_SERVER_ERROR);
+        log.info("Token revoked.");
+        return new ResponseEntity(headers, HttpStatus.OK);
+    }
+
+    /**
+     * Returns all media entries tied to the given username
+     *
+     * When any of limit, after, orderBy, watched, type or platform is given, a single page is returned instead,
+     * holding at most limit entries and a next cursor to pass as after for the following page.
+     *
+     * Responses carry an ETag and Last-Modified for the user's current entries. A matching If-None-Match is
+     * answered with 304 without loading the entries, and a matching If-Modified-Since with 304 and no body.
+     *
+     * The token is checked on the DbExecutor, releasing the servlet thread, and only a valid token leads to
+     * reading the version and fetching the entries.
+     *
+     * 200: successfully returned media entry records.
+     * 304: entries have not changed since the client's copy.
+     * 400: malformed cursor or unsupported sort column.
+     * 401: authentication token is invalid.
+     * 500: SQL Database error occurred.
+     * 503: too many database calls are queued.
+     *
+     * @param username String uniquely identifying a user
+     * @param limit maximum number of entries in a page
+     * @param after cursor returned as next by the previous page
+     * @param orderBy sort column, id or title
+     * @param watched only return entries with this watched value
+     * @param type only return entries of this type
+     * @param platform only return entries on this platform
+     * @return List user's media entries, or a page of them
+     */
+    @GetMapping("/getMediaEntries")
+    public CompletableFuture<ResponseEntity> getUsersMediaEntries(@RequestParam(value="username", required=true) String username, @RequestParam(value="token", required=true) String token,
+                                               @RequestParam(value="limit", required=false) Integer limit, @RequestParam(value="after", required=false) String after,
+                                               @RequestParam(value="orderBy", required=false) String orderBy, @RequestParam(value="watched", required=false) Boolean watched,
+                                               @RequestParam(value="type", required=false) String type, @RequestParam(value="platform", required=false) String platform,
+                                               WebRequest webRequest) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        log.debug("Entering retrieve user media entries endpoint.");
+
+        MediaEntryFilter filter = null;
+        if (limit != null || after != null || orderBy != null || watched != null || type != null || platform != null) {
+            filter = new MediaEntryFilter();
+            filter.setUsername(username);
+            filter.setLimit(limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+            filter.setAfter(after);
+            filter.setOrderBy(orderBy == null ? "id" : orderBy);
+            filter.setWatched(watched);
+            filter.setType(type);
+            filter.setPlatform(platform);
         }
 
-        return new ResponseEntity(mediaEntries, headers, HttpStatus.OK);
+        MediaEntryFilter pageFilter = filter;
+        String ifNoneMatch = webRequest.getHeader(HttpHeaders.IF_NONE_MATCH);
+
+        // nothing is read or cached for the user until the token is known to be valid
+        return userAccountAsyncService.isTokenValid(username, token).thenCompose(valid -> {
+            if (!valid) {
+                log.info("Unauthorized token");
+                return CompletableFuture.completedFuture(new ResponseEntity(headers, HttpStatus.UNAUTHORIZED));
+            }
+
+            // the version is read before the entries, so it is never newer than the data it is sent with
+            MediaEntryVersion version = mediaEntryService.fetchMediaEntriesVersion(username);
+            String etag = "\"" + version.getTag() + (pageFilter == null ? "" : "-" + Integer.toHexString(pageFilter.hashCode())) + "\"";
+
+            // If-Modified-Since is compared by Spring once the response carries these headers
+            headers.setETag(etag);
+            headers.setLastModified(version.getLastModified());
+
+            if (matchesEtag(ifNoneMatch, etag)) {
+                return CompletableFuture.completedFuture(new ResponseEntity(headers, HttpStatus.NOT_MODIFIED));
+            }
+
+            CompletableFuture<?> entries = pageFilter == null ? mediaEntryAsyncService.fetchMediaEntriesByUsername(username)
+                    : mediaEntryAsyncService.fetchMediaEntryPage(pageFilter);
+
+            return entries.thenApply(mediaEntries -> {
+                if (mediaEntries == null) {
+                    log.info("Null entry received.");
+                    return new ResponseEntity(headers, HttpStatus.INTERNAL_SERVER_ERROR);
+                }
+
+                return new ResponseEntity(mediaEntries, headers, HttpStatus.OK);
+            });
+        }).exceptionally(e -> {
+            Throwable cause = unwrap(e);
+            if (cause instanceof IllegalArgumentException) {
+                log.info("Bad page request. Message: " + cause.getMessage());
+                return new ResponseEntity(headers, HttpStatus.BAD_REQUEST);
+            }
+            return asyncFailure(cause, headers, "There was a problem retrieving media entries.");
+        });
+    }
+
+    /**
+     * Returns the changes to a user's media entries after a watermark
+     *
+     * Clients keep the watermark from each response and pass it as since on the next sync, receiving only the
+     * entries inserted or updated and the ids deleted in between. A sync starting from 0 returns every entry.
+     * When more is true, the client should repeat the request with the new watermark.
+     *
+     * 200: successfully returned the changes.
+     * 401: authentication token is invalid.
+     * 500: SQL Database error occurred.
+     * 503: too many database calls are queued.
+     *
+     * @param username String uniquely identifying a user
+     * @param since watermark returned by the previous sync
+     * @param limit maximum number of upserts and deletions combined
+     * @return MediaEntryChanges holding upserts, deletions, the new watermark and whether more remain
+     */
+    @GetMapping("/mediaEntries/changes")
+    public CompletableFuture<ResponseEntity> getMediaEntryChanges(@RequestParam(value="username", required=true) String username, @RequestParam(value="token", required=true) String token,
+                                               @RequestParam(value="since", defaultValue="0") long since, @RequestParam(value="limit", required=false) Integer limit) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        log.debug("Entering media entry changes endpoint.");
+
+        int pageSize = limit == null ? MAX_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+
+        // authenticate request
+        return userAccountAsyncService.isTokenValid(username, token).thenCompose(valid -> {
+            if (!valid) {
+                log.info("Unauthorized token");
+                return CompletableFuture.completedFuture(new ResponseEntity(headers, HttpStatus.UNAUTHORIZED));
+            }
+
+            return mediaEntryAsyncService.fetchMediaEntryChanges(username, Math.max(0, since), pageSize)
+                    .thenApply(changes -> new ResponseEntity(changes, headers, HttpStatus.OK));
+        }).exceptionally(e -> asyncFailure(unwrap(e), headers, "There was a problem retrieving media entry changes."));
     }
 
     /**
@@ -184,113 +513,394 @@ public class TvTrackerController {
      * 400: failed to update media entry.
      * 401: authentication token is invalid.
      * 500: SQL Database error occurred.
+     * 503: too many database calls are queued.
      *
      * @param mediaEntry a JSON representation of a MediaEntry object
      * @return HttpStatus
      */
     @PutMapping(value="/editMediaEntry", consumes="application/json", produces="application/json")
-    public ResponseEntity editMediaEntry(@RequestBody MediaEntry mediaEntry, @RequestParam(value="username", required=true) String username, @RequestParam(value="token", required=true) String token) {
+    public CompletableFuture<ResponseEntity> editMediaEntry(@RequestBody MediaEntry mediaEntry, @RequestParam(value="username", required=true) String username, @RequestParam(value="token", required=true) String token) {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
         log.debug("Entering Edit Media Entry endpoint.");
 
+        // authenticate request
+        return userAccountAsyncService.isTokenValid(username, token).thenCompose(valid -> {
+            if (!valid) {
+                log.info("Unauthorized token");
+                return CompletableFuture.completedFuture(new ResponseEntity(headers, HttpStatus.UNAUTHORIZED));
+            }
+
+            return mediaEntryAsyncService.updateMediaEntry(mediaEntry).thenApply(updated -> {
+                if (!updated) {
+                    log.info("Bad HTTP Request");
+                    return new ResponseEntity(headers, HttpStatus.BAD_REQUEST);
+                }
+
+                log.info("Entry updated!");
+                return new ResponseEntity(headers, HttpStatus.OK);
+            });
+        }).exceptionally(e -> asyncFailure(unwrap(e), headers, "There was a problem editing media entry."));
+    }
+
+    /**
+     * Delete media entry record
+     *
+     * Returns one of the following status codes:
+     * 200: successfully deleted media entry.
+     * 400: failed to delete media entry.
+     * 401: authentication token is invalid.
+     * 500: SQL Database error occurred.
+     * 503: too many database calls are queued.
+     *
+     * @param mediaEntry a JSON representation of a MediaEntry object
+     * @return HttpStatus
+     */
+    @DeleteMapping("/removeMediaEntry")
+    public CompletableFuture<ResponseEntity> removeMediaEntry(@RequestBody MediaEntry mediaEntry, @RequestParam(value="username", required=true) String username, @RequestParam(value="token", required=true) String token) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        log.debug("Entering delete media entry endpoint");
+
+        // authenticate request
+        return userAccountAsyncService.isTokenValid(username, token).thenCompose(valid -> {
+            if (!valid || !username.equals(mediaEntry.getUsername())) {
+                log.info("Unauthorized token");
+                return CompletableFuture.completedFuture(new ResponseEntity(headers, HttpStatus.UNAUTHORIZED));
+            }
+
+            return mediaEntryAsyncService.deleteMediaEntry(mediaEntry).thenApply(deleted -> {
+                if (!deleted) {
+                    log.info("Bad HTTP Request");
+                    return new ResponseEntity(headers, HttpStatus.BAD_REQUEST);
+                }
+
+                log.info("Media entry with ID " + mediaEntry.getId() + " was deleted successfully.");
+                return new ResponseEntity(headers, HttpStatus.OK);
+            });
+        }).exceptionally(e -> asyncFailure(unwrap(e), headers, "Unable to delete the media entry with ID " + mediaEntry.getId() + "."));
+    }
+
+    /**
+     * Create a new media entry record
+     *
+     * Returns one of the following status codes:
+     * 201: successfully created media entry.
+     * 400: failed to create media entry.
+     * 401: authentication token is invalid.
+     * 500: SQL Database error occurred.
+     * 503: too many database calls are queued.
+     *
+     * @param mediaEntry a JSON representation of a MediaEntry object
+     * @return HttpStatus
+     */
+    @PostMapping(value="/addMediaEntry", consumes="application/json", produces="application/json")
+    public CompletableFuture<ResponseEntity> addMediaEntry(@RequestBody MediaEntry mediaEntry, @RequestParam(value="username", required=true) String username, @RequestParam(value="token", required=true) String token) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        log.debug("Entering Add Media Entry endpoint.");
+
+        // authenticate request
+        return userAccountAsyncService.isTokenValid(username, token).thenCompose(valid -> {
+            if (!valid) {
+                log.info("Unauthorized token.");
+                return CompletableFuture.completedFuture(new ResponseEntity(headers, HttpStatus.UNAUTHORIZED));
+            }
+
+            return mediaEntryAsyncService.createMediaEntry(mediaEntry).thenApply(created -> {
+                if (!created) {
+                    log.info("Bad HTTP Request.");
+                    return new ResponseEntity(headers, HttpStatus.BAD_REQUEST);
+                }
+
+                log.info("Entry created!");
+                return new ResponseEntity(headers, HttpStatus.CREATED);
+            });
+        }).exceptionally(e -> asyncFailure(unwrap(e), headers, "Unable to add the media entry."));
+    }
+
+    /**
+     * Create many media entry records for the user in a single transaction
+     *
+     * Returns one of the following status codes:
+     * 200: batch processed, the body holds a success flag for each entry in request order.
+     * 400: empty batch or more than 500 entries.
+     * 401: authentication token is invalid.
+     * 500: SQL Database error occurred.
+     *
+     * @param mediaEntries a JSON array of MediaEntry objects
+     * @return JSON array of booleans indicating which entries were created
+     */
+    @PostMapping(value="/addMediaEntries", consumes="application/json", produces="application/json")
+    public ResponseEntity addMediaEntries(@RequestBody List<MediaEntry> mediaEntries, @RequestParam(value="username", required=true) String username, @RequestParam(value="token", required=true) String token) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        boolean[] results;
+        log.debug("Entering Add Media Entries endpoint.");
+
         try {
             // authenticate request
             if (isTokenInvalid(username, token)) {
-                log.info("Unauthorized token");
+                log.info("Unauthorized token.");
                 return new ResponseEntity(headers, HttpStatus.UNAUTHORIZED);
             }
 
-            if (!mediaEntryService.updateMediaEntry(mediaEntry)) {
-                log.info("Bad HTTP Request");
+            if (mediaEntries == null || mediaEntries.isEmpty() || mediaEntries.size() > MAX_BATCH_SIZE) {
+                log.info("Bad HTTP Request.");
                 return new ResponseEntity(headers, HttpStatus.BAD_REQUEST);
             }
+
+            results = mediaEntryService.createMediaEntries(username, mediaEntries);
         } catch (Exception e) {
-            log.error("There was a problem editing media entry. Message: " + e.getMessage(), e);
+            log.error("Unable to add the media entries. Message: " + e.getMessage(), e);
             return new ResponseEntity(headers, HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
-        log.info("Entry updated!");
-        return new ResponseEntity(headers, HttpStatus.OK);
+        log.info(mediaEntries.size() + " entries processed!");
+        return new ResponseEntity(results, headers, HttpStatus.OK);
     }
 
     /**
-     * Delete media entry record
+     * Update many of the user's media entry records in a single transaction
      *
      * Returns one of the following status codes:
-     * 200: successfully deleted media entry.
-     * 400: failed to delete media entry.
+     * 200: batch processed, the body holds a success flag for each entry in request order.
+     * 400: empty batch or more than 500 entries.
      * 401: authentication token is invalid.
      * 500: SQL Database error occurred.
      *
-     * @param mediaEntry a JSON representation of a MediaEntry object
-     * @return HttpStatus
+     * @param mediaEntries a JSON array of MediaEntry objects
+     * @return JSON array of booleans indicating which entries were updated
      */
-    @DeleteMapping("/removeMediaEntry")
-    public ResponseEntity removeMediaEntry(@RequestBody MediaEntry mediaEntry, @RequestParam(value="username", required=true) String username, @RequestParam(value="token", required=true) String token) {
+    @PutMapping(value="/editMediaEntries", consumes="application/json", produces="application/json")
+    public ResponseEntity editMediaEntries(@RequestBody List<MediaEntry> mediaEntries, @RequestParam(value="username", required=true) String username, @RequestParam(value="token", required=true) String token) {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
-        log.debug("Entering delete media entry endpoint");
+        boolean[] results;
+        log.debug("Entering Edit Media Entries endpoint.");
 
         try {
             // authenticate request
-            if (isTokenInvalid(username, token) || !mediaEntry.getUsername().equals(username)) {
+            if (isTokenInvalid(username, token)) {
                 log.info("Unauthorized token");
                 return new ResponseEntity(headers, HttpStatus.UNAUTHORIZED);
             }
 
-            if (!mediaEntryService.deleteMediaEntry(mediaEntry)) {
+            if (mediaEntries == null || mediaEntries.isEmpty() || mediaEntries.size() > MAX_BATCH_SIZE) {
                 log.info("Bad HTTP Request");
                 return new ResponseEntity(headers, HttpStatus.BAD_REQUEST);
             }
+
+            results = mediaEntryService.updateMediaEntries(username, mediaEntries);
         } catch (Exception e) {
-            log.error("Unable to delete the media entry with ID " + mediaEntry.getId() + ", message: " + e.getMessage(), e);
+            log.error("There was a problem editing media entries. Message: " + e.getMessage(), e);
             return new ResponseEntity(headers, HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
-        log.info("Media entry with ID " + mediaEntry.getId() + " was deleted successfully.");
-        return new ResponseEntity(headers, HttpStatus.OK);
+        log.info(mediaEntries.size() + " entries processed!");
+        return new ResponseEntity(results, headers, HttpStatus.OK);
     }
 
     /**
-     * Create a new media entry record
+     * Delete many of the user's media entry records in a single transaction
      *
      * Returns one of the following status codes:
-     * 201: successfully created media entry.
-     * 400: failed to create media entry.
+     * 200: batch processed, the body holds a success flag for each entry in request order.
+     * 400: empty batch or more than 500 entries.
      * 401: authentication token is invalid.
      * 500: SQL Database error occurred.
      *
-     * @param mediaEntry a JSON representation of a MediaEntry object
-     * @return HttpStatus
+     * @param mediaEntries a JSON array of MediaEntry objects
+     * @return JSON array of booleans indicating which entries were deleted
      */
-    @PostMapping(value="/addMediaEntry", consumes="application/json", produces="application/json")
-    public ResponseEntity addMediaEntry(@RequestBody MediaEntry mediaEntry, @RequestParam(value="username", required=true) String username, @RequestParam(value="token", required=true) String token) {
+    @DeleteMapping(value="/removeMediaEntries", consumes="application/json", produces="application/json")
+    public ResponseEntity removeMediaEntries(@RequestBody List<MediaEntry> mediaEntries, @RequestParam(value="username", required=true) String username, @RequestParam(value="token", required=true) String token) {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
-        log.debug("Entering Add Media Entry endpoint.");
+        boolean[] results;
+        log.debug("Entering delete media entries endpoint");
 
         try {
             // authenticate request
             if (isTokenInvalid(username, token)) {
-                log.info("Unauthorized token.");
+                log.info("Unauthorized token");
                 return new ResponseEntity(headers, HttpStatus.UNAUTHORIZED);
             }
 
-            if (!mediaEntryService.createMediaEntry(mediaEntry)) {
-                log.info("Bad HTTP Request.");
+            if (mediaEntries == null || mediaEntries.isEmpty() || mediaEntries.size() > MAX_BATCH_SIZE) {
+                log.info("Bad HTTP Request");
                 return new ResponseEntity(headers, HttpStatus.BAD_REQUEST);
             }
+
+            results = mediaEntryService.deleteMediaEntries(username, mediaEntries);
         } catch (Exception e) {
-            log.error("Unable to add the media entry. Message: " + e.getMessage(), e);
+            log.error("Unable to delete media entries, message: " + e.getMessage(), e);
             return new ResponseEntity(headers, HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
-        log.info("Entry created!");
-        return new ResponseEntity(headers, HttpStatus.CREATED);
+        log.info(mediaEntries.size() + " entries processed!");
+        return new ResponseEntity(results, headers, HttpStatus.OK);
+    }
+
+    /**
+     * Import media entries from a newline-delimited JSON body, one MediaEntry object per line
+     *
+     * The body is read as a stream and saved in fixed-size chunks. The response is newline-delimited JSON holding
+     * a record for each line that failed, a progress record after each chunk and a final summary record.
+     *
+     * Returns one of the following status codes:
+     * 200: import ran, see the streamed records for the outcome of each line.
+     * 401: authentication token is invalid.
+     * 500: SQL Database error occurred.
+     *
+     * @param username String uniquely identifying a user
+     */
+    @PostMapping(value="/importMediaEntries", consumes="application/x-ndjson")
+    public void importMediaEntries(HttpServletRequest request, HttpServletResponse response, @RequestParam(value="username", required=true) String username, @RequestParam(value="token", required=true) String token) throws IOException {
+        log.debug("Entering import media entries endpoint.");
+
+        try {
+            // authenticate request
+            if (isTokenInvalid(username, token)) {
+                log.info("Unauthorized token.");
+                response.setStatus(HttpStatus.UNAUTHORIZED.value());
+                return;
+            }
+        } catch (Exception e) {
+            log.error("Unable to authenticate the import. Message: " + e.getMessage(), e);
+            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            return;
+        }
+
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        if (request.getCharacterEncoding() == null) {
+            request.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        }
+
+        Writer progress = response.getWriter();
+        mediaEntryImporter.importEntries(username, request.getReader(), progress);
+
+        log.info("Import finished for " + username);
+    }
+
+    /**
+     * Export all media entries tied to the given username, streamed straight from the database
+     *
+     * The entries are written as they are read, so memory use does not grow with the size of the library.
+     * format=json (the default) writes a JSON array, format=ndjson writes one MediaEntry object per line.
+     *
+     * Returns one of the following status codes:
+     * 200: entries streamed.
+     * 400: unsupported format.
+     * 401: authentication token is invalid.
+     * 500: SQL Database error occurred before streaming began.
+     *
+     * @param username String uniquely identifying a user
+     * @param format json or ndjson
+     */
+    @GetMapping("/exportMediaEntries")
+    public void exportMediaEntries(HttpServletResponse response, @RequestParam(value="username", required=true) String username, @RequestParam(value="token", required=true) String token,
+                                   @RequestParam(value="format", defaultValue="json") String format) throws IOException {
+        log.debug("Entering export media entries endpoint.");
+        boolean ndjson = format.equalsIgnoreCase("ndjson");
+
+        if (!ndjson && !format.equalsIgnoreCase("json")) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            return;
+        }
+
+        try {
+            // authenticate request
+            if (isTokenInvalid(username, token)) {
+                log.info("Unauthorized token.");
+                response.setStatus(HttpStatus.UNAUTHORIZED.value());
+                return;
+            }
+        } catch (Exception e) {
+            log.error("Unable to authenticate the export. Message: " + e.getMessage(), e);
+            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            return;
+        }
+
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(ndjson ? "application/x-ndjson" : MediaType.APPLICATION_JSON_VALUE);
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            if (ndjson) {
+                // lines are separated explicitly below
+                generator.setRootValueSeparator(null);
+            } else {
+                generator.writeStartArray();
+            }
+
+            long exported = mediaEntryService.exportMediaEntries(username, mediaEntry -> {
+                generator.writeObject(mediaEntry);
+                if (ndjson) {
+                    generator.writeRaw('\n');
+                }
+            });
+
+            if (!ndjson) {
+                generator.writeEndArray();
+            }
+
+            log.info(exported + " entries exported for " + username);
+        } catch (SQLException | ClassNotFoundException e) {
+            // the status is already sent, so the truncated body is the only signal left to the client
+            log.error("Export failed part way for " + username + ". Message: " + e.getMessage(), e);
+        }
     }
 
     private boolean isTokenInvalid(String username, String token) throws SQLException, IOException, ClassNotFoundException {
-        return !userAccountService.isTokenValid(userAccountService.fetchUserAccount(username), token);
+        return !userAccountService.isTokenValid(username, token);
+    }
+
+    /**
+     * @param ifNoneMatch If-None-Match request header, or null
+     * @param etag current ETag of the resource
+     * @return boolean indicating whether the client's copy is current
+     */
+    private static boolean matchesEtag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null)
+            return false;
+
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param e exception an async service call completed with
+     * @return exception thrown by the service method itself
+     */
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    /**
+     * Maps an async service call failure to a response
+     *
+     * 503: the DbExecutor queue is full.
+     * 500: SQL Database error occurred.
+     *
+     * @param cause exception thrown by the service method
+     * @param headers response headers
+     * @param problem sentence logged with the exception
+     * @return ResponseEntity reporting the failure
+     */
+    private ResponseEntity asyncFailure(Throwable cause, HttpHeaders headers, String problem) {
+        if (cause instanceof RejectedExecutionException) {
+            log.warn(problem + " The database executor is saturated.");
+            return new ResponseEntity(headers, HttpStatus.SERVICE_UNAVAILABLE);
+        }
+
+        log.error(problem + " Message: " + cause.getMessage(), cause);
+        return new ResponseEntity(headers, HttpStatus.INTERNAL_SERVER_ERROR);
     }
 }
@@ -0,0 +1,16 @@
+package com.t8webs.tvtrackerapi.enterprise.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Eviction of one key from one cache, sent to peer nodes
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheInvalidation {
+    private String cacheName;
+    private String key;
+}
@@ -0,0 +1,194 @@
+package com.t8webs.tvtrackerapi.enterprise.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Class broadcasting cache evictions to the other nodes behind the load balancer
+ * <p>
+ *     Writes queue an invalidation per cache and key. Queued invalidations are flushed every
+ *     tvtracker.cache.invalidation.flush-interval milliseconds, or as soon as tvtracker.cache.invalidation.max-batch
+ *     are waiting. Repeated invalidations of the same key between flushes are sent once, so a burst of writes by
+ *     one user costs a single message per cache.
+ * </p>
+ * <p>
+ *     Peers evict each received key from the named cache and run any handlers registered for that name. The
+ *     writing node keeps its own, already updated, cache entries. Messages travel over the InvalidationTransport
+ *     bean, or in-process when none is declared.
+ * </p>
+ */
+@Component
+public class CacheInvalidationBus {
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired(required = false)
+    InvalidationTransport transport;
+
+    @Value("${tvtracker.node-id:}")
+    String nodeId;
+
+    @Value("${tvtracker.cache.invalidation.flush-interval:50}")
+    long flushInterval;
+
+    @Value("${tvtracker.cache.invalidation.max-batch:500}")
+    int maxBatch;
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final Set<CacheInvalidation> pending = new LinkedHashSet<>();
+    private final Map<String, List<Consumer<String>>> handlers = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flusher;
+
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder received = new LongAdder();
+
+    @PostConstruct
+    void start() {
+        if(nodeId.isEmpty())
+            nodeId = UUID.randomUUID().toString();
+        if(transport == null)
+            transport = new LoopbackInvalidationTransport();
+
+        transport.subscribe(this::apply);
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cache-invalidation-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        flusher.shutdown();
+        flush();
+    }
+
+    /**
+     * Queues the eviction of a key from a cache on every other node
+     *
+     * @param cacheName name of the cache holding the key
+     * @param key cache key, such as a username
+     */
+    public void invalidate(String cacheName, String key) {
+        if(key == null)
+            return;
+
+        queued.increment();
+
+        boolean full;
+        synchronized (pending) {
+            if(!pending.add(new CacheInvalidation(cacheName, key)))
+                coalesced.increment();
+            full = pending.size() >= maxBatch;
+        }
+
+        if(full && !flusher.isShutdown())
+            flusher.execute(this::flush);
+    }
+
+    /**
+     * Registers work to run when a peer invalidates a key, in addition to evicting it from the named cache
+     *
+     * @param cacheName name of the invalidated cache, which need not exist in the CacheManager
+     * @param handler receiver of each invalidated key
+     */
+    public void onInvalidation(String cacheName, Consumer<String> handler) {
+        handlers.computeIfAbsent(cacheName, name -> new CopyOnWriteArrayList<>()).add(handler);
+    }
+
+    /**
+     * Publishes every queued invalidation, in batches of at most maxBatch
+     */
+    public void flush() {
+        List<CacheInvalidation> drained;
+        synchronized (pending) {
+            if(pending.isEmpty())
+                return;
+            drained = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        for (int start = 0; start < drained.size(); start += maxBatch) {
+            List<CacheInvalidation> batch = drained.subList(start, Math.min(start + maxBatch, drained.size()));
+            try {
+                transport.publish(new InvalidationBatch(nodeId, new ArrayList<>(batch)));
+                published.add(batch.size());
+                batches.increment();
+            } catch (RuntimeException e) {
+                // peers fall back on cache expiry for anything lost here
+                log.error("Unable to publish cache invalidations. Message: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Applies a batch received from the transport, ignoring batches this node published
+     *
+     * @param batch invalidations published by some node
+     */
+    void apply(InvalidationBatch batch) {
+        if(nodeId.equals(batch.getOrigin()))
+            return;
+
+        for (CacheInvalidation invalidation : batch.getInvalidations()) {
+            received.increment();
+
+            // getCache would create caches on demand, so only existing ones are looked up
+            if(cacheManager.getCacheNames().contains(invalidation.getCacheName())) {
+                Cache cache = cacheManager.getCache(invalidation.getCacheName());
+                cache.evict(invalidation.getKey());
+            }
+
+            for (Consumer<String> handler : handlers.getOrDefault(invalidation.getCacheName(), List.of())) {
+                handler.accept(invalidation.getKey());
+            }
+        }
+    }
+
+    /**
+     * @return invalidation counts as key value pairs
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("nodeId", nodeId);
+        values.put("transport", transport.getClass().getSimpleName());
+        values.put("queued", queued.sum());
+        values.put("coalesced", coalesced.sum());
+        values.put("published", published.sum());
+        values.put("batches", batches.sum());
+        values.put("received", received.sum());
+        synchronized (pending) {
+            values.put("pending", pending.size());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,21 @@
+package com.t8webs.tvtrackerapi.enterprise.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Invalidations published together by one node
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InvalidationBatch {
+    /**
+     * Id of the publishing node, which ignores its own batches
+     */
+    private String origin;
+    private List<CacheInvalidation> invalidations;
+}
@@ -0,0 +1,28 @@
+package com.t8webs.tvtrackerapi.enterprise.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * Channel carrying cache invalidations between nodes
+ * <p>
+ *     Declare a bean implementing this interface (for example over Redis pub/sub or a message broker) to replace
+ *     the in-process LoopbackInvalidationTransport. Delivery may be at-most-once, since every cache also expires
+ *     on its own.
+ * </p>
+ */
+public interface InvalidationTransport {
+
+    /**
+     * Sends a batch to every subscribed node, including the publisher
+     *
+     * @param batch invalidations to send
+     */
+    void publish(InvalidationBatch batch);
+
+    /**
+     * Registers a listener for batches published by any node
+     *
+     * @param listener receiver of each batch
+     */
+    void subscribe(Consumer<InvalidationBatch> listener);
+}
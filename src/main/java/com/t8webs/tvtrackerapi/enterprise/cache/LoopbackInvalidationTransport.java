@@ -0,0 +1,29 @@
+package com.t8webs.tvtrackerapi.enterprise.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Transport delivering batches to listeners in the same process
+ * <p>
+ *     Used when no other InvalidationTransport bean is declared, which suits a single node. Sharing one instance
+ *     between several CacheInvalidationBus instances simulates a cluster in tests.
+ * </p>
+ */
+public class LoopbackInvalidationTransport implements InvalidationTransport {
+
+    private final List<Consumer<InvalidationBatch>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(InvalidationBatch batch) {
+        for (Consumer<InvalidationBatch> listener : listeners) {
+            listener.accept(batch);
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<InvalidationBatch> listener) {
+        listeners.add(listener);
+    }
+}
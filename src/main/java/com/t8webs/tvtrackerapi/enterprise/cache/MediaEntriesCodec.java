@@ -0,0 +1,119 @@
+package com.t8webs.tvtrackerapi.enterprise.cache;
+
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntries;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Encodes a user's id-indexed MediaEntry objects
+ * <p>
+ *     The owning username is written once for the whole collection, and each distinct type and platform is
+ *     written once and then referred to by index, since a library repeats a handful of them. The change horizon
+ *     the entries were loaded at is kept alongside them, 0 when unknown. Decoding produces the same MediaEntries
+ *     map that MediaEntryService caches and patches.
+ * </p>
+ */
+public class MediaEntriesCodec implements CacheCodec<Map<Integer, MediaEntry>> {
+
+    private static final int FORMAT = 2;
+    private static final int WATCHED = 1;
+    private static final int OTHER_OWNER = 2;
+
+    @Override
+    public void write(Map<Integer, MediaEntry> entries, DataOutput out) throws IOException {
+        String owner = entries.isEmpty() ? null : entries.values().iterator().next().getUsername();
+        Map<String, Integer> labels = new HashMap<>();
+
+        out.writeByte(FORMAT);
+        out.writeLong(entries instanceof MediaEntries ? ((MediaEntries) entries).getChangeHorizon() : 0);
+        CacheCodec.writeVarInt(out, entries.size());
+        CacheCodec.writeString(out, owner);
+
+        for (MediaEntry entry : entries.values()) {
+            boolean otherOwner = !Objects.equals(owner, entry.getUsername());
+            out.writeByte((entry.isWatched() ? WATCHED : 0) | (otherOwner ? OTHER_OWNER : 0));
+            out.writeInt(entry.getId());
+            out.writeLong(entry.getChangeSeq());
+            if(otherOwner)
+                CacheCodec.writeString(out, entry.getUsername());
+            CacheCodec.writeString(out, entry.getTitle());
+            writeLabel(out, labels, entry.getType());
+            writeLabel(out, labels, entry.getPlatform());
+            CacheCodec.writeString(out, entry.getDescription());
+            CacheCodec.writeString(out, entry.getImageUrl());
+        }
+    }
+
+    @Override
+    public Map<Integer, MediaEntry> read(DataInput in) throws IOException {
+        if(in.readUnsignedByte() != FORMAT)
+            throw new IOException("Unknown media entries format");
+
+        MediaEntries entries = new MediaEntries();
+        entries.setChangeHorizon(in.readLong());
+        int count = CacheCodec.readVarInt(in);
+        String owner = CacheCodec.readString(in);
+        List<String> labels = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            int flags = in.readUnsignedByte();
+            MediaEntry entry = new MediaEntry();
+            entry.setWatched((flags & WATCHED) != 0);
+            entry.setId(in.readInt());
+            entry.setChangeSeq(in.readLong());
+            entry.setUsername((flags & OTHER_OWNER) != 0 ? CacheCodec.readString(in) : owner);
+            entry.setTitle(CacheCodec.readString(in));
+            entry.setType(readLabel(in, labels));
+            entry.setPlatform(readLabel(in, labels));
+            entry.setDescription(CacheCodec.readString(in));
+            entry.setImageUrl(CacheCodec.readString(in));
+            entries.put(entry.getId(), entry);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Writes 0 for null, 1 followed by the string when it is new, or its index plus 2 when already written
+     */
+    private static void writeLabel(DataOutput out, Map<String, Integer> labels, String label) throws IOException {
+        if(label == null) {
+            CacheCodec.writeVarInt(out, 0);
+            return;
+        }
+
+        Integer index = labels.get(label);
+        if(index != null) {
+            CacheCodec.writeVarInt(out, index + 2);
+            return;
+        }
+
+        labels.put(label, labels.size());
+        CacheCodec.writeVarInt(out, 1);
+        CacheCodec.writeString(out, label);
+    }
+
+    private static String readLabel(DataInput in, List<String> labels) throws IOException {
+        int tag = CacheCodec.readVarInt(in);
+        if(tag == 0)
+            return null;
+
+        if(tag == 1) {
+            String label = CacheCodec.readString(in);
+            labels.add(label);
+            return label;
+        }
+
+        if(tag - 2 >= labels.size())
+            throw new IOException("Unknown label reference");
+        return labels.get(tag - 2);
+    }
+}
@@ -0,0 +1,353 @@
+package com.t8webs.tvtrackerapi.enterprise.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Byte store outside the Java heap, keyed by string
+ * <p>
+ *     Records are appended to one direct buffer, or to a memory-mapped file so a restarted node starts with the
+ *     previous contents. When the buffer is full, live records are compacted to its start and the least recently
+ *     used ones are dropped until the new record fits. Only the key index lives on the heap.
+ * </p>
+ * <p>
+ *     Layout: a header of magic, format and end offset, then records of a live flag, key length, key bytes,
+ *     write time, value length and value bytes. A mapped file is rebuilt from its records on open. Any
+ *     inconsistency, such as a crash during compaction, discards the file's contents rather than risking
+ *     corrupt values. Records rebuilt this way are reported as restored until they are verified or rewritten,
+ *     since the data they were made from may have changed while the process was down.
+ * </p>
+ */
+public class OffHeapStore implements Closeable {
+
+    private static final int MAGIC = 0x54565432;
+    private static final int FORMAT = 1;
+    private static final int HEADER = 16;
+    private static final int END_OFFSET = 8;
+    private static final int RECORD_OVERHEAD = 1 + 4 + 8 + 4;
+
+    private final String name;
+    private final ByteBuffer buffer;
+    private final boolean persistent;
+    private final long ttlMillis;
+
+    /**
+     * Slots in access order, so the first one is the least recently used
+     */
+    private final LinkedHashMap<String, Slot> index = new LinkedHashMap<>(16, 0.75f, true);
+    private int end = HEADER;
+    private long liveBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private static final class Slot {
+        private final int offset;
+        private final int length;
+        private final int valueOffset;
+        private final int valueLength;
+        private final long writtenAt;
+        private final boolean restored;
+
+        private Slot(int offset, int length, int valueOffset, int valueLength, long writtenAt, boolean restored) {
+            this.offset = offset;
+            this.length = length;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+            this.writtenAt = writtenAt;
+            this.restored = restored;
+        }
+    }
+
+    /**
+     * Creates a store in a direct buffer, lost when the process exits
+     *
+     * @param name label used in statistics and logs
+     * @param capacity size of the buffer in bytes
+     * @param ttl age after which a record is no longer returned
+     */
+    public OffHeapStore(String name, int capacity, Duration ttl) {
+        this.name = name;
+        this.ttlMillis = ttl.toMillis();
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+        this.persistent = false;
+        writeHeader();
+    }
+
+    /**
+     * Creates a store in a memory-mapped file, reusing the unexpired records already in it
+     *
+     * @param name label used in statistics and logs
+     * @param capacity size of the file in bytes
+     * @param ttl age after which a record is no longer returned
+     * @param file file backing the store, created when missing
+     */
+    public OffHeapStore(String name, int capacity, Duration ttl, Path file) throws IOException {
+        this.name = name;
+        this.ttlMillis = ttl.toMillis();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            boolean reusable = channel.size() == capacity;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            this.persistent = true;
+
+            if(!reusable || !rebuildIndex()) {
+                index.clear();
+                liveBytes = 0;
+                end = HEADER;
+                writeHeader();
+            }
+        }
+
+        log.info("Second tier cache " + name + " opened with " + index.size() + " records from " + file);
+    }
+
+    /**
+     * @param key record key
+     * @return copy of the value, or null when absent or expired
+     */
+    public synchronized byte[] get(String key) {
+        Slot slot = index.get(key);
+
+        if(slot == null || isExpired(slot, System.currentTimeMillis())) {
+            if(slot != null)
+                remove(key);
+            misses++;
+            return null;
+        }
+
+        hits++;
+        byte[] value = new byte[slot.valueLength];
+        buffer.duplicate().position(slot.valueOffset).get(value);
+        return value;
+    }
+
+    /**
+     * Stores a value, replacing any previous one, and drops least recently used records if space is short
+     *
+     * @param key record key
+     * @param value bytes to store
+     * @return boolean indicating whether the value fit in the store
+     */
+    public synchronized boolean put(String key, byte[] value) {
+        remove(key);
+
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_OVERHEAD + keyBytes.length + value.length;
+        int capacity = buffer.capacity();
+
+        if(length > capacity - HEADER)
+            return false;
+
+        if(end + length > capacity) {
+            Iterator<Slot> leastRecentlyUsed = index.values().iterator();
+            while (HEADER + liveBytes + length > capacity && leastRecentlyUsed.hasNext()) {
+                Slot slot = leastRecentlyUsed.next();
+                markDead(slot);
+                leastRecentlyUsed.remove();
+                evictions++;
+            }
+            compact();
+        }
+
+        int offset = end;
+        long writtenAt = System.currentTimeMillis();
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.put((byte) 1);
+        view.putInt(keyBytes.length);
+        view.put(keyBytes);
+        view.putLong(writtenAt);
+        view.putInt(value.length);
+        int valueOffset = view.position();
+        view.put(value);
+
+        index.put(key, new Slot(offset, length, valueOffset, value.length, writtenAt, false));
+        liveBytes += length;
+        end = offset + length;
+        buffer.putLong(END_OFFSET, end);
+        return true;
+    }
+
+    /**
+     * @param key record key
+     * @return boolean indicating whether the record was read back from the file on open and not verified since
+     */
+    public synchronized boolean isRestored(String key) {
+        Slot slot = index.get(key);
+        return slot != null && slot.restored;
+    }
+
+    /**
+     * Marks a restored record as checked against its source, so it is no longer reported as restored
+     *
+     * @param key record key
+     */
+    public synchronized void markVerified(String key) {
+        Slot slot = index.get(key);
+        if(slot != null && slot.restored)
+            index.put(key, new Slot(slot.offset, slot.length, slot.valueOffset, slot.valueLength, slot.writtenAt, false));
+    }
+
+    /**
+     * @param key record key to drop
+     */
+    public synchronized void remove(String key) {
+        Slot slot = index.remove(key);
+        if(slot != null)
+            markDead(slot);
+    }
+
+    public synchronized void clear() {
+        index.clear();
+        liveBytes = 0;
+        end = HEADER;
+        buffer.putLong(END_OFFSET, end);
+    }
+
+    /**
+     * @return record count, space use, hits, misses and evictions as key value pairs
+     */
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("entries", index.size());
+        values.put("liveBytes", liveBytes);
+        values.put("usedBytes", end);
+        values.put("capacity", buffer.capacity());
+        values.put("persistent", persistent);
+        values.put("hits", hits);
+        values.put("misses", misses);
+        values.put("evictions", evictions);
+        return values;
+    }
+
+    /**
+     * Flushes a memory-mapped store to its file
+     */
+    @Override
+    public synchronized void close() {
+        if(persistent)
+            ((MappedByteBuffer) buffer).force();
+    }
+
+    private boolean isExpired(Slot slot, long now) {
+        return now - slot.writtenAt > ttlMillis;
+    }
+
+    private void markDead(Slot slot) {
+        buffer.put(slot.offset, (byte) 0);
+        liveBytes -= slot.length;
+    }
+
+    /**
+     * Moves every live record towards the start of the buffer, in offset order, so free space is contiguous
+     */
+    private void compact() {
+        // a crash part way through leaves an empty store instead of half-moved records
+        buffer.putLong(END_OFFSET, HEADER);
+
+        List<Map.Entry<String, Slot>> live = new ArrayList<>(index.entrySet());
+        live.sort(Comparator.comparingInt(entry -> entry.getValue().offset));
+
+        Map<String, Slot> moved = new LinkedHashMap<>();
+        int write = HEADER;
+        for (Map.Entry<String, Slot> entry : live) {
+            Slot slot = entry.getValue();
+            if(slot.offset != write) {
+                byte[] record = new byte[slot.length];
+                buffer.duplicate().position(slot.offset).get(record);
+                buffer.duplicate().position(write).put(record);
+            }
+            moved.put(entry.getKey(), new Slot(write, slot.length, write + (slot.valueOffset - slot.offset), slot.valueLength, slot.writtenAt, slot.restored));
+            write += slot.length;
+        }
+
+        // keep the recency order while pointing at the new offsets
+        for (Map.Entry<String, Slot> entry : index.entrySet()) {
+            entry.setValue(moved.get(entry.getKey()));
+        }
+
+        end = write;
+        buffer.putLong(END_OFFSET, end);
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, FORMAT);
+        buffer.putLong(END_OFFSET, end);
+    }
+
+    /**
+     * Reads the records of a mapped file back into the index, skipping dead and expired ones
+     *
+     * @return boolean indicating whether the file was consistent
+     */
+    private boolean rebuildIndex() {
+        if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT)
+            return false;
+
+        long storedEnd = buffer.getLong(END_OFFSET);
+        if(storedEnd < HEADER || storedEnd > buffer.capacity())
+            return false;
+
+        long now = System.currentTimeMillis();
+        int offset = HEADER;
+        ByteBuffer view = buffer.duplicate();
+
+        while (offset < storedEnd) {
+            if(offset + RECORD_OVERHEAD > storedEnd)
+                return false;
+
+            view.position(offset);
+            byte flag = view.get();
+            int keyLength = view.getInt();
+            if(flag > 1 || flag < 0 || keyLength < 0 || offset + RECORD_OVERHEAD + keyLength > storedEnd)
+                return false;
+
+            byte[] keyBytes = new byte[keyLength];
+            view.get(keyBytes);
+            long writtenAt = view.getLong();
+            int valueLength = view.getInt();
+            int length = RECORD_OVERHEAD + keyLength + valueLength;
+            if(valueLength < 0 || offset + length > storedEnd)
+                return false;
+
+            Slot slot = new Slot(offset, length, view.position(), valueLength, writtenAt, true);
+            if(flag == 1) {
+                Slot previous = index.put(new String(keyBytes, StandardCharsets.UTF_8), slot);
+                if(previous != null)
+                    markDead(previous);
+                liveBytes += length;
+
+                if(isExpired(slot, now)) {
+                    index.remove(new String(keyBytes, StandardCharsets.UTF_8));
+                    markDead(slot);
+                }
+            }
+
+            offset += length;
+        }
+
+        end = offset;
+        return true;
+    }
+}
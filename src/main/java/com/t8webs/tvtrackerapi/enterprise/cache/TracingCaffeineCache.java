@@ -0,0 +1,76 @@
+package com.t8webs.tvtrackerapi.enterprise.cache;
+
+import com.t8webs.tvtrackerapi.enterprise.trace.Span;
+import com.t8webs.tvtrackerapi.enterprise.trace.Tracer;
+import org.springframework.cache.caffeine.CaffeineCache;
+
+import java.util.concurrent.Callable;
+
+/**
+ * CaffeineCache adding a span for each get, put and evict of a traced request
+ */
+public class TracingCaffeineCache extends CaffeineCache {
+
+    private final Tracer tracer;
+
+    /**
+     * @param name cache name
+     * @param cache backing Caffeine cache
+     * @param allowNullValues whether null values are cached
+     * @param tracer Tracer starting the spans
+     */
+    public TracingCaffeineCache(String name, com.github.benmanes.caffeine.cache.Cache<Object, Object> cache,
+                                boolean allowNullValues, Tracer tracer) {
+        super(name, cache, allowNullValues);
+        this.tracer = tracer;
+    }
+
+    @Override
+    protected Object lookup(Object key) {
+        try (Span span = tracer.start("cache.get")) {
+            Object value = super.lookup(key);
+            span.tag("cache", getName()).tag("hit", value != null);
+            return value;
+        }
+    }
+
+    @Override
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        if(!tracer.isRecording())
+            return super.get(key, valueLoader);
+
+        try (Span span = tracer.start("cache.get")) {
+            boolean[] loaded = new boolean[1];
+            T value = super.get(key, () -> {
+                loaded[0] = true;
+                return valueLoader.call();
+            });
+            span.tag("cache", getName()).tag("hit", !loaded[0]);
+            return value;
+        }
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        try (Span span = tracer.start("cache.put")) {
+            span.tag("cache", getName());
+            super.put(key, value);
+        }
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        try (Span span = tracer.start("cache.put")) {
+            span.tag("cache", getName());
+            return super.putIfAbsent(key, value);
+        }
+    }
+
+    @Override
+    public void evict(Object key) {
+        try (Span span = tracer.start("cache.evict")) {
+            span.tag("cache", getName());
+            super.evict(key);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.t8webs.tvtrackerapi.enterprise.cache;
+
+import com.t8webs.tvtrackerapi.enterprise.trace.Span;
+import com.t8webs.tvtrackerapi.enterprise.trace.Tracer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.support.AbstractValueAdaptingCache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Cache with a small on-heap Caffeine near-cache in front of a larger OffHeapStore
+ * <p>
+ *     Values are written through to both tiers, the second one in the codec's compact form. A miss in the first
+ *     tier is served from the second and promoted back, so values the near-cache evicts, or held before a
+ *     restart when the store is file-backed, are decoded instead of reloaded from the database. A value held
+ *     before a restart is only served once the restore check confirms it is still current, and dropped otherwise.
+ * </p>
+ */
+public class TwoTierCache extends AbstractValueAdaptingCache {
+
+    private final String name;
+    private final com.github.benmanes.caffeine.cache.Cache<Object, Object> nearCache;
+    private final OffHeapStore store;
+    private final CacheCodec<Object> codec;
+
+    private Tracer tracer;
+    private BiPredicate<Object, Object> restoreCheck;
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * @param name cache name
+     * @param nearCache on-heap first tier
+     * @param store off-heap second tier
+     * @param codec binary form of the cached values
+     */
+    @SuppressWarnings("unchecked")
+    public TwoTierCache(String name, com.github.benmanes.caffeine.cache.Cache<Object, Object> nearCache,
+                        OffHeapStore store, CacheCodec<?> codec) {
+        super(true);
+        this.name = name;
+        this.nearCache = nearCache;
+        this.store = store;
+        this.codec = (CacheCodec<Object>) codec;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the Caffeine near-cache, so its statistics stay available
+     */
+    @Override
+    public com.github.benmanes.caffeine.cache.Cache<Object, Object> getNativeCache() {
+        return nearCache;
+    }
+
+    /**
+     * @param tracer Tracer adding a span for each get, put and evict of a traced request, or null for none
+     */
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * @param restoreCheck test of a key and its decoded value, read back from a file-backed store after a restart,
+     *                     telling whether the value is still current. Without one such values are dropped.
+     */
+    public void setRestoreCheck(BiPredicate<Object, Object> restoreCheck) {
+        this.restoreCheck = restoreCheck;
+    }
+
+    /**
+     * @return the off-heap second tier
+     */
+    public OffHeapStore getStore() {
+        return store;
+    }
+
+    @Override
+    protected Object lookup(Object key) {
+        try (Span span = span("cache.get")) {
+            Object value = nearCache.getIfPresent(key);
+            if(value != null) {
+                span.tag("hit", true).tag("tier", "near");
+                return value;
+            }
+
+            // promoted under the near-cache's lock for the key, so an evict cannot be undone by a stale read
+            value = nearCache.asMap().computeIfAbsent(key, this::readStore);
+
+            span.tag("hit", value != null).tag("tier", "store");
+            return value;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        try (Span span = span("cache.get")) {
+            return (T) fromStoreValue(nearCache.get(key, k -> {
+                Object stored = readStore(k);
+                span.tag("tier", "store");
+                if(stored != null)
+                    return stored;
+
+                try {
+                    T loaded = valueLoader.call();
+                    span.tag("loaded", true);
+                    writeStore(k, loaded);
+                    return toStoreValue(loaded);
+                } catch (Exception e) {
+                    throw new ValueRetrievalException(k, valueLoader, e);
+                }
+            }));
+        }
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        try (Span span = span("cache.put")) {
+            nearCache.put(key, toStoreValue(value));
+            writeStore(key, value);
+        }
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        try (Span span = span("cache.put")) {
+            Object previous = nearCache.asMap().putIfAbsent(key, toStoreValue(value));
+            if(previous == null)
+                writeStore(key, value);
+
+            return toValueWrapper(previous);
+        }
+    }
+
+    @Override
+    public void evict(Object key) {
+        try (Span span = span("cache.evict")) {
+            // both tiers are cleared under the near-cache's lock for the key, which readers promoting a stored
+            // value also hold
+            nearCache.asMap().compute(key, (k, value) -> {
+                store.remove(k.toString());
+                return null;
+            });
+        }
+    }
+
+    @Override
+    public void clear() {
+        nearCache.invalidateAll();
+        store.clear();
+    }
+
+    /**
+     * Caches the result of the mapping when the key is absent from the near-cache, encoding it into the second tier
+     * under the near-cache's lock for the key
+     *
+     * @param key cache key
+     * @param mapping value to cache for the key, or null to leave it absent
+     */
+    public void computeIfAbsent(Object key, Function<Object, Object> mapping) {
+        nearCache.asMap().computeIfAbsent(key, k -> {
+            Object value = mapping.apply(k);
+            if(value != null)
+                writeStore(k, value);
+            return value;
+        });
+    }
+
+    /**
+     * Replaces a near-cached value with the result of the remapping, re-encoding it into the second tier under
+     * the near-cache's lock for the key. A value held only in the second tier is dropped instead of patched.
+     *
+     * @param key cache key
+     * @param remapping change to the cached value, which may modify and return it
+     */
+    public void computeIfPresent(Object key, UnaryOperator<Object> remapping) {
+        Object updated = nearCache.asMap().computeIfPresent(key, (k, value) -> {
+            Object result = remapping.apply(value);
+            writeStore(k, fromStoreValue(result));
+            return result;
+        });
+
+        if(updated == null)
+            store.remove(key.toString());
+    }
+
+    private Span span(String name) {
+        return tracer == null ? Span.NOOP : tracer.start(name).tag("cache", this.name);
+    }
+
+    private Object readStore(Object key) {
+        byte[] bytes = store.get(key.toString());
+        if(bytes == null)
+            return null;
+
+        Object value;
+        try {
+            value = codec.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Dropping unreadable " + name + " entry. Message: " + e.getMessage());
+            store.remove(key.toString());
+            return null;
+        }
+
+        if(store.isRestored(key.toString())) {
+            if(restoreCheck == null || !restoreCheck.test(key, value)) {
+                store.remove(key.toString());
+                return null;
+            }
+            store.markVerified(key.toString());
+        }
+
+        return value;
+    }
+
+    private void writeStore(Object key, Object value) {
+        if(value == null) {
+            store.remove(key.toString());
+            return;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            codec.write(value, new DataOutputStream(bytes));
+            if(!store.put(key.toString(), bytes.toByteArray()))
+                store.remove(key.toString());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to store " + name + " entry off-heap. Message: " + e.getMessage());
+            store.remove(key.toString());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.t8webs.tvtrackerapi.enterprise.cache;
+
+import com.t8webs.tvtrackerapi.enterprise.trace.Tracer;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cache.Cache;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * CaffeineCacheManager that places an OffHeapStore behind the caches given a second tier
+ * <p>
+ *     Caches without a second tier are plain CaffeineCaches. Stores are flushed when the application context
+ *     closes, so file-backed ones hold the latest values for the next start.
+ * </p>
+ */
+public class TwoTierCacheManager extends CaffeineCacheManager implements DisposableBean {
+
+    private final Map<String, OffHeapStore> stores = new LinkedHashMap<>();
+    private final Map<String, CacheCodec<?>> codecs = new LinkedHashMap<>();
+
+    private Tracer tracer;
+
+    /**
+     * Traces the get, put and evict calls of caches registered afterwards
+     *
+     * @param tracer Tracer starting the spans
+     */
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Gives a cache a second tier. Must be called before the cache is registered.
+     *
+     * @param cacheName name of the cache
+     * @param store off-heap second tier
+     * @param codec binary form of the cache's values
+     */
+    public void addSecondTier(String cacheName, OffHeapStore store, CacheCodec<?> codec) {
+        stores.put(cacheName, store);
+        codecs.put(cacheName, codec);
+    }
+
+    @Override
+    protected Cache adaptCaffeineCache(String name, com.github.benmanes.caffeine.cache.Cache<Object, Object> cache) {
+        OffHeapStore store = stores.get(name);
+        if(store == null) {
+            if(tracer == null)
+                return super.adaptCaffeineCache(name, cache);
+            return new TracingCaffeineCache(name, cache, isAllowNullValues(), tracer);
+        }
+
+        TwoTierCache twoTierCache = new TwoTierCache(name, cache, store, codecs.get(name));
+        twoTierCache.setTracer(tracer);
+        return twoTierCache;
+    }
+
+    @Override
+    public void destroy() {
+        stores.values().forEach(OffHeapStore::close);
+    }
+}
@@ -0,0 +1,158 @@
+package com.t8webs.tvtrackerapi.enterprise.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.t8webs.tvtrackerapi.enterprise.cache.MediaEntriesCodec;
+import com.t8webs.tvtrackerapi.enterprise.cache.OffHeapStore;
+import com.t8webs.tvtrackerapi.enterprise.cache.TwoTierCacheManager;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryPage;
+import com.t8webs.tvtrackerapi.enterprise.dto.UserSession;
+import com.t8webs.tvtrackerapi.enterprise.trace.Tracer;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Configuration for the bounded, expiring caches behind @Cacheable
+ * <p>
+ *     Each cache takes a Caffeine spec from tvtracker.cache.* (for example
+ *     tvtracker.cache.media-entries=maximumWeight=500000,expireAfterAccess=20m,recordStats).
+ *     Eviction uses Caffeine's W-TinyLFU policy.
+ * </p>
+ * <p>
+ *     Setting tvtracker.cache.l2.media-entries.size (for example 256MB) puts an off-heap second tier behind the
+ *     mediaEntries cache, so its tvtracker.cache.media-entries spec can be shrunk to a small near-cache. Second
+ *     tier records expire after tvtracker.cache.l2.ttl. With tvtracker.cache.l2.directory set, media entries are
+ *     kept in a memory-mapped file there and survive restarts. Each user's restored entries are served only after
+ *     their change horizon is found unchanged in the database. The userAccount cache has no second tier, since
+ *     it would hold credentials outside the heap.
+ * </p>
+ * <p>
+ *     Cache reads and writes made while a traced request is running show up as cache.get, cache.put and
+ *     cache.evict spans.
+ * </p>
+ */
+@Configuration
+public class CacheConfig {
+
+    static final String USER_ACCOUNT_SPEC = "maximumSize=10000,expireAfterWrite=1h,recordStats";
+    static final String MEDIA_ENTRIES_SPEC = "maximumWeight=200000,expireAfterAccess=30m,recordStats";
+    static final String MEDIA_ENTRY_PAGES_SPEC = "maximumWeight=200000,expireAfterWrite=10m,recordStats";
+    static final String USER_SESSIONS_SPEC = "maximumSize=100000,recordStats";
+    static final String MEDIA_ENTRY_VERSIONS_SPEC = "maximumSize=100000,expireAfterAccess=1d,recordStats";
+
+    @Bean
+    public CacheManager cacheManager(Environment environment, Tracer tracer) throws IOException {
+        return cacheManager(environment, tracer, Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker clock the caches' time-based expiry reads
+     */
+    static TwoTierCacheManager cacheManager(Environment environment, Tracer tracer, Ticker ticker) throws IOException {
+        TwoTierCacheManager cacheManager = new TwoTierCacheManager();
+        cacheManager.setTracer(tracer);
+        cacheManager.setCaffeineSpec(CaffeineSpec.parse(USER_ACCOUNT_SPEC));
+
+        Duration secondTierTtl = environment.getProperty("tvtracker.cache.l2.ttl", Duration.class, Duration.ofHours(1));
+        int mediaEntriesTier = secondTierSize(environment, "tvtracker.cache.l2.media-entries.size");
+        if(mediaEntriesTier > 0) {
+            String directory = environment.getProperty("tvtracker.cache.l2.directory");
+            OffHeapStore store = directory == null
+                    ? new OffHeapStore("mediaEntries", mediaEntriesTier, secondTierTtl)
+                    : new OffHeapStore("mediaEntries", mediaEntriesTier, secondTierTtl,
+                            Files.createDirectories(Paths.get(directory)).resolve("mediaEntries.l2"));
+            cacheManager.addSecondTier("mediaEntries", store, new MediaEntriesCodec());
+        }
+
+        cacheManager.registerCustomCache("userAccount",
+                Caffeine.from(environment.getProperty("tvtracker.cache.user-account", USER_ACCOUNT_SPEC)).ticker(ticker).build());
+
+        // weighed by entry count so a handful of large libraries cannot crowd out every other user
+        String mediaEntriesSpec = environment.getProperty("tvtracker.cache.media-entries", MEDIA_ENTRIES_SPEC);
+        Caffeine<Object, Object> mediaEntries = Caffeine.from(mediaEntriesSpec).ticker(ticker);
+        if(mediaEntriesSpec.contains("maximumWeight")) {
+            mediaEntries.weigher((Object key, Object value) -> value instanceof Map ? ((Map<?, ?>) value).size() + 1 : 1);
+        }
+        cacheManager.registerCustomCache("mediaEntries", mediaEntries.build());
+
+        // weighed by the entries held in all of a user's pages, which MediaEntryService reweighs as pages are added
+        String mediaEntryPagesSpec = environment.getProperty("tvtracker.cache.media-entry-pages", MEDIA_ENTRY_PAGES_SPEC);
+        Caffeine<Object, Object> mediaEntryPages = Caffeine.from(mediaEntryPagesSpec).ticker(ticker);
+        if(mediaEntryPagesSpec.contains("maximumWeight")) {
+            mediaEntryPages.weigher(CacheConfig::weighPages);
+        }
+        cacheManager.registerCustomCache("mediaEntryPages", mediaEntryPages.build());
+
+        cacheManager.registerCustomCache("mediaEntryVersions",
+                Caffeine.from(environment.getProperty("tvtracker.cache.media-entry-versions", MEDIA_ENTRY_VERSIONS_SPEC)).ticker(ticker).build());
+
+        // sessions expire individually when their token does
+        cacheManager.registerCustomCache("userSessions",
+                Caffeine.from(environment.getProperty("tvtracker.cache.user-sessions", USER_SESSIONS_SPEC))
+                        .expireAfter(new SessionExpiry())
+                        .ticker(ticker)
+                        .build());
+
+        return cacheManager;
+    }
+
+    /**
+     * @return number of entries in a user's cached pages, plus one
+     */
+    static int weighPages(Object key, Object value) {
+        int weight = 1;
+        if(value instanceof Map) {
+            for (Object page : ((Map<?, ?>) value).values()) {
+                if(page instanceof MediaEntryPage)
+                    weight += ((MediaEntryPage) page).getEntries().size();
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * @return second tier size in bytes, 0 when the property is unset
+     */
+    private static int secondTierSize(Environment environment, String property) {
+        long bytes = DataSize.parse(environment.getProperty(property, "0")).toBytes();
+        if(bytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(property + " must be below 2GB");
+
+        return (int) bytes;
+    }
+
+    /**
+     * Expires each cached UserSession at its token's expiry time
+     */
+    static class SessionExpiry implements Expiry<Object, Object> {
+        @Override
+        public long expireAfterCreate(Object key, Object value, long currentTime) {
+            if(!(value instanceof UserSession))
+                return 0;
+
+            return Math.max(0, Duration.between(Instant.now(), ((UserSession) value).getExpiresAt()).toNanos());
+        }
+
+        @Override
+        public long expireAfterUpdate(Object key, Object value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(Object key, Object value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
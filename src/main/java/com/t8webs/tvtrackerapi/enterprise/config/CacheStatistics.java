@@ -0,0 +1,59 @@
+package com.t8webs.tvtrackerapi.enterprise.config;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.t8webs.tvtrackerapi.enterprise.cache.TwoTierCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class reporting hit, miss and eviction counts for each cache
+ */
+@Component
+public class CacheStatistics {
+
+    @Autowired
+    CacheManager cacheManager;
+
+    /**
+     * @return statistics keyed by cache name
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> caches = new LinkedHashMap<>();
+
+        for (String name : cacheManager.getCacheNames()) {
+            Cache cache = cacheManager.getCache(name);
+            com.github.benmanes.caffeine.cache.Cache<Object, Object> nativeCache;
+            if(cache instanceof CaffeineCache) {
+                nativeCache = ((CaffeineCache) cache).getNativeCache();
+            } else if(cache instanceof TwoTierCache) {
+                nativeCache = ((TwoTierCache) cache).getNativeCache();
+            } else {
+                continue;
+            }
+            CacheStats stats = nativeCache.stats();
+
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("size", nativeCache.estimatedSize());
+            values.put("hits", stats.hitCount());
+            values.put("misses", stats.missCount());
+            values.put("hitRate", stats.hitRate());
+            values.put("evictions", stats.evictionCount());
+            values.put("evictionWeight", stats.evictionWeight());
+            nativeCache.policy().eviction().ifPresent(eviction -> {
+                values.put(eviction.isWeighted() ? "maximumWeight" : "maximumSize", eviction.getMaximum());
+                eviction.weightedSize().ifPresent(weight -> values.put("weight", weight));
+            });
+            if(cache instanceof TwoTierCache)
+                values.put("secondTier", ((TwoTierCache) cache).getStore().snapshot());
+            caches.put(name, values);
+        }
+
+        return caches;
+    }
+}
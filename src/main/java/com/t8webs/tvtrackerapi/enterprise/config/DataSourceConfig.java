@@ -0,0 +1,229 @@
+package com.t8webs.tvtrackerapi.enterprise.config;
+
+import com.t8webs.tvtrackerapi.enterprise.dao.DbConcurrencyLimiter;
+import com.t8webs.tvtrackerapi.enterprise.dao.DbPoolMetrics;
+import com.t8webs.tvtrackerapi.enterprise.dao.ReplicaRouter;
+import com.t8webs.tvtrackerapi.enterprise.dao.ShardRouter;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Configuration for the pooled database connections used by DbQuery
+ * <p>
+ *     Pool settings are bound from spring.datasource.hikari.* (minimumIdle, maximumPoolSize,
+ *     leakDetectionThreshold, validationTimeout, ...). When spring.datasource.url is not set,
+ *     the legacy url property is used instead, and the rest of the legacy connection settings in application.properties
+ *     are carried over as they were before the pool: user and password become the pool's credentials unless
+ *     spring.datasource.username and spring.datasource.password are set, and every other undotted key is handed to
+ *     the driver.
+ * </p>
+ * <p>
+ *     Against SQL Server the driver's per-connection statement cache is enabled, sized by
+ *     tvtracker.db.statement-cache-size.
+ * </p>
+ * <p>
+ *     Read replicas are listed as JDBC urls in tvtracker.db.replicas and get pools of their own, with the
+ *     primary's credentials and settings unless tvtracker.db.replica-username and tvtracker.db.replica-password
+ *     are set. A replica serves reads while its heartbeat is at most tvtracker.db.replica-max-lag milliseconds
+ *     old, probed every tvtracker.db.replica-probe-interval milliseconds.
+ * </p>
+ * <p>
+ *     The primary is shard 0. Further shards are listed as JDBC urls in tvtracker.db.shards, in shard index order,
+ *     with their replicas in tvtracker.db.shard-replicas.N. Shards may only be appended; see ShardRebalancer.
+ * </p>
+ * <p>
+ *     Every pool sits behind a DbConcurrencyLimiter of tvtracker.db.max-concurrency permits, which defaults to
+ *     no limit, or to one permit per primary connection when tvtracker.threads.virtual is set and the runtime has
+ *     virtual threads.
+ * </p>
+ */
+@Configuration
+public class DataSourceConfig {
+
+    /**
+     * Pool defaults, overridden by any spring.datasource.hikari.* properties
+     * <p>
+     *     Primary since the pool built from it is a HikariConfig too.
+     * </p>
+     *
+     * @return HikariConfig holding the connection pool settings
+     */
+    @Bean
+    @Primary
+    @ConfigurationProperties(prefix = "spring.datasource.hikari")
+    public HikariConfig hikariConfig() {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("TvTrackerPool");
+        config.setMinimumIdle(5);
+        config.setMaximumPoolSize(20);
+        config.setConnectionTimeout(5000);
+        config.setValidationTimeout(1000);
+        config.setLeakDetectionThreshold(10000);
+        return config;
+    }
+
+    /**
+     * Creates the pool eagerly so the minimum number of idle connections is opened at startup
+     * instead of on the first request.
+     *
+     * @param config pool settings
+     * @param environment source of the connection url and credentials
+     * @param metrics tracker recording connection wait times and timeouts
+     * @return pooled DataSource
+     * @throws IOException when the legacy application.properties cannot be read
+     */
+    @Bean(destroyMethod = "close")
+    public DataSource dataSource(HikariConfig config, Environment environment, DbPoolMetrics metrics) throws IOException {
+        boolean legacy = false;
+        if(config.getJdbcUrl() == null) {
+            String url = environment.getProperty("spring.datasource.url");
+            legacy = url == null;
+            config.setJdbcUrl(legacy ? environment.getProperty("url") : url);
+        }
+        if(config.getUsername() == null)
+            config.setUsername(environment.getProperty("spring.datasource.username"));
+        if(config.getPassword() == null)
+            config.setPassword(environment.getProperty("spring.datasource.password"));
+
+        Resource legacyProperties = new ClassPathResource("application.properties");
+        if(legacy && legacyProperties.exists())
+            applyLegacyProperties(config, PropertiesLoaderUtils.loadProperties(legacyProperties));
+        config.setMetricsTrackerFactory(metrics);
+
+        // SQL Server keeps prepared statement handles per connection, keyed by the statement text
+        if(config.getJdbcUrl() != null && config.getJdbcUrl().startsWith("jdbc:sqlserver:")) {
+            config.addDataSourceProperty("disableStatementPooling", "false");
+            config.addDataSourceProperty("statementPoolingCacheSize",
+                    environment.getProperty("tvtracker.db.statement-cache-size", "64"));
+        }
+
+        return new HikariDataSource(config);
+    }
+
+    /**
+     * @param config primary pool settings
+     * @param environment source of the limit settings
+     * @return DbConcurrencyLimiter bounding the connections held across all pools
+     */
+    @Bean
+    public DbConcurrencyLimiter dbConcurrencyLimiter(HikariConfig config, Environment environment) {
+        int shardCount = environment.getProperty("tvtracker.db.shards", String[].class, new String[0]).length + 1;
+        boolean threadPerRequest = environment.getProperty("tvtracker.threads.virtual", Boolean.class, false)
+                && RequestThreadsConfig.isVirtualThreadsAvailable();
+        int defaultPermits = threadPerRequest ? config.getMaximumPoolSize() * shardCount : 0;
+
+        return new DbConcurrencyLimiter(
+                environment.getProperty("tvtracker.db.max-concurrency", Integer.class, defaultPermits),
+                environment.getProperty("tvtracker.db.max-waiting", Integer.class, 10000),
+                config.getConnectionTimeout());
+    }
+
+    /**
+     * Opens the pools of every shard and their read replicas, and starts measuring replica lag
+     *
+     * @param dataSource primary pool of shard 0
+     * @param limiter limit put in front of every pool
+     * @param config primary pool settings, copied to every other pool
+     * @param environment source of the shard and replica urls and the lag settings
+     * @return ShardRouter choosing the pool for each statement
+     */
+    @Bean(destroyMethod = "close")
+    public ShardRouter shardRouter(DataSource dataSource, DbConcurrencyLimiter limiter, HikariConfig config, Environment environment) {
+        String configuredNodeId = environment.getProperty("tvtracker.node-id", "");
+        String nodeId = configuredNodeId.isEmpty() ? UUID.randomUUID().toString() : configuredNodeId;
+        long maxLag = environment.getProperty("tvtracker.db.replica-max-lag", Long.class, 5000L);
+        long probeInterval = environment.getProperty("tvtracker.db.replica-probe-interval", Long.class, 1000L);
+
+        String[] shardUrls = environment.getProperty("tvtracker.db.shards", String[].class, new String[0]);
+        List<ReplicaRouter> shards = new ArrayList<>();
+
+        for (int shard = 0; shard <= shardUrls.length; shard++) {
+            DataSource primary = limiter.wrap(shard == 0 ? dataSource
+                    : newPool(config, config.getPoolName() + "-shard-" + shard, shardUrls[shard - 1].trim(),
+                        config.getUsername(), config.getPassword()));
+
+            String replicaProperty = shard == 0 ? "tvtracker.db.replicas" : "tvtracker.db.shard-replicas." + shard;
+            String[] replicaUrls = environment.getProperty(replicaProperty, String[].class, new String[0]);
+            Map<String, DataSource> replicas = new LinkedHashMap<>();
+
+            for (int i = 0; i < replicaUrls.length; i++) {
+                String poolName = config.getPoolName() + (shard == 0 ? "" : "-shard-" + shard) + "-replica-" + (i + 1);
+                replicas.put(poolName, limiter.wrap(newPool(config, poolName, replicaUrls[i].trim(),
+                        environment.getProperty("tvtracker.db.replica-username", config.getUsername()),
+                        environment.getProperty("tvtracker.db.replica-password", config.getPassword()))));
+            }
+
+            ReplicaRouter router = new ReplicaRouter(primary, replicas, nodeId, maxLag);
+            router.start(probeInterval);
+            shards.add(router);
+        }
+
+        ShardRouter router = new ShardRouter(shards,
+                environment.getProperty("tvtracker.db.shard-virtual-nodes", Integer.class, 128),
+                environment.getProperty("tvtracker.db.previous-shard-count", Integer.class, 0));
+        router.start(probeInterval);
+        return router;
+    }
+
+    /**
+     * Carries over the connection settings DbQuery used to pass whole to DriverManager. Dotted keys are Spring or
+     * application settings and url is already the pool's url, so neither reaches the driver.
+     *
+     * @param config pool settings to add to
+     * @param legacy contents of the legacy application.properties
+     */
+    static void applyLegacyProperties(HikariConfig config, Properties legacy) {
+        for (String key : legacy.stringPropertyNames()) {
+            if(key.contains(".") || key.equals("url"))
+                continue;
+
+            String value = legacy.getProperty(key);
+            if(key.equals("user")) {
+                if(config.getUsername() == null)
+                    config.setUsername(value);
+            } else if(key.equals("password")) {
+                if(config.getPassword() == null)
+                    config.setPassword(value);
+            } else {
+                config.addDataSourceProperty(key, value);
+            }
+        }
+    }
+
+    /**
+     * @param config primary pool settings to copy
+     * @param poolName name of the new pool
+     * @param url JDBC url of the database
+     * @param username database user
+     * @param password database password
+     * @return pool sharing the primary's settings
+     */
+    private static DataSource newPool(HikariConfig config, String poolName, String url, String username, String password) {
+        HikariConfig poolConfig = new HikariConfig();
+        config.copyStateTo(poolConfig);
+        poolConfig.setPoolName(poolName);
+        poolConfig.setJdbcUrl(url);
+        poolConfig.setUsername(username);
+        poolConfig.setPassword(password);
+        // DbPoolMetrics tracks a single pool, so it keeps reporting shard 0's primary
+        poolConfig.setMetricsTrackerFactory(null);
+        return new HikariDataSource(poolConfig);
+    }
+}
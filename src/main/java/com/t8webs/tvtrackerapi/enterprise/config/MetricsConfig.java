@@ -0,0 +1,51 @@
+package com.t8webs.tvtrackerapi.enterprise.config;
+
+import com.t8webs.tvtrackerapi.enterprise.cache.TwoTierCache;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import org.springframework.boot.actuate.metrics.cache.CacheMeterBinderProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Configuration for the metrics served at /_status/metrics
+ * <p>
+ *     Every controller mapping is timed as http.server.requests, tagged with its URI template, method and status.
+ *     Those timers publish histogram buckets, so percentiles per endpoint are computed from the scraped buckets
+ *     instead of being maintained on the request path. Caches report cache.gets with a hit or miss result,
+ *     including the caches given a second tier.
+ * </p>
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterFilter requestHistogramFilter() {
+        return new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                if(!id.getName().equals("http.server.requests"))
+                    return config;
+
+                return DistributionStatisticConfig.builder()
+                        .percentilesHistogram(true)
+                        .minimumExpectedValue((double) Duration.ofMillis(1).toNanos())
+                        .maximumExpectedValue((double) Duration.ofSeconds(30).toNanos())
+                        .build()
+                        .merge(config);
+            }
+        };
+    }
+
+    /**
+     * Binds the near cache of each TwoTierCache, which Spring Boot does not recognize as a Caffeine cache
+     */
+    @Bean
+    public CacheMeterBinderProvider<TwoTierCache> twoTierCacheMeterBinderProvider() {
+        return (cache, tags) -> new CaffeineCacheMetrics<>(cache.getNativeCache(), cache.getName(), tags);
+    }
+}
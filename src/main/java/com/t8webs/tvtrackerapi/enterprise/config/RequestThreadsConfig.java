@@ -0,0 +1,96 @@
+package com.t8webs.tvtrackerapi.enterprise.config;
+
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.annotation.PostConstruct;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Configuration running every request on a thread of its own, enabled by tvtracker.threads.virtual=true
+ * <p>
+ *     Requests, and the DAO calls they make, block on JDBC. With Tomcat's fixed thread pool, a database slowdown
+ *     ties up every thread and requests that never touch the database, such as cache hits, queue behind the ones
+ *     that do. In this mode Tomcat hands each request to a new virtual thread, so only the threads waiting on the
+ *     database wait. How many requests reach the database at once is bounded by DbConcurrencyLimiter instead,
+ *     which DataSourceConfig enables along with this mode.
+ * </p>
+ * <p>
+ *     Virtual threads need Java 21, while the build and the default Docker image target Java 17. On older runtimes
+ *     the setting is ignored, with a warning logged at startup, and Tomcat keeps its bounded thread pool, as does
+ *     the database limit, rather than starting a platform thread per request. Build the image with
+ *     --build-arg JAVA_IMAGE=eclipse-temurin:21-jre-alpine to run this mode.
+ * </p>
+ */
+@Configuration
+@ConditionalOnProperty(name = "tvtracker.threads.virtual", havingValue = "true")
+public class RequestThreadsConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(RequestThreadsConfig.class);
+
+    /**
+     * Warns once at startup when the runtime has no virtual threads, since the mode is otherwise silently off
+     */
+    @PostConstruct
+    void warnIfUnavailable() {
+        if(!isVirtualThreadsAvailable())
+            log.warn("tvtracker.threads.virtual is ignored: virtual threads need Java 21 and this is Java {}, "
+                    + "keeping Tomcat's request thread pool", Runtime.version().feature());
+    }
+
+    /**
+     * @return customizer replacing Tomcat's request thread pool
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> requestThreadsCustomizer() {
+        return protocolHandler -> {
+            Executor executor = newThreadPerTaskExecutor("http-request-");
+            if(executor != null)
+                protocolHandler.setExecutor(executor);
+        };
+    }
+
+    /**
+     * @return whether the runtime has virtual threads
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return virtualThreadFactory("") != null;
+    }
+
+    /**
+     * @param namePrefix prefix of the thread names, followed by a counter
+     * @return Executor running each task on a virtual thread of its own, or null before Java 21
+     */
+    public static Executor newThreadPerTaskExecutor(String namePrefix) {
+        ThreadFactory virtualThreads = virtualThreadFactory(namePrefix);
+        if(virtualThreads == null)
+            return null;
+
+        return task -> virtualThreads.newThread(task).start();
+    }
+
+    /**
+     * Looked up reflectively, since the build targets Java 17
+     *
+     * @return factory of named virtual threads, or null when the runtime has none
+     */
+    private static ThreadFactory virtualThreadFactory(String namePrefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
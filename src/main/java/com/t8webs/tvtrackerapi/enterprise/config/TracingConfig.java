@@ -0,0 +1,52 @@
+package com.t8webs.tvtrackerapi.enterprise.config;
+
+import com.t8webs.tvtrackerapi.enterprise.trace.ServiceTracingInterceptor;
+import com.t8webs.tvtrackerapi.enterprise.trace.Tracer;
+import com.t8webs.tvtrackerapi.enterprise.trace.TracingInterceptor;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Role;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Configuration for request tracing
+ * <p>
+ *     Each controller method call of a sampled request is the root of a trace, and calls into @Service beans are
+ *     spans beneath it. The cache manager, DbQuery and DbExecutor add their own spans. The most recent traces are
+ *     served by /_status/traces.
+ * </p>
+ */
+@Configuration
+public class TracingConfig implements WebMvcConfigurer {
+
+    @Autowired
+    Tracer tracer;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new TracingInterceptor(tracer)).excludePathPatterns("/_status/**");
+    }
+
+    /**
+     * @param tracer Tracer starting the spans, resolved on first use so that creating the advisor does not create
+     *               the Tracer ahead of the bean post-processors
+     * @return Advisor wrapping the methods of @Service beans in spans, outside any caching or other advice
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    public static Advisor serviceTracingAdvisor(@Lazy Tracer tracer) {
+        DefaultPointcutAdvisor advisor = new DefaultPointcutAdvisor(new AnnotationMatchingPointcut(Service.class, true),
+                new ServiceTracingInterceptor(tracer));
+        advisor.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return advisor;
+    }
+}
@@ -0,0 +1,94 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Consistent hash ring assigning usernames to shards
+ * <p>
+ *     Each shard owns virtualNodes points on the ring, placed by hashing the shard's index, and a username
+ *     belongs to the shard owning the first point at or after the username's hash. Points depend only on the
+ *     shard index, so adding a shard takes roughly 1/N of the usernames from the existing shards and moves no
+ *     others.
+ * </p>
+ */
+public class ConsistentHashRing {
+
+    private static final ThreadLocal<MessageDigest> md5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final int shardCount;
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * @param shardCount number of shards, indexed from 0
+     * @param virtualNodes points per shard, more of them evening out the share each shard receives
+     */
+    public ConsistentHashRing(int shardCount, int virtualNodes) {
+        if(shardCount < 1 || virtualNodes < 1)
+            throw new IllegalArgumentException("A ring needs at least one shard and one point per shard");
+
+        this.shardCount = shardCount;
+
+        long[][] placed = new long[shardCount * virtualNodes][];
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                placed[shard * virtualNodes + node] = new long[] {hash("shard-" + shard + "#" + node), shard};
+            }
+        }
+        Arrays.sort(placed, (a, b) -> Long.compare(a[0], b[0]));
+
+        points = new long[placed.length];
+        owners = new int[placed.length];
+        for (int i = 0; i < placed.length; i++) {
+            points[i] = placed[i][0];
+            owners[i] = (int) placed[i][1];
+        }
+    }
+
+    /**
+     * @param username String uniquely identifying a user
+     * @return index of the shard holding the user's records
+     */
+    public int shardFor(String username) {
+        if(shardCount == 1)
+            return 0;
+
+        // SQL Server compares usernames case-insensitively, so differently cased names must share a shard
+        int index = Arrays.binarySearch(points, hash(username.toLowerCase(Locale.ROOT)));
+        if(index < 0)
+            index = -index - 1;
+
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * @return number of shards on the ring
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * @param key value to place on the ring
+     * @return first eight bytes of the key's MD5 digest
+     */
+    private static long hash(String key) {
+        byte[] digest = md5.get().digest(key.getBytes(StandardCharsets.UTF_8));
+
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (digest[i] & 0xff);
+        }
+        return hash;
+    }
+}
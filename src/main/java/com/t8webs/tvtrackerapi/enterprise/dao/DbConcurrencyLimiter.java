@@ -0,0 +1,236 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Class bounding how many connections the threads of this process hold at once, across every pool
+ * <p>
+ *     Once requests run on a thread each, nothing else limits how many of them reach the pools together. Rather
+ *     than let thousands of threads queue inside the pools, each wrapped DataSource takes a permit before
+ *     borrowing a connection and gives it back when the connection is closed. Threads wait for permits in
+ *     arrival order. A thread gives up with SQLTransientConnectionException after acquireTimeout, or at once when
+ *     maxWaiting threads are already waiting, so a database slowdown sheds load instead of piling it up.
+ * </p>
+ * <p>
+ *     A limiter with no permits wraps nothing.
+ * </p>
+ */
+public class DbConcurrencyLimiter {
+
+    private final int permits;
+    private final int maxWaiting;
+    private final long acquireTimeoutMillis;
+    private final Semaphore semaphore;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder waited = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Long::max, 0);
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param permits connections the process may hold at once, or 0 for no limit
+     * @param maxWaiting threads that may wait for a permit before others are turned away
+     * @param acquireTimeoutMillis longest wait for a permit
+     */
+    public DbConcurrencyLimiter(int permits, int maxWaiting, long acquireTimeoutMillis) {
+        this.permits = permits;
+        this.maxWaiting = maxWaiting;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.semaphore = permits > 0 ? new Semaphore(permits, true) : null;
+    }
+
+    /**
+     * @param dataSource pool to put behind the limit
+     * @return DataSource taking a permit for every connection it hands out, or dataSource when there is no limit
+     */
+    public DataSource wrap(DataSource dataSource) {
+        return semaphore == null ? dataSource : new LimitedDataSource(dataSource);
+    }
+
+    /**
+     * @return boolean indicating whether connections are limited
+     */
+    public boolean isEnabled() {
+        return semaphore != null;
+    }
+
+    private void acquire() throws SQLException {
+        if(semaphore.tryAcquire()) {
+            acquired.increment();
+            return;
+        }
+
+        if(semaphore.getQueueLength() >= maxWaiting) {
+            rejected.increment();
+            throw new SQLTransientConnectionException("Too many threads are waiting for a database connection");
+        }
+
+        long start = System.nanoTime();
+        try {
+            if(!semaphore.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTransientConnectionException("Timed out after " + acquireTimeoutMillis
+                        + "ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a database connection", e);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        acquired.increment();
+        waited.increment();
+        waitNanos.add(elapsed);
+        maxWaitNanos.accumulate(elapsed);
+    }
+
+    /**
+     * @param connection borrowed connection, or null when borrowing failed
+     * @return connection giving its permit back once when closed
+     */
+    private Connection borrowed(Connection connection) {
+        if(connection == null) {
+            semaphore.release();
+            return null;
+        }
+
+        AtomicBoolean released = new AtomicBoolean();
+        InvocationHandler handler = (proxy, method, args) -> {
+            if(method.getName().equals("close") && method.getParameterCount() == 0) {
+                try {
+                    connection.close();
+                } finally {
+                    if(released.compareAndSet(false, true))
+                        semaphore.release();
+                }
+                return null;
+            }
+
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, handler);
+    }
+
+    /**
+     * @return permits in use and cumulative wait statistics as key value pairs
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("enabled", semaphore != null);
+        if(semaphore == null)
+            return values;
+
+        long count = waited.sum();
+        values.put("permits", permits);
+        values.put("inUse", permits - semaphore.availablePermits());
+        values.put("waiting", semaphore.getQueueLength());
+        values.put("maxWaiting", maxWaiting);
+        values.put("acquired", acquired.sum());
+        values.put("waited", count);
+        values.put("timeouts", timeouts.sum());
+        values.put("rejected", rejected.sum());
+        values.put("waitAvgMicros", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(waitNanos.sum() / count));
+        values.put("waitMaxMicros", TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get()));
+        return values;
+    }
+
+    /**
+     * Pool behind the limit, closing the pool it wraps when closed
+     */
+    private class LimitedDataSource implements DataSource, Closeable {
+
+        private final DataSource dataSource;
+
+        private LimitedDataSource(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            acquire();
+            try {
+                return borrowed(dataSource.getConnection());
+            } catch (SQLException | RuntimeException e) {
+                semaphore.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            acquire();
+            try {
+                return borrowed(dataSource.getConnection(username, password));
+            } catch (SQLException | RuntimeException e) {
+                semaphore.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(dataSource instanceof Closeable)
+                ((Closeable) dataSource).close();
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return dataSource.getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException {
+            dataSource.setLogWriter(out);
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException {
+            dataSource.setLoginTimeout(seconds);
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return dataSource.getLoginTimeout();
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            return dataSource.getParentLogger();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            return iface.isInstance(this) ? iface.cast(this) : dataSource.unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+        }
+    }
+}
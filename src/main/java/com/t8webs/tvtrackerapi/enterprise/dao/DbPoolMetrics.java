@@ -0,0 +1,165 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * Class collecting connection pool statistics
+ * <p>
+ *     The pool reports every connection borrow, timeout and release to this tracker. Once bound to the meter
+ *     registry, each pool also publishes its connection counts, tvtracker.db.connection.acquire timings and
+ *     tvtracker.db.connection.timeouts, tagged with the pool name. Pools are built before the registry exists, so
+ *     their meters are registered when it binds this class.
+ * </p>
+ */
+@Component
+public class DbPoolMetrics implements MetricsTrackerFactory, MeterBinder {
+
+    private volatile PoolStats poolStats;
+
+    // guarded by this
+    private final List<PoolMeters> pools = new ArrayList<>();
+    private MeterRegistry meterRegistry;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final LongAccumulator maxAcquireNanos = new LongAccumulator(Long::max, 0);
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder usageMillis = new LongAdder();
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+
+        PoolMeters meters = new PoolMeters(poolName, poolStats);
+        synchronized (this) {
+            pools.add(meters);
+            if(meterRegistry != null)
+                meters.register(meterRegistry);
+        }
+
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+                created.increment();
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquired.increment();
+                acquireNanos.add(elapsedAcquiredNanos);
+                maxAcquireNanos.accumulate(elapsedAcquiredNanos);
+                Timer acquire = meters.acquire;
+                if(acquire != null)
+                    acquire.record(elapsedAcquiredNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usageMillis.add(elapsedBorrowedMillis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+                Counter timeouts = meters.timeouts;
+                if(timeouts != null)
+                    timeouts.increment();
+            }
+        };
+    }
+
+    @Override
+    public synchronized void bindTo(MeterRegistry registry) {
+        meterRegistry = registry;
+        for (PoolMeters pool : pools) {
+            pool.register(registry);
+        }
+    }
+
+    /**
+     * @return current pool state and cumulative wait statistics as key value pairs
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        PoolStats stats = this.poolStats;
+
+        if(stats != null) {
+            values.put("active", stats.getActiveConnections());
+            values.put("idle", stats.getIdleConnections());
+            values.put("total", stats.getTotalConnections());
+            values.put("pending", stats.getPendingThreads());
+            values.put("max", stats.getMaxConnections());
+            values.put("min", stats.getMinConnections());
+        }
+
+        long count = acquired.sum();
+        values.put("acquired", count);
+        values.put("created", created.sum());
+        values.put("timeouts", timeouts.sum());
+        values.put("waitAvgMicros", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(acquireNanos.sum() / count));
+        values.put("waitMaxMicros", TimeUnit.NANOSECONDS.toMicros(maxAcquireNanos.get()));
+        values.put("usageAvgMillis", count == 0 ? 0 : usageMillis.sum() / count);
+
+        return values;
+    }
+
+    /**
+     * Meters kept for one pool, unset until the registry binds
+     */
+    private static final class PoolMeters {
+        private final String poolName;
+        private final PoolStats poolStats;
+
+        private volatile Timer acquire;
+        private volatile Counter timeouts;
+
+        private PoolMeters(String poolName, PoolStats poolStats) {
+            this.poolName = poolName;
+            this.poolStats = poolStats;
+        }
+
+        private void register(MeterRegistry registry) {
+            gauge(registry, "tvtracker.db.connections.active", PoolStats::getActiveConnections);
+            gauge(registry, "tvtracker.db.connections.idle", PoolStats::getIdleConnections);
+            gauge(registry, "tvtracker.db.connections.pending", PoolStats::getPendingThreads);
+            gauge(registry, "tvtracker.db.connections.max", PoolStats::getMaxConnections);
+            timeouts = Counter.builder("tvtracker.db.connection.timeouts")
+                    .description("Connection requests that timed out")
+                    .tag("pool", poolName)
+                    .register(registry);
+            acquire = Timer.builder("tvtracker.db.connection.acquire")
+                    .description("Time spent waiting for a pooled connection")
+                    .tag("pool", poolName)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(10_000))
+                    .maximumExpectedValue(Duration.ofSeconds(30))
+                    .register(registry);
+        }
+
+        private void gauge(MeterRegistry registry, String name, ToIntFunction<PoolStats> value) {
+            Gauge.builder(name, poolStats, stats -> value.applyAsInt(stats))
+                    .tag("pool", poolName)
+                    .strongReference(true)
+                    .register(registry);
+        }
+    }
+}
@@ -1,13 +1,14 @@
 package com.t8webs.tvtrackerapi.enterprise.dao;
 
-import com.t8webs.tvtrackerapi.enterprise.TvTrackerApiApplication;
-
+import javax.sql.DataSource;
 import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
 
 /**
@@ -15,11 +16,54 @@ import java.util.Properties;
  */
 public class DbQuery {
 
+    private static volatile StatementListener[] statementListeners = new StatementListener[0];
+
+    private final DataSource dataSource;
+
     private String tableName;
 
     private StringBuffer whereCondition;
 
-    private HashMap<String, Object> columnValues;
+    private ArrayList<Object> whereValues;
+
+    private LinkedHashMap<String, Object> columnValues;
+
+    private String[] orderBy;
+
+    private int limit;
+
+    private int fetchSize;
+
+    private ArrayList<String> batchSqls;
+
+    private ArrayList<List<Object>> batchParams;
+
+    /**
+     * @param dataSource pool supplying connections for this query
+     */
+    public DbQuery(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Adds a listener told about every statement run by any DbQuery
+     *
+     * @param listener StatementListener receiving each statement's timings and row count
+     */
+    public static synchronized void addStatementListener(StatementListener listener) {
+        StatementListener[] listeners = Arrays.copyOf(statementListeners, statementListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        statementListeners = listeners;
+    }
+
+    /**
+     * @param listener StatementListener to stop telling about statements
+     */
+    public static synchronized void removeStatementListener(StatementListener listener) {
+        statementListeners = Arrays.stream(statementListeners)
+                .filter(existing -> existing != listener)
+                .toArray(StatementListener[]::new);
+    }
 
     /**
      * Method for Subclasses to set the table name for their corresponding table
@@ -41,19 +85,13 @@ public class DbQuery {
             return;
         }
 
-        if(this.whereCondition == null) {
-            this.whereCondition = new StringBuffer();
-            this.whereCondition.append(" WHERE ");
-        } else {
-            this.whereCondition.append(" AND ");
-        }
-
-        this.whereCondition.append(column);
+        startWhereClause(column);
 
         if(value.equalsIgnoreCase("NULL")){
             this.whereCondition.append(" IS NULL");
         } else {
-            this.whereCondition.append(" = '").append(value).append("'");
+            this.whereCondition.append(" = ?");
+            this.whereValues.add(value);
         }
 
     }
@@ -69,14 +107,124 @@ public class DbQuery {
             return;
         }
 
+        startWhereClause(column);
+
+        this.whereCondition.append(" = ?");
+        this.whereValues.add(value);
+    }
+
+    /**
+     * This is a method for keyset pagination, constraining results to rows ordered after a given row
+     *
+     * @param column sort column
+     * @param value sort column value of the last row already returned
+     * @param idColumn unique column breaking ties within the sort column
+     * @param id unique column value of the last row already returned
+     */
+    public void addWhereAfter(String column, Object value, String idColumn, int id) {
+        if(column == null || idColumn == null) {
+            return;
+        }
+
+        if(column.equals(idColumn)) {
+            startWhereClause(idColumn);
+            this.whereCondition.append(" > ?");
+            this.whereValues.add(id);
+            return;
+        }
+
+        startWhereClause("(");
+
+        if(value == null) {
+            // NULLs sort first, so every non-null value follows
+            this.whereCondition.append(column).append(" IS NOT NULL OR (")
+                    .append(column).append(" IS NULL AND ").append(idColumn).append(" > ?))");
+            this.whereValues.add(id);
+        } else {
+            this.whereCondition.append(column).append(" > ? OR (")
+                    .append(column).append(" = ? AND ").append(idColumn).append(" > ?))");
+            this.whereValues.add(value);
+            this.whereValues.add(value);
+            this.whereValues.add(id);
+        }
+    }
+
+    /**
+     * This is a method for constraining results to rows whose column value is greater than the given value
+     *
+     * @param column column name
+     * @param value exclusive lower bound of the column
+     */
+    public void addWhereGreaterThan(String column, long value) {
+        if(column == null) {
+            return;
+        }
+
+        startWhereClause(column);
+
+        this.whereCondition.append(" > ?");
+        this.whereValues.add(value);
+    }
+
+    /**
+     * This is a method for constraining results to rows whose column value is at most the given value
+     *
+     * @param column column name
+     * @param value inclusive upper bound of the column
+     */
+    public void addWhereAtMost(String column, long value) {
+        if(column == null) {
+            return;
+        }
+
+        startWhereClause(column);
+
+        this.whereCondition.append(" <= ?");
+        this.whereValues.add(value);
+    }
+
+    /**
+     * Method for setting the sort order of select statements
+     *
+     * @param columns column names to sort by, ascending
+     */
+    public void setOrderBy(String... columns) {
+        this.orderBy = columns;
+    }
+
+    /**
+     * Method for capping the number of rows returned by select statements. Requires an order by.
+     *
+     * @param limit maximum number of rows
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Method for hinting how many rows the driver should fetch per round trip when streaming
+     *
+     * @param fetchSize number of rows per fetch
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Starts a new WHERE or AND clause with the given expression
+     *
+     * @param column column name or opening expression of the clause
+     */
+    private void startWhereClause(String column) {
         if(this.whereCondition == null) {
             this.whereCondition = new StringBuffer();
             this.whereCondition.append(" WHERE ");
+            this.whereValues = new ArrayList<>();
         } else {
             this.whereCondition.append(" AND ");
         }
 
-        this.whereCondition.append(column).append(" = ").append(value);
+        this.whereCondition.append(column);
     }
 
     /**
@@ -86,14 +234,73 @@ public class DbQuery {
      */
     public ArrayList<HashMap<String, Object>> select() {
         StringBuffer sql = new StringBuffer();
+        ArrayList<Object> params = new ArrayList<>();
 
         sql.append("SELECT * FROM ").append(tableName);
-        if (whereCondition != null) {
-            sql.append(whereCondition);
-            whereCondition = null;
-        }
+        appendWhere(sql, params);
+        appendOrderAndLimit(sql, params);
 
-        return execute(sql.toString());
+        return execute(sql.toString(), params);
+    }
+
+    /**
+     * This method is used for running select statements that map rows straight into objects
+     *
+     * @param mapper RowMapper that names the selected columns and converts each row
+     * @return ArrayList of mapped rows
+     */
+    public <T> ArrayList<T> select(RowMapper<T> mapper) {
+        StringBuffer sql = new StringBuffer();
+        ArrayList<Object> params = new ArrayList<>();
+
+        sql.append("SELECT ").append(String.join(", ", mapper.columns())).append(" FROM ").append(tableName);
+        appendWhere(sql, params);
+        appendOrderAndLimit(sql, params);
+
+        return execute(sql.toString(), params, mapper);
+    }
+
+    /**
+     * This method is used for streaming select results without holding them in memory
+     * <p>
+     *     Rows are read through a forward-only, read-only cursor and passed to the handler as they arrive.
+     *     Unlike the other statements, failures are thrown since the handler may already have consumed rows.
+     * </p>
+     *
+     * @param mapper RowMapper that names the selected columns and converts each row
+     * @param handler RowHandler receiving each mapped row
+     * @return number of rows streamed
+     */
+    public <T> long stream(RowMapper<T> mapper, RowHandler<T> handler) throws SQLException, IOException {
+        StringBuffer sql = new StringBuffer();
+        ArrayList<Object> params = new ArrayList<>();
+
+        sql.append("SELECT ").append(String.join(", ", mapper.columns())).append(" FROM ").append(tableName);
+        appendWhere(sql, params);
+        appendOrderAndLimit(sql, params);
+
+        StatementExecution execution = new StatementExecution(sql.toString(), params);
+        try (Connection conn = connect(execution);
+             PreparedStatement statement = conn.prepareStatement(execution.getSql(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+        {
+            if(fetchSize > 0) {
+                statement.setFetchSize(fetchSize);
+            }
+            bind(statement, params);
+
+            long rows = 0;
+            try (ResultSet resultSet = statement.executeQuery()) {
+                execution.executed();
+                while (resultSet.next()) {
+                    handler.handle(mapper.mapRow(resultSet));
+                    rows++;
+                }
+            }
+            execution.finished(rows);
+            return rows;
+        } finally {
+            report(execution);
+        }
     }
 
     /**
@@ -104,34 +311,47 @@ public class DbQuery {
      */
     public void setColumnValue(String column, Object value) {
         if(columnValues == null)
-            columnValues = new HashMap<>();
+            columnValues = new LinkedHashMap<>();
 
         columnValues.put(column, value);
     }
 
+    /**
+     * This method is for setting a column to a SQL expression evaluated by the database, such as
+     * NEXT VALUE FOR a sequence, rather than to a bound value
+     *
+     * @param column name of column to be updated
+     * @param expression trusted SQL expression, never user input
+     */
+    public void setColumnExpression(String column, String expression) {
+        setColumnValue(column, new Expression(expression));
+    }
+
     /**
      * This method is used for running update statements against the database
      *
      * @return boolean indicating whether update was successful
      */
     public boolean update() {
+        ArrayList<Object> params = new ArrayList<>();
+        return executeUpdate(constructUpdateSQL(params), params);
+    }
+
+    /**
+     * Builds an UPDATE statement with a placeholder for each column value and WHERE constraint
+     *
+     * @param params list receiving the values to bind, in placeholder order
+     * @return parameterized UPDATE statement
+     */
+    private String constructUpdateSQL(List<Object> params) {
         StringBuffer sql = new StringBuffer();
 
         sql.append("UPDATE ").append(tableName).append(" SET ");
 
         int index = 0;
-        for(Map.Entry entry: columnValues.entrySet()) {
+        for(Map.Entry<String, Object> entry: columnValues.entrySet()) {
             index++;
-            String column = (String) entry.getKey();
-            Object value = entry.getValue();
-
-            sql.append(column).append(" = ");
-
-            if(value instanceof String || value instanceof Timestamp) {
-                sql.append("'").append(value.toString()).append("'");
-            } else {
-                sql.append(value);
-            }
+            sql.append(entry.getKey()).append(" = ").append(placeholderFor(entry.getValue(), params));
 
             if(index < columnValues.size()) {
                 sql.append(", ");
@@ -140,12 +360,9 @@ public class DbQuery {
 
         columnValues = null;
 
-        if(whereCondition != null) {
-            sql.append(whereCondition);
-            whereCondition = null;
-        }
+        appendWhere(sql, params);
 
-        return executeUpdate(sql.toString());
+        return sql.toString();
     }
 
     /**
@@ -154,142 +371,464 @@ public class DbQuery {
      * @return boolean indicating whether insert was successful
      */
     public boolean insert() {
-         return executeUpdate(constructInsertSQL());
+        ArrayList<Object> params = new ArrayList<>();
+        return executeUpdate(constructInsertSQL(params), params);
     }
 
     /**
-     * This method is used for running insert statements against the database
+     * This method is used for running insert statements against the database with option to throw SQLIntegrityConstraintViolationException
      *
      * @return boolean indicating whether insert was successful
      */
     public boolean insertAndThrow() throws IntegrityConstraintViolationException {
-        return executeUpdateAndThrow(constructInsertSQL());
+        ArrayList<Object> params = new ArrayList<>();
+        return executeUpdateAndThrow(constructInsertSQL(params), params);
     }
 
     /**
-     * This method is used for running insert statements against the database with option to throw SQLIntegrityConstraintViolationException
+     * This method is used for drawing the next value of a sequence
+     * <p>
+     *     Unlike the other statements, failures are thrown since no return value could stand for one.
+     * </p>
      *
-     * @return boolean indicating whether insert was successful
+     * @param sequence trusted sequence name
+     * @return next value of the sequence
      */
-    private String constructInsertSQL() {
+    public long nextSequenceValue(String sequence) throws SQLException {
+        StatementExecution execution = new StatementExecution("SELECT NEXT VALUE FOR " + sequence, List.of());
+        try (Connection conn = connect(execution);
+             PreparedStatement statement = conn.prepareStatement(execution.getSql());
+             ResultSet resultSet = statement.executeQuery())
+        {
+            execution.executed();
+            resultSet.next();
+            long value = resultSet.getLong(1);
+            execution.finished(1);
+            return value;
+        } finally {
+            report(execution);
+        }
+    }
+
+    /**
+     * This method is used for moving a sequence forward so it never hands out a value below the given one
+     *
+     * @param sequence trusted sequence name
+     * @param minimum lowest value the sequence may hand out next
+     */
+    public void advanceSequence(String sequence, long minimum) throws SQLException {
+        if(nextSequenceValue(sequence) >= minimum) {
+            return;
+        }
+
+        StatementExecution execution = new StatementExecution("ALTER SEQUENCE " + sequence + " RESTART WITH " + minimum, List.of());
+        try (Connection conn = connect(execution);
+             Statement statement = conn.createStatement())
+        {
+            statement.execute(execution.getSql());
+            execution.finished(0);
+        } finally {
+            report(execution);
+        }
+    }
+
+    /**
+     * Builds an INSERT statement with a placeholder for each column value
+     *
+     * @param params list receiving the values to bind, in placeholder order
+     * @return parameterized INSERT statement
+     */
+    private String constructInsertSQL(List<Object> params) {
         StringBuffer sql = new StringBuffer();
         sql.append("INSERT INTO ").append(tableName).append("(");
 
+        StringBuffer values = new StringBuffer();
         int colIndex = 0;
-        for(Map.Entry entry: columnValues.entrySet()) {
+        for(Map.Entry<String, Object> entry: columnValues.entrySet()) {
             colIndex++;
-            sql.append(entry.getKey().toString());
+            sql.append(entry.getKey());
+            values.append(placeholderFor(entry.getValue(), params));
 
-            if(colIndex < columnValues.entrySet().size()) {
+            if(colIndex < columnValues.size()) {
                 sql.append(",");
+                values.append(",");
             }
         }
-        sql.append(") VALUES (");
-        int valIndex = 0;
-        for(Map.Entry entry: columnValues.entrySet()) {
-            valIndex++;
-            Object value = entry.getValue();
-
-            if(value instanceof String || value instanceof Timestamp) {
-                sql.append("'").append(value.toString()).append("'");
-            } else {
-                sql.append(value);
-            }
-
-            if(valIndex < columnValues.entrySet().size()) {
-                sql.append(",");
-            }
-        }
-        sql.append(")");
+        sql.append(") VALUES (").append(values).append(")");
 
         columnValues = null;
 
         return sql.toString();
     }
 
+    /**
+     * @param value column value or Expression
+     * @param params list receiving the value to bind, unless it is an Expression
+     * @return placeholder or SQL expression to write in place of the value
+     */
+    private static String placeholderFor(Object value, List<Object> params) {
+        if(value instanceof Expression) {
+            return ((Expression) value).sql;
+        }
+
+        params.add(value);
+        return "?";
+    }
+
     /**
      * This method is used for running delete statements against the database
      *
      * @return boolean indicating whether delete was successful
      */
     public boolean delete() {
+        if(whereCondition == null) {
+            return false;
+        }
+
+        ArrayList<Object> params = new ArrayList<>();
+        return executeUpdate(constructDeleteSQL(params), params);
+    }
+
+    /**
+     * Builds a DELETE statement with a placeholder for each WHERE constraint
+     *
+     * @param params list receiving the values to bind, in placeholder order
+     * @return parameterized DELETE statement
+     */
+    private String constructDeleteSQL(List<Object> params) {
         StringBuffer sql = new StringBuffer();
         sql.append("DELETE FROM ").append(tableName);
+        appendWhere(sql, params);
+        return sql.toString();
+    }
+
+    /**
+     * Queues the pending column values as one row of a batched insert
+     */
+    public void addInsertBatch() {
+        ArrayList<Object> params = new ArrayList<>();
+        addBatch(constructInsertSQL(params), params);
+    }
+
+    /**
+     * Queues the pending column values and WHERE constraints as one row of a batched update
+     */
+    public void addUpdateBatch() {
+        ArrayList<Object> params = new ArrayList<>();
+        addBatch(constructUpdateSQL(params), params);
+    }
+
+    /**
+     * Queues the pending WHERE constraints as one row of a batched delete
+     */
+    public void addDeleteBatch() {
+        if(whereCondition == null) {
+            throw new IllegalStateException("Batched delete requires a WHERE constraint");
+        }
+
+        ArrayList<Object> params = new ArrayList<>();
+        addBatch(constructDeleteSQL(params), params);
+    }
+
+    /**
+     * Queues a copy of the rows matching the pending WHERE constraints into another table
+     * <p>
+     *     Builds INSERT INTO targetTable(targetColumns) SELECT expressions FROM tableName WHERE ...
+     * </p>
+     *
+     * @param targetTable table receiving the copied rows
+     * @param targetColumns columns of the target table, in order
+     * @param expressions trusted column names or SQL expressions selected from this table, one per target column
+     */
+    public void addCopyBatch(String targetTable, String[] targetColumns, String[] expressions) {
+        if(whereCondition == null) {
+            throw new IllegalStateException("Batched copy requires a WHERE constraint");
+        }
+
+        StringBuffer sql = new StringBuffer();
+        ArrayList<Object> params = new ArrayList<>();
+
+        sql.append("INSERT INTO ").append(targetTable).append("(").append(String.join(",", targetColumns)).append(")")
+                .append(" SELECT ").append(String.join(", ", expressions)).append(" FROM ").append(tableName);
+        appendWhere(sql, params);
+
+        addBatch(sql.toString(), params);
+    }
+
+    /**
+     * @param sql parameterized statement for this row
+     * @param params values bound to the statement's placeholders for this row
+     */
+    private void addBatch(String sql, List<Object> params) {
+        if(batchSqls == null) {
+            batchSqls = new ArrayList<>();
+            batchParams = new ArrayList<>();
+        }
+
+        batchSqls.add(sql);
+        batchParams.add(params);
+    }
+
+    /**
+     * This method runs every queued batch row in a single transaction
+     * <p>
+     *     Either all rows are committed or, when any statement fails, none are. Consecutive rows using the
+     *     same statement are sent to the database as one JDBC batch.
+     * </p>
+     *
+     * @return boolean for each queued row, in order, indicating whether it changed a record
+     */
+    public boolean[] executeBatch() {
+        if(batchSqls == null) {
+            return new boolean[0];
+        }
+
+        boolean[] results = new boolean[batchParams.size()];
+
+        // the first statement's run also covers borrowing the connection
+        StatementExecution first = new StatementExecution(batchSqls.get(0), batchParams.get(0));
+        try (Connection conn = connect(first)) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+
+            try {
+                int start = 0;
+                while (start < batchSqls.size()) {
+                    String sql = batchSqls.get(start);
+                    int end = start;
+                    while (end < batchSqls.size() && batchSqls.get(end).equals(sql)) {
+                        end++;
+                    }
+
+                    StatementExecution execution = start == 0 ? first : new StatementExecution(sql, batchParams.get(start));
+                    execution.setBatchSize(end - start);
+                    try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                        for (int i = start; i < end; i++) {
+                            bind(statement, batchParams.get(i));
+                            statement.addBatch();
+                        }
+
+                        int[] counts = statement.executeBatch();
+                        long rows = 0;
+                        for (int i = 0; i < counts.length && start + i < end; i++) {
+                            results[start + i] = counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO;
+                            rows += Math.max(counts[i], 0);
+                        }
+                        execution.finished(rows);
+                    } finally {
+                        report(execution);
+                    }
+
+                    start = end;
+                }
 
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            Arrays.fill(results, false);
+        } finally {
+            report(first);
+            batchSqls = null;
+            batchParams = null;
+        }
+
+        return results;
+    }
+
+    /**
+     * Moves the pending WHERE clause and its values onto a statement
+     *
+     * @param sql statement being built
+     * @param params list receiving the values to bind, in placeholder order
+     */
+    private void appendWhere(StringBuffer sql, List<Object> params) {
         if(whereCondition != null) {
             sql.append(whereCondition);
+            params.addAll(whereValues);
             whereCondition = null;
-        } else {
-            return false;
+            whereValues = null;
         }
+    }
 
-        return executeUpdate(sql.toString());
+    /**
+     * Appends the ORDER BY clause and row limit to a select statement
+     *
+     * @param sql statement being built
+     * @param params list receiving the values to bind, in placeholder order
+     */
+    private void appendOrderAndLimit(StringBuffer sql, List<Object> params) {
+        if(orderBy == null || orderBy.length == 0) {
+            return;
+        }
+
+        sql.append(" ORDER BY ").append(String.join(", ", orderBy));
+
+        if(limit > 0) {
+            sql.append(" OFFSET 0 ROWS FETCH NEXT ? ROWS ONLY");
+            params.add(limit);
+        }
     }
 
     /**
-     * @param query String to execute a select statement
+     * @param query parameterized select statement
+     * @param params values bound to the statement's placeholders
      * @return ArrayList of SQL results represented as key value pairs
      */
-    private ArrayList<HashMap<String, Object>> execute(String query) {
-        try (Connection conn = getConnection();
-             Statement statement = conn.createStatement())
+    private ArrayList<HashMap<String, Object>> execute(String query, List<Object> params) {
+        StatementExecution execution = new StatementExecution(query, params);
+        try (Connection conn = connect(execution);
+             PreparedStatement statement = conn.prepareStatement(query))
         {
-            statement.execute(query);
-            return getResultList(statement.getResultSet());
+            bind(statement, params);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                execution.executed();
+                ArrayList<HashMap<String, Object>> results = getResultList(resultSet);
+                execution.finished(results.size());
+                return results;
+            }
         } catch (Exception e) {
             e.printStackTrace();
             return new ArrayList();
+        } finally {
+            report(execution);
         }
     }
 
     /**
-     * @param query String to execute an UPDATE, DELETE, or INSERT statement
+     * @param query parameterized select statement
+     * @param params values bound to the statement's placeholders
+     * @param mapper RowMapper converting each row
+     * @return ArrayList of mapped rows
+     */
+    private <T> ArrayList<T> execute(String query, List<Object> params, RowMapper<T> mapper) {
+        StatementExecution execution = new StatementExecution(query, params);
+        try (Connection conn = connect(execution);
+             PreparedStatement statement = conn.prepareStatement(query))
+        {
+            bind(statement, params);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                execution.executed();
+                ArrayList<T> results = new ArrayList<>();
+                while (resultSet.next()) {
+                    results.add(mapper.mapRow(resultSet));
+                }
+                execution.finished(results.size());
+                return results;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        } finally {
+            report(execution);
+        }
+    }
+
+    /**
+     * @param query parameterized UPDATE, DELETE, or INSERT statement
+     * @param params values bound to the statement's placeholders
      * @return boolean indicating a successful query
      */
-    private boolean executeUpdate(String query) {
-        try (Connection conn = getConnection();
-             Statement statement = conn.createStatement())
+    private boolean executeUpdate(String query, List<Object> params) {
+        StatementExecution execution = new StatementExecution(query, params);
+        try (Connection conn = connect(execution);
+             PreparedStatement statement = conn.prepareStatement(query))
         {
-            return statement.executeUpdate(query) > 0;
+            bind(statement, params);
+            int rows = statement.executeUpdate();
+            execution.finished(rows);
+            return rows > 0;
         } catch (Exception e) {
             e.printStackTrace();
             return false;
+        } finally {
+            report(execution);
         }
     }
 
     /**
-     * @param query String to execute an UPDATE, DELETE, or INSERT statement
+     * @param query parameterized UPDATE, DELETE, or INSERT statement
+     * @param params values bound to the statement's placeholders
      * @return boolean indicating a successful query
      * @throws IntegrityConstraintViolationException indicating a race condition
      */
-    private boolean executeUpdateAndThrow(String query) throws IntegrityConstraintViolationException {
-        try (Connection conn = getConnection();
-             Statement statement = conn.createStatement())
+    private boolean executeUpdateAndThrow(String query, List<Object> params) throws IntegrityConstraintViolationException {
+        StatementExecution execution = new StatementExecution(query, params);
+        try (Connection conn = connect(execution);
+             PreparedStatement statement = conn.prepareStatement(query))
         {
+            bind(statement, params);
             try {
-                return statement.executeUpdate(query) > 0;
+                int rows = statement.executeUpdate();
+                execution.finished(rows);
+                return rows > 0;
             } catch (SQLIntegrityConstraintViolationException e) {
                 throw new IntegrityConstraintViolationException();
             }
-        } catch (SQLException | ClassNotFoundException | IOException e) {
+        } catch (SQLException e) {
             e.printStackTrace();
             return false;
+        } finally {
+            report(execution);
+        }
+    }
+
+    /**
+     * Binds values to a statement's placeholders in order
+     *
+     * @param statement prepared statement to bind
+     * @param params values for placeholders 1..n
+     */
+    private static void bind(PreparedStatement statement, List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            Object value = params.get(i);
+
+            if(value instanceof Timestamp) {
+                statement.setTimestamp(i + 1, (Timestamp) value);
+            } else {
+                statement.setObject(i + 1, value);
+            }
         }
     }
 
     /**
-     * Method for getting a connection to the database
+     * Borrows a connection for a statement, ending its connect phase
      *
-     * @return Connection to database
+     * @param execution run of the statement the connection is for
+     * @return Connection to database, returned to the pool on close
      */
+    private Connection connect(StatementExecution execution) throws SQLException {
+        Connection conn = getConnection();
+        execution.connected();
+        return conn;
+    }
 
-    private static Connection getConnection() throws ClassNotFoundException, SQLException, IOException {
-        Class.forName("com.microsoft.sqlserver.jdbc.SQLServerDriver");
+    /**
+     * Reports a finished statement to the StatementListeners, once
+     *
+     * @param execution run of the statement, after its connection was returned
+     */
+    private static void report(StatementExecution execution) {
+        if(!execution.end())
+            return;
 
-        Properties properties = new Properties();
-        properties.load(TvTrackerApiApplication.class.getClassLoader().getResourceAsStream("application.properties"));
+        for (StatementListener listener : statementListeners) {
+            listener.statementExecuted(execution);
+        }
+    }
 
-        return DriverManager.getConnection(properties.getProperty("url"), properties);
+    /**
+     * Method for borrowing a pooled connection to the database
+     *
+     * @return Connection to database, returned to the pool on close
+     */
+    private Connection getConnection() throws SQLException {
+        return dataSource.getConnection();
     }
 
     /**
@@ -323,6 +862,17 @@ public class DbQuery {
         return results;
     }
 
+    /**
+     * SQL expression written into a statement in place of a bound value
+     */
+    private static final class Expression {
+        private final String sql;
+
+        private Expression(String sql) {
+            this.sql = sql;
+        }
+    }
+
     public class IntegrityConstraintViolationException extends Exception {
         public IntegrityConstraintViolationException() {
             super("Duplicate Primary Key.");
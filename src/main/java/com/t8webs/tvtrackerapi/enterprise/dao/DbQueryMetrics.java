@@ -0,0 +1,91 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class recording the timing and row count of every statement DbQuery runs
+ * <p>
+ *     Statements are told apart by their fingerprint template, so each query shape gets its own
+ *     tvtracker.db.statement timer and tvtracker.db.statement.rows summary, tagged with the statement. Both publish
+ *     histogram buckets, leaving percentiles to be computed when the metrics are queried rather than on every
+ *     statement. Once tvtracker.metrics.max-statements shapes have been seen, further ones are recorded together
+ *     under the statement tag "other".
+ * </p>
+ */
+@Component
+public class DbQueryMetrics implements StatementListener {
+
+    static final String OTHER = "other";
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${tvtracker.metrics.max-statements:200}")
+    int maxStatements;
+
+    private final ConcurrentHashMap<String, StatementMeters> statements = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void register() {
+        DbQuery.addStatementListener(this);
+    }
+
+    @PreDestroy
+    void unregister() {
+        DbQuery.removeStatementListener(this);
+    }
+
+    @Override
+    public void statementExecuted(StatementExecution execution) {
+        String template = execution.getFingerprint().getTemplate();
+        StatementMeters meters = statements.get(template);
+        if(meters == null) {
+            String statement = statements.size() < maxStatements ? template : OTHER;
+            meters = statements.computeIfAbsent(statement, StatementMeters::new);
+        }
+
+        (execution.isFailed() ? meters.failed : meters.succeeded).record(execution.getElapsedNanos(), TimeUnit.NANOSECONDS);
+        meters.rows.record(execution.getRows());
+    }
+
+    /**
+     * Meters kept for one statement
+     */
+    private final class StatementMeters {
+        private final Timer succeeded;
+        private final Timer failed;
+        private final DistributionSummary rows;
+
+        private StatementMeters(String statement) {
+            succeeded = timer(statement, "success");
+            failed = timer(statement, "error");
+            rows = DistributionSummary.builder("tvtracker.db.statement.rows")
+                    .description("Rows read or changed by each statement")
+                    .tag("statement", statement)
+                    .publishPercentileHistogram()
+                    .maximumExpectedValue(10000.0)
+                    .register(meterRegistry);
+        }
+
+        private Timer timer(String statement, String outcome) {
+            return Timer.builder("tvtracker.db.statement")
+                    .description("Time from borrowing a connection for a statement until it was returned")
+                    .tags("statement", statement, "outcome", outcome)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(100_000))
+                    .maximumExpectedValue(Duration.ofSeconds(10))
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.t8webs.tvtrackerapi.enterprise.dao;
 
 
 import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryFilter;
 
 import java.io.IOException;
 import java.sql.SQLException;
@@ -17,8 +18,8 @@ public interface IMediaEntryDAO {
         /**
          * Method for creating a new MediaEntry record in the database
          *
-         * @param mediaEntry MediaEntry object to be saved as a record in the database
-         * @return MediaEntry object representation of new database record
+         * @param mediaEntry MediaEntry object to be saved as a record in the database, receiving the new record's id
+         * @return boolean indicating MediaEntry was successfully saved
          */
         boolean save(MediaEntry mediaEntry) throws SQLException, IOException, ClassNotFoundException;
 
@@ -32,21 +33,81 @@ public interface IMediaEntryDAO {
         List<MediaEntry> fetchByUsername(String username) throws SQLException, IOException, ClassNotFoundException;
 
 
+        /**
+         * Method for fetching one page of a user's MediaEntry records in keyset order
+         *
+         * @param filter username, sort column and column filters
+         * @param after last MediaEntry of the previous page, null for the first page
+         * @param limit maximum number of records to return
+         * @return List of MediaEntry objects sorted after the given entry
+         */
+        List<MediaEntry> fetchPageByUsername(MediaEntryFilter filter, MediaEntry after, int limit) throws SQLException, IOException, ClassNotFoundException;
+
+
+        /**
+         * Method for streaming all MediaEntry records for a given user, in id order, without loading them into a list
+         *
+         * @param username String uniquely identify a UserAccount record
+         * @param handler RowHandler receiving each MediaEntry as it is read
+         * @return number of MediaEntry records streamed
+         */
+        long streamByUsername(String username, RowHandler<MediaEntry> handler) throws SQLException, IOException, ClassNotFoundException;
+
+
+        /**
+         * Method for fetching the change sequence value up to which all of a user's changes have committed
+         * <p>
+         *     Sequence values are drawn before their transactions commit, so a change above this value may still
+         *     be followed by a commit with a lower one.
+         * </p>
+         *
+         * @param username String uniquely identify a UserAccount record
+         * @return highest change sequence value with no uncommitted changes at or below it, 0 when there is none
+         */
+        long fetchChangeHorizon(String username) throws SQLException, IOException, ClassNotFoundException;
+
+
+        /**
+         * Method for fetching a user's MediaEntry records inserted or updated after a change sequence value
+         *
+         * @param username String uniquely identify a UserAccount record
+         * @param since change sequence value already seen by the client
+         * @param upTo highest change sequence value to return, usually the user's change horizon
+         * @param limit maximum number of records to return
+         * @return List of MediaEntry objects in change sequence order
+         */
+        List<MediaEntry> fetchChangedByUsername(String username, long since, long upTo, int limit) throws SQLException, IOException, ClassNotFoundException;
+
+
+        /**
+         * Method for fetching tombstones of a user's MediaEntry records deleted after a change sequence value
+         *
+         * @param username String uniquely identify a UserAccount record
+         * @param since change sequence value already seen by the client
+         * @param upTo highest change sequence value to return, usually the user's change horizon
+         * @param limit maximum number of tombstones to return
+         * @return List of MediaEntry objects holding the id, username and change sequence of each deletion
+         */
+        List<MediaEntry> fetchDeletedByUsername(String username, long since, long upTo, int limit) throws SQLException, IOException, ClassNotFoundException;
+
+
         /**
          * Method for fetching a distinct record in the database
          *
+         * @param username owner of the MediaEntry record
          * @param id integer uniquely identifying a MediaEntry record
-         * @return MediaEntry object representation of corresponding database record
+         * @return MediaEntry object representation of corresponding database record, or null when the user owns none with this id
          */
-        MediaEntry fetch(int id) throws SQLException, IOException, ClassNotFoundException;
+        MediaEntry fetch(String username, int id) throws SQLException, IOException, ClassNotFoundException;
 
         /**
-         * Method for deleting a single MediaEntry record in the database
+         * Method for deleting a single MediaEntry record in the database, leaving a tombstone behind
          *
+         * @param username owner of the MediaEntry record
          * @param id integer uniquely identifying a MediaEntry record
          * @return boolean indicating MediaEntry was successfully deleted
          */
-        boolean delete(int id) throws SQLException, IOException, ClassNotFoundException;
+        boolean delete(String username, int id) throws SQLException, IOException, ClassNotFoundException;
 
 
         /**
@@ -56,4 +117,37 @@ public interface IMediaEntryDAO {
          * @return boolean indicating MediaEntry was successfully updated
          */
         boolean update(MediaEntry mediaEntry) throws SQLException, IOException, ClassNotFoundException;
+
+
+        /**
+         * Method for creating many MediaEntry records in a single transaction
+         *
+         * @param mediaEntries MediaEntry objects to be saved as records in the database
+         * @return boolean for each MediaEntry, in order, indicating a successful save
+         */
+        boolean[] saveAll(List<MediaEntry> mediaEntries) throws SQLException, IOException, ClassNotFoundException;
+
+
+        /**
+         * Method for updating many MediaEntry records in a single transaction
+         * <p>
+         *     A record is only updated when both its id and username match.
+         * </p>
+         *
+         * @param mediaEntries MediaEntry objects to be used for updating database records
+         * @return boolean for each MediaEntry, in order, indicating a successful update
+         */
+        boolean[] updateAll(List<MediaEntry> mediaEntries) throws SQLException, IOException, ClassNotFoundException;
+
+
+        /**
+         * Method for deleting many MediaEntry records in a single transaction
+         * <p>
+         *     A record is only deleted when both its id and username match.
+         * </p>
+         *
+         * @param mediaEntries MediaEntry objects identifying the records to delete
+         * @return boolean for each MediaEntry, in order, indicating a successful delete
+         */
+        boolean[] deleteAll(List<MediaEntry> mediaEntries) throws SQLException, IOException, ClassNotFoundException;
 }
@@ -2,29 +2,86 @@ package com.t8webs.tvtrackerapi.enterprise.dao;
 
 
 import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Repository;
 
 import java.io.IOException;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Data Access Object for Media Entries backed by the database
+ * <p>
+ *     Every insert and update stamps the entry with the next value of the MediaEntryChangeSeq sequence, and every
+ *     delete copies the entry's id into MediaEntryTombstone with a sequence value of its own, in the same
+ *     transaction. Together they let clients fetch only what changed after a given sequence value.
+ * </p>
+ * <p>
+ *     Sequence values are drawn when a statement runs, not when it commits, so two concurrent changes could commit
+ *     out of sequence order and a client syncing in between would skip the lower one for good. Every change to a
+ *     user's entries therefore first locks the user's UserAccount row, and last raises its changeSeq, the change
+ *     horizon, above every value the change drew. A user's changes thus commit in sequence order, and the changes
+ *     feed only returns values up to the horizon, which were all committed when it was read.
+ * </p>
+ * <p>
+ *     Every statement runs on the owner's shard. Ids are allocated by the shard rather than an identity column,
+ *     so they stay unique when rebalancing moves entries between shards.
+ * </p>
+ */
 @Repository
 @Profile("dev")
 public class MediaEntryDAO implements IMediaEntryDAO {
 
+    @Autowired
+    ShardRouter shardRouter;
+
+    @Value("${tvtracker.export.fetch-size:500}")
+    int exportFetchSize;
+
+    private static final RowMapper<MediaEntry> rowMapper = new MediaEntryRowMapper();
+    private static final RowMapper<MediaEntry> tombstoneMapper = new MediaEntryTombstoneRowMapper();
+    private static final RowMapper<Long> horizonMapper = new RowMapper<Long>() {
+        private final String[] columns = {"changeSeq"};
+
+        @Override
+        public String[] columns() {
+            return columns;
+        }
+
+        @Override
+        public Long mapRow(ResultSet resultSet) throws SQLException {
+            return resultSet.getLong(1);
+        }
+    };
+
+    private static final String NEXT_CHANGE_SEQ = "NEXT VALUE FOR MediaEntryChangeSeq";
+    private static final String[] TOMBSTONE_COLUMNS = {"id", "username", "changeSeq"};
+    private static final String[] TOMBSTONE_VALUES = {"id", "username", NEXT_CHANGE_SEQ};
+
     /**
      * Method for creating a new MediaEntry record in the database
      *
-     * @param mediaEntry MediaEntry object to be saved as a record in the database
-     * @return MediaEntry object representation of new database record
+     * @param mediaEntry MediaEntry object to be saved as a record in the database, receiving the new record's id
+     * @return boolean indicating a successful save
      */
     @Override
     public boolean save(MediaEntry mediaEntry) throws SQLException, IOException, ClassNotFoundException {
-        DbQuery query = newQueryUsing(mediaEntry);
-        return query.insert();
+        mediaEntry.setId(shardRouter.allocateMediaEntryId(mediaEntry.getUsername()));
+
+        DbQuery query = newQuery(mediaEntry.getUsername());
+        beginChange(query, mediaEntry.getUsername());
+        setColumnValues(query, mediaEntry);
+        query.setColumnValue("id", mediaEntry.getId());
+        query.addInsertBatch();
+        endChange(query, mediaEntry.getUsername());
+
+        boolean[] results = query.executeBatch();
+        return results.length == 3 && results[1];
     }
 
     /**
@@ -35,22 +92,128 @@ public class MediaEntryDAO implements IMediaEntryDAO {
      */
     @Override
     public List<MediaEntry> fetchByUsername(String username) throws SQLException, IOException, ClassNotFoundException {
-        DbQuery query = newQuery();
+        DbQuery query = newReadQuery(username);
+        query.addWhere("username", username);
+        return query.select(rowMapper);
+    }
+
+    /**
+     * Method for fetching one page of a user's MediaEntry records in keyset order
+     *
+     * @param filter username, sort column and column filters
+     * @param after last MediaEntry of the previous page, null for the first page
+     * @param limit maximum number of records to return
+     * @return List of MediaEntry objects sorted after the given entry
+     */
+    @Override
+    public List<MediaEntry> fetchPageByUsername(MediaEntryFilter filter, MediaEntry after, int limit) throws SQLException, IOException, ClassNotFoundException {
+        DbQuery query = newQuery(filter.getUsername());
+        query.addWhere("username", filter.getUsername());
+        query.addWhere("type", filter.getType());
+        query.addWhere("platform", filter.getPlatform());
+
+        if(filter.getWatched() != null)
+            query.addWhere("watched", filter.getWatched() ? 1 : 0);
+
+        if("title".equals(filter.getOrderBy())) {
+            if(after != null)
+                query.addWhereAfter("title", after.getTitle(), "id", after.getId());
+            query.setOrderBy("title", "id");
+        } else {
+            if(after != null)
+                query.addWhereAfter("id", after.getId(), "id", after.getId());
+            query.setOrderBy("id");
+        }
+
+        query.setLimit(limit);
+        return query.select(rowMapper);
+    }
+
+    /**
+     * Method for streaming all MediaEntry records for a given user, in id order, without loading them into a list
+     *
+     * @param username String uniquely identify a UserAccount record
+     * @param handler RowHandler receiving each MediaEntry as it is read
+     * @return number of MediaEntry records streamed
+     */
+    @Override
+    public long streamByUsername(String username, RowHandler<MediaEntry> handler) throws SQLException, IOException, ClassNotFoundException {
+        DbQuery query = newQuery(username);
+        query.addWhere("username", username);
+        query.setOrderBy("id");
+        query.setFetchSize(exportFetchSize);
+        return query.stream(rowMapper, handler);
+    }
+
+    /**
+     * Method for fetching the change sequence value up to which all of a user's changes have committed
+     *
+     * @param username String uniquely identify a UserAccount record
+     * @return highest change sequence value with no uncommitted changes at or below it, 0 when there is none
+     */
+    @Override
+    public long fetchChangeHorizon(String username) throws SQLException, IOException, ClassNotFoundException {
+        DbQuery query = newQuery(username);
+        query.setTableName("UserAccount");
         query.addWhere("username", username);
-        return parse(query.select());
+        List<Long> horizons = query.select(horizonMapper);
+        return horizons.isEmpty() ? 0 : horizons.get(0);
+    }
+
+    /**
+     * Method for fetching a user's MediaEntry records inserted or updated after a change sequence value
+     *
+     * @param username String uniquely identify a UserAccount record
+     * @param since change sequence value already seen by the client
+     * @param upTo highest change sequence value to return, usually the user's change horizon
+     * @param limit maximum number of records to return
+     * @return List of MediaEntry objects in change sequence order
+     */
+    @Override
+    public List<MediaEntry> fetchChangedByUsername(String username, long since, long upTo, int limit) throws SQLException, IOException, ClassNotFoundException {
+        DbQuery query = newQuery(username);
+        query.addWhere("username", username);
+        query.addWhereGreaterThan("changeSeq", since);
+        query.addWhereAtMost("changeSeq", upTo);
+        query.setOrderBy("changeSeq");
+        query.setLimit(limit);
+        return query.select(rowMapper);
+    }
+
+    /**
+     * Method for fetching tombstones of a user's MediaEntry records deleted after a change sequence value
+     *
+     * @param username String uniquely identify a UserAccount record
+     * @param since change sequence value already seen by the client
+     * @param upTo highest change sequence value to return, usually the user's change horizon
+     * @param limit maximum number of tombstones to return
+     * @return List of MediaEntry objects holding the id, username and change sequence of each deletion
+     */
+    @Override
+    public List<MediaEntry> fetchDeletedByUsername(String username, long since, long upTo, int limit) throws SQLException, IOException, ClassNotFoundException {
+        DbQuery query = newQuery(username);
+        query.setTableName("MediaEntryTombstone");
+        query.addWhere("username", username);
+        query.addWhereGreaterThan("changeSeq", since);
+        query.addWhereAtMost("changeSeq", upTo);
+        query.setOrderBy("changeSeq");
+        query.setLimit(limit);
+        return query.select(tombstoneMapper);
     }
 
     /**
      * Method for fetching a distinct record in the database
      *
+     * @param username owner of the MediaEntry record, locating its shard
      * @param id integer uniquely identifying a MediaEntry record
      * @return MediaEntry object representation of corresponding database record
      */
     @Override
-    public MediaEntry fetch(int id) throws SQLException, IOException, ClassNotFoundException {
-        DbQuery query = newQuery();
+    public MediaEntry fetch(String username, int id) throws SQLException, IOException, ClassNotFoundException {
+        DbQuery query = newReadQuery(username);
         query.addWhere("id", id);
-        List<MediaEntry> entries = parse(query.select());
+        query.addWhere("username", username);
+        List<MediaEntry> entries = query.select(rowMapper);
 
         if(entries.isEmpty())
             return null;
@@ -61,14 +224,24 @@ public class MediaEntryDAO implements IMediaEntryDAO {
     /**
      * Method for deleting a single MediaEntry record in the database
      *
+     * @param username owner of the MediaEntry record, locating its shard
      * @param id integer uniquely identifying a MediaEntry record
      * @return boolean indicating a successfully delete
      */
     @Override
-    public boolean delete(int id) throws SQLException, IOException, ClassNotFoundException {
-        DbQuery query = newQuery();
+    public boolean delete(String username, int id) throws SQLException, IOException, ClassNotFoundException {
+        DbQuery query = newQuery(username);
+        beginChange(query, username);
         query.addWhere("id", id);
-        return query.delete();
+        query.addWhere("username", username);
+        query.addCopyBatch("MediaEntryTombstone", TOMBSTONE_COLUMNS, TOMBSTONE_VALUES);
+        query.addWhere("id", id);
+        query.addWhere("username", username);
+        query.addDeleteBatch();
+        endChange(query, username);
+
+        boolean[] results = query.executeBatch();
+        return results.length == 4 && results[2];
     }
 
     /**
@@ -79,19 +252,142 @@ public class MediaEntryDAO implements IMediaEntryDAO {
      */
     @Override
     public boolean update(MediaEntry mediaEntry) throws SQLException, IOException, ClassNotFoundException {
-        DbQuery query = newQueryUsing(mediaEntry);
+        DbQuery query = newQuery(mediaEntry.getUsername());
+        beginChange(query, mediaEntry.getUsername());
+        setColumnValues(query, mediaEntry);
         query.addWhere("id", mediaEntry.getId());
-        return query.update();
+        query.addWhere("username", mediaEntry.getUsername());
+        query.addUpdateBatch();
+        endChange(query, mediaEntry.getUsername());
+
+        boolean[] results = query.executeBatch();
+        return results.length == 3 && results[1];
     }
 
     /**
-     * This method sets all media entry column values for SQL statement
+     * Method for creating many MediaEntry records in a single transaction
      *
-     * @param mediaEntry source of column values
+     * @param mediaEntries MediaEntry objects to be saved as records in the database
+     * @return boolean for each MediaEntry, in order, indicating a successful save
+     */
+    @Override
+    public boolean[] saveAll(List<MediaEntry> mediaEntries) throws SQLException, IOException, ClassNotFoundException {
+        if(mediaEntries.isEmpty())
+            return new boolean[0];
+
+        String username = mediaEntries.get(0).getUsername();
+        DbQuery query = newQuery(username);
+        beginChange(query, username);
+        for (MediaEntry mediaEntry : mediaEntries) {
+            mediaEntry.setId(shardRouter.allocateMediaEntryId(mediaEntry.getUsername()));
+            setColumnValues(query, mediaEntry);
+            query.setColumnValue("id", mediaEntry.getId());
+            query.addInsertBatch();
+        }
+        endChange(query, username);
+        return changeResults(query.executeBatch(), mediaEntries.size());
+    }
+
+    /**
+     * Method for updating many MediaEntry records in a single transaction
+     *
+     * @param mediaEntries MediaEntry objects to be used for updating database records
+     * @return boolean for each MediaEntry, in order, indicating a successful update
      */
-    private DbQuery newQueryUsing(MediaEntry mediaEntry) {
-        DbQuery query = newQuery();
+    @Override
+    public boolean[] updateAll(List<MediaEntry> mediaEntries) throws SQLException, IOException, ClassNotFoundException {
+        if(mediaEntries.isEmpty())
+            return new boolean[0];
+
+        String username = mediaEntries.get(0).getUsername();
+        DbQuery query = newQuery(username);
+        beginChange(query, username);
+        for (MediaEntry mediaEntry : mediaEntries) {
+            setColumnValues(query, mediaEntry);
+            query.addWhere("id", mediaEntry.getId());
+            query.addWhere("username", mediaEntry.getUsername());
+            query.addUpdateBatch();
+        }
+        endChange(query, username);
+        return changeResults(query.executeBatch(), mediaEntries.size());
+    }
+
+    /**
+     * Method for deleting many MediaEntry records in a single transaction
+     *
+     * @param mediaEntries MediaEntry objects identifying the records to delete
+     * @return boolean for each MediaEntry, in order, indicating a successful delete
+     */
+    @Override
+    public boolean[] deleteAll(List<MediaEntry> mediaEntries) throws SQLException, IOException, ClassNotFoundException {
+        if(mediaEntries.isEmpty())
+            return new boolean[0];
+
+        String username = mediaEntries.get(0).getUsername();
+        DbQuery query = newQuery(username);
+        beginChange(query, username);
+        // tombstones first, then deletes, so each runs as one JDBC batch
+        for (MediaEntry mediaEntry : mediaEntries) {
+            query.addWhere("id", mediaEntry.getId());
+            query.addWhere("username", mediaEntry.getUsername());
+            query.addCopyBatch("MediaEntryTombstone", TOMBSTONE_COLUMNS, TOMBSTONE_VALUES);
+        }
+        for (MediaEntry mediaEntry : mediaEntries) {
+            query.addWhere("id", mediaEntry.getId());
+            query.addWhere("username", mediaEntry.getUsername());
+            query.addDeleteBatch();
+        }
+        endChange(query, username);
+
+        boolean[] results = query.executeBatch();
+        return Arrays.copyOfRange(results, results.length - 1 - mediaEntries.size(), results.length - 1);
+    }
 
+    /**
+     * Queues the statement opening a change to a user's entries, which locks their UserAccount row until the batch
+     * commits so that the user's changes draw sequence values in commit order. Leaves the query on MediaEntry.
+     *
+     * @param query batch the change is queued on
+     * @param username owner of the changed entries
+     */
+    static void beginChange(DbQuery query, String username) {
+        query.setTableName("UserAccount");
+        query.setColumnExpression("changeSeq", "changeSeq");
+        query.addWhere("username", username);
+        query.addUpdateBatch();
+        query.setTableName("MediaEntry");
+    }
+
+    /**
+     * Queues the statement closing a change, which raises the user's change horizon above every sequence value
+     * the change drew
+     *
+     * @param query batch the change is queued on
+     * @param username owner of the changed entries
+     */
+    static void endChange(DbQuery query, String username) {
+        query.setTableName("UserAccount");
+        query.setColumnExpression("changeSeq", NEXT_CHANGE_SEQ);
+        query.addWhere("username", username);
+        query.addUpdateBatch();
+    }
+
+    /**
+     * @param results result of each statement of a change, including its opening and closing statements
+     * @param count number of entry statements following the opening one
+     * @return results of the entry statements alone
+     */
+    private static boolean[] changeResults(boolean[] results, int count) {
+        return Arrays.copyOfRange(results, 1, 1 + count);
+    }
+
+    /**
+     * This method sets all media entry column values on an existing SQL statement
+     *
+     * @param query statement receiving the column values
+     * @param mediaEntry source of column values
+     */
+    private void setColumnValues(DbQuery query, MediaEntry mediaEntry) {
         query.setColumnValue("title", mediaEntry.getTitle());
         query.setColumnValue("type", mediaEntry.getType());
         query.setColumnValue("platform", mediaEntry.getPlatform());
@@ -99,36 +395,29 @@ public class MediaEntryDAO implements IMediaEntryDAO {
         query.setColumnValue("imageUrl", mediaEntry.getImageUrl());
         query.setColumnValue("watched", mediaEntry.isWatched() ? 1 : 0);
         query.setColumnValue("username", mediaEntry.getUsername());
-
-        return query;
+        query.setColumnExpression("changeSeq", NEXT_CHANGE_SEQ);
     }
 
-    private DbQuery newQuery() {
-        DbQuery dbQuery = new DbQuery();
+    /**
+     * @param username owner of the records, locating their shard
+     * @return query against the primary of the owner's shard
+     */
+    private DbQuery newQuery(String username) {
+        DbQuery dbQuery = new DbQuery(shardRouter.primaryFor(username));
         dbQuery.setTableName("MediaEntry");
         return dbQuery;
     }
 
     /**
-     * Method for parsing SQL results into List of MediaEntry objects
+     * Pages, streams and change feeds stay on the primary, since a client resuming from a cursor or watermark
+     * must not land on a replica that has not reached it yet
      *
-     * @param results data structure representation of sql results
-     * @return List of MediaEntry objects
+     * @param username owner of the records, whose own recent writes the read must observe
+     * @return query against a read replica of the owner's shard when one is fresh enough, otherwise its primary
      */
-    private List<MediaEntry> parse(ArrayList<HashMap<String, Object>> results) {
-        ArrayList<MediaEntry> mediaEntries = new ArrayList<>();
-        for (HashMap valuesMap: results) {
-            MediaEntry mediaEntry = new MediaEntry();
-            mediaEntry.setId((Integer) valuesMap.get("id"));
-            mediaEntry.setTitle((String) valuesMap.get("title"));
-            mediaEntry.setType((String) valuesMap.get("type"));
-            mediaEntry.setPlatform((String) valuesMap.get("platform"));
-            mediaEntry.setDescription((String) valuesMap.get("description"));
-            mediaEntry.setImageUrl((String) valuesMap.get("imageUrl"));
-            mediaEntry.setWatched((Boolean) valuesMap.get("watched"));
-            mediaEntry.setUsername((String) valuesMap.get("username"));
-            mediaEntries.add(mediaEntry);
-        }
-        return mediaEntries;
+    private DbQuery newReadQuery(String username) {
+        DbQuery dbQuery = new DbQuery(shardRouter.forRead(username));
+        dbQuery.setTableName("MediaEntry");
+        return dbQuery;
     }
 }
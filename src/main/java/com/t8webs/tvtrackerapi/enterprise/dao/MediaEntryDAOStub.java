@@ -2,12 +2,16 @@ package com.t8webs.tvtrackerapi.enterprise.dao;
 
 
 import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryFilter;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Data Access Object for Media Entries
@@ -20,6 +24,8 @@ import java.util.List;
 public class MediaEntryDAOStub implements  IMediaEntryDAO {
     HashMap<Integer, MediaEntry> entriesByID = new HashMap<Integer, MediaEntry>();
     HashMap<String, HashMap<Integer, MediaEntry>> entriesByUsername = new HashMap<String, HashMap<Integer, MediaEntry>>();
+    List<MediaEntry> tombstones = new ArrayList<MediaEntry>();
+    long changeSeq = 0;
 
     /**
      * Method for creating a new MediaEntry record in the database
@@ -30,6 +36,7 @@ public class MediaEntryDAOStub implements  IMediaEntryDAO {
     @Override
     public boolean save(MediaEntry mediaEntry) {
         mediaEntry.setId(entriesByID.size());
+        mediaEntry.setChangeSeq(++changeSeq);
         entriesByID.put(mediaEntry.getId(), mediaEntry);
 
         if(entriesByUsername.containsKey(mediaEntry.getUsername())){
@@ -54,29 +61,127 @@ public class MediaEntryDAOStub implements  IMediaEntryDAO {
         return new ArrayList(entriesByUsername.get(username).values());
     }
 
+    /**
+     * Method for fetching one page of a user's MediaEntry records in keyset order
+     *
+     * @param filter username, sort column and column filters
+     * @param after last MediaEntry of the previous page, null for the first page
+     * @param limit maximum number of records to return
+     * @return List of MediaEntry objects sorted after the given entry
+     */
+    @Override
+    public List<MediaEntry> fetchPageByUsername(MediaEntryFilter filter, MediaEntry after, int limit) {
+        Comparator<MediaEntry> order = "title".equals(filter.getOrderBy())
+                ? Comparator.comparing(MediaEntry::getTitle, Comparator.nullsFirst(Comparator.<String>naturalOrder())).thenComparingInt(MediaEntry::getId)
+                : Comparator.comparingInt(MediaEntry::getId);
+
+        return entriesByUsername.getOrDefault(filter.getUsername(), new HashMap<>()).values().stream()
+                .filter(entry -> filter.getType() == null || filter.getType().equals(entry.getType()))
+                .filter(entry -> filter.getPlatform() == null || filter.getPlatform().equals(entry.getPlatform()))
+                .filter(entry -> filter.getWatched() == null || filter.getWatched() == entry.isWatched())
+                .filter(entry -> after == null || order.compare(entry, after) > 0)
+                .sorted(order)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Method for streaming all MediaEntry records for a given user, in id order, without loading them into a list
+     *
+     * @param username String uniquely identify a UserAccount record
+     * @param handler RowHandler receiving each MediaEntry as it is read
+     * @return number of MediaEntry records streamed
+     */
+    @Override
+    public long streamByUsername(String username, RowHandler<MediaEntry> handler) throws IOException {
+        long rows = 0;
+        for (MediaEntry entry : entriesByUsername.getOrDefault(username, new HashMap<>()).values()) {
+            handler.handle(entry);
+            rows++;
+        }
+        return rows;
+    }
+
+    /**
+     * Method for fetching the change sequence value up to which all of a user's changes have committed
+     *
+     * @param username String uniquely identify a UserAccount record
+     * @return latest change sequence value, since every change here is committed at once
+     */
+    @Override
+    public long fetchChangeHorizon(String username) {
+        return changeSeq;
+    }
+
+    /**
+     * Method for fetching a user's MediaEntry records inserted or updated after a change sequence value
+     *
+     * @param username String uniquely identify a UserAccount record
+     * @param since change sequence value already seen by the client
+     * @param upTo highest change sequence value to return
+     * @param limit maximum number of records to return
+     * @return List of MediaEntry objects in change sequence order
+     */
+    @Override
+    public List<MediaEntry> fetchChangedByUsername(String username, long since, long upTo, int limit) {
+        return entriesByUsername.getOrDefault(username, new HashMap<>()).values().stream()
+                .filter(entry -> entry.getChangeSeq() > since && entry.getChangeSeq() <= upTo)
+                .sorted(Comparator.comparingLong(MediaEntry::getChangeSeq))
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Method for fetching tombstones of a user's MediaEntry records deleted after a change sequence value
+     *
+     * @param username String uniquely identify a UserAccount record
+     * @param since change sequence value already seen by the client
+     * @param upTo highest change sequence value to return
+     * @param limit maximum number of tombstones to return
+     * @return List of MediaEntry objects holding the id, username and change sequence of each deletion
+     */
+    @Override
+    public List<MediaEntry> fetchDeletedByUsername(String username, long since, long upTo, int limit) {
+        return tombstones.stream()
+                .filter(tombstone -> tombstone.getUsername().equals(username)
+                        && tombstone.getChangeSeq() > since && tombstone.getChangeSeq() <= upTo)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
     /**
      * Method for fetching a distinct record in the database
      *
+     * @param username owner of the MediaEntry record
      * @param id integer uniquely identifying a MediaEntry record
      * @return MediaEntry object representation of corresponding database record
      */
     @Override
-    public MediaEntry fetch(int id) {
-        return entriesByID.get(id);
+    public MediaEntry fetch(String username, int id) {
+        MediaEntry entry = entriesByID.get(id);
+        return entry != null && entry.getUsername().equals(username) ? entry : null;
     }
 
     /**
      * Method for deleting a single MediaEntry record in the database
      *
+     * @param username owner of the MediaEntry record
      * @param id integer uniquely identifying a MediaEntry record
      * @return boolean indicating a successful delete
      */
     @Override
-    public boolean delete(int id) {
-        MediaEntry entry = entriesByID.remove(id);
+    public boolean delete(String username, int id) {
+        MediaEntry entry = entriesByID.get(id);
 
-        if(entry != null) {
+        if(entry != null && entry.getUsername().equals(username)) {
+            entriesByID.remove(id);
             entriesByUsername.get(entry.getUsername()).remove(id);
+
+            MediaEntry tombstone = new MediaEntry();
+            tombstone.setId(id);
+            tombstone.setUsername(entry.getUsername());
+            tombstone.setChangeSeq(++changeSeq);
+            tombstones.add(tombstone);
             return true;
         }
 
@@ -95,6 +200,7 @@ public class MediaEntryDAOStub implements  IMediaEntryDAO {
         MediaEntry oldEntry = entriesByID.remove(mediaEntry.getId());
 
         if(oldEntry != null) {
+            mediaEntry.setChangeSeq(++changeSeq);
             entriesByID.put(mediaEntry.getId(), mediaEntry);
             entriesByUsername.get(oldEntry.getUsername()).put(mediaEntry.getId(), mediaEntry);
             return  true;
@@ -102,4 +208,53 @@ public class MediaEntryDAOStub implements  IMediaEntryDAO {
 
         return false;
     }
+
+    /**
+     * Method for creating many MediaEntry records in a single transaction
+     *
+     * @param mediaEntries MediaEntry objects to be saved as records in the database
+     * @return boolean for each MediaEntry, in order, indicating a successful save
+     */
+    @Override
+    public boolean[] saveAll(List<MediaEntry> mediaEntries) {
+        boolean[] results = new boolean[mediaEntries.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = save(mediaEntries.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * Method for updating many MediaEntry records in a single transaction
+     *
+     * @param mediaEntries MediaEntry objects to be used for updating database records
+     * @return boolean for each MediaEntry, in order, indicating a successful update
+     */
+    @Override
+    public boolean[] updateAll(List<MediaEntry> mediaEntries) {
+        boolean[] results = new boolean[mediaEntries.size()];
+        for (int i = 0; i < results.length; i++) {
+            MediaEntry existing = entriesByID.get(mediaEntries.get(i).getId());
+            results[i] = existing != null && existing.getUsername().equals(mediaEntries.get(i).getUsername())
+                    && update(mediaEntries.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * Method for deleting many MediaEntry records in a single transaction
+     *
+     * @param mediaEntries MediaEntry objects identifying the records to delete
+     * @return boolean for each MediaEntry, in order, indicating a successful delete
+     */
+    @Override
+    public boolean[] deleteAll(List<MediaEntry> mediaEntries) {
+        boolean[] results = new boolean[mediaEntries.size()];
+        for (int i = 0; i < results.length; i++) {
+            MediaEntry existing = entriesByID.get(mediaEntries.get(i).getId());
+            results[i] = existing != null && existing.getUsername().equals(mediaEntries.get(i).getUsername())
+                    && delete(existing.getUsername(), existing.getId());
+        }
+        return results;
+    }
 }
@@ -0,0 +1,36 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps MediaEntry table rows into MediaEntry objects
+ */
+public class MediaEntryRowMapper implements RowMapper<MediaEntry> {
+
+    private static final String[] COLUMNS = {
+            "id", "title", "username", "type", "platform", "description", "imageUrl", "watched", "changeSeq"
+    };
+
+    @Override
+    public String[] columns() {
+        return COLUMNS;
+    }
+
+    @Override
+    public MediaEntry mapRow(ResultSet resultSet) throws SQLException {
+        MediaEntry mediaEntry = new MediaEntry();
+        mediaEntry.setId(resultSet.getInt(1));
+        mediaEntry.setTitle(resultSet.getString(2));
+        mediaEntry.setUsername(resultSet.getString(3));
+        mediaEntry.setType(resultSet.getString(4));
+        mediaEntry.setPlatform(resultSet.getString(5));
+        mediaEntry.setDescription(resultSet.getString(6));
+        mediaEntry.setImageUrl(resultSet.getString(7));
+        mediaEntry.setWatched(resultSet.getBoolean(8));
+        mediaEntry.setChangeSeq(resultSet.getLong(9));
+        return mediaEntry;
+    }
+}
@@ -0,0 +1,30 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps MediaEntryTombstone table rows into MediaEntry objects holding only the id, username and change sequence
+ */
+public class MediaEntryTombstoneRowMapper implements RowMapper<MediaEntry> {
+
+    private static final String[] COLUMNS = {
+            "id", "username", "changeSeq"
+    };
+
+    @Override
+    public String[] columns() {
+        return COLUMNS;
+    }
+
+    @Override
+    public MediaEntry mapRow(ResultSet resultSet) throws SQLException {
+        MediaEntry mediaEntry = new MediaEntry();
+        mediaEntry.setId(resultSet.getInt(1));
+        mediaEntry.setUsername(resultSet.getString(2));
+        mediaEntry.setChangeSeq(resultSet.getLong(3));
+        return mediaEntry;
+    }
+}
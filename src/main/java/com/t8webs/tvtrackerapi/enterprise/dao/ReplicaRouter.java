@@ -0,0 +1,290 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class choosing the database that serves each read
+ * <p>
+ *     Writes always use the primary. Reads that tolerate replication lag ask for a DataSource by key, usually a
+ *     username, and are spread round robin across the read replicas that are fresh enough to serve them.
+ * </p>
+ * <p>
+ *     Freshness is measured with a heartbeat. Every probe interval this node stamps its row of the
+ *     ReplicaHeartbeat table on the primary with the current time, then reads the row back from each replica.
+ *     The stamp a replica returns is the point in time it has caught up to, so a replica is skipped when that
+ *     point is more than maxLag old, and for a key written at or after that point. Keys are written by the
+ *     services after each write, so a user reads their own writes from the primary until every change they made
+ *     has reached a replica.
+ * </p>
+ * <p>
+ *     With no replicas configured every read goes to the primary and no heartbeat is written.
+ * </p>
+ */
+public class ReplicaRouter implements Closeable {
+
+    /**
+     * A read that may fail the way DAO calls do
+     */
+    @FunctionalInterface
+    public interface PrimaryRead<V> {
+        V read() throws SQLException, IOException, ClassNotFoundException;
+    }
+
+    private static final RowMapper<Long> heartbeatMapper = new RowMapper<Long>() {
+        private final String[] columns = {"beatAt"};
+
+        @Override
+        public String[] columns() {
+            return columns;
+        }
+
+        @Override
+        public Long mapRow(ResultSet resultSet) throws SQLException {
+            return resultSet.getLong(1);
+        }
+    };
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final String nodeId;
+    private final long maxLagMillis;
+
+    /**
+     * Time of the latest write for each key, dropped once every replica within maxLag must have it
+     */
+    private final Map<Object, Long> lastWrites = new ConcurrentHashMap<>();
+    private final ThreadLocal<int[]> primaryScopes = ThreadLocal.withInitial(() -> new int[1]);
+    private final AtomicInteger next = new AtomicInteger();
+    private ScheduledExecutorService prober;
+
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder readYourWrites = new LongAdder();
+    private final LongAdder lagFallbacks = new LongAdder();
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private static final class Replica {
+        private final String name;
+        private final DataSource dataSource;
+        private final LongAdder reads = new LongAdder();
+
+        /**
+         * Latest heartbeat read back from this replica, or 0 before the first successful probe
+         */
+        private volatile long caughtUpTo;
+        private volatile long probedAt;
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+
+    /**
+     * @param primary pool for writes and for reads no replica can serve
+     * @param replicas read replica pools keyed by a name used in statistics
+     * @param nodeId identifies this node's heartbeat row
+     * @param maxLagMillis oldest heartbeat a replica may hold and still serve reads
+     */
+    public ReplicaRouter(DataSource primary, Map<String, DataSource> replicas, String nodeId, long maxLagMillis) {
+        this.primary = primary;
+        this.nodeId = nodeId;
+        this.maxLagMillis = maxLagMillis;
+        replicas.forEach((name, dataSource) -> this.replicas.add(new Replica(name, dataSource)));
+    }
+
+    /**
+     * Starts probing the replicas in the background, when there are any
+     *
+     * @param probeIntervalMillis time between heartbeats, which should be well below maxLag
+     */
+    public void start(long probeIntervalMillis) {
+        if(replicas.isEmpty())
+            return;
+
+        prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-lag-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(() -> {
+            try {
+                probe();
+            } catch (RuntimeException e) {
+                // a failed probe must not cancel the ones after it
+                log.error("Unable to probe read replicas. Message: " + e.getMessage(), e);
+            }
+        }, 0, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return pool for statements that change data
+     */
+    public DataSource forWrite() {
+        return primary;
+    }
+
+    /**
+     * Picks the pool for a read of the given key
+     *
+     * @param key value whose writes the read must observe, such as a username, or null for none
+     * @return a fresh replica, or the primary when none is fresh enough or the read runs within onPrimary
+     */
+    public DataSource forRead(Object key) {
+        if(replicas.isEmpty() || primaryScopes.get()[0] > 0) {
+            primaryReads.increment();
+            return primary;
+        }
+
+        long now = System.currentTimeMillis();
+        Long writtenAt = key == null ? null : lastWrites.get(key);
+
+        int start = next.getAndIncrement();
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+            long caughtUpTo = replica.caughtUpTo;
+
+            // the heartbeat must have been written after the key's last write for the replica to hold it
+            if(now - caughtUpTo <= maxLagMillis && (writtenAt == null || caughtUpTo > writtenAt)) {
+                replica.reads.increment();
+                return replica.dataSource;
+            }
+        }
+
+        if(writtenAt != null)
+            readYourWrites.increment();
+        else
+            lagFallbacks.increment();
+
+        primaryReads.increment();
+        return primary;
+    }
+
+    /**
+     * Notes that a key was just written, so its reads use the primary until the write reaches a replica.
+     * Called once the write has committed.
+     *
+     * @param key value identifying the written data, such as a username
+     */
+    public void recordWrite(Object key) {
+        if(key != null && !replicas.isEmpty())
+            lastWrites.put(key, System.currentTimeMillis());
+    }
+
+    /**
+     * Runs reads against the primary regardless of their keys, such as re-reading a row that was just written
+     *
+     * @param read reads to run
+     * @return result of the reads
+     */
+    public <V> V onPrimary(PrimaryRead<V> read) throws SQLException, IOException, ClassNotFoundException {
+        int[] depth = primaryScopes.get();
+        depth[0]++;
+        try {
+            return read.read();
+        } finally {
+            depth[0]--;
+        }
+    }
+
+    /**
+     * Writes this node's heartbeat to the primary and reads it back from every replica
+     */
+    public void probe() {
+        long beatAt = System.currentTimeMillis();
+
+        DbQuery beat = newHeartbeatQuery(primary);
+        beat.setColumnValue("beatAt", beatAt);
+        beat.addWhere("nodeId", nodeId);
+        if(!beat.update()) {
+            DbQuery first = newHeartbeatQuery(primary);
+            first.setColumnValue("nodeId", nodeId);
+            first.setColumnValue("beatAt", beatAt);
+            first.insert();
+        }
+
+        for (Replica replica : replicas) {
+            DbQuery read = newHeartbeatQuery(replica.dataSource);
+            read.addWhere("nodeId", nodeId);
+            List<Long> beats = read.select(heartbeatMapper);
+
+            // an unreachable replica keeps its last stamp, so its lag keeps growing until it is skipped
+            if(!beats.isEmpty())
+                replica.caughtUpTo = Math.max(replica.caughtUpTo, beats.get(0));
+            replica.probedAt = System.currentTimeMillis();
+        }
+
+        // a replica within maxLag holds every write older than maxLag
+        long settled = System.currentTimeMillis() - maxLagMillis;
+        lastWrites.values().removeIf(writtenAt -> writtenAt < settled);
+    }
+
+    /**
+     * @return lag and read counts for the primary and each replica as key value pairs
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+
+        values.put("maxLagMillis", maxLagMillis);
+        values.put("primaryReads", primaryReads.sum());
+        values.put("readYourWrites", readYourWrites.sum());
+        values.put("lagFallbacks", lagFallbacks.sum());
+        values.put("pendingWrites", lastWrites.size());
+
+        Map<String, Object> byReplica = new LinkedHashMap<>();
+        for (Replica replica : replicas) {
+            Map<String, Object> replicaValues = new LinkedHashMap<>();
+            replicaValues.put("reads", replica.reads.sum());
+            replicaValues.put("lagMillis", replica.caughtUpTo == 0 ? null : now - replica.caughtUpTo);
+            replicaValues.put("fresh", now - replica.caughtUpTo <= maxLagMillis);
+            replicaValues.put("probedMillisAgo", replica.probedAt == 0 ? null : now - replica.probedAt);
+            byReplica.put(replica.name, replicaValues);
+        }
+        values.put("replicas", byReplica);
+
+        return values;
+    }
+
+    /**
+     * Stops probing and closes the replica pools
+     */
+    @Override
+    public void close() {
+        if(prober != null)
+            prober.shutdownNow();
+
+        for (Replica replica : replicas) {
+            if(replica.dataSource instanceof Closeable) {
+                try {
+                    ((Closeable) replica.dataSource).close();
+                } catch (IOException e) {
+                    log.warn("Unable to close replica pool " + replica.name + ". Message: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static DbQuery newHeartbeatQuery(DataSource dataSource) {
+        DbQuery dbQuery = new DbQuery(dataSource);
+        dbQuery.setTableName("ReplicaHeartbeat");
+        return dbQuery;
+    }
+}
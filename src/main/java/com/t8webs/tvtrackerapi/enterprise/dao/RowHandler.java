@@ -0,0 +1,16 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import java.io.IOException;
+
+/**
+ * Receives mapped rows one at a time while a result set is being read
+ *
+ * @param <T> type of object produced for each row
+ */
+@FunctionalInterface
+public interface RowHandler<T> {
+    /**
+     * @param row object mapped from the current row
+     */
+    void handle(T row) throws IOException;
+}
@@ -0,0 +1,28 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps result set rows directly into objects of type T
+ * <p>
+ *     DbQuery selects exactly the columns returned by {@link #columns()}, in that order, so
+ *     implementations read values by position and never look up column names per row.
+ * </p>
+ *
+ * @param <T> type of object produced for each row
+ */
+public interface RowMapper<T> {
+    /**
+     * @return names of the columns read by this mapper, in result set order
+     */
+    String[] columns();
+
+    /**
+     * Method for converting the current row into an object
+     *
+     * @param resultSet result set positioned on the row to map
+     * @return object representation of the row
+     */
+    T mapRow(ResultSet resultSet) throws SQLException;
+}
@@ -0,0 +1,67 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+/**
+ * Class handing out MediaEntry ids that encode the shard allocating them
+ * <p>
+ *     Every id leaves the remainder of its shard's index when divided by MAX_SHARDS, so ids allocated on
+ *     different shards never collide, even after rebalancing moves entries between shards. Each shard's
+ *     MediaEntryIdSeq starts at a common base plus the shard index and increments by MAX_SHARDS * BLOCK_SIZE, so
+ *     one sequence value reserves BLOCK_SIZE ids and most inserts need no extra round trip.
+ * </p>
+ */
+public class ShardIdAllocator {
+
+    /**
+     * Most shards a deployment may ever have, fixed since it is part of every id
+     */
+    public static final int MAX_SHARDS = 64;
+
+    /**
+     * Ids reserved per sequence value
+     */
+    public static final int BLOCK_SIZE = 32;
+
+    private static final String SEQUENCE = "MediaEntryIdSeq";
+
+    private final DataSource dataSource;
+    private final int shard;
+
+    private long nextId;
+    private int remaining;
+
+    /**
+     * @param dataSource primary of the shard
+     * @param shard index of the shard, encoded in every id it allocates
+     */
+    public ShardIdAllocator(DataSource dataSource, int shard) {
+        this.dataSource = dataSource;
+        this.shard = shard;
+    }
+
+    /**
+     * @return unused MediaEntry id for this shard
+     * @throws SQLException when the sequence cannot be read, is set up for another shard, or is exhausted
+     */
+    public synchronized int next() throws SQLException {
+        if(remaining == 0) {
+            long start = new DbQuery(dataSource).nextSequenceValue(SEQUENCE);
+
+            if(Math.floorMod(start, MAX_SHARDS) != shard)
+                throw new SQLException(SEQUENCE + " returned " + start + ", which does not encode shard " + shard);
+
+            nextId = start;
+            remaining = BLOCK_SIZE;
+        }
+
+        long id = nextId;
+        if(id > Integer.MAX_VALUE)
+            throw new SQLException("MediaEntry ids are exhausted on shard " + shard);
+
+        nextId += MAX_SHARDS;
+        remaining--;
+        return (int) id;
+    }
+}
@@ -0,0 +1,517 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Class moving users to the shards added since the previous shard count, while the application keeps serving
+ * <p>
+ *     To add shards, append their urls to tvtracker.db.shards, create their schema with db/media-entry-shards.sql,
+ *     and set tvtracker.db.previous-shard-count to the old count on every node. Then start one node with
+ *     tvtracker.db.rebalance.enabled=true. Rebalancing runs in the background once the node has started. Once it
+ *     logs that rebalancing finished, remove tvtracker.db.previous-shard-count everywhere.
+ * </p>
+ * <p>
+ *     Each user whose shard changes is moved in three steps. Their rows are copied to the new shard. The move is
+ *     recorded in ShardMove, after which no node routes the user to the old shard for longer than
+ *     ShardRouter.getMaxMoveAge(). Once twice that time, and at least tvtracker.db.rebalance.settle-time, has
+ *     passed, the old shard is drained: writes it received in the meantime are carried over, unless the new shard
+ *     already changed the same entry, and only the rows carried over are deleted, so a write arriving during the
+ *     drain is carried by the next pass instead of lost. The users' accounts are deleted from their old shards
+ *     in a last sweep over every move, after waiting once more.
+ * </p>
+ * <p>
+ *     Each pass reads the old shard up to the user's change horizon, the sequence value below which all of their
+ *     changes have committed, as the changes feed does. Copied entries keep their ids, which are unique across
+ *     shards, but receive new change sequence values from the new shard. Its sequence is first moved past the old
+ *     shard's, so a client syncing from an old watermark receives the user's entries again rather than missing
+ *     later changes.
+ * </p>
+ */
+@Component
+public class ShardRebalancer implements ApplicationRunner {
+
+    @Autowired
+    ShardRouter shardRouter;
+
+    @Value("${tvtracker.db.rebalance.enabled:false}")
+    boolean enabled;
+
+    @Value("${tvtracker.db.rebalance.batch-size:100}")
+    int batchSize;
+
+    @Value("${tvtracker.db.rebalance.settle-time:5000}")
+    long settleTime;
+
+    ExecutorService executor;
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private static final String CHANGE_SEQ = "MediaEntryChangeSeq";
+    private static final String NEXT_CHANGE_SEQ = "NEXT VALUE FOR " + CHANGE_SEQ;
+    private static final int MAX_DRAIN_PASSES = 5;
+
+    private static final RowMapper<HashMap<String, Object>> rowMapper = new RowMapper<HashMap<String, Object>>() {
+        private final String[] columns = {"*"};
+
+        @Override
+        public String[] columns() {
+            return columns;
+        }
+
+        @Override
+        public HashMap<String, Object> mapRow(ResultSet resultSet) throws SQLException {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            HashMap<String, Object> row = new HashMap<>();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                row.put(metaData.getColumnName(i), metaData.getColumnType(i) == Types.TIMESTAMP
+                        ? resultSet.getTimestamp(i) : resultSet.getObject(i));
+            }
+            return row;
+        }
+    };
+
+    private static final RowMapper<String> usernameMapper = new RowMapper<String>() {
+        private final String[] columns = {"username"};
+
+        @Override
+        public String[] columns() {
+            return columns;
+        }
+
+        @Override
+        public String mapRow(ResultSet resultSet) throws SQLException {
+            return resultSet.getString(1);
+        }
+    };
+
+    private static final class Move {
+        private final String username;
+        private final int source;
+        private final int target;
+
+        /**
+         * Source change horizon up to which rows were carried over, or -1 when the rows were copied by an
+         * interrupted run
+         */
+        private long sourceWatermark;
+
+        /**
+         * Target change horizon right after the copy, above every value the copy stamped
+         */
+        private final long targetWatermark;
+
+        /**
+         * Entries carried over after the copy, by id, without their change sequence values
+         */
+        private final Map<Integer, Map<String, Object>> carried = new HashMap<>();
+
+        /**
+         * Ids of entries whose deletion was carried over after the copy
+         */
+        private final Set<Integer> carriedDeletions = new HashSet<>();
+
+        private Move(String username, int source, int target, long sourceWatermark, long targetWatermark) {
+            this.username = username;
+            this.source = source;
+            this.target = target;
+            this.sourceWatermark = sourceWatermark;
+            this.targetWatermark = targetWatermark;
+        }
+    }
+
+    /**
+     * Starts rebalancing on a background thread, when enabled, so the node starts serving meanwhile
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if(!enabled)
+            return;
+
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shard-rebalancer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(() -> {
+            try {
+                rebalance();
+            } catch (InterruptedException e) {
+                log.warn("Rebalancing stopped, rerun to finish");
+            } catch (SQLException | RuntimeException e) {
+                log.error("Rebalancing failed, rerun to finish. Message: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        if(executor != null)
+            executor.shutdownNow();
+    }
+
+    /**
+     * Moves every user whose shard changed, then sweeps their old shards once more
+     */
+    void rebalance() throws SQLException, InterruptedException {
+        ConsistentHashRing previousRing = shardRouter.getPreviousRing();
+        if(previousRing == null) {
+            log.error("Rebalancing requires tvtracker.db.previous-shard-count to be set below the shard count");
+            return;
+        }
+
+        shardRouter.refreshMoves();
+        List<Move> moves = new ArrayList<>();
+
+        for (int source = 0; source < previousRing.getShardCount(); source++) {
+            DbQuery query = newQuery(source, "UserAccount");
+            query.setOrderBy("username");
+            List<String> usernames = query.select(usernameMapper);
+
+            List<Move> batch = new ArrayList<>();
+            for (String username : usernames) {
+                int target = shardRouter.getRing().shardFor(username);
+                if(target == source)
+                    continue;
+
+                // rows left behind by an interrupted run, already served from the target
+                if(shardRouter.isMoved(username))
+                    batch.add(new Move(username, source, target, -1, -1));
+                else
+                    batch.add(copy(username, source, target));
+
+                if(batch.size() >= batchSize) {
+                    finish(batch);
+                    moves.addAll(batch);
+                    batch.clear();
+                }
+            }
+
+            finish(batch);
+            moves.addAll(batch);
+            log.info("Shard " + source + " rebalanced, " + moves.size() + " users moved so far");
+        }
+
+        // a write routed to an old shard just before its node saw the move may arrive after its batch was drained
+        Thread.sleep(settleMillis());
+        int left = 0;
+        for (Move move : moves) {
+            if(!drain(move, true))
+                left++;
+        }
+
+        if(left > 0)
+            log.warn(left + " users still have rows on their old shards, rerun to move them");
+
+        log.info("Rebalancing finished after moving " + moves.size() + " users. "
+                + "Remove tvtracker.db.previous-shard-count from every node.");
+    }
+
+    /**
+     * Copies a user's rows up to their change horizon to their new shard, replacing any partial copy, and records
+     * the move
+     *
+     * @return Move describing what was copied
+     */
+    private Move copy(String username, int source, int target) throws SQLException {
+        long horizon = closeChanges(source, username);
+        List<HashMap<String, Object>> accounts = selectRows(source, "UserAccount", username, -1, Long.MAX_VALUE);
+        List<HashMap<String, Object>> entries = selectRows(source, "MediaEntry", username, -1, horizon);
+        List<HashMap<String, Object>> tombstones = selectRows(source, "MediaEntryTombstone", username, -1, horizon);
+
+        // values stamped by the target must be above any the user's clients have seen from the source
+        DataSource targetPrimary = shardRouter.getShard(target).forWrite();
+        new DbQuery(targetPrimary).advanceSequence(CHANGE_SEQ,
+                new DbQuery(shardRouter.getShard(source).forWrite()).nextSequenceValue(CHANGE_SEQ));
+
+        DbQuery write = new DbQuery(targetPrimary);
+        for (String table : new String[] {"MediaEntryTombstone", "MediaEntry", "UserAccount"}) {
+            write.setTableName(table);
+            write.addWhere("username", username);
+            write.addDeleteBatch();
+        }
+        addInserts(write, "MediaEntryTombstone", tombstones);
+        addInserts(write, "MediaEntry", entries);
+        // inserted last, so its change sequence value is the target's horizon above everything copied
+        addInserts(write, "UserAccount", accounts);
+
+        boolean[] results = write.executeBatch();
+        if(results.length == 0 || !results[results.length - 1])
+            throw new SQLException("Unable to copy user " + username + " to shard " + target);
+
+        List<HashMap<String, Object>> copied = selectRows(target, "UserAccount", username, -1, Long.MAX_VALUE);
+        long targetWatermark = copied.isEmpty() ? 0 : changeSeqOf(copied.get(0));
+
+        if(!shardRouter.markMoved(username))
+            throw new SQLException("Unable to record the move of user " + username + " to shard " + target);
+
+        return new Move(username, source, target, horizon, targetWatermark);
+    }
+
+    /**
+     * Waits until no node routes the batch's users to their old shards, then drains the old shards
+     */
+    private void finish(List<Move> batch) throws SQLException, InterruptedException {
+        if(batch.isEmpty())
+            return;
+
+        Thread.sleep(settleMillis());
+
+        for (Move move : batch) {
+            if(!drain(move, false))
+                log.warn("User " + move.username + " kept writing to shard " + move.source + ", the last sweep retries");
+        }
+    }
+
+    /**
+     * @return time to wait after recording moves before their old shards receive no more writes
+     */
+    private long settleMillis() {
+        return Math.max(settleTime, 2 * shardRouter.getMaxMoveAge());
+    }
+
+    /**
+     * Carries writes the old shard received over to the new one and deletes what was carried, until nothing is
+     * left or MAX_DRAIN_PASSES passes were made
+     *
+     * @param deleteAccount whether the user's account is deleted from the old shard too once nothing else is left
+     * @return boolean indicating whether nothing of the user is left on the old shard
+     */
+    private boolean drain(Move move, boolean deleteAccount) throws SQLException {
+        for (int pass = 0; pass < MAX_DRAIN_PASSES; pass++) {
+            long horizon = closeChanges(move.source, move.username);
+            catchUp(move, horizon);
+
+            // under the user's lock, so a write in progress either committed below the horizon or starts above it
+            DbQuery delete = new DbQuery(shardRouter.getShard(move.source).forWrite());
+            MediaEntryDAO.beginChange(delete, move.username);
+            for (String table : deleteAccount ? new String[] {"MediaEntryTombstone", "MediaEntry", "UserAccount"}
+                    : new String[] {"MediaEntryTombstone", "MediaEntry"}) {
+                delete.setTableName(table);
+                delete.addWhere("username", move.username);
+                delete.addWhereAtMost("changeSeq", horizon);
+                delete.addDeleteBatch();
+            }
+            delete.executeBatch();
+
+            if(selectRows(move.source, "MediaEntry", move.username, -1, Long.MAX_VALUE).isEmpty()
+                    && selectRows(move.source, "MediaEntryTombstone", move.username, -1, Long.MAX_VALUE).isEmpty()
+                    && (!deleteAccount || selectRows(move.source, "UserAccount", move.username, -1, Long.MAX_VALUE).isEmpty()))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Waits for the changes in progress on a user's rows to commit and raises their change horizon above them
+     *
+     * @return the user's change horizon on the shard
+     */
+    private long closeChanges(int shard, String username) throws SQLException {
+        DbQuery close = new DbQuery(shardRouter.getShard(shard).forWrite());
+        MediaEntryDAO.beginChange(close, username);
+        MediaEntryDAO.endChange(close, username);
+        close.executeBatch();
+
+        List<HashMap<String, Object>> account = selectRows(shard, "UserAccount", username, -1, Long.MAX_VALUE);
+        if(!account.isEmpty()) {
+            if(account.get(0).get("changeSeq") == null)
+                throw new SQLException("Unable to read the change horizon of user " + username + " on shard " + shard);
+            return changeSeqOf(account.get(0));
+        }
+
+        // without an account nothing orders the writes, so the horizon is what has committed so far
+        long horizon = 0;
+        for (String table : new String[] {"MediaEntry", "MediaEntryTombstone"}) {
+            for (HashMap<String, Object> row : selectRows(shard, table, username, -1, Long.MAX_VALUE)) {
+                horizon = Math.max(horizon, changeSeqOf(row));
+            }
+        }
+        return horizon;
+    }
+
+    /**
+     * Applies the writes a user's old shard received up to its horizon, after those already carried over, to
+     * entries the new shard has not changed since
+     */
+    private void catchUp(Move move, long horizon) throws SQLException {
+        List<HashMap<String, Object>> changed = selectRows(move.source, "MediaEntry", move.username, move.sourceWatermark, horizon);
+        List<HashMap<String, Object>> deleted = selectRows(move.source, "MediaEntryTombstone", move.username, move.sourceWatermark, horizon);
+        List<HashMap<String, Object>> account = selectRows(move.source, "UserAccount", move.username, -1, Long.MAX_VALUE);
+
+        Map<Integer, HashMap<String, Object>> targetEntries = new HashMap<>();
+        for (HashMap<String, Object> row : selectRows(move.target, "MediaEntry", move.username, -1, Long.MAX_VALUE)) {
+            targetEntries.put(idOf(row), row);
+        }
+
+        Set<Integer> deletedOnTarget = new HashSet<>();
+        for (HashMap<String, Object> row : selectRows(move.target, "MediaEntryTombstone", move.username, move.targetWatermark, Long.MAX_VALUE)) {
+            deletedOnTarget.add(idOf(row));
+        }
+
+        DbQuery write = new DbQuery(shardRouter.getShard(move.target).forWrite());
+        MediaEntryDAO.beginChange(write, move.username);
+        int rows = 0;
+
+        for (HashMap<String, Object> row : changed) {
+            int id = idOf(row);
+            if(isChangedOnTarget(id, targetEntries.get(id), deletedOnTarget, move))
+                continue;
+
+            write.setTableName("MediaEntry");
+            write.addWhere("id", id);
+            write.addDeleteBatch();
+            addInserts(write, "MediaEntry", List.of(row));
+            move.carried.put(id, withoutChangeSeq(row));
+            rows++;
+        }
+
+        for (HashMap<String, Object> row : deleted) {
+            int id = idOf(row);
+            if(isChangedOnTarget(id, targetEntries.get(id), deletedOnTarget, move))
+                continue;
+
+            write.setTableName("MediaEntry");
+            write.addWhere("id", id);
+            write.addDeleteBatch();
+            write.setTableName("MediaEntryTombstone");
+            write.addWhere("id", id);
+            write.addDeleteBatch();
+            addInserts(write, "MediaEntryTombstone", List.of(row));
+            move.carried.remove(id);
+            move.carriedDeletions.add(id);
+            rows++;
+        }
+
+        // a login on the old shard after the copy replaced the token
+        if(!account.isEmpty() && isNewerLogin(account.get(0), move)) {
+            write.setTableName("UserAccount");
+            write.addWhere("username", move.username);
+            write.addDeleteBatch();
+            addInserts(write, "UserAccount", account);
+            rows++;
+        }
+
+        if(rows > 0) {
+            MediaEntryDAO.endChange(write, move.username);
+            boolean[] results = write.executeBatch();
+            if(results.length == 0 || !results[results.length - 1])
+                throw new SQLException("Unable to carry late writes of user " + move.username + " over to shard " + move.target);
+
+            log.info("Carried " + rows + " late writes of user " + move.username + " over to shard " + move.target);
+        }
+
+        move.sourceWatermark = Math.max(move.sourceWatermark, horizon);
+    }
+
+    /**
+     * @param targetRow the entry on the target, or null when it has none
+     * @return boolean indicating whether the target wrote or deleted the entry after the copy, so its version wins
+     */
+    private static boolean isChangedOnTarget(int id, Map<String, Object> targetRow, Set<Integer> deletedOnTarget, Move move) {
+        if(deletedOnTarget.contains(id) && !move.carriedDeletions.contains(id))
+            return true;
+        if(targetRow == null || changeSeqOf(targetRow) <= move.targetWatermark)
+            return false;
+
+        // a version carried over by an earlier pass is still the old shard's
+        return !withoutChangeSeq(targetRow).equals(move.carried.get(id));
+    }
+
+    private boolean isNewerLogin(HashMap<String, Object> sourceAccount, Move move) throws SQLException {
+        List<HashMap<String, Object>> target = selectRows(move.target, "UserAccount", move.username, -1, Long.MAX_VALUE);
+        if(target.isEmpty())
+            return true;
+
+        Object sourceLogin = sourceAccount.get("lastLogin");
+        Object targetLogin = target.get(0).get("lastLogin");
+        return sourceLogin instanceof Timestamp
+                && (!(targetLogin instanceof Timestamp) || ((Timestamp) sourceLogin).after((Timestamp) targetLogin));
+    }
+
+    /**
+     * Unlike DbQuery.select, fails instead of returning no rows, since rows missed here would be deleted uncopied
+     *
+     * @param username owner of the rows
+     * @param since only rows with a higher change sequence value, or -1 for all rows
+     * @param upTo only rows with at most this change sequence value, or Long.MAX_VALUE for all rows
+     * @return the rows in the table as column name value pairs
+     */
+    private List<HashMap<String, Object>> selectRows(int shard, String table, String username, long since, long upTo) throws SQLException {
+        DbQuery query = newQuery(shard, table);
+        query.addWhere("username", username);
+        if(since >= 0)
+            query.addWhereGreaterThan("changeSeq", since);
+        if(upTo < Long.MAX_VALUE)
+            query.addWhereAtMost("changeSeq", upTo);
+
+        List<HashMap<String, Object>> rows = new ArrayList<>();
+        try {
+            query.stream(rowMapper, rows::add);
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+        return rows;
+    }
+
+    /**
+     * Queues inserts of rows read from another shard, restamping change sequence values from this shard
+     */
+    private static void addInserts(DbQuery write, String table, List<HashMap<String, Object>> rows) {
+        write.setTableName(table);
+
+        for (HashMap<String, Object> row : rows) {
+            for (Map.Entry<String, Object> column : row.entrySet()) {
+                if(column.getKey().equalsIgnoreCase("changeSeq"))
+                    write.setColumnExpression(column.getKey(), NEXT_CHANGE_SEQ);
+                else
+                    write.setColumnValue(column.getKey(), column.getValue());
+            }
+            write.addInsertBatch();
+        }
+    }
+
+    private static Map<String, Object> withoutChangeSeq(Map<String, Object> row) {
+        Map<String, Object> columns = new HashMap<>(row);
+        columns.keySet().removeIf(column -> column.equalsIgnoreCase("changeSeq"));
+        return columns;
+    }
+
+    private static int idOf(Map<String, Object> row) {
+        return ((Number) row.get("id")).intValue();
+    }
+
+    private static long changeSeqOf(Map<String, Object> row) {
+        Object changeSeq = row.get("changeSeq");
+        return changeSeq instanceof Number ? ((Number) changeSeq).longValue() : 0;
+    }
+
+    private DbQuery newQuery(int shard, String table) {
+        DbQuery dbQuery = new DbQuery(shardRouter.getShard(shard).forWrite());
+        dbQuery.setTableName(table);
+        return dbQuery;
+    }
+}
@@ -0,0 +1,379 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class choosing the database holding each user's records
+ * <p>
+ *     Users are spread over N shards, each a primary with optional read replicas, by a ConsistentHashRing on the
+ *     username. All of a user's UserAccount, MediaEntry and MediaEntryTombstone rows live on the same shard, so
+ *     every statement runs against a single database.
+ * </p>
+ * <p>
+ *     While shards are being added, tvtracker.db.previous-shard-count names how many shards there were before.
+ *     A user whose shard differs between the previous and the current ring keeps using the previous one until
+ *     ShardRebalancer has copied their rows and listed them in the ShardMove table on shard 0. Every node
+ *     re-reads that table each refresh interval, and moves made on this node take effect at once.
+ * </p>
+ * <p>
+ *     A node whose view of the moves is older than two refresh intervals, because refreshing fails or falls
+ *     behind, looks up each user still in transit in ShardMove instead of trusting its view, and fails the
+ *     statement when it cannot. No node routes to a user's old shard for longer than getMaxMoveAge() after
+ *     the move, which is what ShardRebalancer waits for before draining the old shard.
+ * </p>
+ */
+public class ShardRouter implements Closeable {
+
+    private static final long MOVE_CLOCK_SKEW_MILLIS = 60000;
+    private static final long DEFAULT_REFRESH_INTERVAL_MILLIS = 1000;
+
+    private static final RowMapper<Map.Entry<String, Long>> moveMapper = new RowMapper<Map.Entry<String, Long>>() {
+        private final String[] columns = {"username", "movedAt"};
+
+        @Override
+        public String[] columns() {
+            return columns;
+        }
+
+        @Override
+        public Map.Entry<String, Long> mapRow(ResultSet resultSet) throws SQLException {
+            return Map.entry(resultSet.getString(1), resultSet.getLong(2));
+        }
+    };
+
+    private final List<ReplicaRouter> shards;
+    private final List<ShardIdAllocator> allocators = new ArrayList<>();
+    private final ConsistentHashRing ring;
+    private final ConsistentHashRing previousRing;
+
+    /**
+     * Lower-cased usernames whose rows already moved to their shard on the current ring
+     */
+    private final Set<String> moved = ConcurrentHashMap.newKeySet();
+    private volatile long movesSeenUpTo;
+    private volatile long movesRefreshedAt;
+    private volatile long maxMoveAge = 2 * DEFAULT_REFRESH_INTERVAL_MILLIS;
+    private ScheduledExecutorService refresher;
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * @param shards router for each shard's primary and replicas, in shard index order
+     * @param virtualNodes points per shard on the ring
+     * @param previousShardCount shard count before shards were added, or 0 when not rebalancing
+     */
+    public ShardRouter(List<ReplicaRouter> shards, int virtualNodes, int previousShardCount) {
+        if(shards.size() > ShardIdAllocator.MAX_SHARDS)
+            throw new IllegalArgumentException("At most " + ShardIdAllocator.MAX_SHARDS + " shards are supported");
+        if(previousShardCount >= shards.size())
+            throw new IllegalArgumentException("The previous shard count must be below the current one");
+
+        this.shards = shards;
+        this.ring = new ConsistentHashRing(shards.size(), virtualNodes);
+        this.previousRing = previousShardCount > 0 ? new ConsistentHashRing(previousShardCount, virtualNodes) : null;
+
+        for (int shard = 0; shard < shards.size(); shard++) {
+            allocators.add(new ShardIdAllocator(shards.get(shard).forWrite(), shard));
+        }
+    }
+
+    /**
+     * Starts following the moves made by ShardRebalancer, when rebalancing
+     *
+     * @param refreshIntervalMillis time between reads of the ShardMove table
+     */
+    public void start(long refreshIntervalMillis) {
+        if(previousRing == null)
+            return;
+
+        maxMoveAge = 2 * refreshIntervalMillis;
+        refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shard-move-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                refreshMoves();
+            } catch (RuntimeException e) {
+                log.error("Unable to read shard moves. Message: " + e.getMessage(), e);
+            }
+        }, 0, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param username String uniquely identifying a user
+     * @return index of the shard holding the user's records
+     */
+    public int shardOf(String username) {
+        int current = ring.shardFor(username);
+
+        if(previousRing == null)
+            return current;
+
+        int previous = previousRing.shardFor(username);
+        if(previous == current || moved.contains(username.toLowerCase(Locale.ROOT)))
+            return current;
+
+        // a stale view may miss a move other nodes already write behind
+        if(System.currentTimeMillis() - movesRefreshedAt > maxMoveAge && isMovedInTable(username)) {
+            addMove(username);
+            return current;
+        }
+
+        return previous;
+    }
+
+    /**
+     * @param username String uniquely identifying a user
+     * @return primary of the user's shard, for writes and for reads that must not lag
+     */
+    public DataSource primaryFor(String username) {
+        return shards.get(shardOf(username)).forWrite();
+    }
+
+    /**
+     * @param username String uniquely identifying a user
+     * @return a fresh replica of the user's shard, or its primary
+     */
+    public DataSource forRead(String username) {
+        return shards.get(shardOf(username)).forRead(username);
+    }
+
+    /**
+     * Notes that a user's records were just written, so their reads stay on their shard's primary until the
+     * write reaches its replicas
+     *
+     * @param username String uniquely identifying a user
+     */
+    public void recordWrite(String username) {
+        if(username != null)
+            shards.get(shardOf(username)).recordWrite(username);
+    }
+
+    /**
+     * Runs reads against the primaries of every shard regardless of their keys
+     *
+     * @param read reads to run
+     * @return result of the reads
+     */
+    public <V> V onPrimary(ReplicaRouter.PrimaryRead<V> read) throws SQLException, IOException, ClassNotFoundException {
+        return onPrimary(0, read);
+    }
+
+    private <V> V onPrimary(int shard, ReplicaRouter.PrimaryRead<V> read) throws SQLException, IOException, ClassNotFoundException {
+        if(shard == shards.size())
+            return read.read();
+
+        return shards.get(shard).onPrimary(() -> onPrimary(shard + 1, read));
+    }
+
+    /**
+     * @param username owner of the new MediaEntry
+     * @return unused MediaEntry id allocated on the user's shard
+     */
+    public int allocateMediaEntryId(String username) throws SQLException {
+        return allocators.get(shardOf(username)).next();
+    }
+
+    /**
+     * Places a user about to be created on their shard on the current ring, so rebalancing never has to move them
+     *
+     * @param username String uniquely identifying the new user
+     */
+    public void claim(String username) {
+        if(previousRing == null || previousRing.shardFor(username) == ring.shardFor(username)
+                || moved.contains(username.toLowerCase(Locale.ROOT)))
+            return;
+
+        // an existing account must be moved with its entries, not left behind
+        DbQuery existing = new DbQuery(shards.get(previousRing.shardFor(username)).forWrite());
+        existing.setTableName("UserAccount");
+        existing.addWhere("username", username);
+        if(existing.select().isEmpty())
+            markMoved(username);
+    }
+
+    /**
+     * Records that a user's rows are now on their shard on the current ring, for this node at once and for the
+     * others at their next refresh
+     *
+     * @param username String uniquely identifying the moved user
+     * @return boolean indicating whether the move was recorded
+     */
+    public boolean markMoved(String username) {
+        DbQuery query = newMoveQuery();
+        query.setColumnValue("username", username);
+        query.setColumnValue("toShard", ring.shardFor(username));
+        query.setColumnValue("movedAt", System.currentTimeMillis());
+
+        if(!query.insert() && !isMovedInTable(username))
+            return false;
+
+        moved.add(username.toLowerCase(Locale.ROOT));
+        return true;
+    }
+
+    /**
+     * @param username String uniquely identifying a user
+     * @return boolean indicating whether the user's rows already moved to their shard on the current ring
+     */
+    public boolean isMoved(String username) {
+        return moved.contains(username.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return longest time after a move during which a node may still route the moved user to their old shard
+     */
+    public long getMaxMoveAge() {
+        return maxMoveAge;
+    }
+
+    /**
+     * Reads moves recorded since the last refresh, including those made by other processes
+     *
+     * @throws IllegalStateException when the ShardMove table cannot be read
+     */
+    public void refreshMoves() {
+        long refreshedAt = System.currentTimeMillis();
+        long since = movesSeenUpTo;
+
+        // moves are stamped with the clock of the process making them, which may run behind this one
+        DbQuery query = newMoveQuery();
+        query.addWhereGreaterThan("movedAt", since - MOVE_CLOCK_SKEW_MILLIS);
+
+        for (Map.Entry<String, Long> move : readMoves(query)) {
+            addMove(move.getKey());
+            since = Math.max(since, move.getValue());
+        }
+
+        movesSeenUpTo = since;
+        movesRefreshedAt = refreshedAt;
+    }
+
+    private void addMove(String username) {
+        if(moved.add(username.toLowerCase(Locale.ROOT))) {
+            // the new shard's replicas may not have the copied rows yet
+            shards.get(ring.shardFor(username)).recordWrite(username);
+        }
+    }
+
+    private boolean isMovedInTable(String username) {
+        DbQuery query = newMoveQuery();
+        query.addWhere("username", username);
+        return !readMoves(query).isEmpty();
+    }
+
+    /**
+     * Unlike DbQuery.select, fails instead of returning no moves when ShardMove cannot be read, since a missed
+     * move routes writes to a shard the user has left
+     */
+    private static List<Map.Entry<String, Long>> readMoves(DbQuery query) {
+        List<Map.Entry<String, Long>> moves = new ArrayList<>();
+        try {
+            query.stream(moveMapper, moves::add);
+        } catch (SQLException | IOException e) {
+            throw new IllegalStateException("Unable to read shard moves", e);
+        }
+        return moves;
+    }
+
+    /**
+     * @return number of shards on the current ring
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * @return ring in use before shards were added, or null when not rebalancing
+     */
+    public ConsistentHashRing getPreviousRing() {
+        return previousRing;
+    }
+
+    /**
+     * @return ring assigning users to the current shards
+     */
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+
+    /**
+     * @param shard shard index
+     * @return router for the shard's primary and replicas
+     */
+    public ReplicaRouter getShard(int shard) {
+        return shards.get(shard);
+    }
+
+    /**
+     * @return shard counts and rebalancing progress as key value pairs
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("shards", shards.size());
+        values.put("previousShards", previousRing == null ? null : previousRing.getShardCount());
+        values.put("movedUsers", moved.size());
+        return values;
+    }
+
+    /**
+     * @return each shard's replica statistics, keyed by shard
+     */
+    public Map<String, Object> replicaSnapshot() {
+        Map<String, Object> byShard = new LinkedHashMap<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            byShard.put("shard-" + shard, shards.get(shard).snapshot());
+        }
+        return byShard;
+    }
+
+    /**
+     * Stops following moves and closes every shard's pools except shard 0's primary, which is the dataSource bean
+     */
+    @Override
+    public void close() {
+        if(refresher != null)
+            refresher.shutdownNow();
+
+        for (int shard = 0; shard < shards.size(); shard++) {
+            shards.get(shard).close();
+
+            DataSource primary = shards.get(shard).forWrite();
+            if(shard > 0 && primary instanceof Closeable) {
+                try {
+                    ((Closeable) primary).close();
+                } catch (IOException e) {
+                    log.warn("Unable to close the pool of shard " + shard + ". Message: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves are recorded on shard 0, which every deployment has
+     */
+    private DbQuery newMoveQuery() {
+        DbQuery dbQuery = new DbQuery(shards.get(0).forWrite());
+        dbQuery.setTableName("ShardMove");
+        return dbQuery;
+    }
+}
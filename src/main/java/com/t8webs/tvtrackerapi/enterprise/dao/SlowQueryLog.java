@@ -0,0 +1,201 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Class logging slow statements and keeping totals for each statement fingerprint
+ * <p>
+ *     A statement taking longer than tvtracker.db.slow-query.threshold milliseconds is logged with its fingerprint,
+ *     the time spent in each phase and the types of its bound values, never the values themselves. Each fingerprint
+ *     is logged at most once per tvtracker.db.slow-query.log-interval milliseconds, along with the number of slow
+ *     runs left out since. Totals are kept for up to tvtracker.db.slow-query.max-fingerprints fingerprints and
+ *     reported as the slowest and most frequent ones.
+ * </p>
+ */
+@Component
+public class SlowQueryLog implements StatementListener {
+
+    @Value("${tvtracker.db.slow-query.threshold:500}")
+    long thresholdMillis;
+
+    @Value("${tvtracker.db.slow-query.log-interval:1000}")
+    long logIntervalMillis;
+
+    @Value("${tvtracker.db.slow-query.max-fingerprints:1000}")
+    int maxFingerprints;
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private long thresholdNanos;
+
+    private final ConcurrentHashMap<String, FingerprintStats> fingerprints = new ConcurrentHashMap<>();
+    private final LongAdder untracked = new LongAdder();
+
+    @PostConstruct
+    void register() {
+        thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        DbQuery.addStatementListener(this);
+    }
+
+    @PreDestroy
+    void unregister() {
+        DbQuery.removeStatementListener(this);
+    }
+
+    @Override
+    public void statementExecuted(StatementExecution execution) {
+        StatementFingerprint fingerprint = execution.getFingerprint();
+        FingerprintStats stats = fingerprints.get(fingerprint.getId());
+        if(stats == null) {
+            if(fingerprints.size() >= maxFingerprints) {
+                untracked.increment();
+                return;
+            }
+            stats = fingerprints.computeIfAbsent(fingerprint.getId(), id -> new FingerprintStats(fingerprint));
+        }
+
+        boolean slow = execution.getElapsedNanos() > thresholdNanos;
+        stats.record(execution, slow);
+
+        if(slow) {
+            long suppressed = stats.claimLog(System.currentTimeMillis(), logIntervalMillis);
+            if(suppressed >= 0) {
+                log.warn("Slow statement {} took {} ms (connect {} ms, execute {} ms, drain {} ms), {} rows{}, parameters {}{}: {}",
+                        fingerprint.getId(),
+                        TimeUnit.NANOSECONDS.toMillis(execution.getElapsedNanos()),
+                        TimeUnit.NANOSECONDS.toMillis(execution.getConnectNanos()),
+                        TimeUnit.NANOSECONDS.toMillis(execution.getExecuteNanos()),
+                        TimeUnit.NANOSECONDS.toMillis(execution.getDrainNanos()),
+                        execution.getRows(),
+                        execution.isFailed() ? ", failed" : "",
+                        execution.getParameterShape(),
+                        suppressed > 0 ? " (" + suppressed + " more slow runs since last logged)" : "",
+                        fingerprint.getTemplate());
+            }
+        }
+    }
+
+    /**
+     * @param limit number of fingerprints to list in each table
+     * @return threshold, number of fingerprints tracked, and the slowest fingerprints by mean time and the most
+     * frequent ones, as key value pairs
+     */
+    public Map<String, Object> snapshot(int limit) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("thresholdMillis", thresholdMillis);
+        values.put("fingerprints", fingerprints.size());
+        values.put("untracked", untracked.sum());
+        values.put("slowest", top(limit, FingerprintStats::meanNanos));
+        values.put("mostFrequent", top(limit, stats -> stats.count.sum()));
+        return values;
+    }
+
+    private List<Map<String, Object>> top(int limit, ToLongFunction<FingerprintStats> order) {
+        List<FingerprintStats> ranked = new ArrayList<>(fingerprints.values());
+        ranked.sort(Comparator.comparingLong(order).reversed());
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (FingerprintStats stats : ranked.subList(0, Math.min(limit, ranked.size()))) {
+            rows.add(stats.snapshot());
+        }
+        return rows;
+    }
+
+    /**
+     * Totals kept for one fingerprint
+     */
+    private static final class FingerprintStats {
+        private final StatementFingerprint fingerprint;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder slow = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder elapsedNanos = new LongAdder();
+        private final LongAdder connectNanos = new LongAdder();
+        private final LongAdder executeNanos = new LongAdder();
+        private final LongAdder drainNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+        // slow runs not logged since the last one that was, and when that was
+        private final AtomicLong suppressed = new AtomicLong();
+        private final AtomicLong lastLoggedMillis = new AtomicLong(Long.MIN_VALUE);
+        private volatile String lastSlowParameters;
+
+        private FingerprintStats(StatementFingerprint fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        private void record(StatementExecution execution, boolean isSlow) {
+            count.increment();
+            rows.add(execution.getRows());
+            elapsedNanos.add(execution.getElapsedNanos());
+            connectNanos.add(execution.getConnectNanos());
+            executeNanos.add(execution.getExecuteNanos());
+            drainNanos.add(execution.getDrainNanos());
+            maxNanos.accumulate(execution.getElapsedNanos());
+            if(execution.isFailed())
+                failed.increment();
+            if(isSlow) {
+                slow.increment();
+                lastSlowParameters = execution.getParameterShape();
+            }
+        }
+
+        /**
+         * @return number of slow runs left out since the last one logged, or -1 when this one should not be logged
+         */
+        private long claimLog(long nowMillis, long intervalMillis) {
+            long last = lastLoggedMillis.get();
+            boolean due = last == Long.MIN_VALUE || nowMillis - last >= intervalMillis;
+            if(!due || !lastLoggedMillis.compareAndSet(last, nowMillis)) {
+                suppressed.incrementAndGet();
+                return -1;
+            }
+
+            return suppressed.getAndSet(0);
+        }
+
+        private long meanNanos() {
+            long runs = count.sum();
+            return runs == 0 ? 0 : elapsedNanos.sum() / runs;
+        }
+
+        private Map<String, Object> snapshot() {
+            long runs = count.sum();
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("id", fingerprint.getId());
+            values.put("statement", fingerprint.getTemplate());
+            values.put("count", runs);
+            values.put("slow", slow.sum());
+            values.put("failed", failed.sum());
+            values.put("rows", rows.sum());
+            values.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(elapsedNanos.sum()));
+            values.put("meanMicros", TimeUnit.NANOSECONDS.toMicros(meanNanos()));
+            values.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(maxNanos.get()));
+            values.put("connectMeanMicros", runs == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(connectNanos.sum() / runs));
+            values.put("executeMeanMicros", runs == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(executeNanos.sum() / runs));
+            values.put("drainMeanMicros", runs == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(drainNanos.sum() / runs));
+            if(lastSlowParameters != null)
+                values.put("lastSlowParameters", lastSlowParameters);
+            return values;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import java.util.List;
+
+/**
+ * One run of a statement by DbQuery, timed by phase
+ * <p>
+ *     The connect phase borrows the connection, the execute phase prepares, binds and runs the statement, and the
+ *     drain phase reads its results. Phases not reached before a failure are 0. For streamed selects, draining
+ *     includes the time the row handler spent on each row.
+ * </p>
+ */
+public final class StatementExecution {
+
+    private final String sql;
+    private final List<Object> params;
+    private final long startNanos;
+    private final long startMillis;
+
+    private long mark;
+    private long connectNanos;
+    private long executeNanos;
+    private long drainNanos;
+    private long elapsedNanos;
+    private long rows;
+    private boolean executed;
+    private int batchSize = 1;
+    private boolean failed = true;
+    private boolean ended;
+
+    /**
+     * @param sql statement being run
+     * @param params values bound to its placeholders, the first row's for a batch
+     */
+    StatementExecution(String sql, List<Object> params) {
+        this.sql = sql;
+        this.params = params;
+        this.startMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+        this.mark = startNanos;
+    }
+
+    /**
+     * Ends the connect phase
+     */
+    void connected() {
+        long now = System.nanoTime();
+        connectNanos = now - mark;
+        mark = now;
+    }
+
+    /**
+     * Ends the execute phase of a statement with results to read
+     */
+    void executed() {
+        long now = System.nanoTime();
+        executeNanos = now - mark;
+        mark = now;
+        executed = true;
+    }
+
+    /**
+     * Ends the drain phase of a statement that succeeded, or its execute phase when it had no results to read
+     *
+     * @param rows rows read or changed
+     */
+    void finished(long rows) {
+        long now = System.nanoTime();
+        if(executed)
+            drainNanos = now - mark;
+        else
+            executeNanos = now - mark;
+        this.rows = rows;
+        failed = false;
+    }
+
+    /**
+     * @param batchSize rows sent together as one JDBC batch
+     */
+    void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Stops the clock once the connection has been returned
+     *
+     * @return false when the execution had already ended
+     */
+    boolean end() {
+        if(ended)
+            return false;
+
+        elapsedNanos = System.nanoTime() - startNanos;
+        ended = true;
+        return true;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public StatementFingerprint getFingerprint() {
+        return StatementFingerprint.of(sql);
+    }
+
+    /**
+     * @return type of each bound value in placeholder order, followed by the batch size for batches, without the
+     * values themselves
+     */
+    public String getParameterShape() {
+        StringBuilder shape = new StringBuilder("[");
+        for (int i = 0; i < params.size(); i++) {
+            if(i > 0)
+                shape.append(", ");
+            Object value = params.get(i);
+            shape.append(value == null ? "null" : value.getClass().getSimpleName());
+        }
+        shape.append(']');
+
+        if(batchSize > 1)
+            shape.append(" x ").append(batchSize);
+
+        return shape.toString();
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return System.nanoTime() taken before borrowing the connection
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    public long getExecuteNanos() {
+        return executeNanos;
+    }
+
+    public long getDrainNanos() {
+        return drainNanos;
+    }
+
+    /**
+     * @return time from borrowing the connection until it was returned
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+}
@@ -0,0 +1,81 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Normalized template of a statement, identifying every run of the same query shape
+ * <p>
+ *     Literals become placeholders, IN lists of any length collapse to one placeholder and whitespace is collapsed,
+ *     so statements differing only in their values share a fingerprint. The id is a hash of the template, short
+ *     enough to search logs for.
+ * </p>
+ */
+public final class StatementFingerprint {
+
+    private static final int MAX_CACHED = 10000;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bIN\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)*\\s*\\)");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // fingerprints by the statement text they were made from
+    private static final ConcurrentHashMap<String, StatementFingerprint> cache = new ConcurrentHashMap<>();
+
+    private final String id;
+    private final String template;
+
+    private StatementFingerprint(String template) {
+        this.template = template;
+
+        // FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < template.length(); i++) {
+            hash ^= template.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        this.id = String.format("%016x", hash);
+    }
+
+    /**
+     * @param sql statement as sent to the database
+     * @return fingerprint of the statement
+     */
+    public static StatementFingerprint of(String sql) {
+        StatementFingerprint fingerprint = cache.get(sql);
+        if(fingerprint != null)
+            return fingerprint;
+
+        fingerprint = new StatementFingerprint(normalize(sql));
+        if(cache.size() < MAX_CACHED)
+            cache.putIfAbsent(sql, fingerprint);
+
+        return fingerprint;
+    }
+
+    /**
+     * @param sql statement as sent to the database
+     * @return statement with its literals replaced by placeholders and its whitespace collapsed
+     */
+    static String normalize(String sql) {
+        String template = STRING_LITERAL.matcher(sql).replaceAll("?");
+        template = NUMBER_LITERAL.matcher(template).replaceAll("?");
+        template = IN_LIST.matcher(template).replaceAll("IN (?)");
+        return WHITESPACE.matcher(template).replaceAll(" ").trim();
+    }
+
+    /**
+     * @return hash of the template as 16 hex digits
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return normalized statement
+     */
+    public String getTemplate() {
+        return template;
+    }
+}
@@ -0,0 +1,15 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+/**
+ * Receives the timing of each statement DbQuery runs
+ * <p>
+ *     Called on the querying thread once the statement has finished, so implementations must be cheap.
+ * </p>
+ */
+@FunctionalInterface
+public interface StatementListener {
+    /**
+     * @param execution finished statement with its phase timings and row count
+     */
+    void statementExecuted(StatementExecution execution);
+}
@@ -2,20 +2,22 @@ package com.t8webs.tvtrackerapi.enterprise.dao;
 
 
 import com.t8webs.tvtrackerapi.enterprise.dto.UserAccount;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Repository;
 
 import java.io.IOException;
 import java.sql.SQLException;
-import java.sql.Timestamp;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 @Repository
 @Profile("dev")
 public class UserAccountDAO implements IUserAccountDAO {
 
+    @Autowired
+    ShardRouter shardRouter;
+
+    private static final RowMapper<UserAccount> rowMapper = new UserAccountRowMapper();
 
     /**
      * Method for creating a new UserAccount record in the database
@@ -25,7 +27,9 @@ public class UserAccountDAO implements IUserAccountDAO {
      */
     @Override
     public boolean save(UserAccount userAccount) throws SQLException, IOException, ClassNotFoundException {
-        DbQuery query = newQuery();
+        shardRouter.claim(userAccount.getUsername());
+
+        DbQuery query = newQuery(userAccount.getUsername());
         query.setColumnValue("username", userAccount.getUsername());
         query.setColumnValue("password", userAccount.getPassword());
         query.setColumnValue("email", userAccount.getEmail());
@@ -43,9 +47,9 @@ public class UserAccountDAO implements IUserAccountDAO {
      */
     @Override
     public UserAccount fetch(String username) throws SQLException, IOException, ClassNotFoundException {
-        DbQuery query = newQuery();
+        DbQuery query = newReadQuery(username);
         query.addWhere("username", username);
-        List<UserAccount> users = parse(query.select());
+        List<UserAccount> users = query.select(rowMapper);
 
         if(users.isEmpty())
             return null;
@@ -61,9 +65,9 @@ public class UserAccountDAO implements IUserAccountDAO {
      */
     @Override
     public boolean existsBy(String username) throws SQLException, IOException, ClassNotFoundException {
-        DbQuery query = newQuery();
+        DbQuery query = newReadQuery(username);
         query.addWhere("username", username);
-        return !query.select().isEmpty();
+        return !query.select(rowMapper).isEmpty();
     }
 
     /**
@@ -74,7 +78,7 @@ public class UserAccountDAO implements IUserAccountDAO {
      */
     @Override
     public boolean delete(String username) throws SQLException, IOException, ClassNotFoundException {
-        DbQuery query = newQuery();
+        DbQuery query = newQuery(username);
         query.addWhere("username", username);
         return query.delete();
     }
@@ -87,37 +91,30 @@ public class UserAccountDAO implements IUserAccountDAO {
      */
     @Override
     public boolean update(UserAccount userAccount) throws SQLException, IOException, ClassNotFoundException {
-        DbQuery query = newQuery();
+        DbQuery query = newQuery(userAccount.getUsername());
         query.setColumnValue("token", userAccount.getToken());
         query.setColumnValue("lastLogin", userAccount.getLastLogin());
         query.addWhere("username", userAccount.getUsername());
         return query.update();
     }
 
-    private DbQuery newQuery() {
-        DbQuery dbQuery = new DbQuery();
+    /**
+     * @param username user whose record is written, locating its shard
+     * @return query against the primary of the user's shard
+     */
+    private DbQuery newQuery(String username) {
+        DbQuery dbQuery = new DbQuery(shardRouter.primaryFor(username));
         dbQuery.setTableName("UserAccount");
         return dbQuery;
     }
 
     /**
-     * Method for parsing SQL results into List of UserAccount objects
-     *
-     * @param results data structure representation of sql results
-     * @return List of UserAccount objects
+     * @param username user whose own recent writes the read must observe
+     * @return query against a read replica of the user's shard when one is fresh enough, otherwise its primary
      */
-    private List<UserAccount> parse(ArrayList<HashMap<String, Object>> results) {
-        ArrayList<UserAccount> userAccounts = new ArrayList<>();
-        for (HashMap valuesMap: results) {
-            UserAccount userAccount = new UserAccount();
-            userAccount.setUsername((String) valuesMap.get("username"));
-            userAccount.setPassword((String) valuesMap.get("password"));
-            userAccount.setEmail((String) valuesMap.get("email"));
-            userAccount.setBirthDate((Timestamp) valuesMap.get("birthdate"));
-            userAccount.setLastLogin((Timestamp) valuesMap.get("lastLogin"));
-            userAccount.setToken((String) valuesMap.get("token"));
-            userAccounts.add(userAccount);
-        }
-        return userAccounts;
+    private DbQuery newReadQuery(String username) {
+        DbQuery dbQuery = new DbQuery(shardRouter.forRead(username));
+        dbQuery.setTableName("UserAccount");
+        return dbQuery;
     }
 }
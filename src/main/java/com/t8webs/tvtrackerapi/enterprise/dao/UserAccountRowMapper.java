@@ -0,0 +1,33 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import com.t8webs.tvtrackerapi.enterprise.dto.UserAccount;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps UserAccount table rows into UserAccount objects
+ */
+public class UserAccountRowMapper implements RowMapper<UserAccount> {
+
+    private static final String[] COLUMNS = {
+            "username", "password", "email", "birthDate", "token", "lastLogin"
+    };
+
+    @Override
+    public String[] columns() {
+        return COLUMNS;
+    }
+
+    @Override
+    public UserAccount mapRow(ResultSet resultSet) throws SQLException {
+        UserAccount userAccount = new UserAccount();
+        userAccount.setUsername(resultSet.getString(1));
+        userAccount.setPassword(resultSet.getString(2));
+        userAccount.setEmail(resultSet.getString(3));
+        userAccount.setBirthDate(resultSet.getTimestamp(4));
+        userAccount.setToken(resultSet.getString(5));
+        userAccount.setLastLogin(resultSet.getTimestamp(6));
+        return userAccount;
+    }
+}
@@ -0,0 +1,22 @@
+package com.t8webs.tvtrackerapi.enterprise.dto;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A user's MediaEntry objects indexed by id, as cached by MediaEntryService
+ */
+public class MediaEntries extends ConcurrentSkipListMap<Integer, MediaEntry> {
+    /**
+     * <p>The user's change horizon read before the entries were loaded, so they hold every change up to it.</p>
+     * <p>0 once the entries have been patched in place, since the horizon they match is then unknown.</p>
+     */
+    private volatile long changeHorizon;
+
+    public long getChangeHorizon() {
+        return changeHorizon;
+    }
+
+    public void setChangeHorizon(long changeHorizon) {
+        this.changeHorizon = changeHorizon;
+    }
+}
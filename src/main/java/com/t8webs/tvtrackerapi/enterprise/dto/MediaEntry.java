@@ -15,4 +15,8 @@ public class MediaEntry {
     private String description;
     private String imageUrl;
     private boolean watched;
+    /**
+     * Position of this entry's latest insert or update in the change sequence, assigned by the database
+     */
+    private long changeSeq;
 }
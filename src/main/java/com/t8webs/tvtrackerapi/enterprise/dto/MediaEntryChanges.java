@@ -0,0 +1,26 @@
+package com.t8webs.tvtrackerapi.enterprise.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class MediaEntryChanges {
+    /**
+     * Entries inserted or updated after the requested watermark, in change order
+     */
+    private List<MediaEntry> upserts;
+    /**
+     * Ids of entries deleted after the requested watermark
+     */
+    private List<Integer> deletions;
+    /**
+     * <p>Value to pass as the since parameter on the next sync.</p>
+     * <p>Unchanged from the request when nothing has changed.</p>
+     */
+    private long watermark;
+    /**
+     * True when further changes remain past the watermark
+     */
+    private boolean more;
+}
@@ -0,0 +1,26 @@
+package com.t8webs.tvtrackerapi.enterprise.dto;
+
+import lombok.Data;
+
+@Data
+public class MediaEntryFilter {
+    /**
+     * Owner of the requested media entries
+     */
+    private String username;
+    /**
+     * Sort column, either "id" or "title"
+     */
+    private String orderBy = "id";
+    /**
+     * Maximum number of entries in the page
+     */
+    private int limit;
+    /**
+     * Opaque cursor from a previous page's next value, null for the first page
+     */
+    private String after;
+    private Boolean watched;
+    private String type;
+    private String platform;
+}
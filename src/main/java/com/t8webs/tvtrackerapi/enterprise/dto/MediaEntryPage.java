@@ -0,0 +1,15 @@
+package com.t8webs.tvtrackerapi.enterprise.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class MediaEntryPage {
+    private List<MediaEntry> entries;
+    /**
+     * <p>Cursor to pass as the after parameter for the following page.</p>
+     * <p>Null when this is the last page.</p>
+     */
+    private String next;
+}
@@ -0,0 +1,18 @@
+package com.t8webs.tvtrackerapi.enterprise.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class MediaEntryVersion {
+    /**
+     * <p>Identifies the current state of a user's media entries.</p>
+     * <p>Changes whenever one of the user's entries is created, updated or deleted.</p>
+     */
+    private String tag;
+    /**
+     * Epoch milliseconds of the change that produced this version
+     */
+    private long lastModified;
+}
@@ -0,0 +1,20 @@
+package com.t8webs.tvtrackerapi.enterprise.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@AllArgsConstructor
+public class UserSession {
+    private String username;
+    /**
+     * The user's current authentication token
+     */
+    private String token;
+    /**
+     * Moment the token stops being valid
+     */
+    private Instant expiresAt;
+}
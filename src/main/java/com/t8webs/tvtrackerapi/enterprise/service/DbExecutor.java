@@ -0,0 +1,122 @@
+package com.t8webs.tvtrackerapi.enterprise.service;
+
+import com.t8webs.tvtrackerapi.enterprise.trace.Span;
+import com.t8webs.tvtrackerapi.enterprise.trace.Tracer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class running blocking service calls on a dedicated, bounded pool of threads
+ * <p>
+ *     The async services hand each call to this pool, so the servlet thread is released while the query runs.
+ *     tvtracker.db.executor.threads threads run calls, usually as many as there are connections, and up to
+ *     tvtracker.db.executor.queue-size more wait their turn. A call arriving at a full queue fails at once with
+ *     RejectedExecutionException rather than adding to a backlog the database cannot clear. A call submitted
+ *     during a traced request runs under the submitter's span, after a db-executor.queued span for its wait.
+ * </p>
+ */
+@Component
+public class DbExecutor {
+
+    /**
+     * A call that may fail the way DAO calls do
+     */
+    @FunctionalInterface
+    public interface Call<V> {
+        V call() throws SQLException, IOException, ClassNotFoundException;
+    }
+
+    @Value("${tvtracker.db.executor.threads:20}")
+    int threads;
+
+    @Value("${tvtracker.db.executor.queue-size:1000}")
+    int queueSize;
+
+    @Autowired
+    Tracer tracer;
+
+    private ThreadPoolExecutor executor;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    @PostConstruct
+    void start() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "db-executor-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdown();
+    }
+
+    /**
+     * Runs a call on the pool
+     *
+     * @param call blocking call to run
+     * @return CompletableFuture completed with the call's result, or exceptionally with its exception
+     */
+    public <V> CompletableFuture<V> submit(Call<V> call) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        submitted.increment();
+        Span parent = tracer.current();
+        long queuedNanos = System.nanoTime();
+
+        try {
+            executor.execute(() -> {
+                try (Tracer.Scope scope = tracer.resume(parent)) {
+                    tracer.startAt("db-executor.queued", parent, queuedNanos).end(System.nanoTime());
+                    try {
+                        future.complete(call.call());
+                    } catch (Throwable e) {
+                        failed.increment();
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * @return thread and queue usage along with submitted, rejected and failed call counts as key value pairs
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("threads", threads);
+        values.put("active", executor.getActiveCount());
+        values.put("queued", executor.getQueue().size());
+        values.put("queueSize", queueSize);
+        values.put("submitted", submitted.sum());
+        values.put("completed", executor.getCompletedTaskCount());
+        values.put("rejected", rejected.sum());
+        values.put("failed", failed.sum());
+        return values;
+    }
+}
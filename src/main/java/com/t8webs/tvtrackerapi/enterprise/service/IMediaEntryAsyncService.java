@@ -0,0 +1,85 @@
+package com.t8webs.tvtrackerapi.enterprise.service;
+
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryChanges;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryFilter;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryPage;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Implementations of IMediaEntryAsyncService run IMediaEntryService methods without blocking the caller.
+ *
+ * Each CompletableFuture completes with the result the IMediaEntryService method returns, or exceptionally with
+ * the exception it throws.
+ */
+public interface IMediaEntryAsyncService {
+    /**
+     * @param mediaEntry MediaEntry object
+     * @return boolean indicating success or failure
+     * @see IMediaEntryService#createMediaEntry(MediaEntry)
+     */
+    CompletableFuture<Boolean> createMediaEntry(MediaEntry mediaEntry);
+
+    /**
+     * @param mediaEntry MediaEntry object
+     * @return boolean indicating success or failure
+     * @see IMediaEntryService#updateMediaEntry(MediaEntry)
+     */
+    CompletableFuture<Boolean> updateMediaEntry(MediaEntry mediaEntry);
+
+    /**
+     * @param mediaEntry MediaEntry object
+     * @return boolean indicating success or failure
+     * @see IMediaEntryService#deleteMediaEntry(MediaEntry)
+     */
+    CompletableFuture<Boolean> deleteMediaEntry(MediaEntry mediaEntry);
+
+    /**
+     * @param username String uniquely identifying a user
+     * @return List of user's MediaEntry objects
+     * @see IMediaEntryService#fetchMediaEntriesByUsername(String)
+     */
+    CompletableFuture<List<MediaEntry>> fetchMediaEntriesByUsername(String username);
+
+    /**
+     * @param filter username, page size, cursor, sort column and column filters
+     * @return page of MediaEntry objects with the cursor for the following page
+     * @see IMediaEntryService#fetchMediaEntryPage(MediaEntryFilter)
+     */
+    CompletableFuture<MediaEntryPage> fetchMediaEntryPage(MediaEntryFilter filter);
+
+    /**
+     * @param username String uniquely identifying a user
+     * @param since watermark returned by the previous sync, 0 for a full sync
+     * @param limit maximum number of upserts and deletions combined
+     * @return upserted entries and deleted ids in change order, with the watermark for the next sync
+     * @see IMediaEntryService#fetchMediaEntryChanges(String, long, int)
+     */
+    CompletableFuture<MediaEntryChanges> fetchMediaEntryChanges(String username, long since, int limit);
+
+    /**
+     * @param username String uniquely identifying the user who owns every entry
+     * @param mediaEntries MediaEntry objects
+     * @return boolean for each MediaEntry, in order, indicating success or failure
+     * @see IMediaEntryService#createMediaEntries(String, List)
+     */
+    CompletableFuture<boolean[]> createMediaEntries(String username, List<MediaEntry> mediaEntries);
+
+    /**
+     * @param username String uniquely identifying the user who owns every entry
+     * @param mediaEntries MediaEntry objects
+     * @return boolean for each MediaEntry, in order, indicating success or failure
+     * @see IMediaEntryService#updateMediaEntries(String, List)
+     */
+    CompletableFuture<boolean[]> updateMediaEntries(String username, List<MediaEntry> mediaEntries);
+
+    /**
+     * @param username String uniquely identifying the user who owns every entry
+     * @param mediaEntries MediaEntry objects
+     * @return boolean for each MediaEntry, in order, indicating success or failure
+     * @see IMediaEntryService#deleteMediaEntries(String, List)
+     */
+    CompletableFuture<boolean[]> deleteMediaEntries(String username, List<MediaEntry> mediaEntries);
+}
@@ -1,6 +1,11 @@
 package com.t8webs.tvtrackerapi.enterprise.service;
 
+import com.t8webs.tvtrackerapi.enterprise.dao.RowHandler;
 import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryChanges;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryFilter;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryPage;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryVersion;
 
 import java.io.IOException;
 import java.sql.SQLException;
@@ -41,4 +46,67 @@ public interface IMediaEntryService {
      * @return List of user's MediaEntry objects
      */
     List<MediaEntry> fetchMediaEntriesByUsername(String username) throws SQLException, IOException, ClassNotFoundException;
+
+    /**
+     * Retrieves the current version of a user's media entries, without loading the entries
+     *
+     * @param username String uniquely identifying a user
+     * @return MediaEntryVersion that changes with every write to the user's entries
+     */
+    MediaEntryVersion fetchMediaEntriesVersion(String username);
+
+    /**
+     * Passes each of a user's MediaEntry objects to a handler as it is read, without caching or collecting them
+     *
+     * @param username String uniquely identifying a user
+     * @param handler RowHandler receiving each MediaEntry
+     * @return number of MediaEntry objects exported
+     */
+    long exportMediaEntries(String username, RowHandler<MediaEntry> handler) throws SQLException, IOException, ClassNotFoundException;
+
+    /**
+     * Retrieves one page of a user's MediaEntry objects
+     *
+     * @param filter username, page size, cursor, sort column and column filters
+     * @return page of MediaEntry objects with the cursor for the following page
+     * @throws IllegalArgumentException when the cursor or sort column is malformed
+     */
+    MediaEntryPage fetchMediaEntryPage(MediaEntryFilter filter) throws SQLException, IOException, ClassNotFoundException;
+
+    /**
+     * Retrieves the changes to a user's MediaEntry records after a change sequence value
+     *
+     * @param username String uniquely identifying a user
+     * @param since watermark returned by the previous sync, 0 for a full sync
+     * @param limit maximum number of upserts and deletions combined
+     * @return upserted entries and deleted ids in change order, with the watermark for the next sync
+     */
+    MediaEntryChanges fetchMediaEntryChanges(String username, long since, int limit) throws SQLException, IOException, ClassNotFoundException;
+
+    /**
+     * Adds many MediaEntry records for a user in a single transaction.
+     *
+     * @param username String uniquely identifying the user who owns every entry
+     * @param mediaEntries MediaEntry objects
+     * @return boolean for each MediaEntry, in order, indicating success or failure
+     */
+    boolean[] createMediaEntries(String username, List<MediaEntry> mediaEntries) throws SQLException, IOException, ClassNotFoundException;
+
+    /**
+     * Updates many of a user's MediaEntry records in a single transaction.
+     *
+     * @param username String uniquely identifying the user who owns every entry
+     * @param mediaEntries MediaEntry objects
+     * @return boolean for each MediaEntry, in order, indicating success or failure
+     */
+    boolean[] updateMediaEntries(String username, List<MediaEntry> mediaEntries) throws SQLException, IOException, ClassNotFoundException;
+
+    /**
+     * Removes many of a user's MediaEntry records in a single transaction.
+     *
+     * @param username String uniquely identifying the user who owns every entry
+     * @param mediaEntries MediaEntry objects
+     * @return boolean for each MediaEntry, in order, indicating success or failure
+     */
+    boolean[] deleteMediaEntries(String username, List<MediaEntry> mediaEntries) throws SQLException, IOException, ClassNotFoundException;
 }
@@ -0,0 +1,50 @@
+package com.t8webs.tvtrackerapi.enterprise.service;
+
+import com.t8webs.tvtrackerapi.enterprise.dto.UserAccount;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Implementations of IUserAccountAsyncService run IUserAccountService methods without blocking the caller.
+ *
+ * Each CompletableFuture completes with the result the IUserAccountService method returns, or exceptionally with
+ * the exception it throws.
+ */
+public interface IUserAccountAsyncService {
+    /**
+     * @param userAccount UserAccount object representing a user to be created
+     * @return newly created UserAccount object, or null
+     * @see IUserAccountService#createUserAccount(UserAccount)
+     */
+    CompletableFuture<UserAccount> createUserAccount(UserAccount userAccount);
+
+    /**
+     * @param username String uniquely identifying a user
+     * @return UserAccount object for the given username, or null
+     * @see IUserAccountService#fetchUserAccount(String)
+     */
+    CompletableFuture<UserAccount> fetchUserAccount(String username);
+
+    /**
+     * @param username String uniquely identifying a user
+     * @param token String to validate for the given user
+     * @return boolean indicating whether the token is valid for the given user
+     * @see IUserAccountService#isTokenValid(String, String)
+     */
+    CompletableFuture<Boolean> isTokenValid(String username, String token);
+
+    /**
+     * @param username String uniquely identifying a user
+     * @param token String currently valid for the given user
+     * @return boolean indicating whether the token was valid and is now revoked
+     * @see IUserAccountService#revokeToken(String, String)
+     */
+    CompletableFuture<Boolean> revokeToken(String username, String token);
+
+    /**
+     * @param userAccount UserAccount object to create a new valid token for
+     * @return UserAccount object containing a valid token
+     * @see IUserAccountService#updateUserToken(UserAccount)
+     */
+    CompletableFuture<UserAccount> updateUserToken(UserAccount userAccount);
+}
@@ -46,6 +46,26 @@ public interface IUserAccountService {
      */
     boolean isTokenValid(UserAccount userAccount, String token) throws SQLException, IOException, ClassNotFoundException;
 
+    /**
+     * Indicates whether a token is valid for the user with the given username
+     *
+     * Checks the in-memory session first and only loads the UserAccount when no session is cached.
+     *
+     * @param username String uniquely identifying a user
+     * @param token String to validate for the given user
+     * @return boolean indicating whether the token is valid for the given user
+     */
+    boolean isTokenValid(String username, String token) throws SQLException, IOException, ClassNotFoundException;
+
+    /**
+     * Revokes a user's token so it can no longer authenticate requests
+     *
+     * @param username String uniquely identifying a user
+     * @param token String currently valid for the given user
+     * @return boolean indicating whether the token was valid and is now revoked
+     */
+    boolean revokeToken(String username, String token) throws SQLException, IOException, ClassNotFoundException;
+
     /**
      * Updates the token and lastLogin for a UserAccount
      *
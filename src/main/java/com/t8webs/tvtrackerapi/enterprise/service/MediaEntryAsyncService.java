@@ -0,0 +1,68 @@
+package com.t8webs.tvtrackerapi.enterprise.service;
+
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryChanges;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryFilter;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryPage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs MediaEntryService methods on the DbExecutor
+ */
+@Service
+public class MediaEntryAsyncService implements IMediaEntryAsyncService {
+
+    @Autowired
+    IMediaEntryService mediaEntryService;
+    @Autowired
+    DbExecutor dbExecutor;
+
+    @Override
+    public CompletableFuture<Boolean> createMediaEntry(MediaEntry mediaEntry) {
+        return dbExecutor.submit(() -> mediaEntryService.createMediaEntry(mediaEntry));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> updateMediaEntry(MediaEntry mediaEntry) {
+        return dbExecutor.submit(() -> mediaEntryService.updateMediaEntry(mediaEntry));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteMediaEntry(MediaEntry mediaEntry) {
+        return dbExecutor.submit(() -> mediaEntryService.deleteMediaEntry(mediaEntry));
+    }
+
+    @Override
+    public CompletableFuture<List<MediaEntry>> fetchMediaEntriesByUsername(String username) {
+        return dbExecutor.submit(() -> mediaEntryService.fetchMediaEntriesByUsername(username));
+    }
+
+    @Override
+    public CompletableFuture<MediaEntryPage> fetchMediaEntryPage(MediaEntryFilter filter) {
+        return dbExecutor.submit(() -> mediaEntryService.fetchMediaEntryPage(filter));
+    }
+
+    @Override
+    public CompletableFuture<MediaEntryChanges> fetchMediaEntryChanges(String username, long since, int limit) {
+        return dbExecutor.submit(() -> mediaEntryService.fetchMediaEntryChanges(username, since, limit));
+    }
+
+    @Override
+    public CompletableFuture<boolean[]> createMediaEntries(String username, List<MediaEntry> mediaEntries) {
+        return dbExecutor.submit(() -> mediaEntryService.createMediaEntries(username, mediaEntries));
+    }
+
+    @Override
+    public CompletableFuture<boolean[]> updateMediaEntries(String username, List<MediaEntry> mediaEntries) {
+        return dbExecutor.submit(() -> mediaEntryService.updateMediaEntries(username, mediaEntries));
+    }
+
+    @Override
+    public CompletableFuture<boolean[]> deleteMediaEntries(String username, List<MediaEntry> mediaEntries) {
+        return dbExecutor.submit(() -> mediaEntryService.deleteMediaEntries(username, mediaEntries));
+    }
+}
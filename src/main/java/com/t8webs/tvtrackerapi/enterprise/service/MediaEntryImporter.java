@@ -0,0 +1,129 @@
+package com.t8webs.tvtrackerapi.enterprise.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Imports newline-delimited JSON MediaEntry records for a user
+ * <p>
+ *     Lines are read and saved in fixed-size chunks, so memory use depends on the chunk size rather than on the
+ *     size of the import. Progress and per-line errors are written back as newline-delimited JSON while the import
+ *     runs.
+ * </p>
+ */
+@Service
+public class MediaEntryImporter {
+
+    @Autowired
+    IMediaEntryService mediaEntryService;
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Value("${tvtracker.import.chunk-size:500}")
+    int chunkSize;
+
+    /**
+     * Reads MediaEntry records, one JSON object per line, and saves them for the given user
+     *
+     * @param username String uniquely identifying the user who will own every entry
+     * @param reader source of newline-delimited JSON MediaEntry records
+     * @param progress destination for error, progress and summary records
+     */
+    public void importEntries(String username, BufferedReader reader, Writer progress) throws IOException {
+        List<MediaEntry> chunk = new ArrayList<>(chunkSize);
+        List<Integer> chunkLines = new ArrayList<>(chunkSize);
+        long lineNumber = 0;
+        long imported = 0;
+        long failed = 0;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if(line.isBlank()) {
+                continue;
+            }
+
+            try {
+                chunk.add(objectMapper.readValue(line, MediaEntry.class));
+                chunkLines.add((int) lineNumber);
+            } catch (JsonProcessingException e) {
+                failed++;
+                writeError(progress, lineNumber, e.getOriginalMessage());
+            }
+
+            if(chunk.size() >= chunkSize) {
+                int saved = saveChunk(username, chunk, chunkLines, progress);
+                imported += saved;
+                failed += chunkLines.size() - saved;
+                chunk.clear();
+                chunkLines.clear();
+                writeSummary(progress, lineNumber, imported, failed, false);
+            }
+        }
+
+        if(!chunk.isEmpty()) {
+            int saved = saveChunk(username, chunk, chunkLines, progress);
+            imported += saved;
+            failed += chunkLines.size() - saved;
+        }
+
+        writeSummary(progress, lineNumber, imported, failed, true);
+    }
+
+    /**
+     * @return number of entries in the chunk that were saved
+     */
+    private int saveChunk(String username, List<MediaEntry> chunk, List<Integer> chunkLines, Writer progress) throws IOException {
+        boolean[] results;
+        try {
+            results = mediaEntryService.createMediaEntries(username, chunk);
+        } catch (SQLException | ClassNotFoundException e) {
+            results = new boolean[chunk.size()];
+        }
+
+        int saved = 0;
+        for (int i = 0; i < chunk.size(); i++) {
+            if(i < results.length && results[i]) {
+                saved++;
+            } else {
+                writeError(progress, chunkLines.get(i), "Entry could not be saved");
+            }
+        }
+        return saved;
+    }
+
+    private void writeError(Writer progress, long lineNumber, String message) throws IOException {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("line", lineNumber);
+        record.put("error", message);
+        writeRecord(progress, record);
+    }
+
+    private void writeSummary(Writer progress, long lines, long imported, long failed, boolean done) throws IOException {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("lines", lines);
+        record.put("imported", imported);
+        record.put("failed", failed);
+        record.put("done", done);
+        writeRecord(progress, record);
+    }
+
+    private void writeRecord(Writer progress, Map<String, Object> record) throws IOException {
+        progress.write(objectMapper.writeValueAsString(record));
+        progress.write('\n');
+        progress.flush();
+    }
+}
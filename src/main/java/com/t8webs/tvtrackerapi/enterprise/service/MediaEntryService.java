@@ -1,76 +1,560 @@
 package com.t8webs.tvtrackerapi.enterprise.service;
 
+import com.t8webs.tvtrackerapi.enterprise.cache.CacheInvalidationBus;
+import com.t8webs.tvtrackerapi.enterprise.cache.TwoTierCache;
 import com.t8webs.tvtrackerapi.enterprise.dao.IMediaEntryDAO;
+import com.t8webs.tvtrackerapi.enterprise.dao.ShardRouter;
+import com.t8webs.tvtrackerapi.enterprise.dao.RowHandler;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntries;
 import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryChanges;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryFilter;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryPage;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryVersion;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.caffeine.CaffeineCache;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Service
 public class MediaEntryService implements IMediaEntryService {
 
     @Autowired
     IMediaEntryDAO mediaEntryDAO;
+    @Autowired
+    CacheManager cacheManager;
+    @Autowired
+    RequestCoalescer requestCoalescer;
+    @Autowired
+    CacheInvalidationBus cacheInvalidationBus;
+    @Autowired
+    ShardRouter shardRouter;
+
+    private static final int MAX_CACHED_PAGES_PER_USER = 64;
+
+    /**
+     * Version tags start with a random id per process, so a tag handed out before a restart is never reissued
+     */
+    private static final String versionPrefix = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36) + ".";
+    private static final AtomicLong versionCounter = new AtomicLong();
+
+    /**
+     * When a peer node writes a user's entries, its mediaEntries invalidation also drops this node's pages,
+     * version and any load in flight for that user, and keeps this node's reads for that user off lagging replicas
+     */
+    @PostConstruct
+    void subscribeToPeerWrites() {
+        cacheInvalidationBus.onInvalidation("mediaEntries", username -> {
+            requestCoalescer.forget("mediaEntries", username);
+            shardRouter.recordWrite(username);
+            cacheManager.getCache("mediaEntryPages").evict(username);
+            cacheManager.getCache("mediaEntryVersions").evict(username);
+        });
+    }
+
+    /**
+     * Entries a file-backed second tier held before a restart are only served while the user's change horizon on
+     * the primary still matches the one they were loaded at
+     */
+    @PostConstruct
+    void checkRestoredEntries() {
+        Cache cache = cacheManager.getCache("mediaEntries");
+        if(cache instanceof TwoTierCache)
+            ((TwoTierCache) cache).setRestoreCheck(this::isCurrent);
+    }
+
+    private boolean isCurrent(Object username, Object entries) {
+        if(!(entries instanceof MediaEntries) || ((MediaEntries) entries).getChangeHorizon() == 0)
+            return false;
+
+        try {
+            return ((MediaEntries) entries).getChangeHorizon()
+                    == shardRouter.onPrimary(() -> mediaEntryDAO.fetchChangeHorizon(username.toString()));
+        } catch (SQLException | IOException | ClassNotFoundException | RuntimeException e) {
+            return false;
+        }
+    }
 
     /**
      * Adds a new MediaEntry record to the database.
+     * <p>
+     *     The stored entry is added to the user's cached entries rather than evicting them.
+     * </p>
      *
      * @param mediaEntry MediaEntry object
      * @return boolean indicating success or failure
      */
     @Override
-    @CacheEvict(value="mediaEntries", key="#mediaEntry.username")
+    @CacheEvict(value="mediaEntryPages", key="#mediaEntry.username")
     public boolean createMediaEntry(MediaEntry mediaEntry) throws SQLException, IOException, ClassNotFoundException {
         if(mediaEntry == null)
             return false;
 
-        return mediaEntryDAO.save(mediaEntry);
+        boolean success = false;
+        try {
+            success = mediaEntryDAO.save(mediaEntry);
+        } finally {
+            changeVersion(mediaEntry.getUsername());
+            if(success)
+                cacheStoredEntry(mediaEntry.getUsername(), mediaEntry.getId());
+            else
+                evictCachedEntries(mediaEntry.getUsername());
+        }
+
+        return success;
     }
 
     /**
      * Updates an existing MediaEntry database record.
+     * <p>
+     *     The stored entry replaces its copy in the user's cached entries rather than evicting them.
+     * </p>
      *
      * @param mediaEntry MediaEntry object
      * @return boolean indicating success or failure
      */
     @Override
-    @CacheEvict(value="mediaEntries", key="#mediaEntry.username")
+    @CacheEvict(value="mediaEntryPages", key="#mediaEntry.username")
     public boolean updateMediaEntry(MediaEntry mediaEntry) throws SQLException, IOException, ClassNotFoundException {
         if(mediaEntry == null){
             return false;
         }
 
-        mediaEntryDAO.update(mediaEntry);
+        boolean success = false;
+        try {
+            success = mediaEntryDAO.update(mediaEntry);
+        } finally {
+            changeVersion(mediaEntry.getUsername());
+            if(success)
+                cacheStoredEntry(mediaEntry.getUsername(), mediaEntry.getId());
+            else
+                evictCachedEntries(mediaEntry.getUsername());
+        }
 
         return true;
     }
 
     /**
      * Removes a MediaEntry record from the database.
+     * <p>
+     *     The entry is removed from the user's cached entries rather than evicting them.
+     * </p>
      *
      * @param mediaEntry MediaEntry object
      * @return boolean indicating success or failure
      */
     @Override
-    @CacheEvict(value="mediaEntries", key="#mediaEntry.username")
+    @CacheEvict(value="mediaEntryPages", key="#mediaEntry.username")
     public boolean deleteMediaEntry(MediaEntry mediaEntry) throws SQLException, IOException, ClassNotFoundException {
-        return mediaEntryDAO.delete(mediaEntry.getId());
+        boolean success = false;
+        try {
+            success = mediaEntryDAO.delete(mediaEntry.getUsername(), mediaEntry.getId());
+        } finally {
+            changeVersion(mediaEntry.getUsername());
+            if(success)
+                patchCachedEntries(mediaEntry.getUsername(), entries -> entries.remove(mediaEntry.getId()));
+            else
+                evictCachedEntries(mediaEntry.getUsername());
+        }
+
+        return success;
     }
 
     /**
      * Retrieves all MediaEntry objects for a given user
+     * <p>
+     *     Entries are cached per user, indexed by id, so single writes can patch them in place. Concurrent cache
+     *     misses for the same user share a single database query.
+     * </p>
      *
      * @param username String uniquely identifying a user
-     * @return List of user's MediaEntry objects
+     * @return List of user's MediaEntry objects, in id order
      */
     @Override
-    @Cacheable(value="mediaEntries", key="#username")
+    @SuppressWarnings("unchecked")
     public List<MediaEntry> fetchMediaEntriesByUsername(String username) throws SQLException, IOException, ClassNotFoundException {
-        return mediaEntryDAO.fetchByUsername(username);
+        Cache cache = cacheManager.getCache("mediaEntries");
+        Map<Integer, MediaEntry> entries = cache.get(username, Map.class);
+
+        if(entries == null) {
+            MediaEntryVersion version = fetchMediaEntriesVersion(username);
+            entries = requestCoalescer.load("mediaEntries", username, () -> {
+                // read first, so the entries hold at least every change up to it
+                long horizon = mediaEntryDAO.fetchChangeHorizon(username);
+                MediaEntries loaded = indexById(mediaEntryDAO.fetchByUsername(username));
+                loaded.setChangeHorizon(horizon);
+                return loaded;
+            });
+            cacheLoadedEntries(cache, username, entries, version);
+        }
+
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Caches loaded entries unless a write finished during the load, since the load may have missed it
+     * <p>
+     *     The version is compared under the cache's lock for the user. Writers change the version before they take
+     *     that lock to patch or evict the user's entries, so entries loaded before a write are either refused here
+     *     or patched afterwards. Caches offering no such lock are left unfilled.
+     * </p>
+     *
+     * @param cache mediaEntries cache
+     * @param username String uniquely identifying a user
+     * @param entries entries loaded from the database
+     * @param version version read before the load started
+     */
+    @SuppressWarnings("unchecked")
+    private void cacheLoadedEntries(Cache cache, String username, Map<Integer, MediaEntry> entries, MediaEntryVersion version) {
+        Function<Object, Object> ifUnchanged = key -> version.equals(fetchMediaEntriesVersion(username)) ? entries : null;
+
+        if(cache instanceof TwoTierCache)
+            ((TwoTierCache) cache).computeIfAbsent(username, ifUnchanged);
+        else if(cache instanceof CaffeineCache)
+            ((CaffeineCache) cache).getNativeCache().asMap().computeIfAbsent(username, ifUnchanged);
+        else if(cache.getNativeCache() instanceof ConcurrentMap)
+            ((ConcurrentMap<Object, Object>) cache.getNativeCache()).computeIfAbsent(username, ifUnchanged);
+    }
+
+    private static MediaEntries indexById(List<MediaEntry> mediaEntries) {
+        MediaEntries entries = new MediaEntries();
+        for (MediaEntry mediaEntry : mediaEntries) {
+            entries.put(mediaEntry.getId(), mediaEntry);
+        }
+        return entries;
+    }
+
+    /**
+     * Re-reads a written entry and places it in the user's cached entries, if they are cached
+     * <p>
+     *     An entry is only replaced by one with a later change sequence value, so concurrent writes to the same
+     *     entry cannot leave the older one cached.
+     * </p>
+     *
+     * @param username String uniquely identifying the user whose cached entries are patched
+     * @param id integer uniquely identifying the written MediaEntry
+     */
+    private void cacheStoredEntry(String username, int id) throws SQLException, IOException, ClassNotFoundException {
+        if(username == null || cacheManager.getCache("mediaEntries").get(username) == null)
+            return;
+
+        // a replica may not have the write yet
+        MediaEntry stored = shardRouter.onPrimary(() -> mediaEntryDAO.fetch(username, id));
+        if(stored == null) {
+            evictCachedEntries(username);
+            return;
+        }
+
+        patchCachedEntries(username, entries -> entries.merge(id, stored,
+                (cached, fresh) -> fresh.getChangeSeq() >= cached.getChangeSeq() ? fresh : cached));
+    }
+
+    /**
+     * Applies a change to the user's cached entries, if they are cached, and reweighs them
+     *
+     * @param username String uniquely identifying the user whose cached entries are patched
+     * @param patch change to the id-indexed entries
+     */
+    @SuppressWarnings("unchecked")
+    private void patchCachedEntries(String username, Consumer<Map<Integer, MediaEntry>> patch) {
+        if(username == null)
+            return;
+
+        Cache cache = cacheManager.getCache("mediaEntries");
+
+        // patched under the cache's lock for this user, so entries evicted meanwhile are not brought back
+        if(cache instanceof TwoTierCache) {
+            ((TwoTierCache) cache).computeIfPresent(username, value -> {
+                patch.accept((Map<Integer, MediaEntry>) value);
+                // the horizon patched entries match is unknown, so they are not served again after a restart
+                if(value instanceof MediaEntries)
+                    ((MediaEntries) value).setChangeHorizon(0);
+                return value;
+            });
+        } else if(cache instanceof CaffeineCache) {
+            ((CaffeineCache) cache).getNativeCache().asMap().computeIfPresent(username, (key, value) -> {
+                patch.accept((Map<Integer, MediaEntry>) value);
+                return value;
+            });
+        } else {
+            cache.evict(username);
+        }
+    }
+
+    private void evictCachedEntries(String username) {
+        if(username != null)
+            cacheManager.getCache("mediaEntries").evict(username);
+    }
+
+    /**
+     * Retrieves the current version of a user's media entries, without loading the entries
+     * <p>
+     *     When no version is held for the user a new one is issued, so a lost version can only cause an
+     *     unnecessary reload and never a stale match.
+     * </p>
+     *
+     * @param username String uniquely identifying a user
+     * @return MediaEntryVersion that changes with every write to the user's entries
+     */
+    @Override
+    public MediaEntryVersion fetchMediaEntriesVersion(String username) {
+        return cacheManager.getCache("mediaEntryVersions").get(username, MediaEntryService::newVersion);
+    }
+
+    /**
+     * Issues a new version for a user's media entries. Called after each write completes, so a version is never
+     * older than the data it is served with. Readers arriving after the write no longer join a load that may
+     * have started before it nor read from a replica that lacks it, and peer nodes are told to drop their copies.
+     *
+     * @param username String uniquely identifying a user
+     */
+    private void changeVersion(String username) {
+        if(username != null) {
+            shardRouter.recordWrite(username);
+            requestCoalescer.forget("mediaEntries", username);
+            cacheManager.getCache("mediaEntryVersions").put(username, newVersion());
+            cacheInvalidationBus.invalidate("mediaEntries", username);
+        }
+    }
+
+    private static MediaEntryVersion newVersion() {
+        return new MediaEntryVersion(versionPrefix + versionCounter.incrementAndGet(), System.currentTimeMillis());
+    }
+
+    /**
+     * Passes each of a user's MediaEntry objects to a handler as it is read, without caching or collecting them
+     *
+     * @param username String uniquely identifying a user
+     * @param handler RowHandler receiving each MediaEntry
+     * @return number of MediaEntry objects exported
+     */
+    @Override
+    public long exportMediaEntries(String username, RowHandler<MediaEntry> handler) throws SQLException, IOException, ClassNotFoundException {
+        return mediaEntryDAO.streamByUsername(username, handler);
+    }
+
+    /**
+     * Adds many MediaEntry records for a user in a single transaction.
+     *
+     * @param username String uniquely identifying the user who owns every entry
+     * @param mediaEntries MediaEntry objects
+     * @return boolean for each MediaEntry, in order, indicating success or failure
+     */
+    @Override
+    @CacheEvict(value={"mediaEntries", "mediaEntryPages"}, key="#username")
+    public boolean[] createMediaEntries(String username, List<MediaEntry> mediaEntries) throws SQLException, IOException, ClassNotFoundException {
+        mediaEntries.forEach(mediaEntry -> mediaEntry.setUsername(username));
+        boolean[] results = mediaEntryDAO.saveAll(mediaEntries);
+        changeVersion(username);
+        return results;
+    }
+
+    /**
+     * Updates many of a user's MediaEntry records in a single transaction.
+     *
+     * @param username String uniquely identifying the user who owns every entry
+     * @param mediaEntries MediaEntry objects
+     * @return boolean for each MediaEntry, in order, indicating success or failure
+     */
+    @Override
+    @CacheEvict(value={"mediaEntries", "mediaEntryPages"}, key="#username")
+    public boolean[] updateMediaEntries(String username, List<MediaEntry> mediaEntries) throws SQLException, IOException, ClassNotFoundException {
+        mediaEntries.forEach(mediaEntry -> mediaEntry.setUsername(username));
+        boolean[] results = mediaEntryDAO.updateAll(mediaEntries);
+        changeVersion(username);
+        return results;
+    }
+
+    /**
+     * Removes many of a user's MediaEntry records in a single transaction.
+     *
+     * @param username String uniquely identifying the user who owns every entry
+     * @param mediaEntries MediaEntry objects
+     * @return boolean for each MediaEntry, in order, indicating success or failure
+     */
+    @Override
+    @CacheEvict(value={"mediaEntries", "mediaEntryPages"}, key="#username")
+    public boolean[] deleteMediaEntries(String username, List<MediaEntry> mediaEntries) throws SQLException, IOException, ClassNotFoundException {
+        mediaEntries.forEach(mediaEntry -> mediaEntry.setUsername(username));
+        boolean[] results = mediaEntryDAO.deleteAll(mediaEntries);
+        changeVersion(username);
+        return results;
+    }
+
+    /**
+     * Retrieves one page of a user's MediaEntry objects
+     * <p>
+     *     Pages are cached per user, so any write for that user evicts all of their cached pages.
+     * </p>
+     *
+     * @param filter username, page size, cursor, sort column and column filters
+     * @return page of MediaEntry objects with the cursor for the following page
+     * @throws IllegalArgumentException when the cursor or sort column is malformed
+     */
+    @Override
+    public MediaEntryPage fetchMediaEntryPage(MediaEntryFilter filter) throws SQLException, IOException, ClassNotFoundException {
+        if(!"id".equals(filter.getOrderBy()) && !"title".equals(filter.getOrderBy()))
+            throw new IllegalArgumentException("Unsupported sort column " + filter.getOrderBy());
+
+        Cache cache = cacheManager.getCache("mediaEntryPages");
+        Map<MediaEntryFilter, MediaEntryPage> pages = cache.get(filter.getUsername(), ConcurrentHashMap::new);
+
+        MediaEntryPage page = pages.get(filter);
+        if(page != null)
+            return page;
+
+        // one extra row tells us whether a following page exists
+        List<MediaEntry> entries = mediaEntryDAO.fetchPageByUsername(filter, decodeCursor(filter.getAfter()), filter.getLimit() + 1);
+
+        page = new MediaEntryPage();
+        if(entries.size() > filter.getLimit()) {
+            entries = entries.subList(0, filter.getLimit());
+            page.setNext(encodeCursor(entries.get(entries.size() - 1), filter.getOrderBy()));
+        }
+        page.setEntries(entries);
+
+        cachePage(cache, filter, pages, page);
+        return page;
+    }
+
+    /**
+     * Adds a page to the user's cached pages, making room by dropping them all once MAX_CACHED_PAGES_PER_USER are
+     * held. A Caffeine cache adds it under its lock for the user, which reweighs the user's pages, and only while
+     * they are still cached, so pages evicted by a write are not grown further.
+     *
+     * @param cache mediaEntryPages cache
+     * @param filter request the page answers
+     * @param pages the user's cached pages, as read before the page was loaded
+     * @param page page to cache
+     */
+    private static void cachePage(Cache cache, MediaEntryFilter filter, Map<MediaEntryFilter, MediaEntryPage> pages, MediaEntryPage page) {
+        Consumer<Map<MediaEntryFilter, MediaEntryPage>> addPage = cached -> {
+            if(cached.size() >= MAX_CACHED_PAGES_PER_USER)
+                cached.clear();
+            cached.put(filter, page);
+        };
+
+        if(cache instanceof CaffeineCache) {
+            ((CaffeineCache) cache).getNativeCache().asMap().computeIfPresent(filter.getUsername(), (key, value) -> {
+                if(value == pages)
+                    addPage.accept(pages);
+                return value;
+            });
+        } else {
+            addPage.accept(pages);
+        }
+    }
+
+    /**
+     * Retrieves the changes to a user's MediaEntry records after a change sequence value
+     * <p>
+     *     Upserts and tombstones are merged in change sequence order and cut off at the limit, so the returned
+     *     watermark never skips a change. Only changes up to the user's change horizon are read, as a change with a
+     *     higher sequence value may still be uncommitted while a lower one is not.
+     * </p>
+     *
+     * @param username String uniquely identifying a user
+     * @param since watermark returned by the previous sync, 0 for a full sync
+     * @param limit maximum number of upserts and deletions combined
+     * @return upserted entries and deleted ids in change order, with the watermark for the next sync
+     */
+    @Override
+    public MediaEntryChanges fetchMediaEntryChanges(String username, long since, int limit) throws SQLException, IOException, ClassNotFoundException {
+        long horizon = mediaEntryDAO.fetchChangeHorizon(username);
+        if(horizon <= since) {
+            MediaEntryChanges changes = new MediaEntryChanges();
+            changes.setUpserts(new ArrayList<>());
+            changes.setDeletions(new ArrayList<>());
+            changes.setWatermark(since);
+            return changes;
+        }
+
+        // one extra row from each source tells us whether more changes remain
+        List<MediaEntry> changed = mediaEntryDAO.fetchChangedByUsername(username, since, horizon, limit + 1);
+        List<MediaEntry> deleted = mediaEntryDAO.fetchDeletedByUsername(username, since, horizon, limit + 1);
+
+        List<MediaEntry> upserts = new ArrayList<>();
+        List<Integer> deletions = new ArrayList<>();
+        long watermark = since;
+        int c = 0;
+        int d = 0;
+
+        while (upserts.size() + deletions.size() < limit && (c < changed.size() || d < deleted.size())) {
+            if(d >= deleted.size() || (c < changed.size() && changed.get(c).getChangeSeq() < deleted.get(d).getChangeSeq())) {
+                MediaEntry entry = changed.get(c++);
+                upserts.add(entry);
+                watermark = entry.getChangeSeq();
+            } else {
+                MediaEntry tombstone = deleted.get(d++);
+                deletions.add(tombstone.getId());
+                watermark = tombstone.getChangeSeq();
+            }
+        }
+
+        MediaEntryChanges changes = new MediaEntryChanges();
+        changes.setUpserts(upserts);
+        changes.setDeletions(deletions);
+        changes.setMore(c < changed.size() || d < deleted.size());
+        // everything up to the horizon has been returned, so the next sync can start there
+        changes.setWatermark(changes.isMore() ? watermark : horizon);
+        return changes;
+    }
+
+    /**
+     * @param last final MediaEntry of a page
+     * @param orderBy sort column of the page
+     * @return opaque cursor holding the sort key of the given entry
+     */
+    private static String encodeCursor(MediaEntry last, String orderBy) {
+        String key = String.valueOf(last.getId());
+
+        if("title".equals(orderBy)) {
+            key += ":" + (last.getTitle() == null ? "" : "t" + last.getTitle());
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param cursor opaque cursor produced by encodeCursor
+     * @return MediaEntry holding the id and title the cursor points at, null for no cursor
+     */
+    private static MediaEntry decodeCursor(String cursor) {
+        if(cursor == null || cursor.isEmpty())
+            return null;
+
+        String key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int separator = key.indexOf(':');
+
+        MediaEntry after = new MediaEntry();
+        try {
+            after.setId(Integer.parseInt(separator < 0 ? key : key.substring(0, separator)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed cursor", e);
+        }
+
+        if(separator >= 0 && separator + 1 < key.length()) {
+            after.setTitle(key.substring(separator + 2));
+        }
+
+        return after;
     }
 }
@@ -0,0 +1,129 @@
+package com.t8webs.tvtrackerapi.enterprise.service;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class collapsing concurrent loads of the same key into a single database call
+ * <p>
+ *     The first caller for a key runs the load, while callers arriving before it finishes wait for and share its
+ *     result or exception. Nothing is kept once the load completes, so this only removes duplicate work and never
+ *     serves stale data on its own.
+ * </p>
+ */
+@Component
+public class RequestCoalescer {
+
+    /**
+     * A load that may fail the way DAO calls do
+     */
+    @FunctionalInterface
+    public interface Loader<V> {
+        V load() throws SQLException, IOException, ClassNotFoundException;
+    }
+
+    private final Map<List<Object>, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Counters> countersByGroup = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the load, or waits for the identical load already in flight
+     *
+     * @param group name of the kind of load, such as the cache it fills
+     * @param key value identifying the load within its group
+     * @param loader load to run when none is in flight
+     * @return result of the load
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V load(String group, Object key, Loader<V> loader) throws SQLException, IOException, ClassNotFoundException {
+        if(key == null)
+            return loader.load();
+
+        List<Object> flightKey = List.of(group, key);
+        Counters counters = countersByGroup.computeIfAbsent(group, name -> new Counters());
+
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(flightKey, mine);
+
+        if(existing != null) {
+            counters.deduplicated.increment();
+            return (V) await(existing);
+        }
+
+        counters.loads.increment();
+        try {
+            V value = loader.load();
+            mine.complete(value);
+            return value;
+        } catch (Throwable e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(flightKey, mine);
+        }
+    }
+
+    /**
+     * Detaches any load in flight for the key, so callers arriving after a write start a fresh load instead of
+     * sharing one that began before it
+     *
+     * @param group name of the kind of load
+     * @param key value identifying the load within its group
+     */
+    public void forget(String group, Object key) {
+        if(key != null)
+            inFlight.remove(List.of(group, key));
+    }
+
+    /**
+     * @return load and deduplicated counts keyed by group
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> groups = new LinkedHashMap<>();
+
+        countersByGroup.forEach((group, counters) -> {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("loads", counters.loads.sum());
+            values.put("deduplicated", counters.deduplicated.sum());
+            groups.put(group, values);
+        });
+
+        return groups;
+    }
+
+    private static Object await(CompletableFuture<Object> future) throws SQLException, IOException, ClassNotFoundException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a coalesced load");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof SQLException)
+                throw (SQLException) cause;
+            if(cause instanceof IOException)
+                throw (IOException) cause;
+            if(cause instanceof ClassNotFoundException)
+                throw (ClassNotFoundException) cause;
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if(cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static final class Counters {
+        private final LongAdder loads = new LongAdder();
+        private final LongAdder deduplicated = new LongAdder();
+    }
+}
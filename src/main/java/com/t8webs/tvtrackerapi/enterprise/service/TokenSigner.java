@@ -0,0 +1,165 @@
+package com.t8webs.tvtrackerapi.enterprise.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Issues and verifies HMAC-SHA256 signed session tokens
+ * <p>
+ *     Tokens have the form keyId.expiryEpochSeconds.base64(signature), where the signature covers the key id,
+ *     username and expiry. Requests already carry the username, so it is left out of the token to keep it short
+ *     enough for the UserAccount token column. Tokens are verified without any database or cache lookup.
+ *     Enabled with tvtracker.token.mode=signed.
+ * </p>
+ * <p>
+ *     Keys are configured as tvtracker.token.keys=id1:base64Secret,id2:base64Secret. New tokens are signed with
+ *     tvtracker.token.active-key (the first key by default), while every listed key is accepted, so a key can be
+ *     rotated by adding the new key, making it active and removing the old one once its tokens have expired.
+ * </p>
+ */
+@Component
+public class TokenSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+
+    @Value("${tvtracker.token.mode:opaque}")
+    String mode;
+
+    @Value("${tvtracker.token.keys:}")
+    String keys;
+
+    @Value("${tvtracker.token.active-key:}")
+    String activeKeyId;
+
+    private final Map<String, SecretKeySpec> keysById = new LinkedHashMap<>();
+
+    /**
+     * Revoked token signatures mapped to the epoch second they would have expired
+     */
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void loadKeys() {
+        for (String key : keys.split(",")) {
+            int separator = key.indexOf(':');
+            if(separator > 0) {
+                byte[] secret = Base64.getDecoder().decode(key.substring(separator + 1).trim());
+                keysById.put(key.substring(0, separator).trim(), new SecretKeySpec(secret, ALGORITHM));
+            }
+        }
+
+        if(activeKeyId.isEmpty() && !keysById.isEmpty())
+            activeKeyId = keysById.keySet().iterator().next();
+
+        if(isEnabled() && !keysById.containsKey(activeKeyId))
+            throw new IllegalStateException("tvtracker.token.mode=signed requires tvtracker.token.keys and a valid active key");
+    }
+
+    /**
+     * @return boolean indicating whether signed tokens should be issued
+     */
+    public boolean isEnabled() {
+        return "signed".equalsIgnoreCase(mode);
+    }
+
+    /**
+     * @param token String to inspect
+     * @return boolean indicating whether the token has the signed token layout
+     */
+    public boolean isSigned(String token) {
+        return token != null && token.chars().filter(c -> c == '.').count() == 2;
+    }
+
+    /**
+     * Issues a signed token for the given user
+     *
+     * @param username String uniquely identifying a user
+     * @param expiresAt moment the token stops being valid
+     * @return signed token
+     */
+    public String issue(String username, Instant expiresAt) {
+        String prefix = activeKeyId + "." + expiresAt.getEpochSecond();
+        byte[] signature = sign(keysById.get(activeKeyId), activeKeyId, username, expiresAt.getEpochSecond());
+
+        return prefix + "." + encoder.encodeToString(signature);
+    }
+
+    /**
+     * Indicates whether a signed token is authentic, unexpired, unrevoked and issued to the given user
+     *
+     * @param username String uniquely identifying a user
+     * @param token signed token
+     * @return boolean indicating whether the token is valid for the given user
+     */
+    public boolean verify(String username, String token) {
+        if(username == null || !isSigned(token))
+            return false;
+
+        String[] parts = token.split("\\.", -1);
+        SecretKeySpec key = keysById.get(parts[0]);
+        if(key == null)
+            return false;
+
+        long expiresAt;
+        try {
+            expiresAt = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+
+        byte[] expected = encoder.encodeToString(sign(key, parts[0], username, expiresAt)).getBytes(StandardCharsets.US_ASCII);
+        if(!MessageDigest.isEqual(expected, parts[2].getBytes(StandardCharsets.US_ASCII)))
+            return false;
+
+        return Instant.now().getEpochSecond() < expiresAt && !revoked.containsKey(parts[2]);
+    }
+
+    /**
+     * Adds a signed token to the revocation list until it would have expired
+     *
+     * @param token signed token to revoke
+     */
+    public void revoke(String token) {
+        if(!isSigned(token))
+            return;
+
+        String[] parts = token.split("\\.", -1);
+        long now = Instant.now().getEpochSecond();
+
+        try {
+            revoked.put(parts[2], Long.parseLong(parts[1]));
+        } catch (NumberFormatException e) {
+            return;
+        }
+
+        // expired tokens fail verification anyway, so their revocations can be dropped
+        revoked.values().removeIf(expiresAt -> expiresAt <= now);
+    }
+
+    /**
+     * @return HMAC over the key id, username and expiry, separated by NUL characters
+     */
+    private static byte[] sign(SecretKeySpec key, String keyId, String username, long expiresAt) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            String payload = keyId + '\0' + username + '\0' + expiresAt;
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to sign token", e);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.t8webs.tvtrackerapi.enterprise.service;
+
+import com.t8webs.tvtrackerapi.enterprise.dto.UserAccount;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs UserAccountService methods on the DbExecutor
+ */
+@Service
+public class UserAccountAsyncService implements IUserAccountAsyncService {
+
+    @Autowired
+    IUserAccountService userAccountService;
+    @Autowired
+    DbExecutor dbExecutor;
+
+    @Override
+    public CompletableFuture<UserAccount> createUserAccount(UserAccount userAccount) {
+        return dbExecutor.submit(() -> userAccountService.createUserAccount(userAccount));
+    }
+
+    @Override
+    public CompletableFuture<UserAccount> fetchUserAccount(String username) {
+        return dbExecutor.submit(() -> userAccountService.fetchUserAccount(username));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> isTokenValid(String username, String token) {
+        return dbExecutor.submit(() -> userAccountService.isTokenValid(username, token));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> revokeToken(String username, String token) {
+        return dbExecutor.submit(() -> userAccountService.revokeToken(username, token));
+    }
+
+    @Override
+    public CompletableFuture<UserAccount> updateUserToken(UserAccount userAccount) {
+        return dbExecutor.submit(() -> userAccountService.updateUserToken(userAccount));
+    }
+}
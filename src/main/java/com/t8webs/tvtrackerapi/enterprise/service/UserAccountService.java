@@ -1,13 +1,23 @@
 package com.t8webs.tvtrackerapi.enterprise.service;
 
+import com.t8webs.tvtrackerapi.enterprise.cache.CacheInvalidationBus;
 import com.t8webs.tvtrackerapi.enterprise.dao.IUserAccountDAO;
+import com.t8webs.tvtrackerapi.enterprise.dao.ShardRouter;
 import com.t8webs.tvtrackerapi.enterprise.dto.UserAccount;
+import com.t8webs.tvtrackerapi.enterprise.dto.UserSession;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.sql.SQLException;
 import java.sql.Timestamp;
@@ -20,9 +30,69 @@ public class UserAccountService implements IUserAccountService {
 
     @Autowired
     IUserAccountDAO userAccountDAO;
+    @Autowired
+    CacheManager cacheManager;
+    @Autowired
+    TokenSigner tokenSigner;
+    @Autowired
+    RequestCoalescer requestCoalescer;
+    @Autowired
+    CacheInvalidationBus cacheInvalidationBus;
+    @Autowired
+    ShardRouter shardRouter;
+    @Autowired
+    MeterRegistry meterRegistry;
 
     private static final SecureRandom secureRandom = new SecureRandom();
     private static final Base64.Encoder base64Encoder = Base64.getUrlEncoder();
+    private static final Duration TOKEN_LIFETIME = Duration.ofHours(1);
+
+    // tvtracker.token.validations counters for each kind of check, indexed by outcome: [invalid, valid]
+    private Counter[] signedTokenChecks;
+    private Counter[] sessionTokenChecks;
+    private Counter[] accountTokenChecks;
+
+    /**
+     * When a peer node changes a user's account, its userAccount invalidation also drops this node's session for
+     * that user and keeps this node's reads of the account off lagging replicas. A signed token revoked on a peer
+     * is revoked here too.
+     */
+    @PostConstruct
+    void subscribeToPeerWrites() {
+        cacheInvalidationBus.onInvalidation("userAccount", username -> {
+            requestCoalescer.forget("userAccount", username);
+            shardRouter.recordWrite(username);
+            cacheManager.getCache("userSessions").evict(username);
+        });
+        cacheInvalidationBus.onInvalidation("revokedTokens", tokenSigner::revoke);
+    }
+
+    /**
+     * Token checks are counted by how the token was checked: by its signature, against a cached session, or against
+     * the stored account
+     */
+    @PostConstruct
+    void registerMeters() {
+        signedTokenChecks = tokenChecks("signed");
+        sessionTokenChecks = tokenChecks("session");
+        accountTokenChecks = tokenChecks("account");
+    }
+
+    private Counter[] tokenChecks(String source) {
+        return new Counter[] { tokenCheck(source, "invalid"), tokenCheck(source, "valid") };
+    }
+
+    private Counter tokenCheck(String source, String result) {
+        return Counter.builder("tvtracker.token.validations")
+                .description("Token checks by how the token was checked and whether it was valid")
+                .tags("source", source, "result", result)
+                .register(meterRegistry);
+    }
+
+    private static boolean count(Counter[] checks, boolean valid) {
+        checks[valid ? 1 : 0].increment();
+        return valid;
+    }
 
     /**
      * Creates a new UserAccount database record from a UserAccount object.
@@ -35,15 +105,17 @@ public class UserAccountService implements IUserAccountService {
     @Override
     @CachePut(value="userAccount", key="#userAccount.username")
     public UserAccount createUserAccount(UserAccount userAccount) throws SQLException, IOException, ClassNotFoundException {
-        String token = generateNewToken();
-        userAccount.setToken(token);
-
         Timestamp timestamp = new Timestamp(System.currentTimeMillis());
         userAccount.setLastLogin(timestamp);
 
+        String token = newToken(userAccount);
+        userAccount.setToken(token);
+
         boolean success = userAccountDAO.save(userAccount);
+        shardRouter.recordWrite(userAccount.getUsername());
 
         if(success) {
+            replaceSession(userAccount);
             return userAccount;
         }
 
@@ -65,6 +137,9 @@ public class UserAccountService implements IUserAccountService {
      *
      * Returns null if a user account with the given username could not be found.
      *
+     * Concurrent lookups of the same user share a single database query. Each caller receives its own copy,
+     * since callers such as updateUserToken modify the account they are given.
+     *
      * @param username String uniquely identifying a user
      * @return UserAccount object for the given username
      */
@@ -74,7 +149,8 @@ public class UserAccountService implements IUserAccountService {
         if(username == null)
             return null;
 
-        return userAccountDAO.fetch(username);
+        UserAccount userAccount = requestCoalescer.load("userAccount", username, () -> userAccountDAO.fetch(username));
+        return userAccount == null ? null : copyOf(userAccount);
     }
 
     /**
@@ -94,12 +170,45 @@ public class UserAccountService implements IUserAccountService {
 
         // Verify user's token was created within the last hour
         Instant lastLogin = userAccount.getLastLogin().toInstant();
-        Duration hour = Duration.ofHours( 1 );
-        Instant timeCutOff = lastLogin.plus(hour);
+        Instant timeCutOff = lastLogin.plus(TOKEN_LIFETIME);
 
         return Instant.now().isBefore(timeCutOff);
     }
 
+    /**
+     * Indicates whether a token is valid for the user with the given username
+     *
+     * Checks the in-memory session first and only loads the UserAccount when no session is cached.
+     *
+     * @param username String uniquely identifying a user
+     * @param token String to validate for the given user
+     * @return boolean indicating whether the token is valid for the given user
+     */
+    @Override
+    public boolean isTokenValid(String username, String token) throws SQLException, IOException, ClassNotFoundException {
+        if(username == null || token == null)
+            return false;
+
+        // signed tokens carry everything needed to verify them
+        if(tokenSigner.isSigned(token))
+            return count(signedTokenChecks, tokenSigner.verify(username, token));
+
+        UserSession session = cacheManager.getCache("userSessions").get(username, UserSession.class);
+
+        if(session != null) {
+            return count(sessionTokenChecks, Instant.now().isBefore(session.getExpiresAt())
+                    && MessageDigest.isEqual(session.getToken().getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        UserAccount userAccount = fetchUserAccount(username);
+
+        if(!isTokenValid(userAccount, token))
+            return count(accountTokenChecks, false);
+
+        cacheSession(userAccount);
+        return count(accountTokenChecks, true);
+    }
+
     /**
      * Updates the token and lastLogin for a UserAccount
      *
@@ -112,19 +221,91 @@ public class UserAccountService implements IUserAccountService {
         if(userAccount == null)
             return null;
 
-        String token = generateNewToken();
-        userAccount.setToken(token);
         userAccount.setLastLogin(new Timestamp(System.currentTimeMillis()));
+        String token = newToken(userAccount);
+        userAccount.setToken(token);
 
         boolean success = userAccountDAO.update(userAccount);
+        // the next login check must see the new token even before it reaches the replicas
+        shardRouter.recordWrite(userAccount.getUsername());
 
         if(success) {
+            replaceSession(userAccount);
             return userAccount;
         }
 
         return null;
     }
 
+    /**
+     * Revokes a user's token so it can no longer authenticate requests
+     *
+     * @param username String uniquely identifying a user
+     * @param token String currently valid for the given user
+     * @return boolean indicating whether the token was valid and is now revoked
+     */
+    @Override
+    public boolean revokeToken(String username, String token) throws SQLException, IOException, ClassNotFoundException {
+        if(!isTokenValid(username, token))
+            return false;
+
+        if(tokenSigner.isSigned(token)) {
+            tokenSigner.revoke(token);
+            cacheInvalidationBus.invalidate("revokedTokens", token);
+            return true;
+        }
+
+        // replacing the stored token invalidates the old one along with its cached session
+        return updateUserToken(fetchUserAccount(username)) != null;
+    }
+
+    /**
+     * Creates a token for the user, signed when tvtracker.token.mode=signed and random otherwise
+     *
+     * @param userAccount UserAccount holding the username and lastLogin of the new token
+     * @return token for authentication
+     */
+    private String newToken(UserAccount userAccount) {
+        if(tokenSigner.isEnabled())
+            return tokenSigner.issue(userAccount.getUsername(), userAccount.getLastLogin().toInstant().plus(TOKEN_LIFETIME));
+
+        return generateNewToken();
+    }
+
+    /**
+     * Caches a newly issued token, replacing any previous session on every node
+     *
+     * @param userAccount UserAccount holding the new token and lastLogin
+     */
+    private void replaceSession(UserAccount userAccount) {
+        cacheSession(userAccount);
+
+        // peers still holding the previous token drop it along with their copy of the account
+        cacheInvalidationBus.invalidate("userAccount", userAccount.getUsername());
+    }
+
+    /**
+     * Caches the user's current token on this node until it expires
+     *
+     * @param userAccount UserAccount holding a token and lastLogin
+     */
+    private void cacheSession(UserAccount userAccount) {
+        Instant expiresAt = userAccount.getLastLogin().toInstant().plus(TOKEN_LIFETIME);
+        cacheManager.getCache("userSessions").put(userAccount.getUsername(),
+                new UserSession(userAccount.getUsername(), userAccount.getToken(), expiresAt));
+    }
+
+    private static UserAccount copyOf(UserAccount userAccount) {
+        UserAccount copy = new UserAccount();
+        copy.setUsername(userAccount.getUsername());
+        copy.setPassword(userAccount.getPassword());
+        copy.setEmail(userAccount.getEmail());
+        copy.setBirthDate(userAccount.getBirthDate());
+        copy.setToken(userAccount.getToken());
+        copy.setLastLogin(userAccount.getLastLogin());
+        return copy;
+    }
+
     /**
      * @return randomly generated character string for authentication
      */
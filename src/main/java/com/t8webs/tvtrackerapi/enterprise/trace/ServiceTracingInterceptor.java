@@ -0,0 +1,33 @@
+package com.t8webs.tvtrackerapi.enterprise.trace;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.support.AopUtils;
+
+/**
+ * Wraps each service method call of a traced request in a span named after the service class and method
+ */
+public class ServiceTracingInterceptor implements MethodInterceptor {
+
+    private final Tracer tracer;
+
+    public ServiceTracingInterceptor(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if(!tracer.isRecording() || invocation.getMethod().getDeclaringClass() == Object.class)
+            return invocation.proceed();
+
+        Class<?> type = AopUtils.getTargetClass(invocation.getThis());
+        try (Span span = tracer.start(type.getSimpleName() + "." + invocation.getMethod().getName())) {
+            try {
+                return invocation.proceed();
+            } catch (Throwable e) {
+                span.error(e);
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.t8webs.tvtrackerapi.enterprise.trace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timed operation within a trace
+ * <p>
+ *     Spans are created by the Tracer. A request that was not sampled gets the NOOP span everywhere, whose methods
+ *     do nothing. Closing a span ends it and, if it is still the current span of the thread, makes its parent
+ *     current again.
+ * </p>
+ */
+public class Span implements AutoCloseable {
+
+    /**
+     * Span of every operation that is not being traced
+     */
+    public static final Span NOOP = new Span();
+
+    private final Tracer tracer;
+    private final Trace trace;
+    private final long spanId;
+    private final Span parent;
+    private final Span previous;
+    private final String name;
+    private final String thread;
+    private final long startNanos;
+
+    private Map<String, Object> tags;
+    private volatile long endNanos;
+
+    private Span() {
+        this.tracer = null;
+        this.trace = null;
+        this.spanId = 0;
+        this.parent = null;
+        this.previous = null;
+        this.name = "";
+        this.thread = "";
+        this.startNanos = 0;
+    }
+
+    /**
+     * @param tracer Tracer the span reports to when it ends
+     * @param trace trace the span belongs to
+     * @param parent enclosing span, null for the root
+     * @param previous span to make current again when this one ends, or null when this span was never current
+     * @param name operation name
+     * @param startNanos System.nanoTime() at which the operation started
+     */
+    Span(Tracer tracer, Trace trace, Span parent, Span previous, String name, long startNanos) {
+        this.tracer = tracer;
+        this.trace = trace;
+        this.spanId = Tracer.newId();
+        this.parent = parent;
+        this.previous = previous;
+        this.name = name;
+        this.thread = Thread.currentThread().getName();
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * @return whether the span belongs to a sampled trace
+     */
+    public boolean isRecording() {
+        return trace != null;
+    }
+
+    /**
+     * @param key tag name
+     * @param value tag value
+     * @return this span
+     */
+    public Span tag(String key, Object value) {
+        if(trace == null)
+            return this;
+
+        synchronized (this) {
+            if(tags == null)
+                tags = new LinkedHashMap<>();
+            tags.put(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * @param e exception the operation ended with
+     * @return this span
+     */
+    public Span error(Throwable e) {
+        return tag("error", e.getClass().getSimpleName() + (e.getMessage() == null ? "" : ": " + e.getMessage()));
+    }
+
+    /**
+     * Ends the span now
+     */
+    @Override
+    public void close() {
+        end(System.nanoTime());
+    }
+
+    /**
+     * Ends the span at the given time, once
+     *
+     * @param endNanos System.nanoTime() at which the operation ended
+     */
+    public void end(long endNanos) {
+        if(trace == null || this.endNanos != 0)
+            return;
+
+        this.endNanos = endNanos;
+        tracer.ended(this);
+    }
+
+    /**
+     * @return trace id as 16 hex digits, empty for the NOOP span
+     */
+    public String getTraceId() {
+        return trace == null ? "" : trace.getTraceId();
+    }
+
+    Trace getTrace() {
+        return trace;
+    }
+
+    Span getParent() {
+        return parent;
+    }
+
+    Span getPrevious() {
+        return previous;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    long getEndNanos() {
+        return endNanos;
+    }
+
+    /**
+     * @return span fields as key value pairs, with times in epoch microseconds
+     */
+    synchronized Map<String, Object> toMap() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("traceId", trace.getTraceId());
+        values.put("spanId", Tracer.formatId(spanId));
+        if(parent != null)
+            values.put("parentId", Tracer.formatId(parent.spanId));
+        values.put("name", name);
+        values.put("thread", thread);
+        values.put("startMicros", Tracer.epochMicros(startNanos));
+        values.put("durationMicros", endNanos == 0 ? null : (endNanos - startNanos) / 1000);
+        if(tags != null)
+            values.put("tags", new LinkedHashMap<>(tags));
+        return values;
+    }
+}
@@ -0,0 +1,60 @@
+package com.t8webs.tvtrackerapi.enterprise.trace;
+
+import com.t8webs.tvtrackerapi.enterprise.dao.DbQuery;
+import com.t8webs.tvtrackerapi.enterprise.dao.StatementExecution;
+import com.t8webs.tvtrackerapi.enterprise.dao.StatementListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+/**
+ * Class adding a span for each statement a traced request runs, with a child span for each phase
+ * <p>
+ *     The spans are built from the timings DbQuery already took, once the statement has finished, so statements
+ *     outside traced requests cost nothing more.
+ * </p>
+ */
+@Component
+public class StatementTracer implements StatementListener {
+
+    @Autowired
+    Tracer tracer;
+
+    @PostConstruct
+    void register() {
+        DbQuery.addStatementListener(this);
+    }
+
+    @PreDestroy
+    void unregister() {
+        DbQuery.removeStatementListener(this);
+    }
+
+    @Override
+    public void statementExecuted(StatementExecution execution) {
+        Span parent = tracer.current();
+        if(!parent.isRecording())
+            return;
+
+        long start = execution.getStartNanos();
+        long connected = start + execution.getConnectNanos();
+        long executed = connected + execution.getExecuteNanos();
+
+        Span statement = tracer.startAt("db.statement", parent, start)
+                .tag("fingerprint", execution.getFingerprint().getId())
+                .tag("statement", execution.getFingerprint().getTemplate())
+                .tag("rows", execution.getRows());
+        if(execution.getBatchSize() > 1)
+            statement.tag("batchSize", execution.getBatchSize());
+        if(execution.isFailed())
+            statement.tag("error", "failed");
+
+        tracer.startAt("db.connect", statement, start).end(connected);
+        tracer.startAt("db.execute", statement, connected).end(executed);
+        if(execution.getDrainNanos() > 0)
+            tracer.startAt("db.read", statement, executed).end(executed + execution.getDrainNanos());
+        statement.end(start + execution.getElapsedNanos());
+    }
+}
@@ -0,0 +1,78 @@
+package com.t8webs.tvtrackerapi.enterprise.trace;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spans of one sampled request, kept until the trace is pushed out of the TraceCollector
+ */
+class Trace {
+
+    private final String traceId;
+    private final int maxSpans;
+
+    // guarded by this
+    private final List<Span> spans = new ArrayList<>();
+    private int dropped;
+    private Span root;
+
+    /**
+     * @param traceId trace id as 16 hex digits
+     * @param maxSpans number of ended spans to keep, further ones are only counted
+     */
+    Trace(String traceId, int maxSpans) {
+        this.traceId = traceId;
+        this.maxSpans = maxSpans;
+    }
+
+    String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * @param span ended span of this trace
+     */
+    synchronized void add(Span span) {
+        if(span.getParent() == null)
+            root = span;
+
+        if(spans.size() < maxSpans)
+            spans.add(span);
+        else
+            dropped++;
+    }
+
+    /**
+     * @return root span duration in nanoseconds, 0 while the root is open
+     */
+    synchronized long durationNanos() {
+        return root == null ? 0 : root.getEndNanos() - root.getStartNanos();
+    }
+
+    /**
+     * @return trace id, root name and duration, and the spans in start order, as key value pairs
+     */
+    synchronized Map<String, Object> toMap() {
+        List<Span> ordered = new ArrayList<>(spans);
+        ordered.sort(Comparator.comparingLong(Span::getStartNanos));
+
+        List<Map<String, Object>> values = new ArrayList<>();
+        for (Span span : ordered) {
+            values.add(span.toMap());
+        }
+
+        Map<String, Object> trace = new LinkedHashMap<>();
+        trace.put("traceId", traceId);
+        if(root != null) {
+            trace.put("name", root.getName());
+            trace.put("startMicros", Tracer.epochMicros(root.getStartNanos()));
+            trace.put("durationMicros", durationNanos() / 1000);
+        }
+        trace.put("droppedSpans", dropped);
+        trace.put("spans", values);
+        return trace;
+    }
+}
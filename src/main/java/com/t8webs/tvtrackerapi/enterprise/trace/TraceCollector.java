@@ -0,0 +1,165 @@
+package com.t8webs.tvtrackerapi.enterprise.trace;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class keeping the most recent sampled traces in memory and optionally writing every span to a file
+ * <p>
+ *     The last tvtracker.tracing.buffer-size traces (200 by default) are kept once their root span ends. With
+ *     tvtracker.tracing.file set, ended spans are also appended to that file as JSON lines by a background thread.
+ *     Spans arriving while tvtracker.tracing.file-queue-size spans already wait to be written are dropped rather
+ *     than slowing requests down.
+ * </p>
+ */
+@Component
+public class TraceCollector {
+
+    @Value("${tvtracker.tracing.buffer-size:200}")
+    int bufferSize;
+
+    @Value("${tvtracker.tracing.file:}")
+    String file;
+
+    @Value("${tvtracker.tracing.file-queue-size:10000}")
+    int fileQueueSize;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    // guarded by itself, newest first
+    private final ArrayDeque<Trace> traces = new ArrayDeque<>();
+
+    private BlockingQueue<Span> exportQueue;
+    private Thread exporter;
+    private volatile boolean running;
+
+    private final LongAdder collected = new LongAdder();
+    private final LongAdder exported = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    @PostConstruct
+    void start() throws IOException {
+        if(file == null || file.isEmpty())
+            return;
+
+        Path path = Paths.get(file);
+        if(path.getParent() != null)
+            Files.createDirectories(path.getParent());
+        BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        exportQueue = new ArrayBlockingQueue<>(fileQueueSize);
+        running = true;
+        exporter = new Thread(() -> export(out), "trace-exporter");
+        exporter.setDaemon(true);
+        exporter.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        if(exporter != null)
+            exporter.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    /**
+     * @param span ended span
+     */
+    void collect(Span span) {
+        collected.increment();
+
+        if(span.getParent() == null) {
+            synchronized (traces) {
+                traces.addFirst(span.getTrace());
+                if(traces.size() > bufferSize)
+                    traces.removeLast();
+            }
+        }
+
+        if(exportQueue != null && !exportQueue.offer(span))
+            dropped.increment();
+    }
+
+    /**
+     * Writes queued spans until the collector stops, flushing whenever the queue runs empty
+     */
+    private void export(BufferedWriter out) {
+        try (out) {
+            while (running || !exportQueue.isEmpty()) {
+                Span span = exportQueue.poll(200, TimeUnit.MILLISECONDS);
+                if(span == null) {
+                    out.flush();
+                    continue;
+                }
+
+                out.write(objectMapper.writeValueAsString(span.toMap()));
+                out.newLine();
+                exported.increment();
+                if(exportQueue.isEmpty())
+                    out.flush();
+            }
+        } catch (IOException e) {
+            log.warn("Trace export to " + file + " stopped", e);
+            exportQueue = null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param limit number of traces to return
+     * @param minMillis shortest root span duration to return
+     * @param traceId id of the one trace to return, or null for any
+     * @return span counts and the most recent matching traces, newest first, as key value pairs
+     */
+    public Map<String, Object> snapshot(int limit, long minMillis, String traceId) {
+        List<Trace> recent;
+        synchronized (traces) {
+            recent = new ArrayList<>(traces);
+        }
+
+        long minNanos = TimeUnit.MILLISECONDS.toNanos(minMillis);
+        List<Map<String, Object>> matching = new ArrayList<>();
+        for (Trace trace : recent) {
+            if(matching.size() >= limit)
+                break;
+            if(traceId != null && !traceId.equals(trace.getTraceId()))
+                continue;
+            if(trace.durationNanos() < minNanos)
+                continue;
+            matching.add(trace.toMap());
+        }
+
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("collectedSpans", collected.sum());
+        values.put("exportedSpans", exported.sum());
+        values.put("droppedSpans", dropped.sum());
+        values.put("traces", matching);
+        return values;
+    }
+}
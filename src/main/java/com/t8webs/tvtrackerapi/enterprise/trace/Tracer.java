@@ -0,0 +1,171 @@
+package com.t8webs.tvtrackerapi.enterprise.trace;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class starting spans and tracking the current span of each thread
+ * <p>
+ *     A trace starts at a controller method, where tvtracker.tracing.sample-rate of the requests (0.01 by default)
+ *     are sampled. Spans are only created beneath the current span of a sampled trace, so in a request that was not
+ *     sampled each traced operation costs a thread-local read. Work handed to another thread carries the span it was
+ *     started under and resumes it there. Ended spans go to the TraceCollector.
+ * </p>
+ */
+@Component
+public class Tracer {
+
+    /**
+     * Makes the span that was current before a resume current again
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final Scope NOOP_SCOPE = () -> {};
+
+    private static final long BASE_EPOCH_MICROS = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    private static final long BASE_NANOS = System.nanoTime();
+
+    @Value("${tvtracker.tracing.sample-rate:0.01}")
+    double sampleRate;
+
+    @Value("${tvtracker.tracing.max-spans:1000}")
+    int maxSpans;
+
+    @Autowired
+    TraceCollector traceCollector;
+
+    private final ThreadLocal<Span> current = new ThreadLocal<>();
+
+    /**
+     * Decides whether to trace a request, for tvtracker.tracing.sample-rate of the requests
+     *
+     * @param force whether to trace the request regardless of the sample rate
+     * @return whether the request is traced
+     */
+    public boolean sample(boolean force) {
+        return force || sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * Starts the root span of a sampled request without making it current
+     *
+     * @param name operation name
+     * @return new root span
+     */
+    public Span startRoot(String name) {
+        Trace trace = new Trace(formatId(newId()), maxSpans);
+        return new Span(this, trace, null, null, name, System.nanoTime());
+    }
+
+    /**
+     * Starts a span beneath the current one and makes it current until it is closed
+     *
+     * @param name operation name
+     * @return new span, or the NOOP span when the current request is not traced
+     */
+    public Span start(String name) {
+        Span parent = current.get();
+        if(parent == null)
+            return Span.NOOP;
+
+        Span span = new Span(this, parent.getTrace(), parent, parent, name, System.nanoTime());
+        current.set(span);
+        return span;
+    }
+
+    /**
+     * Creates a span for an operation that already started, without making it current. Used to report timings
+     * measured elsewhere.
+     *
+     * @param name operation name
+     * @param parent enclosing span
+     * @param startNanos System.nanoTime() at which the operation started
+     * @return new span, or the NOOP span when the parent is not traced
+     */
+    public Span startAt(String name, Span parent, long startNanos) {
+        if(!parent.isRecording())
+            return Span.NOOP;
+
+        return new Span(this, parent.getTrace(), parent, null, name, startNanos);
+    }
+
+    /**
+     * @return current span of this thread, or the NOOP span
+     */
+    public Span current() {
+        Span span = current.get();
+        return span == null ? Span.NOOP : span;
+    }
+
+    /**
+     * @return whether this thread is working on a traced request
+     */
+    public boolean isRecording() {
+        return current.get() != null;
+    }
+
+    /**
+     * Makes a span current on this thread, usually one started on another thread, until the scope is closed
+     *
+     * @param span span to continue under
+     * @return Scope restoring the previous current span
+     */
+    public Scope resume(Span span) {
+        if(!span.isRecording())
+            return NOOP_SCOPE;
+
+        Span previous = current.get();
+        current.set(span);
+        return () -> {
+            if(previous == null)
+                current.remove();
+            else
+                current.set(previous);
+        };
+    }
+
+    /**
+     * Called once by each span as it ends
+     *
+     * @param span ended span
+     */
+    void ended(Span span) {
+        if(current.get() == span) {
+            Span previous = span.getPrevious();
+            if(previous == null)
+                current.remove();
+            else
+                current.set(previous);
+        }
+
+        span.getTrace().add(span);
+        traceCollector.collect(span);
+    }
+
+    static long newId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    static String formatId(long id) {
+        return String.format("%016x", id);
+    }
+
+    /**
+     * @param nanos System.nanoTime() value
+     * @return the same instant in microseconds since the epoch
+     */
+    static long epochMicros(long nanos) {
+        return BASE_EPOCH_MICROS + (nanos - BASE_NANOS) / 1000;
+    }
+}
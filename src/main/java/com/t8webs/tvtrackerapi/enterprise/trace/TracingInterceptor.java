@@ -0,0 +1,83 @@
+package com.t8webs.tvtrackerapi.enterprise.trace;
+
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Starts the root span of each controller method call
+ * <p>
+ *     The span stays open across async processing. The servlet thread lets go of it once the handler returns a
+ *     future, and the thread dispatching the finished response resumes it. A request with the header X-Trace: 1
+ *     is traced regardless of the sample rate, and the id of a traced request is returned in X-Trace-Id.
+ * </p>
+ */
+public class TracingInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String SPAN = TracingInterceptor.class.getName() + ".span";
+    private static final String SCOPE = TracingInterceptor.class.getName() + ".scope";
+
+    private final Tracer tracer;
+
+    public TracingInterceptor(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        Span span = (Span) request.getAttribute(SPAN);
+        if(span == null) {
+            // remembered even when not sampled, so an async dispatch of the same request is not sampled again
+            span = tracer.sample("1".equals(request.getHeader("X-Trace"))) ? tracer.startRoot(name(handler)) : Span.NOOP;
+            request.setAttribute(SPAN, span);
+            if(!span.isRecording())
+                return true;
+
+            span.tag("method", request.getMethod())
+                    .tag("uri", request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE));
+            response.setHeader("X-Trace-Id", span.getTraceId());
+        }
+
+        request.setAttribute(SCOPE, tracer.resume(span));
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        closeScope(request);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        closeScope(request);
+
+        Span span = (Span) request.getAttribute(SPAN);
+        if(span == null || !span.isRecording())
+            return;
+
+        span.tag("status", response.getStatus());
+        if(ex != null)
+            span.error(ex);
+        span.close();
+    }
+
+    private void closeScope(HttpServletRequest request) {
+        Tracer.Scope scope = (Tracer.Scope) request.getAttribute(SCOPE);
+        if(scope != null) {
+            request.removeAttribute(SCOPE);
+            scope.close();
+        }
+    }
+
+    private static String name(Object handler) {
+        if(handler instanceof HandlerMethod) {
+            HandlerMethod method = (HandlerMethod) handler;
+            return method.getBeanType().getSimpleName() + "." + method.getMethod().getName();
+        }
+
+        return handler.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,9 @@
+-- Change horizon for /mediaEntries/changes, applied after media-entry-changes.sql
+-- Every change to a user's entries locks the user's UserAccount row first and raises its changeSeq last,
+-- so the feed only returns sequence values whose transactions have committed.
+
+ALTER TABLE UserAccount ADD changeSeq BIGINT NULL;
+GO
+
+-- every change made before this migration is below the initial horizon
+UPDATE UserAccount SET changeSeq = NEXT VALUE FOR MediaEntryChangeSeq;
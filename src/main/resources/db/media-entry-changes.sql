@@ -0,0 +1,20 @@
+-- Change tracking for MediaEntry, required by /mediaEntries/changes
+-- Every insert and update stamps the row with the next value of MediaEntryChangeSeq,
+-- and every delete leaves a tombstone carrying its own sequence value.
+
+CREATE SEQUENCE MediaEntryChangeSeq AS BIGINT START WITH 1 INCREMENT BY 1 CACHE 100;
+
+ALTER TABLE MediaEntry ADD changeSeq BIGINT NULL;
+GO
+
+-- existing entries are stamped once so a first sync from 0 returns them
+UPDATE MediaEntry SET changeSeq = NEXT VALUE FOR MediaEntryChangeSeq WHERE changeSeq IS NULL;
+
+CREATE TABLE MediaEntryTombstone (
+    id INT NOT NULL PRIMARY KEY,
+    username VARCHAR(50) NOT NULL,
+    changeSeq BIGINT NOT NULL
+);
+
+CREATE INDEX MediaEntry_username_changeSeq ON MediaEntry(username, changeSeq);
+CREATE INDEX MediaEntryTombstone_username_changeSeq ON MediaEntryTombstone(username, changeSeq);
@@ -0,0 +1,40 @@
+-- Shard-encoded MediaEntry ids, required before running more than one shard
+-- Ids are drawn from MediaEntryIdSeq instead of IDENTITY. Each value v reserves the ids v, v + 64, ... v + 31 * 64,
+-- so every id's remainder modulo 64 names the shard that allocated it and ids stay unique across shards.
+-- Run on the existing database, which becomes shard 0. Existing ids are kept.
+
+CREATE TABLE MediaEntry_sharded (
+    id INT NOT NULL PRIMARY KEY,
+    title VARCHAR(255),
+    username VARCHAR(50),
+    type VARCHAR(50),
+    platform VARCHAR(50),
+    description VARCHAR(2000),
+    imageUrl VARCHAR(500),
+    watched BIT,
+    changeSeq BIGINT NULL
+);
+
+INSERT INTO MediaEntry_sharded (id, title, username, type, platform, description, imageUrl, watched, changeSeq)
+SELECT id, title, username, type, platform, description, imageUrl, watched, changeSeq FROM MediaEntry;
+
+DROP TABLE MediaEntry;
+EXEC sp_rename 'MediaEntry_sharded', 'MediaEntry';
+GO
+
+CREATE INDEX MediaEntry_username_id ON MediaEntry(username, id);
+CREATE INDEX MediaEntry_username_title ON MediaEntry(username, title, id);
+CREATE INDEX MediaEntry_username_changeSeq ON MediaEntry(username, changeSeq);
+
+-- the base must be a multiple of 64 above every existing id, and is shared by all shards
+DECLARE @shard INT = 0;
+DECLARE @base BIGINT = ((SELECT ISNULL(MAX(id), 0) FROM MediaEntry) / 64 + 1) * 64;
+DECLARE @sql NVARCHAR(200) = N'CREATE SEQUENCE MediaEntryIdSeq AS BIGINT START WITH '
+    + CAST(@base + @shard AS NVARCHAR(20)) + N' INCREMENT BY 2048';
+EXEC sp_executesql @sql;
+GO
+
+-- Each new shard needs the full schema: UserAccount with changeSeq from media-entry-change-horizon.sql,
+-- MediaEntry as above, MediaEntryTombstone and MediaEntryChangeSeq from media-entry-changes.sql, ReplicaHeartbeat
+-- when it has replicas, and MediaEntryIdSeq created as above with @shard set to its index in tvtracker.db.shards
+-- plus one and @base set to the value shard 0 used.
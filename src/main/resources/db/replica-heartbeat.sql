@@ -0,0 +1,8 @@
+-- Heartbeat used to measure read replica lag, required when tvtracker.db.replicas is set
+-- Each node stamps its own row on the primary and reads it back from every replica.
+-- Rows of nodes that no longer run are never read again and can be deleted.
+
+CREATE TABLE ReplicaHeartbeat (
+    nodeId VARCHAR(64) NOT NULL PRIMARY KEY,
+    beatAt BIGINT NOT NULL
+);
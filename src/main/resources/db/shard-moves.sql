@@ -0,0 +1,11 @@
+-- Users moved by ShardRebalancer, required on shard 0 when tvtracker.db.previous-shard-count is set
+-- Every node reads this table to route moved users to their shard on the current ring.
+-- Rows can be deleted once tvtracker.db.previous-shard-count is removed from every node.
+
+CREATE TABLE ShardMove (
+    username VARCHAR(50) NOT NULL PRIMARY KEY,
+    toShard INT NOT NULL,
+    movedAt BIGINT NOT NULL
+);
+
+CREATE INDEX ShardMove_movedAt ON ShardMove(movedAt);
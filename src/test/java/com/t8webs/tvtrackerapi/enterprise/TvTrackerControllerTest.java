@@ -0,0 +1,190 @@
+package com.t8webs.tvtrackerapi.enterprise;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.t8webs.tvtrackerapi.enterprise.dao.RowHandler;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryPage;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryVersion;
+import com.t8webs.tvtrackerapi.enterprise.service.IMediaEntryAsyncService;
+import com.t8webs.tvtrackerapi.enterprise.service.IMediaEntryService;
+import com.t8webs.tvtrackerapi.enterprise.service.IUserAccountAsyncService;
+import com.t8webs.tvtrackerapi.enterprise.service.IUserAccountService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.WebRequest;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Calls the media entry endpoints directly, with every service mocked, to check what each one reads and in
+ * which order
+ */
+class TvTrackerControllerTest {
+
+    private TvTrackerController controller;
+    private IUserAccountService userAccountService;
+    private IUserAccountAsyncService userAccountAsyncService;
+    private IMediaEntryService mediaEntryService;
+    private IMediaEntryAsyncService mediaEntryAsyncService;
+    private WebRequest webRequest;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeEach
+    void createController() {
+        controller = new TvTrackerController();
+        controller.userAccountService = userAccountService = mock(IUserAccountService.class);
+        controller.userAccountAsyncService = userAccountAsyncService = mock(IUserAccountAsyncService.class);
+        controller.mediaEntryService = mediaEntryService = mock(IMediaEntryService.class);
+        controller.mediaEntryAsyncService = mediaEntryAsyncService = mock(IMediaEntryAsyncService.class);
+        controller.objectMapper = objectMapper;
+        webRequest = mock(WebRequest.class);
+
+        when(userAccountAsyncService.isTokenValid("alice", "valid")).thenReturn(CompletableFuture.completedFuture(true));
+        when(userAccountAsyncService.isTokenValid("alice", "invalid")).thenReturn(CompletableFuture.completedFuture(false));
+        when(mediaEntryService.fetchMediaEntriesVersion("alice")).thenReturn(new MediaEntryVersion("v1", 1000));
+    }
+
+    @Test
+    void invalidTokenReadsNothing() throws Exception {
+        ResponseEntity response = getMediaEntries("invalid");
+
+        assertEquals(HttpStatus.UNAUTHORIZED, response.getStatusCode());
+        verifyNoInteractions(mediaEntryService, mediaEntryAsyncService);
+    }
+
+    @Test
+    void validTokenReadsVersionAndEntries() throws Exception {
+        List<MediaEntry> entries = List.of(new MediaEntry());
+        when(mediaEntryAsyncService.fetchMediaEntriesByUsername("alice")).thenReturn(CompletableFuture.completedFuture(entries));
+
+        ResponseEntity response = getMediaEntries("valid");
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(entries, response.getBody());
+        assertEquals("\"v1\"", response.getHeaders().getETag());
+    }
+
+    @Test
+    void matchingEtagIsAnsweredWithoutReadingEntries() throws Exception {
+        for (String ifNoneMatch : List.of("\"v1\"", "W/\"v1\"", "\"v0\", \"v1\"", "*")) {
+            when(webRequest.getHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn(ifNoneMatch);
+
+            ResponseEntity response = getMediaEntries("valid");
+
+            assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode(), ifNoneMatch);
+            assertEquals("\"v1\"", response.getHeaders().getETag());
+            assertEquals(1000, response.getHeaders().getLastModified());
+        }
+        verifyNoInteractions(mediaEntryAsyncService);
+    }
+
+    @Test
+    void staleEtagReadsTheEntries() throws Exception {
+        when(webRequest.getHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn("\"v0\"");
+        when(mediaEntryAsyncService.fetchMediaEntriesByUsername("alice")).thenReturn(CompletableFuture.completedFuture(List.of()));
+
+        assertEquals(HttpStatus.OK, getMediaEntries("valid").getStatusCode());
+    }
+
+    @Test
+    void pagesHaveTheirOwnEtags() throws Exception {
+        when(mediaEntryAsyncService.fetchMediaEntryPage(any())).thenReturn(CompletableFuture.completedFuture(new MediaEntryPage()));
+
+        String firstPage = controller.getUsersMediaEntries("alice", "valid", 10, null, null, null, null, null, webRequest).get()
+                .getHeaders().getETag();
+        String otherPage = controller.getUsersMediaEntries("alice", "valid", 10, "abc", null, null, null, null, webRequest).get()
+                .getHeaders().getETag();
+
+        // a page's tag must not let a client reuse its copy of the full list, or of another page
+        assertTrue(firstPage.startsWith("\"v1-"));
+        assertNotEquals("\"v1\"", firstPage);
+        assertNotEquals(firstPage, otherPage);
+    }
+
+    @Test
+    void editAndRemoveCheckTheTokenFirst() throws Exception {
+        MediaEntry mediaEntry = new MediaEntry();
+        mediaEntry.setUsername("alice");
+
+        assertEquals(HttpStatus.UNAUTHORIZED, controller.editMediaEntry(mediaEntry, "alice", "invalid").get().getStatusCode());
+        assertEquals(HttpStatus.UNAUTHORIZED, controller.removeMediaEntry(mediaEntry, "alice", "invalid").get().getStatusCode());
+        verifyNoInteractions(mediaEntryService, mediaEntryAsyncService);
+
+        when(mediaEntryAsyncService.updateMediaEntry(mediaEntry)).thenReturn(CompletableFuture.completedFuture(true));
+        when(mediaEntryAsyncService.deleteMediaEntry(mediaEntry)).thenReturn(CompletableFuture.completedFuture(false));
+
+        assertEquals(HttpStatus.OK, controller.editMediaEntry(mediaEntry, "alice", "valid").get().getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, controller.removeMediaEntry(mediaEntry, "alice", "valid").get().getStatusCode());
+        verify(mediaEntryAsyncService).updateMediaEntry(mediaEntry);
+        verify(mediaEntryAsyncService).deleteMediaEntry(mediaEntry);
+    }
+
+    @Test
+    void removingAnotherUsersEntryIsUnauthorized() throws Exception {
+        MediaEntry mediaEntry = new MediaEntry();
+        mediaEntry.setUsername("bob");
+
+        assertEquals(HttpStatus.UNAUTHORIZED, controller.removeMediaEntry(mediaEntry, "alice", "valid").get().getStatusCode());
+        verifyNoInteractions(mediaEntryAsyncService);
+    }
+
+    @Test
+    void exportStreamsEachEntryInTheRequestedFormat() throws Exception {
+        when(userAccountService.isTokenValid("alice", "valid")).thenReturn(true);
+        when(mediaEntryService.exportMediaEntries(eq("alice"), any())).thenAnswer(invocation -> {
+            RowHandler<MediaEntry> handler = invocation.getArgument(1);
+            for (int id = 1; id <= 2; id++) {
+                MediaEntry mediaEntry = new MediaEntry();
+                mediaEntry.setId(id);
+                handler.handle(mediaEntry);
+            }
+            return 2L;
+        });
+
+        MockHttpServletResponse json = new MockHttpServletResponse();
+        controller.exportMediaEntries(json, "alice", "valid", "json");
+        MockHttpServletResponse ndjson = new MockHttpServletResponse();
+        controller.exportMediaEntries(ndjson, "alice", "valid", "NDJSON");
+
+        assertEquals(HttpStatus.OK.value(), json.getStatus());
+        assertEquals(2, objectMapper.readValue(json.getContentAsString(), MediaEntry[].class).length);
+        assertEquals("application/x-ndjson", ndjson.getContentType());
+        String[] lines = ndjson.getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(2, objectMapper.readValue(lines[1], MediaEntry.class).getId());
+    }
+
+    @Test
+    void exportChecksFormatAndTokenBeforeReading() throws Exception {
+        when(userAccountService.isTokenValid("alice", "invalid")).thenReturn(false);
+
+        MockHttpServletResponse badFormat = new MockHttpServletResponse();
+        controller.exportMediaEntries(badFormat, "alice", "valid", "csv");
+        MockHttpServletResponse unauthorized = new MockHttpServletResponse();
+        controller.exportMediaEntries(unauthorized, "alice", "invalid", "json");
+
+        assertEquals(HttpStatus.BAD_REQUEST.value(), badFormat.getStatus());
+        assertEquals(HttpStatus.UNAUTHORIZED.value(), unauthorized.getStatus());
+        assertEquals("", unauthorized.getContentAsString());
+        verifyNoInteractions(mediaEntryService);
+    }
+
+    private ResponseEntity getMediaEntries(String token) throws Exception {
+        return controller.getUsersMediaEntries("alice", token, null, null, null, null, null, null, webRequest).get();
+    }
+}
@@ -0,0 +1,134 @@
+package com.t8webs.tvtrackerapi.enterprise.cache;
+
+import com.t8webs.tvtrackerapi.enterprise.service.TokenSigner;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Wires two buses, each with its own caches, to one LoopbackInvalidationTransport as two nodes of a cluster
+ */
+class CacheInvalidationBusTest {
+
+    private LoopbackInvalidationTransport transport;
+    private CacheInvalidationBus nodeA;
+    private CacheInvalidationBus nodeB;
+
+    @BeforeEach
+    void startNodes() {
+        transport = new LoopbackInvalidationTransport();
+        nodeA = newBus("node-a");
+        nodeB = newBus("node-b");
+    }
+
+    @AfterEach
+    void stopNodes() {
+        nodeA.stop();
+        nodeB.stop();
+    }
+
+    @Test
+    void peersEvictWhatAWriterInvalidates() {
+        nodeA.cacheManager.getCache("mediaEntries").put("alice", "updated on a");
+        nodeB.cacheManager.getCache("mediaEntries").put("alice", "stale on b");
+        nodeB.cacheManager.getCache("mediaEntries").put("bob", "untouched");
+
+        nodeA.invalidate("mediaEntries", "alice");
+        nodeA.flush();
+
+        assertNull(nodeB.cacheManager.getCache("mediaEntries").get("alice"));
+        assertNotNull(nodeB.cacheManager.getCache("mediaEntries").get("bob"));
+        assertEquals(1L, nodeB.snapshot().get("received"));
+    }
+
+    @Test
+    void ownBatchesAreIgnored() {
+        nodeA.cacheManager.getCache("mediaEntries").put("alice", "updated on a");
+
+        nodeA.invalidate("mediaEntries", "alice");
+        nodeA.flush();
+
+        // the loopback delivers the batch back to its publisher, which already holds the new entry
+        assertEquals("updated on a", nodeA.cacheManager.getCache("mediaEntries").get("alice").get());
+        assertEquals(0L, nodeA.snapshot().get("received"));
+        assertEquals(1L, nodeA.snapshot().get("published"));
+    }
+
+    @Test
+    void revokedTokensAreRejectedByPeers() {
+        TokenSigner signerA = newSigner();
+        TokenSigner signerB = newSigner();
+        nodeA.onInvalidation("revokedTokens", signerA::revoke);
+        nodeB.onInvalidation("revokedTokens", signerB::revoke);
+
+        String token = signerA.issue("alice", Instant.now().plusSeconds(3600));
+        assertTrue(signerB.verify("alice", token));
+
+        // as UserAccountService.revokeToken does on the node handling the logout
+        signerA.revoke(token);
+        nodeA.invalidate("revokedTokens", token);
+        nodeA.flush();
+
+        assertFalse(signerA.verify("alice", token));
+        assertFalse(signerB.verify("alice", token));
+        // revokedTokens is not a cache, so none is created for it
+        assertFalse(nodeB.cacheManager.getCacheNames().contains("revokedTokens"));
+    }
+
+    @Test
+    void fullBatchIsFlushedWithoutWaitingForTheInterval() throws Exception {
+        nodeA.maxBatch = 3;
+
+        nodeA.invalidate("mediaEntries", "alice");
+        nodeA.invalidate("mediaEntries", "alice");
+        nodeA.invalidate("userAccount", "alice");
+        assertEquals(0L, nodeB.snapshot().get("received"));
+        nodeA.invalidate("mediaEntries", "bob");
+
+        for (int i = 0; i < 100 && (long) nodeB.snapshot().get("received") < 3; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(3L, nodeB.snapshot().get("received"));
+        assertEquals(4L, nodeA.snapshot().get("queued"));
+        assertEquals(1L, nodeA.snapshot().get("coalesced"));
+        assertEquals(3L, nodeA.snapshot().get("published"));
+        assertEquals(1L, nodeA.snapshot().get("batches"));
+        assertEquals(0, nodeA.snapshot().get("pending"));
+    }
+
+    private CacheInvalidationBus newBus(String nodeId) {
+        CacheManager cacheManager = new ConcurrentMapCacheManager("mediaEntries", "userAccount");
+
+        CacheInvalidationBus bus = new CacheInvalidationBus();
+        bus.cacheManager = cacheManager;
+        bus.transport = transport;
+        bus.nodeId = nodeId;
+        // batches go out on flush or when full, never on the timer
+        bus.flushInterval = 60000;
+        bus.maxBatch = 500;
+        bus.start();
+        return bus;
+    }
+
+    private static TokenSigner newSigner() {
+        TokenSigner signer = new TokenSigner();
+        ReflectionTestUtils.setField(signer, "mode", "signed");
+        ReflectionTestUtils.setField(signer, "keys", "k1:" + Base64.getEncoder().encodeToString(new byte[32]));
+        ReflectionTestUtils.setField(signer, "activeKeyId", "");
+        ReflectionTestUtils.invokeMethod(signer, "loadKeys");
+        return signer;
+    }
+}
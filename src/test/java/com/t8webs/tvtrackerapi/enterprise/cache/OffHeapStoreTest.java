@@ -0,0 +1,107 @@
+package com.t8webs.tvtrackerapi.enterprise.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stores records in small direct buffers, and in a mapped file under a temporary directory
+ */
+class OffHeapStoreTest {
+
+    @Test
+    void returnsStoredValuesUntilRemoved() {
+        OffHeapStore store = new OffHeapStore("test", 1024, Duration.ofHours(1));
+
+        assertTrue(store.put("alice", bytes("first")));
+        assertTrue(store.put("alice", bytes("second")));
+        assertArrayEquals(bytes("second"), store.get("alice"));
+
+        store.remove("alice");
+        assertNull(store.get("alice"));
+        assertEquals(1L, store.snapshot().get("hits"));
+        assertEquals(1L, store.snapshot().get("misses"));
+    }
+
+    @Test
+    void dropsLeastRecentlyUsedRecordsWhenFull() {
+        OffHeapStore store = new OffHeapStore("test", 16 + 3 * 40, Duration.ofHours(1));
+        byte[] value = new byte[16];
+
+        assertTrue(store.put("key1", value));
+        assertTrue(store.put("key2", value));
+        assertTrue(store.put("key3", value));
+        store.get("key1");
+        assertTrue(store.put("key4", value));
+
+        assertArrayEquals(value, store.get("key1"));
+        assertNull(store.get("key2"));
+        assertArrayEquals(value, store.get("key3"));
+        assertArrayEquals(value, store.get("key4"));
+        assertEquals(1L, store.snapshot().get("evictions"));
+        assertFalse(store.put("too large", new byte[1024]));
+    }
+
+    @Test
+    void expiredRecordsAreNotReturned() throws Exception {
+        OffHeapStore store = new OffHeapStore("test", 1024, Duration.ofMillis(10));
+        store.put("alice", bytes("first"));
+
+        Thread.sleep(50);
+
+        assertNull(store.get("alice"));
+        assertEquals(0, store.snapshot().get("entries"));
+    }
+
+    @Test
+    void fileBackedStoreRestoresRecordsUntilVerifiedOrRewritten(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("mediaEntries.l2");
+        OffHeapStore store = new OffHeapStore("test", 4096, Duration.ofHours(1), file);
+        store.put("alice", bytes("alice before restart"));
+        store.put("bob", bytes("bob before restart"));
+        store.remove("bob");
+        store.put("carol", bytes("carol before restart"));
+        assertFalse(store.isRestored("alice"));
+        store.close();
+
+        OffHeapStore reopened = new OffHeapStore("test", 4096, Duration.ofHours(1), file);
+
+        assertEquals(2, reopened.snapshot().get("entries"));
+        assertArrayEquals(bytes("alice before restart"), reopened.get("alice"));
+        assertNull(reopened.get("bob"));
+        assertTrue(reopened.isRestored("alice"));
+        assertTrue(reopened.isRestored("carol"));
+
+        reopened.markVerified("alice");
+        reopened.put("carol", bytes("carol after restart"));
+        assertFalse(reopened.isRestored("alice"));
+        assertFalse(reopened.isRestored("carol"));
+        assertArrayEquals(bytes("alice before restart"), reopened.get("alice"));
+    }
+
+    @Test
+    void fileOfAnotherSizeStartsEmpty(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("mediaEntries.l2");
+        OffHeapStore store = new OffHeapStore("test", 4096, Duration.ofHours(1), file);
+        store.put("alice", bytes("before restart"));
+        store.close();
+
+        OffHeapStore resized = new OffHeapStore("test", 8192, Duration.ofHours(1), file);
+
+        assertNull(resized.get("alice"));
+        assertEquals(0, resized.snapshot().get("entries"));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,125 @@
+package com.t8webs.tvtrackerapi.enterprise.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Caches a user's media entries in a near-cache backed by a small OffHeapStore, dropping near-cache entries by hand
+ * to stand in for its evictions
+ */
+class TwoTierCacheTest {
+
+    private OffHeapStore store;
+    private TwoTierCache cache;
+
+    @BeforeEach
+    void createCache() {
+        store = new OffHeapStore("mediaEntries", 64 * 1024, Duration.ofHours(1));
+        cache = new TwoTierCache("mediaEntries", Caffeine.newBuilder().build(), store, new MediaEntriesCodec());
+    }
+
+    @Test
+    void nearCacheMissIsDecodedFromTheStore() {
+        Map<Integer, MediaEntry> entries = entries(entry(1, "Severance", "tv", "Apple TV"), entry(2, null, "tv", "Apple TV"));
+        entries.get(2).setUsername("bob");
+        cache.put("alice", entries);
+
+        cache.getNativeCache().invalidate("alice");
+        Map<?, ?> decoded = cache.get("alice", Map.class);
+
+        assertNotSame(entries, decoded);
+        assertEquals(entries, decoded);
+        // promoted back into the near-cache
+        assertNotNull(cache.getNativeCache().getIfPresent("alice"));
+    }
+
+    @Test
+    void loaderRunsOnlyWhenBothTiersMiss() {
+        AtomicInteger loads = new AtomicInteger();
+        Map<Integer, MediaEntry> entries = entries(entry(1, "Severance", "tv", null));
+
+        cache.get("alice", () -> {
+            loads.incrementAndGet();
+            return entries;
+        });
+        cache.getNativeCache().invalidate("alice");
+        Map<?, ?> reread = cache.get("alice", () -> {
+            loads.incrementAndGet();
+            return entries(entry(1, "reloaded", "tv", null));
+        });
+
+        assertEquals(1, loads.get());
+        assertEquals(entries, reread);
+    }
+
+    @Test
+    void evictionRemovesBothTiers() {
+        cache.put("alice", entries(entry(1, "Severance", "tv", null)));
+
+        cache.evict("alice");
+
+        assertNull(cache.get("alice"));
+        assertNull(store.get("alice"));
+    }
+
+    @Test
+    void patchesReachTheStoreAndStoreOnlyValuesAreDropped() {
+        cache.put("alice", entries(entry(1, "Severance", "tv", null)));
+
+        cache.computeIfPresent("alice", value -> {
+            @SuppressWarnings("unchecked")
+            Map<Integer, MediaEntry> entries = (Map<Integer, MediaEntry>) value;
+            entries.put(2, entry(2, "Andor", "tv", null));
+            return entries;
+        });
+        cache.getNativeCache().invalidate("alice");
+        assertEquals(2, cache.get("alice", Map.class).size());
+
+        // a value only held off-heap is not decoded to be patched, so it must not be served afterwards
+        cache.getNativeCache().invalidate("alice");
+        cache.computeIfPresent("alice", value -> value);
+        assertNull(store.get("alice"));
+        assertNull(cache.get("alice"));
+    }
+
+    @Test
+    void unreadableStoreEntryIsDropped() {
+        store.put("alice", "not a media entries record".getBytes(StandardCharsets.UTF_8));
+
+        assertNull(cache.get("alice"));
+        assertNull(store.get("alice"));
+    }
+
+    private static Map<Integer, MediaEntry> entries(MediaEntry... mediaEntries) {
+        Map<Integer, MediaEntry> entries = new ConcurrentSkipListMap<>();
+        for (MediaEntry mediaEntry : mediaEntries) {
+            entries.put(mediaEntry.getId(), mediaEntry);
+        }
+        return entries;
+    }
+
+    private static MediaEntry entry(int id, String title, String type, String platform) {
+        MediaEntry mediaEntry = new MediaEntry();
+        mediaEntry.setId(id);
+        mediaEntry.setUsername("alice");
+        mediaEntry.setTitle(title);
+        mediaEntry.setType(type);
+        mediaEntry.setPlatform(platform);
+        mediaEntry.setWatched(id % 2 == 0);
+        mediaEntry.setChangeSeq(id * 10L);
+        return mediaEntry;
+    }
+}
@@ -0,0 +1,105 @@
+package com.t8webs.tvtrackerapi.enterprise.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.t8webs.tvtrackerapi.enterprise.cache.TwoTierCacheManager;
+import com.t8webs.tvtrackerapi.enterprise.trace.Tracer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Builds the caches from CacheConfig's specs on a fake clock and fills them past their bounds
+ */
+class CacheConfigTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = nanos::get;
+    private MockEnvironment environment;
+    private TwoTierCacheManager cacheManager;
+
+    @BeforeEach
+    void createEnvironment() {
+        environment = new MockEnvironment();
+    }
+
+    @Test
+    void mediaEntriesAreEvictedByTheEntriesTheyHold() throws IOException {
+        environment.setProperty("tvtracker.cache.media-entries", "maximumWeight=10,expireAfterAccess=30m,recordStats");
+        Cache<Object, Object> mediaEntries = nativeCache("mediaEntries");
+
+        // each user's entries weigh 4 + 1, so only two fit
+        for (int user = 0; user < 3; user++) {
+            mediaEntries.put("user" + user, entries(4));
+        }
+        mediaEntries.cleanUp();
+
+        assertEquals(2, mediaEntries.estimatedSize());
+        assertEquals(10, mediaEntries.policy().eviction().orElseThrow().weightedSize().orElseThrow());
+        assertEquals(1, mediaEntries.stats().evictionCount());
+        assertEquals(5, mediaEntries.stats().evictionWeight());
+    }
+
+    @Test
+    void mediaEntryPagesExpireAfterWrite() throws IOException {
+        Cache<Object, Object> mediaEntryPages = nativeCache("mediaEntryPages");
+        mediaEntryPages.put("alice", new HashMap<>());
+
+        nanos.addAndGet(Duration.ofMinutes(9).toNanos());
+        // reads do not extend a write's lifetime
+        assertNotNull(mediaEntryPages.getIfPresent("alice"));
+
+        nanos.addAndGet(Duration.ofMinutes(2).toNanos());
+        assertNull(mediaEntryPages.getIfPresent("alice"));
+    }
+
+    @Test
+    void statsAreRecordedAndBoundAsMeters() throws IOException {
+        Cache<Object, Object> mediaEntries = nativeCache("mediaEntries");
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        new CaffeineCacheMetrics<>(mediaEntries, "mediaEntries", List.of()).bindTo(registry);
+
+        mediaEntries.put("alice", entries(1));
+        mediaEntries.getIfPresent("alice");
+        mediaEntries.getIfPresent("bob");
+
+        assertEquals(1, mediaEntries.stats().hitCount());
+        assertEquals(1, mediaEntries.stats().missCount());
+        assertEquals(1.0, registry.get("cache.gets").tags("cache", "mediaEntries", "result", "hit").functionCounter().count());
+        assertEquals(1.0, registry.get("cache.gets").tags("cache", "mediaEntries", "result", "miss").functionCounter().count());
+        for (String name : List.of("userAccount", "mediaEntryPages", "mediaEntryVersions", "userSessions")) {
+            assertTrue(nativeCache(name).policy().isRecordingStats(), name + " does not record stats");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Cache<Object, Object> nativeCache(String name) throws IOException {
+        if(cacheManager == null)
+            cacheManager = CacheConfig.cacheManager(environment, new Tracer(), ticker);
+
+        return ((CaffeineCache) cacheManager.getCache(name)).getNativeCache();
+    }
+
+    private static Map<Integer, String> entries(int count) {
+        Map<Integer, String> entries = new HashMap<>();
+        for (int id = 0; id < count; id++) {
+            entries.put(id, "title " + id);
+        }
+        return entries;
+    }
+}
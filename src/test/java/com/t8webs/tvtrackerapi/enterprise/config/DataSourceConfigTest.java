@@ -0,0 +1,51 @@
+package com.t8webs.tvtrackerapi.enterprise.config;
+
+import com.zaxxer.hikari.HikariConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Carries a legacy application.properties over to the pool the way DbQuery used to hand it to the driver
+ */
+class DataSourceConfigTest {
+
+    @Test
+    void legacyCredentialsAndDriverPropertiesReachThePool() {
+        HikariConfig config = new HikariConfig();
+        DataSourceConfig.applyLegacyProperties(config, legacy());
+
+        assertEquals("tracker", config.getUsername());
+        assertEquals("secret", config.getPassword());
+        assertEquals("true", config.getDataSourceProperties().getProperty("encrypt"));
+        assertEquals("TvTracker", config.getDataSourceProperties().getProperty("databaseName"));
+        assertFalse(config.getDataSourceProperties().containsKey("url"));
+        assertFalse(config.getDataSourceProperties().containsKey("spring.profiles.active"));
+        assertFalse(config.getDataSourceProperties().containsKey("user"));
+    }
+
+    @Test
+    void springCredentialsWinOverLegacyOnes() {
+        HikariConfig config = new HikariConfig();
+        config.setUsername("spring-user");
+        config.setPassword("spring-secret");
+        DataSourceConfig.applyLegacyProperties(config, legacy());
+
+        assertEquals("spring-user", config.getUsername());
+        assertEquals("spring-secret", config.getPassword());
+    }
+
+    private static Properties legacy() {
+        Properties properties = new Properties();
+        properties.setProperty("url", "jdbc:sqlserver://db:1433");
+        properties.setProperty("user", "tracker");
+        properties.setProperty("password", "secret");
+        properties.setProperty("encrypt", "true");
+        properties.setProperty("databaseName", "TvTracker");
+        properties.setProperty("spring.profiles.active", "dev");
+        return properties;
+    }
+}
@@ -0,0 +1,217 @@
+package com.t8webs.tvtrackerapi.enterprise.config;
+
+import com.t8webs.tvtrackerapi.enterprise.dao.DbConcurrencyLimiter;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Offers a burst of concurrent requests, half of which hold a database connection while the other half are served
+ * from memory, to a fixed pool of request threads as Tomcat runs them by default and to a thread per request behind
+ * DbConcurrencyLimiter as tvtracker.threads.virtual=true runs them
+ * <p>
+ *     Runs only in the load-test profile. The latency distributions of both modes are logged for comparison, while
+ *     the assertions only check what holds on any machine: with a thread per request every memory request is
+ *     answered while all database requests are still blocked, and the limiter never lets more requests hold a
+ *     connection than it has permits. Before Java 21 those checks run the thread per request mode on an unbounded
+ *     platform thread pool, which the application itself never falls back to, and the latency comparison is
+ *     skipped, since it would only compare two platform thread pools.
+ * </p>
+ */
+@Tag("load")
+class RequestThreadsLoadTest {
+
+    private static final int POOL_THREADS = 32;
+    private static final int CONNECTIONS = 8;
+    private static final int REQUESTS = 1000;
+    private static final long DB_MILLIS = 10;
+
+    Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private HikariDataSource pool;
+    private final AtomicInteger holding = new AtomicInteger();
+    private final AtomicInteger maxHolding = new AtomicInteger();
+
+    private static final class Result {
+        private final long elapsedNanos;
+        private final Histogram db = new Histogram(3);
+        private final Histogram memory = new Histogram(3);
+        private final AtomicInteger failures = new AtomicInteger();
+
+        private Result(long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+
+    @BeforeEach
+    void createPool() {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("RequestThreadsLoadTest");
+        config.setJdbcUrl("jdbc:h2:mem:request-threads;MODE=MSSQLServer;DB_CLOSE_DELAY=-1");
+        config.setUsername("sa");
+        config.setMaximumPoolSize(CONNECTIONS);
+        config.setMinimumIdle(CONNECTIONS);
+        config.setConnectionTimeout(30000);
+        pool = new HikariDataSource(config);
+    }
+
+    @AfterEach
+    void closePool() {
+        pool.close();
+    }
+
+    @Test
+    void memoryRequestsAreAnsweredWhileDatabaseRequestsWait() throws Exception {
+        DbConcurrencyLimiter limiter = new DbConcurrencyLimiter(CONNECTIONS, REQUESTS, 30000);
+        CountDownLatch memoryDone = new CountDownLatch(REQUESTS / 2);
+
+        // database requests hold their connection until every memory request has been answered
+        Result result = run(threadPerRequest(), limiter.wrap(pool), memoryDone);
+
+        assertEquals(0, result.failures.get());
+        assertEquals(REQUESTS / 2, result.memory.getTotalCount());
+        assertEquals(REQUESTS / 2, result.db.getTotalCount());
+        assertTrue(maxHolding.get() <= CONNECTIONS, "limiter let " + maxHolding.get() + " requests hold a connection");
+
+        Map<String, Object> snapshot = limiter.snapshot();
+        assertEquals((long) REQUESTS / 2, snapshot.get("acquired"));
+        assertEquals(0L, snapshot.get("timeouts"));
+        assertEquals(0L, snapshot.get("rejected"));
+    }
+
+    @Test
+    void reportLatencyOfBothModes() throws Exception {
+        assumeTrue(RequestThreadsConfig.isVirtualThreadsAvailable(), "virtual threads need Java 21");
+
+        // warms up the pool, JIT and thread creation so neither run pays for it
+        run(Executors.newFixedThreadPool(POOL_THREADS), pool, null);
+
+        Result pooled = run(Executors.newFixedThreadPool(POOL_THREADS), pool, null);
+        DbConcurrencyLimiter limiter = new DbConcurrencyLimiter(CONNECTIONS, REQUESTS, 30000);
+        Result perRequest = run(threadPerRequest(), limiter.wrap(pool), null);
+
+        report("platform pool (" + POOL_THREADS + ")", pooled);
+        report("thread per request", perRequest);
+        log.info("limiter: " + limiter.snapshot());
+
+        assertEquals(0, pooled.failures.get());
+        assertEquals(0, perRequest.failures.get());
+    }
+
+    private Executor threadPerRequest() {
+        Executor executor = RequestThreadsConfig.newThreadPerTaskExecutor("load-test-");
+        if(executor != null)
+            return executor;
+
+        log.info("Virtual threads need Java 21, running a thread per request on platform threads");
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * @param gate when not null, counted down by each memory request and awaited by each database request while
+     *             it holds its connection
+     */
+    private Result run(Executor executor, DataSource dataSource, CountDownLatch gate) throws InterruptedException {
+        Histogram db = new Histogram(3);
+        Histogram memory = new Histogram(3);
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(REQUESTS);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            int request = i;
+            long submitted = System.nanoTime();
+
+            executor.execute(() -> {
+                try {
+                    if(request % 2 == 0) {
+                        queryAndHold(dataSource, gate);
+                        synchronized (db) {
+                            db.recordValue(System.nanoTime() - submitted);
+                        }
+                    } else {
+                        synchronized (memory) {
+                            memory.recordValue(System.nanoTime() - submitted);
+                        }
+                        if(gate != null)
+                            gate.countDown();
+                    }
+                } catch (SQLException | InterruptedException e) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(2, TimeUnit.MINUTES), "load test did not finish");
+        if(executor instanceof ExecutorService)
+            ((ExecutorService) executor).shutdown();
+
+        Result result = new Result(System.nanoTime() - start);
+        result.db.add(db);
+        result.memory.add(memory);
+        result.failures.set(failures.get());
+        return result;
+    }
+
+    private void queryAndHold(DataSource dataSource, CountDownLatch gate) throws SQLException, InterruptedException {
+        try (Connection conn = dataSource.getConnection();
+             Statement statement = conn.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT 1"))
+        {
+            maxHolding.accumulateAndGet(holding.incrementAndGet(), Math::max);
+            try {
+                resultSet.next();
+                if(gate == null)
+                    Thread.sleep(DB_MILLIS);
+                else if(!gate.await(1, TimeUnit.MINUTES))
+                    throw new InterruptedException("memory requests waited behind database requests");
+            } finally {
+                holding.decrementAndGet();
+            }
+        }
+    }
+
+    private void report(String mode, Result result) {
+        Histogram all = new Histogram(3);
+        all.add(result.db);
+        all.add(result.memory);
+
+        ByteArrayOutputStream distribution = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(distribution, false, StandardCharsets.UTF_8)) {
+            result.memory.outputPercentileDistribution(out, 1e6);
+        }
+
+        log.info(String.format("%s: %.0f requests/s, p99 %.1f ms, db p99 %.1f ms, memory p99 %.1f ms%nmemory request latency (ms):%n%s",
+                mode, REQUESTS / (result.elapsedNanos / 1e9), all.getValueAtPercentile(99) / 1e6,
+                result.db.getValueAtPercentile(99) / 1e6, result.memory.getValueAtPercentile(99) / 1e6,
+                distribution.toString(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,64 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Places generated usernames on rings of several sizes
+ */
+class ConsistentHashRingTest {
+
+    private static final int USERS = 20000;
+
+    @Test
+    void usernamesAreSpreadEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(4, 128);
+        int[] counts = new int[4];
+
+        for (int i = 0; i < USERS; i++) {
+            counts[ring.shardFor("user" + i)]++;
+        }
+
+        for (int shard = 0; shard < counts.length; shard++) {
+            assertTrue(Math.abs(counts[shard] - USERS / 4) < USERS / 20, "shard " + shard + " holds " + counts[shard]);
+        }
+    }
+
+    @Test
+    void addingAShardOnlyMovesUsersOntoIt() {
+        ConsistentHashRing before = new ConsistentHashRing(3, 128);
+        ConsistentHashRing after = new ConsistentHashRing(4, 128);
+        int moved = 0;
+
+        for (int i = 0; i < USERS; i++) {
+            int from = before.shardFor("user" + i);
+            int to = after.shardFor("user" + i);
+            if(from != to) {
+                assertEquals(3, to, "user" + i + " moved between existing shards");
+                moved++;
+            }
+        }
+
+        assertTrue(Math.abs(moved - USERS / 4) < USERS / 20, moved + " users moved");
+    }
+
+    @Test
+    void placementIgnoresCaseAndIsStable() {
+        ConsistentHashRing ring = new ConsistentHashRing(8, 64);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ring.shardFor("user" + i), ring.shardFor("USER" + i));
+            assertEquals(ring.shardFor("user" + i), new ConsistentHashRing(8, 64).shardFor("user" + i));
+        }
+        assertEquals(0, new ConsistentHashRing(1, 1).shardFor("anyone"));
+    }
+
+    @Test
+    void emptyRingsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(0, 128));
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(2, 0));
+    }
+}
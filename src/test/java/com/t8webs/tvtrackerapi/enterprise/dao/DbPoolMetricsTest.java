@@ -0,0 +1,68 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Borrows connections from a one-connection pool on an embedded database, with the registry bound after the pool
+ * was built as it is at startup
+ */
+class DbPoolMetricsTest {
+
+    private DbPoolMetrics metrics;
+    private HikariDataSource pool;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void createPool() {
+        metrics = new DbPoolMetrics();
+
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("test-pool");
+        config.setJdbcUrl("jdbc:h2:mem:pool-metrics;MODE=MSSQLServer;DB_CLOSE_DELAY=-1");
+        config.setUsername("sa");
+        config.setMaximumPoolSize(1);
+        config.setConnectionTimeout(250);
+        config.setMetricsTrackerFactory(metrics);
+        pool = new HikariDataSource(config);
+
+        registry = new SimpleMeterRegistry();
+        metrics.bindTo(registry);
+    }
+
+    @AfterEach
+    void closePool() {
+        pool.close();
+    }
+
+    @Test
+    void borrowsAndTimeoutsArePublishedPerPool() throws SQLException {
+        try (Connection held = pool.getConnection()) {
+            assertEquals(1.0, gauge("tvtracker.db.connections.active"));
+            assertEquals(1.0, gauge("tvtracker.db.connections.max"));
+
+            // the only connection is held, so the next borrow times out
+            assertThrows(SQLException.class, pool::getConnection);
+        }
+
+        assertEquals(1.0, registry.get("tvtracker.db.connection.timeouts").tag("pool", "test-pool").counter().count());
+        // Hikari times the wait of a borrow that timed out as well
+        assertEquals(2, registry.get("tvtracker.db.connection.acquire").tag("pool", "test-pool").timer().count());
+        assertEquals(2L, metrics.snapshot().get("acquired"));
+        assertEquals(1L, metrics.snapshot().get("timeouts"));
+    }
+
+    private double gauge(String name) {
+        return registry.get(name).tag("pool", "test-pool").gauge().value();
+    }
+}
@@ -0,0 +1,74 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Reports statement runs to DbQueryMetrics the way DbQuery does and reads the resulting meters
+ */
+class DbQueryMetricsTest {
+
+    private static final String SELECT = "SELECT * FROM MediaEntry WHERE username = ?";
+    private static final String DELETE = "DELETE FROM MediaEntry WHERE id IN (?, ?)";
+
+    private SimpleMeterRegistry registry;
+    private DbQueryMetrics metrics;
+
+    @BeforeEach
+    void createMetrics() {
+        registry = new SimpleMeterRegistry();
+        metrics = new DbQueryMetrics();
+        metrics.meterRegistry = registry;
+        metrics.maxStatements = 2;
+    }
+
+    @Test
+    void runsOfOneShapeShareTheirMeters() {
+        report(SELECT, List.of("alice"), 3, true);
+        report(SELECT, List.of("bob"), 5, true);
+        report(SELECT, List.of("carol"), 0, false);
+
+        assertEquals(2, timer(SELECT, "success").count());
+        assertEquals(1, timer(SELECT, "error").count());
+        DistributionSummary rows = registry.get("tvtracker.db.statement.rows").tag("statement", SELECT).summary();
+        assertEquals(3, rows.count());
+        assertEquals(8.0, rows.totalAmount());
+    }
+
+    @Test
+    void shapesPastTheLimitShareTheOtherTag() {
+        report(SELECT, List.of("alice"), 1, true);
+        report(DELETE, List.of(1, 2), 2, true);
+        report("UPDATE UserAccount SET token = ? WHERE username = ?", List.of("t", "alice"), 1, true);
+        report("UPDATE MediaEntry SET title = ? WHERE id = ?", List.of("t", 1), 1, true);
+        // shapes seen before the limit was reached keep their own meters
+        report(SELECT, List.of("bob"), 1, true);
+
+        assertEquals(2, timer(SELECT, "success").count());
+        // IN lists of any length are one shape
+        assertEquals(1, timer("DELETE FROM MediaEntry WHERE id IN (?)", "success").count());
+        assertEquals(2, timer(DbQueryMetrics.OTHER, "success").count());
+        assertNull(registry.find("tvtracker.db.statement").tag("statement", "UPDATE UserAccount SET token = ? WHERE username = ?").timer());
+    }
+
+    private Timer timer(String statement, String outcome) {
+        return registry.get("tvtracker.db.statement").tags("statement", statement, "outcome", outcome).timer();
+    }
+
+    private void report(String sql, List<Object> params, long rows, boolean succeeded) {
+        StatementExecution execution = new StatementExecution(sql, params);
+        execution.connected();
+        if(succeeded)
+            execution.finished(rows);
+        execution.end();
+        metrics.statementExecuted(execution);
+    }
+}
@@ -0,0 +1,250 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Builds and runs statements with DbQuery against an embedded database
+ */
+class DbQueryTest {
+
+    private DataSource dataSource;
+    private final List<StatementExecution> executions = new ArrayList<>();
+    private final StatementListener recorder = executions::add;
+
+    @BeforeEach
+    void createDatabase() throws SQLException {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:db-query;MODE=MSSQLServer;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE");
+        h2.setUser("sa");
+        dataSource = h2;
+        run("RUNSCRIPT FROM 'classpath:/schema.sql'");
+        DbQuery.addStatementListener(recorder);
+    }
+
+    @AfterEach
+    void dropDatabase() throws SQLException {
+        DbQuery.removeStatementListener(recorder);
+        run("DROP ALL OBJECTS");
+    }
+
+    @Test
+    void valuesAreBoundRatherThanWrittenIntoTheStatement() {
+        String title = "Bob's Burgers'); DROP TABLE MediaEntry; --";
+        assertTrue(insert(1, "alice", title));
+
+        DbQuery query = query();
+        query.addWhere("title", title);
+        ArrayList<HashMap<String, Object>> rows = query.select();
+
+        assertEquals(1, rows.size());
+        assertEquals(title, rows.get(0).get("title"));
+        assertEquals("SELECT * FROM MediaEntry WHERE title = ?", last().getSql());
+    }
+
+    @Test
+    void nullMatchesMissingValues() {
+        insert(1, "alice", null);
+        insert(2, "alice", "Severance");
+
+        DbQuery query = query();
+        query.addWhere("username", "alice");
+        query.addWhere("title", "NULL");
+
+        assertEquals(List.of(1), ids(query.select(new MediaEntryRowMapper())));
+        assertEquals("SELECT id, title, username, type, platform, description, imageUrl, watched, changeSeq"
+                + " FROM MediaEntry WHERE username = ? AND title IS NULL", last().getSql());
+    }
+
+    @Test
+    void consecutiveRowsOfOneStatementAreSentAsOneBatch() {
+        DbQuery query = query();
+        for (int id = 1; id <= 3; id++) {
+            query.setColumnValue("id", id);
+            query.setColumnValue("username", "alice");
+            query.addInsertBatch();
+        }
+        query.setColumnValue("title", "renamed");
+        query.addWhere("id", 2);
+        query.addUpdateBatch();
+        query.addWhere("id", 4);
+        query.addDeleteBatch();
+
+        executions.clear();
+        assertArrayEquals(new boolean[] {true, true, true, true, false}, query.executeBatch());
+
+        assertEquals(List.of(3, 1, 1), executions.stream().map(StatementExecution::getBatchSize).collect(Collectors.toList()));
+        assertEquals(List.of(3L, 1L, 0L), executions.stream().map(StatementExecution::getRows).collect(Collectors.toList()));
+        assertEquals(3, count());
+    }
+
+    @Test
+    void failedBatchCommitsNothing() {
+        insert(2, "alice", "existing");
+
+        DbQuery query = query();
+        for (int id = 1; id <= 3; id++) {
+            query.setColumnValue("id", id);
+            query.setColumnValue("username", "alice");
+            query.addInsertBatch();
+        }
+
+        // the duplicate id 2 fails the batch, so id 1 is rolled back with it
+        assertArrayEquals(new boolean[] {false, false, false}, query.executeBatch());
+        assertEquals(1, count());
+        assertArrayEquals(new boolean[0], query.executeBatch());
+    }
+
+    @Test
+    void streamPassesEachRowToTheHandlerAsItIsRead() throws Exception {
+        for (int id = 1; id <= 5; id++) {
+            insert(id, "alice", "title " + id);
+        }
+        insert(6, "bob", "other user");
+
+        List<Integer> ids = new ArrayList<>();
+        DbQuery query = query();
+        query.addWhere("username", "alice");
+        query.setOrderBy("id");
+        query.setFetchSize(2);
+
+        assertEquals(5, query.stream(new MediaEntryRowMapper(), mediaEntry -> ids.add(mediaEntry.getId())));
+        assertEquals(List.of(1, 2, 3, 4, 5), ids);
+        assertEquals(5, last().getRows());
+    }
+
+    @Test
+    void streamFailuresAreThrown() {
+        for (int id = 1; id <= 3; id++) {
+            insert(id, "alice", "title " + id);
+        }
+
+        List<Integer> ids = new ArrayList<>();
+        DbQuery query = query();
+        query.setOrderBy("id");
+
+        // the client went away after the second row, so the rest are never read
+        assertThrows(IOException.class, () -> query.stream(new MediaEntryRowMapper(), mediaEntry -> {
+            if(ids.size() == 2)
+                throw new IOException("Broken pipe");
+            ids.add(mediaEntry.getId());
+        }));
+        assertEquals(List.of(1, 2), ids);
+        assertTrue(last().isFailed());
+
+        DbQuery missing = new DbQuery(dataSource);
+        missing.setTableName("MissingTable");
+        assertThrows(SQLException.class, () -> missing.stream(new MediaEntryRowMapper(), mediaEntry -> ids.add(mediaEntry.getId())));
+    }
+
+    @Test
+    void columnExpressionsAreEvaluatedByTheDatabase() {
+        DbQuery query = query();
+        query.setColumnValue("id", 1);
+        query.setColumnExpression("changeSeq", "NEXT VALUE FOR MediaEntryChangeSeq");
+        assertTrue(query.insert());
+
+        assertEquals("INSERT INTO MediaEntry(id,changeSeq) VALUES (?,NEXT VALUE FOR MediaEntryChangeSeq)", last().getSql());
+        query.addWhere("id", 1);
+        assertEquals(1L, query.select(new MediaEntryRowMapper()).get(0).getChangeSeq());
+    }
+
+    @Test
+    void sequenceStatementsAreReportedToListeners() throws SQLException {
+        DbQuery query = new DbQuery(dataSource);
+        assertEquals(1L, query.nextSequenceValue("MediaEntryChangeSeq"));
+        assertEquals("SELECT NEXT VALUE FOR MediaEntryChangeSeq", last().getSql());
+        assertEquals(1, last().getRows());
+        assertFalse(last().isFailed());
+
+        query.advanceSequence("MediaEntryChangeSeq", 100);
+        assertEquals("ALTER SEQUENCE MediaEntryChangeSeq RESTART WITH 100", last().getSql());
+        assertFalse(last().isFailed());
+        assertEquals(100L, query.nextSequenceValue("MediaEntryChangeSeq"));
+
+        assertThrows(SQLException.class, () -> query.nextSequenceValue("MissingSeq"));
+        assertTrue(last().isFailed());
+    }
+
+    @Test
+    void copyBatchCopiesTheMatchingRows() {
+        insert(1, "alice", "copied");
+        insert(2, "alice", "kept");
+
+        DbQuery query = query();
+        query.addWhere("id", 1);
+        query.addCopyBatch("MediaEntryTombstone", new String[] {"id", "username", "changeSeq"},
+                new String[] {"id", "username", "NEXT VALUE FOR MediaEntryChangeSeq"});
+        query.addWhere("id", 1);
+        query.addDeleteBatch();
+
+        assertArrayEquals(new boolean[] {true, true}, query.executeBatch());
+        DbQuery tombstones = new DbQuery(dataSource);
+        tombstones.setTableName("MediaEntryTombstone");
+        ArrayList<HashMap<String, Object>> rows = tombstones.select();
+        assertEquals(1, rows.size());
+        assertEquals("alice", rows.get(0).get("username"));
+        assertEquals(1, count());
+    }
+
+    @Test
+    void deleteWithoutConstraintDeletesNothing() {
+        insert(1, "alice", "kept");
+
+        assertFalse(query().delete());
+        assertEquals(1, count());
+    }
+
+    private boolean insert(int id, String username, String title) {
+        DbQuery query = query();
+        query.setColumnValue("id", id);
+        query.setColumnValue("username", username);
+        query.setColumnValue("title", title);
+        return query.insert();
+    }
+
+    private int count() {
+        return query().select().size();
+    }
+
+    private DbQuery query() {
+        DbQuery query = new DbQuery(dataSource);
+        query.setTableName("MediaEntry");
+        return query;
+    }
+
+    private StatementExecution last() {
+        return executions.get(executions.size() - 1);
+    }
+
+    private static List<Integer> ids(List<MediaEntry> mediaEntries) {
+        return mediaEntries.stream().map(MediaEntry::getId).collect(Collectors.toList());
+    }
+
+    private void run(String sql) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             Statement statement = conn.createStatement())
+        {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reads a user's change feed the way MediaEntryService does, up to the change horizon, while two writers change the
+ * user's entries at the same time on an embedded database
+ */
+class MediaEntryDAOChangeFeedTest {
+
+    private DataSource dataSource;
+    private MediaEntryDAO mediaEntryDAO;
+
+    private final CountDownLatch firstInserted = new CountDownLatch(1);
+    private final CountDownLatch releaseFirst = new CountDownLatch(1);
+    private volatile Thread firstWriter;
+    private final StatementListener holdFirstWriter = execution -> {
+        if(Thread.currentThread() != firstWriter || !execution.getSql().startsWith("INSERT INTO MediaEntry"))
+            return;
+
+        // the insert has drawn its sequence value, its transaction stays open until released
+        firstInserted.countDown();
+        try {
+            releaseFirst.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    };
+
+    @BeforeEach
+    void createDatabase() throws SQLException {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:change-feed;MODE=MSSQLServer;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE;LOCK_TIMEOUT=10000");
+        h2.setUser("sa");
+        dataSource = h2;
+        run("RUNSCRIPT FROM 'classpath:/schema.sql'");
+        run("INSERT INTO UserAccount (username) VALUES ('alice')");
+
+        mediaEntryDAO = new MediaEntryDAO();
+        mediaEntryDAO.shardRouter = new ShardRouter(List.of(new ReplicaRouter(dataSource, Map.of(), "test-node", 1000)), 128, 0);
+        DbQuery.addStatementListener(holdFirstWriter);
+    }
+
+    @AfterEach
+    void dropDatabase() throws SQLException {
+        DbQuery.removeStatementListener(holdFirstWriter);
+        releaseFirst.countDown();
+        run("DROP ALL OBJECTS");
+    }
+
+    @Test
+    void interleavedWritersAreNotSkipped() throws Exception {
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> {
+            firstWriter = Thread.currentThread();
+            return save("first");
+        });
+        assertTrue(firstInserted.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<Boolean> second = CompletableFuture.supplyAsync(() -> save("second"));
+        Thread.sleep(200);
+        assertFalse(second.isDone(), "second writer ran while the first one held the user's changes open");
+
+        // a sync in the middle of both changes must not move past the uncommitted first one
+        long watermark = mediaEntryDAO.fetchChangeHorizon("alice");
+        assertEquals(List.of(), titlesChanged(0, watermark));
+
+        releaseFirst.countDown();
+        assertTrue(first.get(10, TimeUnit.SECONDS));
+        assertTrue(second.get(10, TimeUnit.SECONDS));
+
+        long horizon = mediaEntryDAO.fetchChangeHorizon("alice");
+        assertEquals(List.of("first", "second"), titlesChanged(watermark, horizon));
+    }
+
+    @Test
+    void deletionsStayBelowTheHorizon() throws Exception {
+        firstWriter = null;
+        assertTrue(save("kept"));
+        assertTrue(save("deleted"));
+        long before = mediaEntryDAO.fetchChangeHorizon("alice");
+        MediaEntry deleted = mediaEntryDAO.fetchChangedByUsername("alice", 0, before, 10).get(1);
+
+        assertTrue(mediaEntryDAO.delete("alice", deleted.getId()));
+        long after = mediaEntryDAO.fetchChangeHorizon("alice");
+
+        assertTrue(after > before);
+        assertEquals(List.of(), mediaEntryDAO.fetchDeletedByUsername("alice", 0, before, 10));
+        List<MediaEntry> tombstones = mediaEntryDAO.fetchDeletedByUsername("alice", before, after, 10);
+        assertEquals(1, tombstones.size());
+        assertEquals(deleted.getId(), tombstones.get(0).getId());
+        assertTrue(tombstones.get(0).getChangeSeq() <= after);
+    }
+
+    @Test
+    void updatesOnlyChangeTheCallersEntries() throws Exception {
+        firstWriter = null;
+        run("INSERT INTO UserAccount (username) VALUES ('bob')");
+        assertTrue(save("alice's entry"));
+        long before = mediaEntryDAO.fetchChangeHorizon("alice");
+        MediaEntry claimed = mediaEntryDAO.fetchChangedByUsername("alice", 0, before, 10).get(0);
+
+        claimed.setUsername("bob");
+        claimed.setTitle("bob's entry");
+        assertFalse(mediaEntryDAO.update(claimed));
+
+        assertEquals("alice's entry", mediaEntryDAO.fetch("alice", claimed.getId()).getTitle());
+        assertEquals(before, mediaEntryDAO.fetchChangeHorizon("alice"));
+    }
+
+    private boolean save(String title) {
+        MediaEntry mediaEntry = new MediaEntry();
+        mediaEntry.setUsername("alice");
+        mediaEntry.setTitle(title);
+        try {
+            return mediaEntryDAO.save(mediaEntry);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private List<String> titlesChanged(long since, long upTo) throws Exception {
+        return mediaEntryDAO.fetchChangedByUsername("alice", since, upTo, 10).stream()
+                .map(MediaEntry::getTitle)
+                .collect(Collectors.toList());
+    }
+
+    private void run(String sql) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             Statement statement = conn.createStatement())
+        {
+            statement.execute(sql);
+        }
+    }
+}
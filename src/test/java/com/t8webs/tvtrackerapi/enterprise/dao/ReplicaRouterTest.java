@@ -0,0 +1,185 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import com.t8webs.tvtrackerapi.enterprise.dto.UserAccount;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Routes reads between two embedded databases, a primary and a replica that only receives the primary's rows
+ * when the test copies them over, so the replica's lag is whatever the test makes it
+ */
+class ReplicaRouterTest {
+
+    private static final String SCHEMA = "CREATE TABLE UserAccount (username VARCHAR(50) PRIMARY KEY, password VARCHAR(100), "
+            + "email VARCHAR(100), birthDate DATETIME, token VARCHAR(64), lastLogin DATETIME);"
+            + "CREATE TABLE ReplicaHeartbeat (nodeId VARCHAR(64) PRIMARY KEY, beatAt BIGINT);";
+
+    private DataSource primary;
+    private DataSource replica;
+    private ReplicaRouter router;
+    private UserAccountDAO userAccountDAO;
+
+    @BeforeEach
+    void createDatabases() throws SQLException {
+        primary = database("primary");
+        replica = database("replica");
+        router = new ReplicaRouter(primary, Map.of("replica", replica), "test-node", 1000);
+
+        userAccountDAO = new UserAccountDAO();
+        userAccountDAO.shardRouter = new ShardRouter(List.of(router), 128, 0);
+    }
+
+    @AfterEach
+    void dropDatabases() throws SQLException {
+        run(primary, "DROP ALL OBJECTS");
+        run(replica, "DROP ALL OBJECTS");
+    }
+
+    @Test
+    void readsUsePrimaryUntilReplicaReportsHeartbeat() throws Exception {
+        assertSame(primary, router.forRead("alice"));
+
+        router.probe();
+        assertSame(primary, router.forRead("alice"));
+
+        catchUp();
+        assertSame(replica, router.forRead("alice"));
+    }
+
+    @Test
+    void freshReplicaServesReads() throws Exception {
+        userAccountDAO.save(account("alice", "first"));
+        catchUp();
+
+        assertEquals("first", userAccountDAO.fetch("alice").getToken());
+        assertEquals(true, userAccountDAO.existsBy("alice"));
+        assertEquals(2L, replicaStats().get("reads"));
+    }
+
+    @Test
+    void writerReadsOwnWritesFromPrimaryUntilReplicaCatchesUp() throws Exception {
+        userAccountDAO.save(account("alice", "first"));
+        catchUp();
+
+        userAccountDAO.update(account("alice", "second"));
+        router.recordWrite("alice");
+
+        assertEquals("second", userAccountDAO.fetch("alice").getToken());
+        assertEquals("first", readToken(replica, "alice"));
+        assertSame(replica, router.forRead("bob"));
+
+        catchUp();
+        assertSame(replica, router.forRead("alice"));
+        assertEquals("second", userAccountDAO.fetch("alice").getToken());
+        assertEquals(1L, router.snapshot().get("readYourWrites"));
+    }
+
+    @Test
+    void laggingReplicaIsSkipped() throws Exception {
+        router = new ReplicaRouter(primary, Map.of("replica", replica), "test-node", 50);
+        catchUp();
+        assertSame(replica, router.forRead("alice"));
+
+        Thread.sleep(100);
+        router.probe();
+
+        assertSame(primary, router.forRead("alice"));
+        assertEquals(false, replicaStats().get("fresh"));
+        assertEquals(1L, router.snapshot().get("lagFallbacks"));
+    }
+
+    @Test
+    void onPrimaryPinsReadsToPrimary() throws Exception {
+        catchUp();
+
+        assertSame(primary, router.onPrimary(() -> router.forRead("alice")));
+        assertSame(replica, router.forRead("alice"));
+    }
+
+    /**
+     * Stamps a heartbeat, copies the primary's rows to the replica, then probes so the router sees the copy
+     */
+    private void catchUp() throws Exception {
+        router.probe();
+        Thread.sleep(2);
+        copy("UserAccount");
+        copy("ReplicaHeartbeat");
+        router.probe();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> replicaStats() {
+        return (Map<String, Object>) ((Map<String, Object>) router.snapshot().get("replicas")).get("replica");
+    }
+
+    private void copy(String table) throws SQLException {
+        try (Connection from = primary.getConnection();
+             Connection to = replica.getConnection();
+             Statement select = from.createStatement();
+             ResultSet rows = select.executeQuery("SELECT * FROM " + table))
+        {
+            to.createStatement().execute("DELETE FROM " + table);
+            int columns = rows.getMetaData().getColumnCount();
+            String placeholders = "?" + ", ?".repeat(columns - 1);
+
+            try (PreparedStatement insert = to.prepareStatement("INSERT INTO " + table + " VALUES (" + placeholders + ")")) {
+                while (rows.next()) {
+                    for (int i = 1; i <= columns; i++) {
+                        insert.setObject(i, rows.getObject(i));
+                    }
+                    insert.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private static String readToken(DataSource dataSource, String username) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement statement = conn.prepareStatement("SELECT token FROM UserAccount WHERE username = ?"))
+        {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+    private static UserAccount account(String username, String token) {
+        UserAccount userAccount = new UserAccount();
+        userAccount.setUsername(username);
+        userAccount.setToken(token);
+        userAccount.setLastLogin(new Timestamp(System.currentTimeMillis()));
+        return userAccount;
+    }
+
+    private static DataSource database(String name) throws SQLException {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:replica-router-" + name + ";MODE=MSSQLServer;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE");
+        dataSource.setUser("sa");
+        run(dataSource, SCHEMA);
+        return dataSource;
+    }
+
+    private static void run(DataSource dataSource, String sql) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             Statement statement = conn.createStatement())
+        {
+            statement.execute(sql);
+        }
+    }
+}
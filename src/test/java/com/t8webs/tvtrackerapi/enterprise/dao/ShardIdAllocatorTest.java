@@ -0,0 +1,92 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Allocates ids from the MediaEntryIdSeq of two embedded databases set up as shards 0 and 1
+ */
+class ShardIdAllocatorTest {
+
+    private DataSource shard0;
+    private DataSource shard1;
+
+    @BeforeEach
+    void createShards() throws SQLException {
+        shard0 = database("shard-0");
+        shard1 = database("shard-1");
+        run(shard1, "ALTER SEQUENCE MediaEntryIdSeq RESTART WITH 2049");
+    }
+
+    @AfterEach
+    void dropShards() throws SQLException {
+        run(shard0, "DROP ALL OBJECTS");
+        run(shard1, "DROP ALL OBJECTS");
+    }
+
+    @Test
+    void idsEncodeTheirShardAndNeverCollide() throws SQLException {
+        ShardIdAllocator first = new ShardIdAllocator(shard0, 0);
+        ShardIdAllocator second = new ShardIdAllocator(shard1, 1);
+        Set<Integer> ids = new HashSet<>();
+
+        for (int i = 0; i < 3 * ShardIdAllocator.BLOCK_SIZE; i++) {
+            int a = first.next();
+            int b = second.next();
+            assertEquals(0, a % ShardIdAllocator.MAX_SHARDS);
+            assertEquals(1, b % ShardIdAllocator.MAX_SHARDS);
+            assertTrue(ids.add(a) && ids.add(b), "duplicate id");
+        }
+    }
+
+    @Test
+    void oneSequenceValueReservesABlock() throws SQLException {
+        ShardIdAllocator allocator = new ShardIdAllocator(shard0, 0);
+
+        assertEquals(2048, allocator.next());
+        assertEquals(2048 + ShardIdAllocator.MAX_SHARDS, allocator.next());
+        for (int i = 2; i < ShardIdAllocator.BLOCK_SIZE; i++) {
+            allocator.next();
+        }
+
+        // the next block starts at the following sequence value, right after the first block
+        assertEquals(4096, allocator.next());
+        // a second node shares the sequence and never receives the same block
+        assertEquals(6144, new ShardIdAllocator(shard0, 0).next());
+    }
+
+    @Test
+    void sequenceOfAnotherShardIsRefused() {
+        assertThrows(SQLException.class, () -> new ShardIdAllocator(shard1, 0).next());
+        assertThrows(SQLException.class, () -> new ShardIdAllocator(shard0, 1).next());
+    }
+
+    private static DataSource database(String name) throws SQLException {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:id-allocator-" + name + ";MODE=MSSQLServer;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE");
+        dataSource.setUser("sa");
+        run(dataSource, "RUNSCRIPT FROM 'classpath:/schema.sql'");
+        return dataSource;
+    }
+
+    private static void run(DataSource dataSource, String sql) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             Statement statement = conn.createStatement())
+        {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Moves a user from shard 0 to a second shard, two embedded databases, while a node that has not seen the move
+ * keeps writing to shard 0
+ */
+class ShardRebalancerTest {
+
+    private DataSource[] databases;
+    private ShardRouter router;
+    private ShardRebalancer rebalancer;
+    private MediaEntryDAO mediaEntryDAO;
+    private MediaEntryDAO staleDAO;
+    private String username;
+
+    private StatementListener lateWriter;
+    private boolean writingLate;
+
+    @BeforeEach
+    void createShards() throws SQLException {
+        databases = new DataSource[] {database("shard-0"), database("shard-1")};
+        run(databases[1], "ALTER SEQUENCE MediaEntryIdSeq RESTART WITH 2049");
+
+        router = newRouter(1);
+        router.start(25);
+        for (int i = 0; username == null; i++) {
+            if(router.getRing().shardFor("user" + i) == 1)
+                username = "user" + i;
+        }
+        run(databases[0], "INSERT INTO UserAccount (username, token) VALUES ('" + username + "', 'token')");
+
+        mediaEntryDAO = new MediaEntryDAO();
+        mediaEntryDAO.shardRouter = router;
+        // a node still routing every user to shard 0
+        staleDAO = new MediaEntryDAO();
+        staleDAO.shardRouter = new ShardRouter(List.of(new ReplicaRouter(databases[0], Map.of(), "stale-node", 1000)), 128, 0);
+
+        rebalancer = new ShardRebalancer();
+        rebalancer.shardRouter = router;
+        rebalancer.enabled = true;
+        rebalancer.batchSize = 100;
+        rebalancer.settleTime = 0;
+    }
+
+    @AfterEach
+    void dropShards() throws SQLException {
+        if(lateWriter != null)
+            DbQuery.removeStatementListener(lateWriter);
+        rebalancer.stop();
+        router.close();
+        for (DataSource database : databases) {
+            run(database, "DROP ALL OBJECTS");
+        }
+    }
+
+    @Test
+    void runReturnsBeforeRebalancingFinishes() throws Exception {
+        save(mediaEntryDAO, "kept");
+        rebalancer.settleTime = 60000;
+
+        rebalancer.run(null);
+
+        for (int i = 0; i < 100 && titles(databases[1]).isEmpty(); i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(List.of("kept"), titles(databases[1]));
+        assertEquals(List.of("kept"), titles(databases[0]));
+
+        rebalancer.stop();
+        assertTrue(rebalancer.executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void lateWritesToTheOldShardAreCarriedOver() throws Exception {
+        save(mediaEntryDAO, "kept");
+        MediaEntry edited = save(mediaEntryDAO, "edited");
+        MediaEntry deleted = save(mediaEntryDAO, "deleted");
+        MediaEntry contested = save(mediaEntryDAO, "contested");
+
+        lateWriter = execution -> {
+            if(writingLate)
+                return;
+
+            writingLate = true;
+            try {
+                if(execution.getSql().startsWith("INSERT INTO ShardMove")) {
+                    // the move is recorded, but the stale node has not seen it
+                    save(staleDAO, "late");
+                    edited.setTitle("edited late");
+                    staleDAO.update(edited);
+                    staleDAO.delete(username, deleted.getId());
+                    contested.setTitle("source loses");
+                    staleDAO.update(contested);
+                    contested.setTitle("target wins");
+                    mediaEntryDAO.update(contested);
+                } else if(execution.getSql().startsWith("INSERT INTO MediaEntry(") && titles(databases[0]).contains("late")
+                        && !titles(databases[0]).contains("during drain")) {
+                    // the first drain is carrying writes over and has read the old shard
+                    save(staleDAO, "during drain");
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            } finally {
+                writingLate = false;
+            }
+        };
+        DbQuery.addStatementListener(lateWriter);
+
+        rebalancer.rebalance();
+
+        assertEquals(List.of("during drain", "edited late", "kept", "late", "target wins"), titles(databases[1]));
+        assertEquals(List.of(deleted.getId()), tombstoneIds(databases[1]));
+        assertEquals(List.of(), titles(databases[0]));
+        assertEquals(List.of(), tombstoneIds(databases[0]));
+        assertEquals(0, count(databases[0], "UserAccount"));
+        assertEquals(1, count(databases[1], "UserAccount"));
+        assertEquals(1, router.shardOf(username));
+    }
+
+    @Test
+    void nodeWithStaleMovesLooksUpUsersInTransit() throws Exception {
+        ShardRouter otherNode = newRouter(1);
+        otherNode.start(25);
+        Thread.sleep(100);
+        // the other node stops refreshing, as when ShardMove cannot be read
+        otherNode.close();
+
+        assertTrue(router.markMoved(username));
+        Thread.sleep(100);
+
+        assertEquals(1, otherNode.shardOf(username));
+        assertTrue(otherNode.isMoved(username));
+    }
+
+    private ShardRouter newRouter(int previousShardCount) {
+        return new ShardRouter(List.of(new ReplicaRouter(databases[0], Map.of(), "test-node", 1000),
+                new ReplicaRouter(databases[1], Map.of(), "test-node", 1000)), 128, previousShardCount);
+    }
+
+    private MediaEntry save(MediaEntryDAO dao, String title) throws Exception {
+        MediaEntry mediaEntry = new MediaEntry();
+        mediaEntry.setUsername(username);
+        mediaEntry.setTitle(title);
+        assertTrue(dao.save(mediaEntry));
+        return mediaEntry;
+    }
+
+    private List<String> titles(DataSource database) throws SQLException {
+        List<String> titles = new ArrayList<>();
+        for (Object title : column(database, "SELECT title FROM MediaEntry WHERE username = ? ORDER BY title")) {
+            titles.add((String) title);
+        }
+        return titles;
+    }
+
+    private List<Integer> tombstoneIds(DataSource database) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        for (Object id : column(database, "SELECT id FROM MediaEntryTombstone WHERE username = ? ORDER BY id")) {
+            ids.add(((Number) id).intValue());
+        }
+        return ids;
+    }
+
+    private int count(DataSource database, String table) throws SQLException {
+        return column(database, "SELECT username FROM " + table + " WHERE username = ?").size();
+    }
+
+    private List<Object> column(DataSource database, String sql) throws SQLException {
+        List<Object> values = new ArrayList<>();
+        try (Connection conn = database.getConnection();
+             PreparedStatement statement = conn.prepareStatement(sql))
+        {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    values.add(resultSet.getObject(1));
+                }
+            }
+        }
+        return values;
+    }
+
+    private static DataSource database(String name) throws SQLException {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:rebalancer-" + name + ";MODE=MSSQLServer;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE;LOCK_TIMEOUT=10000");
+        dataSource.setUser("sa");
+        run(dataSource, "RUNSCRIPT FROM 'classpath:/schema.sql'");
+        return dataSource;
+    }
+
+    private static void run(DataSource dataSource, String sql) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             Statement statement = conn.createStatement())
+        {
+            statement.execute(sql);
+        }
+    }
+}
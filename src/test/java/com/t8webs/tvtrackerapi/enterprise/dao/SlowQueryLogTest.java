@@ -0,0 +1,88 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Reports statement runs to a SlowQueryLog with a mocked Logger, using a zero threshold so every run counts as slow
+ */
+class SlowQueryLogTest {
+
+    private static final String SELECT = "SELECT * FROM MediaEntry WHERE username = ?";
+
+    private SlowQueryLog slowQueryLog;
+    private Logger log;
+
+    @BeforeEach
+    void createLog() {
+        slowQueryLog = new SlowQueryLog();
+        slowQueryLog.thresholdMillis = 0;
+        slowQueryLog.logIntervalMillis = 60000;
+        slowQueryLog.maxFingerprints = 2;
+        slowQueryLog.log = log = mock(Logger.class);
+        slowQueryLog.register();
+    }
+
+    @AfterEach
+    void removeLog() {
+        slowQueryLog.unregister();
+    }
+
+    @Test
+    void slowRunsAreLoggedOncePerIntervalWithoutTheirValues() {
+        report(SELECT, List.of("alice"), 2, true);
+        report(SELECT, List.of("bob"), 0, false);
+        report(SELECT, List.of("carol"), 1, true);
+
+        verify(log, times(1)).warn(anyString(), (Object[]) any());
+
+        Map<String, Object> stats = top("slowest");
+        assertEquals(StatementFingerprint.of(SELECT).getId(), stats.get("id"));
+        assertEquals(3L, stats.get("count"));
+        assertEquals(3L, stats.get("slow"));
+        assertEquals(1L, stats.get("failed"));
+        assertEquals(3L, stats.get("rows"));
+        // only the types of the bound values are kept
+        assertEquals("[String]", stats.get("lastSlowParameters"));
+    }
+
+    @Test
+    void fingerprintsPastTheLimitAreOnlyCounted() {
+        report(SELECT, List.of("alice"), 1, true);
+        report(SELECT, List.of("bob"), 1, true);
+        report("DELETE FROM MediaEntry WHERE id IN (?, ?)", List.of(1, 2), 2, true);
+        report("UPDATE MediaEntry SET title = ? WHERE id = ?", List.of("t", 1), 1, true);
+
+        Map<String, Object> snapshot = slowQueryLog.snapshot(10);
+        assertEquals(2, snapshot.get("fingerprints"));
+        assertEquals(1L, snapshot.get("untracked"));
+        assertEquals(SELECT, top("mostFrequent").get("statement"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> top(String table) {
+        return ((List<Map<String, Object>>) slowQueryLog.snapshot(1).get(table)).get(0);
+    }
+
+    private void report(String sql, List<Object> params, long rows, boolean succeeded) {
+        StatementExecution execution = new StatementExecution(sql, params);
+        execution.connected();
+        execution.executed();
+        if(succeeded)
+            execution.finished(rows);
+        execution.end();
+        slowQueryLog.statementExecuted(execution);
+    }
+}
@@ -0,0 +1,39 @@
+package com.t8webs.tvtrackerapi.enterprise.dao;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Fingerprints statements that differ only in their values, layout or IN list length
+ */
+class StatementFingerprintTest {
+
+    @Test
+    void literalsAndWhitespaceDoNotChangeTheTemplate() {
+        assertEquals("SELECT * FROM MediaEntry WHERE username = ? AND id > ? AND rating = ?",
+                StatementFingerprint.normalize("SELECT *\n  FROM MediaEntry\tWHERE username = 'o''brien' AND id > 42 AND rating = -1.5"));
+        // digits inside names are not literals
+        assertEquals("SELECT col1 FROM t2 WHERE x = ?", StatementFingerprint.normalize("SELECT col1 FROM t2 WHERE x = 7"));
+    }
+
+    @Test
+    void inListsOfAnyLengthShareAFingerprint() {
+        StatementFingerprint one = StatementFingerprint.of("DELETE FROM MediaEntry WHERE id IN (?)");
+        StatementFingerprint three = StatementFingerprint.of("DELETE FROM MediaEntry WHERE id in ( ?, ?,? )");
+
+        assertEquals("DELETE FROM MediaEntry WHERE id IN (?)", three.getTemplate());
+        assertEquals(one.getId(), three.getId());
+    }
+
+    @Test
+    void differentShapesHaveDifferentIds() {
+        StatementFingerprint select = StatementFingerprint.of("SELECT * FROM MediaEntry WHERE username = ?");
+        StatementFingerprint delete = StatementFingerprint.of("DELETE FROM MediaEntry WHERE username = ?");
+
+        assertNotEquals(select.getId(), delete.getId());
+        assertTrue(select.getId().matches("[0-9a-f]{16}"));
+    }
+}
@@ -0,0 +1,386 @@
+package com.t8webs.tvtrackerapi.enterprise.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.t8webs.tvtrackerapi.enterprise.dao.DbQuery;
+import com.t8webs.tvtrackerapi.enterprise.dao.ShardRouter;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Boots the API against an embedded database seeded with users and media entries, then drives a weighted mix of
+ * requests at it over HTTP and reports latency percentiles and throughput for each endpoint
+ * <p>
+ *     Runs only in the load-test profile. Every setting is a system property:
+ * </p>
+ * <ul>
+ *     <li>load.users, load.entries-per-user: seeded volume, 1000 and 50</li>
+ *     <li>load.concurrency: client threads, each sending its next request once the previous one is answered, 32</li>
+ *     <li>load.warmup, load.duration: seconds of unrecorded then recorded traffic, 10 and 30</li>
+ *     <li>load.mix: relative weight of each endpoint, authenticate=5,getMediaEntries=60,addMediaEntry=15,
+ *     editMediaEntry=15,removeMediaEntry=5</li>
+ *     <li>load.report-dir, load.label: reports go to report-dir/label, target/load-reports and the start time</li>
+ * </ul>
+ * <p>
+ *     Each client thread owns its own users, so a login rotating a user's token never fails another thread's
+ *     requests. The label directory holds summary.csv, with one row per endpoint and one for all of them,
+ *     settings.properties, and an HdrHistogram percentile distribution per endpoint in milliseconds. Running with
+ *     the same settings and a label per build gives reports that can be compared directly.
+ * </p>
+ * <p>
+ *     Clients wait for each response before sending the next request, so latencies do not include the time a
+ *     request would have queued at a fixed arrival rate. Raise load.concurrency until throughput stops growing to
+ *     find the saturation point.
+ * </p>
+ */
+@Tag("load")
+@ActiveProfiles("dev")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:load-test;MODE=MSSQLServer;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE",
+        "spring.datasource.hikari.minimum-idle=20",
+        "spring.datasource.hikari.maximum-pool-size=20",
+        "logging.level.com.t8webs=WARN"
+})
+class LoadTest {
+
+    private enum Endpoint {
+        authenticate, getMediaEntries, addMediaEntry, editMediaEntry, removeMediaEntry
+    }
+
+    private static final class User {
+        private final String username;
+        private final String password;
+        private final List<Integer> entryIds = new ArrayList<>();
+        private String token;
+
+        private User(String username, String password, String token) {
+            this.username = username;
+            this.password = password;
+            this.token = token;
+        }
+    }
+
+    private static final class Stats {
+        private final Recorder recorder = new Recorder(3);
+        private final LongAdder errors = new LongAdder();
+    }
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    ShardRouter shardRouter;
+
+    private final int userCount = Integer.getInteger("load.users", 1000);
+    private final int entriesPerUser = Integer.getInteger("load.entries-per-user", 50);
+    private final int concurrency = Integer.getInteger("load.concurrency", 32);
+    private final int warmupSeconds = Integer.getInteger("load.warmup", 10);
+    private final int durationSeconds = Integer.getInteger("load.duration", 30);
+    private final String mix = System.getProperty("load.mix",
+            "authenticate=5,getMediaEntries=60,addMediaEntry=15,editMediaEntry=15,removeMediaEntry=5");
+    private final Path reportDir = Path.of(System.getProperty("load.report-dir", "target/load-reports"),
+            System.getProperty("load.label", LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"))));
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final Map<Endpoint, Stats> stats = new EnumMap<>(Endpoint.class);
+    private volatile boolean recording;
+
+    @Test
+    void driveMixedTraffic() throws Exception {
+        Map<Endpoint, Integer> weights = parseMix(mix);
+        for (Endpoint endpoint : Endpoint.values()) {
+            stats.put(endpoint, new Stats());
+        }
+
+        List<User> users = seed();
+        assertTrue(users.size() >= concurrency, "load.users must be at least load.concurrency");
+
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        long warmupEnd = System.nanoTime() + Duration.ofSeconds(warmupSeconds).toNanos();
+        long end = warmupEnd + Duration.ofSeconds(durationSeconds).toNanos();
+
+        List<Future<?>> running = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            List<User> owned = new ArrayList<>();
+            for (int u = i; u < users.size(); u += concurrency) {
+                owned.add(users.get(u));
+            }
+            running.add(clients.submit(() -> drive(owned, weights, end)));
+        }
+
+        while (System.nanoTime() < warmupEnd) {
+            Thread.sleep(100);
+        }
+        // drops whatever was recorded during the warmup
+        stats.values().forEach(s -> s.recorder.getIntervalHistogram());
+        recording = true;
+        long recordStart = System.nanoTime();
+
+        for (Future<?> client : running) {
+            client.get();
+        }
+        long recordedNanos = System.nanoTime() - recordStart;
+        clients.shutdown();
+
+        long requests = report(recordedNanos);
+        assertTrue(requests > 0, "no requests completed");
+    }
+
+    /**
+     * Sends requests for the thread's users until the end of the run
+     */
+    private Void drive(List<User> users, Map<Endpoint, Integer> weights, long end) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int totalWeight = weights.values().stream().mapToInt(Integer::intValue).sum();
+
+        while (System.nanoTime() < end) {
+            Endpoint endpoint = pick(weights, totalWeight, random);
+            User user = users.get(random.nextInt(users.size()));
+
+            // removals need an entry to remove
+            if (user.entryIds.isEmpty() && (endpoint == Endpoint.editMediaEntry || endpoint == Endpoint.removeMediaEntry))
+                endpoint = Endpoint.addMediaEntry;
+
+            int entryIndex = user.entryIds.isEmpty() ? -1 : random.nextInt(user.entryIds.size());
+            HttpRequest request = request(endpoint, user, entryIndex);
+
+            long start = System.nanoTime();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            long elapsedMicros = (System.nanoTime() - start) / 1000;
+            boolean success = response.statusCode() / 100 == 2;
+
+            if (success && endpoint == Endpoint.authenticate)
+                user.token = response.body();
+            if (success && endpoint == Endpoint.removeMediaEntry) {
+                int last = user.entryIds.size() - 1;
+                user.entryIds.set(entryIndex, user.entryIds.get(last));
+                user.entryIds.remove(last);
+            }
+
+            if (recording) {
+                Stats endpointStats = stats.get(endpoint);
+                endpointStats.recorder.recordValue(elapsedMicros);
+                if (!success)
+                    endpointStats.errors.increment();
+            }
+        }
+        return null;
+    }
+
+    private HttpRequest request(Endpoint endpoint, User user, int entryIndex) {
+        String credentials = "username=" + encode(user.username) + "&token=" + encode(user.token);
+
+        switch (endpoint) {
+            case authenticate:
+                return get("/authenticate?username=" + encode(user.username) + "&password=" + encode(user.password));
+            case getMediaEntries:
+                return get("/getMediaEntries?" + credentials);
+            case addMediaEntry:
+                return send("POST", "/addMediaEntry?" + credentials, entry(user, 0));
+            case editMediaEntry:
+                return send("PUT", "/editMediaEntry?" + credentials, entry(user, user.entryIds.get(entryIndex)));
+            default:
+                return send("DELETE", "/removeMediaEntry?" + credentials, entry(user, user.entryIds.get(entryIndex)));
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).GET().build();
+    }
+
+    private HttpRequest send(String method, String path, MediaEntry body) {
+        try {
+            return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                    .header("Content-Type", "application/json")
+                    .method(method, HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                    .build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Inserts the users and their entries straight into the database, with tokens valid for the whole run
+     *
+     * @return seeded users holding their entry ids
+     */
+    private List<User> seed() throws SQLException {
+        List<User> users = new ArrayList<>();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+
+        for (int u = 0; u < userCount; u++) {
+            User user = new User("load-user-" + u, "password-" + u, UUID.randomUUID().toString());
+            users.add(user);
+
+            DbQuery query = new DbQuery(shardRouter.primaryFor(user.username));
+            query.setTableName("UserAccount");
+            query.setColumnValue("username", user.username);
+            query.setColumnValue("password", user.password);
+            query.setColumnValue("email", user.username + "@example.com");
+            query.setColumnValue("token", user.token);
+            query.setColumnValue("lastLogin", now);
+            query.addInsertBatch();
+
+            query.setTableName("MediaEntry");
+            for (int e = 0; e < entriesPerUser; e++) {
+                int id = shardRouter.allocateMediaEntryId(user.username);
+                user.entryIds.add(id);
+                setEntryColumns(query, user.username, id, e);
+                query.setColumnValue("id", id);
+                query.setColumnExpression("changeSeq", "NEXT VALUE FOR MediaEntryChangeSeq");
+                query.addInsertBatch();
+            }
+
+            boolean[] results = query.executeBatch();
+            if (results.length == 0 || !results[0])
+                throw new SQLException("Unable to seed " + user.username);
+        }
+
+        return users;
+    }
+
+    private static void setEntryColumns(DbQuery query, String username, int id, int index) {
+        query.setColumnValue("title", "Title " + index);
+        query.setColumnValue("username", username);
+        query.setColumnValue("type", index % 3 == 0 ? "movie" : "tv");
+        query.setColumnValue("platform", index % 2 == 0 ? "Netflix" : "Hulu");
+        query.setColumnValue("description", "A description of title number " + index + " long enough to look realistic.");
+        query.setColumnValue("imageUrl", "https://images.example.com/" + id + ".jpg");
+        query.setColumnValue("watched", index % 4 == 0);
+    }
+
+    private static MediaEntry entry(User user, int id) {
+        MediaEntry mediaEntry = new MediaEntry();
+        mediaEntry.setId(id);
+        mediaEntry.setUsername(user.username);
+        mediaEntry.setTitle("Load test title " + ThreadLocalRandom.current().nextInt(1000));
+        mediaEntry.setType("tv");
+        mediaEntry.setPlatform("Netflix");
+        mediaEntry.setDescription("Written by the load test.");
+        mediaEntry.setImageUrl("https://images.example.com/load.jpg");
+        mediaEntry.setWatched(ThreadLocalRandom.current().nextBoolean());
+        return mediaEntry;
+    }
+
+    /**
+     * Writes the reports and prints the summary
+     *
+     * @return number of requests recorded
+     */
+    private long report(long recordedNanos) throws IOException {
+        Files.createDirectories(reportDir);
+        double seconds = recordedNanos / 1e9;
+
+        Histogram all = new Histogram(3);
+        long allErrors = 0;
+        StringBuilder summary = new StringBuilder("endpoint,requests,errors,throughput_per_s,p50_ms,p90_ms,p99_ms,p999_ms,max_ms\n");
+
+        for (Endpoint endpoint : Endpoint.values()) {
+            Histogram histogram = stats.get(endpoint).recorder.getIntervalHistogram();
+            long errors = stats.get(endpoint).errors.sum();
+            all.add(histogram);
+            allErrors += errors;
+
+            summary.append(summaryRow(endpoint.name(), histogram, errors, seconds));
+            writeDistribution(endpoint.name(), histogram);
+        }
+        summary.append(summaryRow("all", all, allErrors, seconds));
+        writeDistribution("all", all);
+
+        Files.writeString(reportDir.resolve("summary.csv"), summary);
+
+        Properties settings = new Properties();
+        settings.setProperty("load.users", String.valueOf(userCount));
+        settings.setProperty("load.entries-per-user", String.valueOf(entriesPerUser));
+        settings.setProperty("load.concurrency", String.valueOf(concurrency));
+        settings.setProperty("load.warmup", String.valueOf(warmupSeconds));
+        settings.setProperty("load.duration", String.valueOf(durationSeconds));
+        settings.setProperty("load.mix", mix);
+        try (var out = Files.newOutputStream(reportDir.resolve("settings.properties"))) {
+            settings.store(out, "LoadTest settings");
+        }
+
+        System.out.println("Load test report in " + reportDir.toAbsolutePath());
+        System.out.print(summary);
+        return all.getTotalCount();
+    }
+
+    private static String summaryRow(String name, Histogram histogram, long errors, double seconds) {
+        return String.format("%s,%d,%d,%.1f,%.2f,%.2f,%.2f,%.2f,%.2f%n", name, histogram.getTotalCount(), errors,
+                histogram.getTotalCount() / seconds,
+                histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0);
+    }
+
+    private void writeDistribution(String name, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(reportDir.resolve(name + ".hgrm")), false, StandardCharsets.UTF_8)) {
+            // recorded in microseconds, written in milliseconds
+            histogram.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+
+    private static Map<Endpoint, Integer> parseMix(String mix) {
+        Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split("=");
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight > 0)
+                weights.put(Endpoint.valueOf(pair[0].trim()), weight);
+        }
+        if (weights.isEmpty())
+            throw new IllegalArgumentException("load.mix gives every endpoint a weight of 0");
+        return weights;
+    }
+
+    private static Endpoint pick(Map<Endpoint, Integer> weights, int totalWeight, ThreadLocalRandom random) {
+        int roll = random.nextInt(totalWeight);
+        for (Map.Entry<Endpoint, Integer> weight : weights.entrySet()) {
+            roll -= weight.getValue();
+            if (roll < 0)
+                return weight.getKey();
+        }
+        throw new IllegalStateException("weights changed while picking");
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,102 @@
+package com.t8webs.tvtrackerapi.enterprise.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Imports newline-delimited JSON through MediaEntryImporter into a mocked IMediaEntryService
+ */
+class MediaEntryImporterTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private MediaEntryImporter importer;
+    private IMediaEntryService mediaEntryService;
+    private final List<List<String>> chunks = new ArrayList<>();
+
+    @BeforeEach
+    void createImporter() throws Exception {
+        importer = new MediaEntryImporter();
+        importer.mediaEntryService = mediaEntryService = mock(IMediaEntryService.class);
+        importer.objectMapper = objectMapper;
+        importer.chunkSize = 2;
+
+        when(mediaEntryService.createMediaEntries(eq("alice"), anyList())).thenAnswer(invocation -> {
+            List<MediaEntry> chunk = invocation.getArgument(1);
+            // the importer reuses its chunk list, so the titles are copied out as they arrive
+            chunks.add(chunk.stream().map(MediaEntry::getTitle).collect(Collectors.toList()));
+
+            boolean[] results = new boolean[chunk.size()];
+            for (int i = 0; i < chunk.size(); i++) {
+                results[i] = !"rejected".equals(chunk.get(i).getTitle());
+            }
+            return results;
+        });
+    }
+
+    @Test
+    void entriesAreSavedInChunksWithProgressAndErrorsPerLine() throws Exception {
+        String input = String.join("\n",
+                "{\"title\":\"Severance\"}",
+                "{\"title\":\"rejected\"}",
+                "",
+                "not json",
+                "{\"title\":\"Andor\"}");
+
+        List<Map<String, Object>> records = importEntries(input);
+
+        assertEquals(List.of(List.of("Severance", "rejected"), List.of("Andor")), chunks);
+        assertEquals(4, records.size());
+        assertEquals(Map.of("line", 2, "error", "Entry could not be saved"), records.get(0));
+        assertEquals(Map.of("lines", 2, "imported", 1, "failed", 1, "done", false), records.get(1));
+        assertEquals(4, records.get(2).get("line"));
+        assertEquals(Map.of("lines", 5, "imported", 2, "failed", 2, "done", true), records.get(3));
+    }
+
+    @Test
+    void failedChunkReportsEveryLine() throws Exception {
+        when(mediaEntryService.createMediaEntries(eq("alice"), anyList())).thenThrow(new SQLException("down"));
+
+        List<Map<String, Object>> records = importEntries("{\"title\":\"Severance\"}\n{\"title\":\"Andor\"}");
+
+        assertEquals(Map.of("line", 1, "error", "Entry could not be saved"), records.get(0));
+        assertEquals(Map.of("line", 2, "error", "Entry could not be saved"), records.get(1));
+        assertEquals(Map.of("lines", 2, "imported", 0, "failed", 2, "done", true), records.get(records.size() - 1));
+    }
+
+    @Test
+    void emptyImportOnlyReportsTheSummary() throws Exception {
+        List<Map<String, Object>> records = importEntries("");
+
+        assertEquals(List.of(Map.of("lines", 0, "imported", 0, "failed", 0, "done", true)), records);
+        assertEquals(List.of(), chunks);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> importEntries(String input) throws Exception {
+        StringWriter progress = new StringWriter();
+        importer.importEntries("alice", new BufferedReader(new StringReader(input)), progress);
+
+        List<Map<String, Object>> records = new ArrayList<>();
+        for (String line : progress.toString().split("\n")) {
+            records.add(objectMapper.readValue(line, Map.class));
+        }
+        return records;
+    }
+}
@@ -0,0 +1,376 @@
+package com.t8webs.tvtrackerapi.enterprise.service;
+
+import com.t8webs.tvtrackerapi.enterprise.cache.CacheInvalidationBus;
+import com.t8webs.tvtrackerapi.enterprise.cache.MediaEntriesCodec;
+import com.t8webs.tvtrackerapi.enterprise.cache.OffHeapStore;
+import com.t8webs.tvtrackerapi.enterprise.cache.TwoTierCacheManager;
+import com.t8webs.tvtrackerapi.enterprise.config.CacheConfig;
+import com.t8webs.tvtrackerapi.enterprise.dao.MediaEntryDAO;
+import com.t8webs.tvtrackerapi.enterprise.dao.ReplicaRouter;
+import com.t8webs.tvtrackerapi.enterprise.dao.ShardRouter;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntry;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryChanges;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryFilter;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryPage;
+import com.t8webs.tvtrackerapi.enterprise.dto.MediaEntryVersion;
+import com.t8webs.tvtrackerapi.enterprise.trace.Tracer;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Runs MediaEntryService over MediaEntryDAO and an embedded database, with in-memory caches
+ */
+class MediaEntryServiceTest {
+
+    private DataSource dataSource;
+    private MediaEntryService mediaEntryService;
+    private CacheInvalidationBus cacheInvalidationBus;
+
+    @BeforeEach
+    void createService() throws SQLException {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:media-entry-service;MODE=MSSQLServer;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE");
+        h2.setUser("sa");
+        dataSource = h2;
+        run("RUNSCRIPT FROM 'classpath:/schema.sql'");
+        run("INSERT INTO UserAccount (username) VALUES ('alice')");
+
+        ShardRouter shardRouter = new ShardRouter(List.of(new ReplicaRouter(dataSource, Map.of(), "test-node", 1000)), 128, 0);
+        MediaEntryDAO mediaEntryDAO = new MediaEntryDAO();
+        ReflectionTestUtils.setField(mediaEntryDAO, "shardRouter", shardRouter);
+
+        mediaEntryService = new MediaEntryService();
+        mediaEntryService.mediaEntryDAO = mediaEntryDAO;
+        mediaEntryService.cacheManager = new ConcurrentMapCacheManager();
+        mediaEntryService.shardRouter = shardRouter;
+        mediaEntryService.requestCoalescer = new RequestCoalescer();
+        mediaEntryService.cacheInvalidationBus = cacheInvalidationBus = mock(CacheInvalidationBus.class);
+    }
+
+    @AfterEach
+    void dropDatabase() throws SQLException {
+        run("DROP ALL OBJECTS");
+    }
+
+    @Test
+    void titlePagesVisitEveryEntryOnceIncludingTiesAndMissingTitles() throws Exception {
+        insert(1, "Severance", "tv", false);
+        insert(2, null, "tv", false);
+        insert(3, "Andor", "tv", true);
+        insert(4, "Severance", "movie", false);
+        insert(5, null, "tv", true);
+        insert(6, "Andor", "tv", false);
+        insert(7, "Dark", "tv", false);
+
+        assertEquals(List.of(2, 5, 3, 6, 7, 1, 4), walk(filter("title", 2)));
+        assertEquals(List.of(2, 5, 3, 6, 7, 1, 4), walk(filter("title", 3)));
+        assertEquals(List.of(1, 2, 3, 4, 5, 6, 7), walk(filter("id", 3)));
+    }
+
+    @Test
+    void filtersApplyToEveryPage() throws Exception {
+        insert(1, "Severance", "tv", false);
+        insert(2, "Andor", "movie", false);
+        insert(3, "Dark", "tv", true);
+        insert(4, "Lost", "tv", false);
+        insert(5, "Fargo", "tv", false);
+
+        MediaEntryFilter filter = filter("title", 1);
+        filter.setType("tv");
+        filter.setWatched(false);
+
+        assertEquals(List.of(5, 4, 1), walk(filter));
+    }
+
+    @Test
+    void lastPageHasNoCursor() throws Exception {
+        insert(1, "Severance", "tv", false);
+        insert(2, "Andor", "tv", false);
+
+        MediaEntryPage page = mediaEntryService.fetchMediaEntryPage(filter("id", 2));
+
+        assertEquals(2, page.getEntries().size());
+        assertNull(page.getNext());
+        // a repeated request is answered from the user's cached pages
+        assertSame(page, mediaEntryService.fetchMediaEntryPage(filter("id", 2)));
+    }
+
+    @Test
+    void cachedPagesAreWeighedByTheirEntries() throws Exception {
+        mediaEntryService.cacheManager = new CacheConfig().cacheManager(new MockEnvironment(), new Tracer());
+        for (int id = 1; id <= 5; id++) {
+            insert(id, "Title " + id, "tv", false);
+        }
+
+        MediaEntryFilter second = filter("id", 2);
+        second.setAfter(mediaEntryService.fetchMediaEntryPage(filter("id", 2)).getNext());
+        mediaEntryService.fetchMediaEntryPage(second);
+        mediaEntryService.fetchMediaEntryPage(filter("id", 1));
+
+        // each page added to the user's pages reweighs them
+        CaffeineCache pages = (CaffeineCache) mediaEntryService.cacheManager.getCache("mediaEntryPages");
+        // weights are applied by Caffeine's maintenance, which otherwise runs asynchronously
+        pages.getNativeCache().cleanUp();
+        assertEquals(1 + 2 + 2 + 1, pages.getNativeCache().policy().eviction().orElseThrow().weightedSize().orElseThrow());
+    }
+
+    @Test
+    void malformedRequestsAreRejected() {
+        MediaEntryFilter badCursor = filter("id", 2);
+        badCursor.setAfter("bm90IGFuIGlk");
+        MediaEntryFilter badColumn = filter("description", 2);
+
+        assertThrows(IllegalArgumentException.class, () -> mediaEntryService.fetchMediaEntryPage(badCursor));
+        assertThrows(IllegalArgumentException.class, () -> mediaEntryService.fetchMediaEntryPage(badColumn));
+    }
+
+    @Test
+    void batchesOnlyChangeTheCallersEntries() throws Exception {
+        insert(100, "Bob show", "tv", false);
+        run("UPDATE MediaEntry SET username = 'bob' WHERE id = 100");
+        String version = mediaEntryService.fetchMediaEntriesVersion("alice").getTag();
+
+        List<MediaEntry> added = List.of(entry("Severance"), entry("Andor"), entry("Dark"));
+        assertArrayEquals(new boolean[] {true, true, true}, mediaEntryService.createMediaEntries("alice", added));
+        assertEquals(3, added.stream().map(MediaEntry::getId).distinct().count());
+
+        MediaEntry bobs = entry("taken over");
+        bobs.setId(100);
+        MediaEntry renamed = added.get(0);
+        renamed.setTitle("Severance S2");
+        assertArrayEquals(new boolean[] {true, false}, mediaEntryService.updateMediaEntries("alice", List.of(renamed, bobs)));
+        assertArrayEquals(new boolean[] {false, true}, mediaEntryService.deleteMediaEntries("alice", List.of(bobs, added.get(1))));
+
+        assertEquals(List.of("Dark", "Severance S2"), titles("alice"));
+        assertEquals(List.of("Bob show"), titles("bob"));
+        // one version change and one peer invalidation per batch
+        assertNotEquals(version, mediaEntryService.fetchMediaEntriesVersion("alice").getTag());
+        verify(cacheInvalidationBus, times(3)).invalidate("mediaEntries", "alice");
+    }
+
+    @Test
+    void versionChangesOnlyWithWrites() throws Exception {
+        MediaEntryVersion version = mediaEntryService.fetchMediaEntriesVersion("alice");
+        assertSame(version, mediaEntryService.fetchMediaEntriesVersion("alice"));
+
+        MediaEntry mediaEntry = entry("Severance");
+        mediaEntry.setUsername("alice");
+        mediaEntryService.createMediaEntry(mediaEntry);
+        MediaEntryVersion created = mediaEntryService.fetchMediaEntriesVersion("alice");
+
+        mediaEntryService.deleteMediaEntry(mediaEntry);
+        MediaEntryVersion deleted = mediaEntryService.fetchMediaEntriesVersion("alice");
+
+        assertNotEquals(version.getTag(), created.getTag());
+        assertNotEquals(created.getTag(), deleted.getTag());
+        assertTrue(deleted.getLastModified() >= version.getLastModified());
+        // versions are kept per user
+        assertNotEquals(deleted.getTag(), mediaEntryService.fetchMediaEntriesVersion("bob").getTag());
+        assertSame(deleted, mediaEntryService.fetchMediaEntriesVersion("alice"));
+    }
+
+    @Test
+    void changesAreReturnedInChangeOrderUpToTheLimit() throws Exception {
+        List<MediaEntry> added = List.of(entry("Severance"), entry("Andor"), entry("Dark"));
+        mediaEntryService.createMediaEntries("alice", added);
+        mediaEntryService.deleteMediaEntries("alice", List.of(added.get(1)));
+        MediaEntry renamed = added.get(0);
+        renamed.setTitle("Severance S2");
+        mediaEntryService.updateMediaEntries("alice", List.of(renamed));
+
+        MediaEntryChanges first = mediaEntryService.fetchMediaEntryChanges("alice", 0, 2);
+        assertEquals(List.of("Dark"), titles(first.getUpserts()));
+        assertEquals(List.of(added.get(1).getId()), first.getDeletions());
+        assertTrue(first.isMore());
+
+        MediaEntryChanges rest = mediaEntryService.fetchMediaEntryChanges("alice", first.getWatermark(), 2);
+        assertEquals(List.of("Severance S2"), titles(rest.getUpserts()));
+        assertEquals(List.of(), rest.getDeletions());
+        assertFalse(rest.isMore());
+
+        MediaEntryChanges none = mediaEntryService.fetchMediaEntryChanges("alice", rest.getWatermark(), 2);
+        assertEquals(List.of(), none.getUpserts());
+        assertEquals(rest.getWatermark(), none.getWatermark());
+    }
+
+    @Test
+    void singleWritesPatchTheCachedEntries() throws Exception {
+        mediaEntryService.cacheManager = new CaffeineCacheManager();
+        insert(1, "Severance", "tv", false);
+        insert(2, "Andor", "tv", false);
+        assertEquals(List.of("Severance", "Andor"), titles(mediaEntryService.fetchMediaEntriesByUsername("alice")));
+        // changed behind the service's back, so only a reload would show it
+        run("UPDATE MediaEntry SET title = 'Andor (reloaded)' WHERE id = 2");
+
+        MediaEntry added = entry("Dark");
+        added.setUsername("alice");
+        assertTrue(mediaEntryService.createMediaEntry(added));
+        MediaEntry renamed = mediaEntryService.fetchMediaEntriesByUsername("alice").get(0);
+        renamed.setTitle("Severance S2");
+        assertTrue(mediaEntryService.updateMediaEntry(renamed));
+        MediaEntry removed = new MediaEntry();
+        removed.setUsername("alice");
+        removed.setId(1);
+        assertTrue(mediaEntryService.deleteMediaEntry(removed));
+
+        assertEquals(List.of("Andor", "Dark"), titles(mediaEntryService.fetchMediaEntriesByUsername("alice")));
+
+        // a failed write cannot tell what changed, so the entries are reloaded
+        removed.setId(99);
+        assertFalse(mediaEntryService.deleteMediaEntry(removed));
+        assertEquals(List.of("Andor (reloaded)", "Dark"), titles(mediaEntryService.fetchMediaEntriesByUsername("alice")));
+    }
+
+    @Test
+    void entriesLoadedBeforeAWriteAreNotCached() throws Exception {
+        mediaEntryService.cacheManager = new CaffeineCacheManager();
+        insert(1, "Severance", "tv", false);
+        MediaEntryDAO mediaEntryDAO = spy((MediaEntryDAO) mediaEntryService.mediaEntryDAO);
+        mediaEntryService.mediaEntryDAO = mediaEntryDAO;
+
+        // another request writes after the entries were read but before they are cached
+        doAnswer(invocation -> {
+            Object loaded = invocation.callRealMethod();
+            MediaEntry added = entry("Andor");
+            added.setUsername("alice");
+            assertTrue(mediaEntryService.createMediaEntry(added));
+            return loaded;
+        }).doCallRealMethod().when(mediaEntryDAO).fetchByUsername("alice");
+
+        assertEquals(List.of("Severance"), titles(mediaEntryService.fetchMediaEntriesByUsername("alice")));
+        assertNull(mediaEntryService.cacheManager.getCache("mediaEntries").get("alice"));
+        assertEquals(List.of("Severance", "Andor"), titles(mediaEntryService.fetchMediaEntriesByUsername("alice")));
+    }
+
+    @Test
+    void restoredEntriesAreServedOnlyWhileTheHorizonIsUnchanged(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("mediaEntries.l2");
+        useFileBackedCache(file);
+        MediaEntry added = entry("Severance");
+        added.setUsername("alice");
+        assertTrue(mediaEntryService.createMediaEntry(added));
+        assertEquals(List.of("Severance"), titles(mediaEntryService.fetchMediaEntriesByUsername("alice")));
+
+        // changed behind the service's back without moving the horizon, so only restored entries would hide it
+        run("UPDATE MediaEntry SET title = 'Severance (database)'");
+        useFileBackedCache(file);
+        assertEquals(List.of("Severance"), titles(mediaEntryService.fetchMediaEntriesByUsername("alice")));
+
+        // a write made while this node was down moves the horizon
+        run("UPDATE UserAccount SET changeSeq = NEXT VALUE FOR MediaEntryChangeSeq WHERE username = 'alice'");
+        useFileBackedCache(file);
+        assertEquals(List.of("Severance (database)"), titles(mediaEntryService.fetchMediaEntriesByUsername("alice")));
+    }
+
+    /**
+     * Gives the service fresh caches with a second tier in the given file, as a restarted node would have
+     */
+    private void useFileBackedCache(Path file) throws IOException {
+        TwoTierCacheManager cacheManager = new TwoTierCacheManager();
+        cacheManager.addSecondTier("mediaEntries", new OffHeapStore("mediaEntries", 64 * 1024, Duration.ofHours(1), file),
+                new MediaEntriesCodec());
+        mediaEntryService.cacheManager = cacheManager;
+        mediaEntryService.checkRestoredEntries();
+    }
+
+    /**
+     * Follows each page's cursor until the last page
+     *
+     * @return ids of every entry returned, in order
+     */
+    private List<Integer> walk(MediaEntryFilter first) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        MediaEntryFilter filter = first;
+
+        while (true) {
+            MediaEntryPage page = mediaEntryService.fetchMediaEntryPage(filter);
+            ids.addAll(page.getEntries().stream().map(MediaEntry::getId).collect(Collectors.toList()));
+            if(page.getNext() == null)
+                return ids;
+
+            MediaEntryFilter next = new MediaEntryFilter();
+            next.setUsername(filter.getUsername());
+            next.setOrderBy(filter.getOrderBy());
+            next.setLimit(filter.getLimit());
+            next.setType(filter.getType());
+            next.setWatched(filter.getWatched());
+            next.setAfter(page.getNext());
+            filter = next;
+        }
+    }
+
+    private static MediaEntryFilter filter(String orderBy, int limit) {
+        MediaEntryFilter filter = new MediaEntryFilter();
+        filter.setUsername("alice");
+        filter.setOrderBy(orderBy);
+        filter.setLimit(limit);
+        return filter;
+    }
+
+    private static MediaEntry entry(String title) {
+        MediaEntry mediaEntry = new MediaEntry();
+        mediaEntry.setTitle(title);
+        mediaEntry.setType("tv");
+        return mediaEntry;
+    }
+
+    private static List<String> titles(List<MediaEntry> mediaEntries) {
+        return mediaEntries.stream().map(MediaEntry::getTitle).collect(Collectors.toList());
+    }
+
+    private List<String> titles(String username) throws Exception {
+        MediaEntryFilter filter = filter("title", 100);
+        filter.setUsername(username);
+        mediaEntryService.cacheManager.getCache("mediaEntryPages").clear();
+        return mediaEntryService.fetchMediaEntryPage(filter).getEntries().stream()
+                .map(MediaEntry::getTitle)
+                .collect(Collectors.toList());
+    }
+
+    private void insert(int id, String title, String type, boolean watched) throws SQLException {
+        run("INSERT INTO MediaEntry (id, username, title, type, watched, changeSeq) VALUES (" + id + ", 'alice', "
+                + (title == null ? "NULL" : "'" + title + "'") + ", '" + type + "', " + (watched ? 1 : 0) + ", 0)");
+    }
+
+    private void run(String sql) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             Statement statement = conn.createStatement())
+        {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.t8webs.tvtrackerapi.enterprise.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Starts loads of the same and of different keys from several threads, holding the first load open until every
+ * caller has arrived
+ */
+class RequestCoalescerTest {
+
+    private final RequestCoalescer coalescer = new RequestCoalescer();
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final CountDownLatch loading = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void stopCallers() {
+        release.countDown();
+        callers.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallersShareOneLoad() throws Exception {
+        Future<String> first = callers.submit(() -> coalescer.load("mediaEntries", "alice", this::heldLoad));
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+
+        List<Future<String>> waiting = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            waiting.add(callers.submit(() -> coalescer.load("mediaEntries", "alice", this::heldLoad)));
+        }
+        awaitDeduplicated("mediaEntries", 5);
+        release.countDown();
+
+        assertEquals("load 1", first.get(10, TimeUnit.SECONDS));
+        for (Future<String> caller : waiting) {
+            assertEquals("load 1", caller.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(Map.of("loads", 1L, "deduplicated", 5L), coalescer.snapshot().get("mediaEntries"));
+    }
+
+    @Test
+    void failureIsSharedWithWaitingCallers() throws Exception {
+        Future<String> first = callers.submit(() -> coalescer.load("mediaEntries", "alice", () -> {
+            heldLoad();
+            throw new SQLException("timeout");
+        }));
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        Future<String> second = callers.submit(() -> coalescer.load("mediaEntries", "alice", this::heldLoad));
+        awaitDeduplicated("mediaEntries", 1);
+        release.countDown();
+
+        ExecutionException firstFailure = assertThrows(ExecutionException.class, () -> first.get(10, TimeUnit.SECONDS));
+        ExecutionException secondFailure = assertThrows(ExecutionException.class, () -> second.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(SQLException.class, firstFailure.getCause());
+        assertInstanceOf(SQLException.class, secondFailure.getCause());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void callersAfterAWriteStartAFreshLoad() throws Exception {
+        Future<String> beforeWrite = callers.submit(() -> coalescer.load("mediaEntries", "alice", this::heldLoad));
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+
+        coalescer.forget("mediaEntries", "alice");
+
+        assertEquals("fresh", coalescer.load("mediaEntries", "alice", () -> "fresh"));
+        release.countDown();
+        assertEquals("load 1", beforeWrite.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void onlyLoadsInFlightAreShared() throws Exception {
+        Future<String> alice = callers.submit(() -> coalescer.load("mediaEntries", "alice", this::heldLoad));
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+
+        // other keys and other groups run their own loads
+        assertEquals("bob", coalescer.load("mediaEntries", "bob", () -> "bob"));
+        assertEquals("account", coalescer.load("userAccount", "alice", () -> "account"));
+        release.countDown();
+        alice.get(10, TimeUnit.SECONDS);
+
+        // nothing is kept once a load completes
+        assertEquals("again", coalescer.load("mediaEntries", "alice", () -> "again"));
+        assertEquals(Map.of("loads", 3L, "deduplicated", 0L), coalescer.snapshot().get("mediaEntries"));
+    }
+
+    private String heldLoad() {
+        int load = loads.incrementAndGet();
+        loading.countDown();
+        try {
+            release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "load " + load;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void awaitDeduplicated(String group, long callers) throws InterruptedException {
+        for (int i = 0; i < 1000; i++) {
+            Map<String, Object> counts = (Map<String, Object>) coalescer.snapshot().get(group);
+            if((long) counts.get("deduplicated") >= callers)
+                return;
+            Thread.sleep(10);
+        }
+    }
+}
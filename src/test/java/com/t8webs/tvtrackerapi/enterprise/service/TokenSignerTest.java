@@ -0,0 +1,95 @@
+package com.t8webs.tvtrackerapi.enterprise.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Issues, verifies, rotates and revokes signed tokens
+ */
+class TokenSignerTest {
+
+    private static final String KEY_1 = "k1:" + secret(1);
+    private static final String KEY_2 = "k2:" + secret(2);
+
+    @Test
+    void tokenIsValidOnlyForItsUserUntilItExpires() {
+        TokenSigner signer = signer(KEY_1, "");
+        String token = signer.issue("alice", Instant.now().plusSeconds(60));
+
+        assertTrue(signer.isSigned(token));
+        assertTrue(token.length() <= 64, "token must fit the UserAccount token column");
+        assertTrue(signer.verify("alice", token));
+        assertFalse(signer.verify("bob", token));
+        assertFalse(signer.verify("alice", signer.issue("alice", Instant.now().minusSeconds(1))));
+    }
+
+    @Test
+    void alteredTokensAreRejected() {
+        TokenSigner signer = signer(KEY_1, "");
+        String token = signer.issue("alice", Instant.now().plusSeconds(60));
+        String[] parts = token.split("\\.");
+
+        // a later expiry does not match the signature
+        assertFalse(signer.verify("alice", parts[0] + "." + (Long.parseLong(parts[1]) + 3600) + "." + parts[2]));
+        assertFalse(signer.verify("alice", parts[0] + "." + parts[1] + "." + parts[2].substring(1)));
+        assertFalse(signer.verify("alice", "k9." + parts[1] + "." + parts[2]));
+        assertFalse(signer.verify("alice", "opaque-token"));
+        assertFalse(signer(KEY_2.replace("k2", "k1"), "").verify("alice", token));
+    }
+
+    @Test
+    void tokensOfEveryListedKeyAreAcceptedDuringRotation() {
+        String oldToken = signer(KEY_1, "").issue("alice", Instant.now().plusSeconds(60));
+
+        TokenSigner rotating = signer(KEY_1 + "," + KEY_2, "k2");
+        String newToken = rotating.issue("alice", Instant.now().plusSeconds(60));
+
+        assertTrue(newToken.startsWith("k2."));
+        assertTrue(rotating.verify("alice", oldToken));
+        assertTrue(rotating.verify("alice", newToken));
+
+        TokenSigner rotated = signer(KEY_2, "");
+        assertFalse(rotated.verify("alice", oldToken));
+        assertTrue(rotated.verify("alice", newToken));
+    }
+
+    @Test
+    void revokedTokenIsRejected() {
+        TokenSigner signer = signer(KEY_1, "");
+        String revoked = signer.issue("alice", Instant.now().plusSeconds(60));
+        String kept = signer.issue("alice", Instant.now().plusSeconds(61));
+
+        signer.revoke(revoked);
+        signer.revoke("opaque-token");
+
+        assertFalse(signer.verify("alice", revoked));
+        assertTrue(signer.verify("alice", kept));
+    }
+
+    @Test
+    void signedModeRequiresAnActiveKey() {
+        assertThrows(IllegalStateException.class, () -> signer("", ""));
+        assertThrows(IllegalStateException.class, () -> signer(KEY_1, "k2"));
+    }
+
+    private static TokenSigner signer(String keys, String activeKeyId) {
+        TokenSigner signer = new TokenSigner();
+        signer.mode = "signed";
+        signer.keys = keys;
+        signer.activeKeyId = activeKeyId;
+        signer.loadKeys();
+        return signer;
+    }
+
+    private static String secret(int seed) {
+        byte[] secret = new byte[32];
+        secret[0] = (byte) seed;
+        return Base64.getEncoder().encodeToString(secret);
+    }
+}
@@ -0,0 +1,165 @@
+package com.t8webs.tvtrackerapi.enterprise.service;
+
+import com.t8webs.tvtrackerapi.enterprise.cache.CacheInvalidationBus;
+import com.t8webs.tvtrackerapi.enterprise.dao.IUserAccountDAO;
+import com.t8webs.tvtrackerapi.enterprise.dao.ShardRouter;
+import com.t8webs.tvtrackerapi.enterprise.dto.UserAccount;
+import com.t8webs.tvtrackerapi.enterprise.dto.UserSession;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks tokens through UserAccountService with a mocked IUserAccountDAO and in-memory caches
+ */
+class UserAccountServiceTest {
+
+    private UserAccountService userAccountService;
+    private IUserAccountDAO userAccountDAO;
+    private CacheInvalidationBus cacheInvalidationBus;
+    private ConcurrentMapCacheManager cacheManager;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void createService() {
+        userAccountService = new UserAccountService();
+        userAccountService.userAccountDAO = userAccountDAO = mock(IUserAccountDAO.class);
+        userAccountService.cacheManager = cacheManager = new ConcurrentMapCacheManager();
+        userAccountService.tokenSigner = new TokenSigner();
+        userAccountService.tokenSigner.mode = "opaque";
+        userAccountService.tokenSigner.keys = "";
+        userAccountService.tokenSigner.activeKeyId = "";
+        userAccountService.tokenSigner.loadKeys();
+        userAccountService.requestCoalescer = new RequestCoalescer();
+        userAccountService.cacheInvalidationBus = cacheInvalidationBus = mock(CacheInvalidationBus.class);
+        userAccountService.shardRouter = mock(ShardRouter.class);
+        userAccountService.meterRegistry = meterRegistry = new SimpleMeterRegistry();
+        userAccountService.registerMeters();
+        userAccountService.subscribeToPeerWrites();
+    }
+
+    @Test
+    void loginCachesTheSessionSoChecksSkipTheDatabase() throws Exception {
+        when(userAccountDAO.update(any())).thenReturn(true);
+
+        String token = userAccountService.updateUserToken(account("alice", Instant.now())).getToken();
+
+        assertTrue(userAccountService.isTokenValid("alice", token));
+        assertFalse(userAccountService.isTokenValid("alice", token + "x"));
+        verify(userAccountDAO, never()).fetch("alice");
+        // peers drop the session holding the previous token
+        verify(cacheInvalidationBus).invalidate("userAccount", "alice");
+    }
+
+    @Test
+    void missingSessionIsLoadedOnceFromTheAccount() throws Exception {
+        UserAccount stored = account("alice", Instant.now());
+        stored.setToken("stored-token");
+        when(userAccountDAO.fetch("alice")).thenReturn(stored);
+
+        assertTrue(userAccountService.isTokenValid("alice", "stored-token"));
+        assertTrue(userAccountService.isTokenValid("alice", "stored-token"));
+        assertFalse(userAccountService.isTokenValid("alice", "other-token"));
+
+        verify(userAccountDAO, times(1)).fetch("alice");
+        // filling a session from the stored token changes nothing peers hold
+        verify(cacheInvalidationBus, never()).invalidate(any(), any());
+        assertEquals(1.0, checks("account", "valid"));
+        assertEquals(1.0, checks("session", "valid"));
+        assertEquals(1.0, checks("session", "invalid"));
+        assertEquals(0.0, checks("account", "invalid"));
+    }
+
+    @Test
+    void expiredSessionIsRejected() throws Exception {
+        cacheManager.getCache("userSessions").put("alice", new UserSession("alice", "token", Instant.now().minusSeconds(1)));
+
+        assertFalse(userAccountService.isTokenValid("alice", "token"));
+        verify(userAccountDAO, never()).fetch("alice");
+    }
+
+    @Test
+    void peerWriteDropsTheSession() throws Exception {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Consumer<String>> handler = ArgumentCaptor.forClass(Consumer.class);
+        verify(cacheInvalidationBus).onInvalidation(eq("userAccount"), handler.capture());
+        cacheManager.getCache("userSessions").put("alice", new UserSession("alice", "old-token", Instant.now().plusSeconds(60)));
+
+        UserAccount stored = account("alice", Instant.now());
+        stored.setToken("new-token");
+        when(userAccountDAO.fetch("alice")).thenReturn(stored);
+
+        // the peer issued new-token, so this node has to stop accepting old-token
+        handler.getValue().accept("alice");
+
+        assertFalse(userAccountService.isTokenValid("alice", "old-token"));
+        assertTrue(userAccountService.isTokenValid("alice", "new-token"));
+    }
+
+    @Test
+    void revokingAnOpaqueTokenReplacesIt() throws Exception {
+        UserAccount stored = account("alice", Instant.now());
+        stored.setToken("token");
+        when(userAccountDAO.fetch("alice")).thenReturn(stored);
+        when(userAccountDAO.update(any())).thenReturn(true);
+
+        assertTrue(userAccountService.revokeToken("alice", "token"));
+
+        assertFalse(userAccountService.isTokenValid("alice", "token"));
+        assertFalse(userAccountService.revokeToken("alice", "token"));
+        assertNotEquals("token", cacheManager.getCache("userSessions").get("alice", UserSession.class).getToken());
+    }
+
+    @Test
+    void signedTokensAreCheckedWithoutSessionsAndRevokedOnPeers() throws Exception {
+        userAccountService.tokenSigner.mode = "signed";
+        userAccountService.tokenSigner.keys = "k1:" + Base64.getEncoder().encodeToString(new byte[32]);
+        userAccountService.tokenSigner.loadKeys();
+        when(userAccountDAO.update(any())).thenReturn(true);
+
+        String token = userAccountService.updateUserToken(account("alice", Instant.now())).getToken();
+        cacheManager.getCache("userSessions").clear();
+
+        assertTrue(userAccountService.isTokenValid("alice", token));
+        assertFalse(userAccountService.isTokenValid("bob", token));
+        verify(userAccountDAO, never()).fetch(any());
+
+        assertTrue(userAccountService.revokeToken("alice", token));
+
+        assertFalse(userAccountService.isTokenValid("alice", token));
+        assertEquals(2.0, checks("signed", "valid"));
+        assertEquals(2.0, checks("signed", "invalid"));
+        verify(cacheInvalidationBus).invalidate("revokedTokens", token);
+        verify(userAccountDAO, times(1)).update(any());
+    }
+
+    private double checks(String source, String result) {
+        return meterRegistry.get("tvtracker.token.validations").tags("source", source, "result", result).counter().count();
+    }
+
+    private static UserAccount account(String username, Instant lastLogin) {
+        UserAccount userAccount = new UserAccount();
+        userAccount.setUsername(username);
+        userAccount.setLastLogin(Timestamp.from(lastLogin));
+        return userAccount;
+    }
+}
@@ -0,0 +1,108 @@
+package com.t8webs.tvtrackerapi.enterprise.trace;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.t8webs.tvtrackerapi.enterprise.dao.DbQuery;
+import com.t8webs.tvtrackerapi.enterprise.dao.StatementFingerprint;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs DbQuery statements against an embedded database with a StatementTracer listening, inside and outside a trace
+ */
+class StatementTracerTest {
+
+    private static final String SELECT = "SELECT * FROM MediaEntry WHERE username = ?";
+
+    private JdbcDataSource dataSource;
+    private Tracer tracer;
+    private TraceCollector traceCollector;
+    private StatementTracer statementTracer;
+
+    @BeforeEach
+    void createTracer() throws SQLException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:statement-tracer;MODE=MSSQLServer;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=FALSE");
+        dataSource.setUser("sa");
+        run("RUNSCRIPT FROM 'classpath:/schema.sql'");
+
+        traceCollector = new TraceCollector();
+        traceCollector.bufferSize = 10;
+        traceCollector.objectMapper = new ObjectMapper();
+        tracer = new Tracer();
+        tracer.maxSpans = 1000;
+        tracer.traceCollector = traceCollector;
+        statementTracer = new StatementTracer();
+        statementTracer.tracer = tracer;
+        statementTracer.register();
+    }
+
+    @AfterEach
+    void dropDatabase() throws SQLException {
+        statementTracer.unregister();
+        run("DROP ALL OBJECTS");
+    }
+
+    @Test
+    void statementsOfATracedRequestGetASpanPerPhase() {
+        Span root = tracer.startRoot("TvTrackerController.getMediaEntries");
+        try (Tracer.Scope scope = tracer.resume(root)) {
+            select("alice");
+        }
+        root.close();
+
+        List<Map<String, Object>> spans = spans();
+        Map<String, Object> statement = span(spans, "db.statement");
+        assertEquals(span(spans, "TvTrackerController.getMediaEntries").get("spanId"), statement.get("parentId"));
+        assertEquals(Map.of("fingerprint", StatementFingerprint.of(SELECT).getId(), "statement", SELECT, "rows", 0L),
+                statement.get("tags"));
+
+        for (String phase : List.of("db.connect", "db.execute", "db.read")) {
+            Map<String, Object> span = span(spans, phase);
+            assertEquals(statement.get("spanId"), span.get("parentId"));
+            assertTrue((long) span.get("durationMicros") <= (long) statement.get("durationMicros"));
+        }
+    }
+
+    @Test
+    void statementsOutsideATraceAreNotRecorded() {
+        select("alice");
+
+        assertEquals(0L, traceCollector.snapshot(10, 0, null).get("collectedSpans"));
+    }
+
+    private void select(String username) {
+        DbQuery query = new DbQuery(dataSource);
+        query.setTableName("MediaEntry");
+        query.addWhere("username", username);
+        query.select();
+    }
+
+    private void run(String sql) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             Statement statement = conn.createStatement())
+        {
+            statement.execute(sql);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> spans() {
+        List<Map<String, Object>> traces = (List<Map<String, Object>>) traceCollector.snapshot(1, 0, null).get("traces");
+        return (List<Map<String, Object>>) traces.get(0).get("spans");
+    }
+
+    private static Map<String, Object> span(List<Map<String, Object>> spans, String name) {
+        return spans.stream().filter(span -> name.equals(span.get("name"))).findFirst().orElseThrow();
+    }
+}
@@ -0,0 +1,155 @@
+package com.t8webs.tvtrackerapi.enterprise.trace;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Starts spans through a Tracer that never samples on its own and reads the finished traces from its TraceCollector
+ */
+class TracerTest {
+
+    private Tracer tracer;
+    private TraceCollector traceCollector;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+
+    @BeforeEach
+    void createTracer() {
+        traceCollector = new TraceCollector();
+        traceCollector.bufferSize = 2;
+        traceCollector.objectMapper = new ObjectMapper();
+
+        tracer = new Tracer();
+        tracer.sampleRate = 0;
+        tracer.maxSpans = 1000;
+        tracer.traceCollector = traceCollector;
+    }
+
+    @AfterEach
+    void stopWorker() {
+        worker.shutdownNow();
+    }
+
+    @Test
+    void unsampledRequestsOnlyGetTheNoopSpan() {
+        assertFalse(tracer.sample(false));
+        assertTrue(tracer.sample(true));
+
+        try (Span span = tracer.start("MediaEntryService.fetchMediaEntries")) {
+            assertSame(Span.NOOP, span);
+            span.tag("rows", 1);
+        }
+        assertFalse(tracer.isRecording());
+        assertEquals(0L, traceCollector.snapshot(10, 0, null).get("collectedSpans"));
+    }
+
+    @Test
+    void nestedSpansRestoreTheirParentAndEndUpInOneTrace() {
+        Span root = tracer.startRoot("TvTrackerController.getMediaEntries");
+        try (Tracer.Scope scope = tracer.resume(root)) {
+            try (Span service = tracer.start("MediaEntryService.fetchMediaEntries")) {
+                try (Span dao = tracer.start("MediaEntryDAO.fetchAll")) {
+                    assertSame(dao, tracer.current());
+                    dao.error(new IllegalStateException("down"));
+                }
+                assertSame(service, tracer.current());
+            }
+            assertSame(root, tracer.current());
+        }
+        assertFalse(tracer.isRecording());
+        root.close();
+        // a span ends once
+        root.close();
+
+        Map<String, Object> trace = onlyTrace(null);
+        assertEquals(root.getTraceId(), trace.get("traceId"));
+        assertEquals("TvTrackerController.getMediaEntries", trace.get("name"));
+        List<Map<String, Object>> spans = spans(trace);
+        assertEquals(List.of("TvTrackerController.getMediaEntries", "MediaEntryService.fetchMediaEntries", "MediaEntryDAO.fetchAll"),
+                spans.stream().map(span -> span.get("name")).toList());
+        assertEquals(spans.get(0).get("spanId"), spans.get(1).get("parentId"));
+        assertEquals(spans.get(1).get("spanId"), spans.get(2).get("parentId"));
+        assertEquals(Map.of("error", "IllegalStateException: down"), spans.get(2).get("tags"));
+    }
+
+    @Test
+    void spansStartedOnAnotherThreadJoinTheResumedTrace() throws Exception {
+        Span root = tracer.startRoot("TvTrackerController.exportMediaEntries");
+
+        String workerThread = worker.submit(() -> {
+            try (Tracer.Scope scope = tracer.resume(root); Span span = tracer.start("MediaEntryService.streamMediaEntries")) {
+                span.tag("format", "csv");
+            }
+            // the worker is left as it was found
+            assertFalse(tracer.isRecording());
+            return Thread.currentThread().getName();
+        }).get(10, TimeUnit.SECONDS);
+        root.close();
+
+        List<Map<String, Object>> spans = spans(onlyTrace(null));
+        assertEquals(2, spans.size());
+        assertEquals(spans.get(0).get("spanId"), spans.get(1).get("parentId"));
+        assertEquals(workerThread, spans.get(1).get("thread"));
+    }
+
+    @Test
+    void collectorKeepsTheNewestTracesAndFiltersThem() {
+        Span first = tracer.startRoot("first");
+        first.end(first.getStartNanos() + TimeUnit.MILLISECONDS.toNanos(50));
+        Span second = tracer.startRoot("second");
+        second.close();
+        Span third = tracer.startRoot("third");
+        third.close();
+
+        Map<String, Object> snapshot = traceCollector.snapshot(10, 0, null);
+        assertEquals(3L, snapshot.get("collectedSpans"));
+        assertEquals(List.of("third", "second"), traces(snapshot).stream().map(trace -> trace.get("name")).toList());
+
+        assertEquals("second", onlyTrace(second.getTraceId()).get("name"));
+        assertTrue(traces(traceCollector.snapshot(10, 1000, null)).isEmpty());
+    }
+
+    @Test
+    void spansPastTheLimitAreOnlyCounted() {
+        tracer.maxSpans = 2;
+        Span root = tracer.startRoot("root");
+        try (Tracer.Scope scope = tracer.resume(root)) {
+            for (int i = 0; i < 3; i++) {
+                tracer.start("child " + i).close();
+            }
+        }
+        root.close();
+
+        Map<String, Object> trace = onlyTrace(null);
+        assertEquals(2, spans(trace).size());
+        assertEquals(2, trace.get("droppedSpans"));
+    }
+
+    private Map<String, Object> onlyTrace(String traceId) {
+        List<Map<String, Object>> traces = traces(traceCollector.snapshot(1, 0, traceId));
+        assertEquals(1, traces.size());
+        return traces.get(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> traces(Map<String, Object> snapshot) {
+        return (List<Map<String, Object>>) snapshot.get("traces");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> spans(Map<String, Object> trace) {
+        return (List<Map<String, Object>>) trace.get("spans");
+    }
+}
@@ -0,0 +1,153 @@
+package com.t8webs.tvtrackerapi.enterprise.trace;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Passes requests through TracingInterceptor and calls a service proxied by ServiceTracingInterceptor, with a Tracer
+ * that only samples requests asking to be traced
+ */
+class TracingInterceptorTest {
+
+    private Tracer tracer;
+    private TraceCollector traceCollector;
+    private TracingInterceptor tracingInterceptor;
+    private Service service;
+    private HandlerMethod handler;
+
+    @BeforeEach
+    void createInterceptors() throws NoSuchMethodException {
+        traceCollector = new TraceCollector();
+        traceCollector.bufferSize = 10;
+        traceCollector.objectMapper = new ObjectMapper();
+        tracer = new Tracer();
+        tracer.sampleRate = 0;
+        tracer.maxSpans = 1000;
+        tracer.traceCollector = traceCollector;
+        tracingInterceptor = new TracingInterceptor(tracer);
+
+        ProxyFactory proxyFactory = new ProxyFactory(new Service());
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice(new ServiceTracingInterceptor(tracer));
+        service = (Service) proxyFactory.getProxy();
+
+        handler = new HandlerMethod(new Controller(), Controller.class.getMethod("getMediaEntries"));
+    }
+
+    @Test
+    void requestAskingToBeTracedGetsARootSpanAndItsId() {
+        MockHttpServletRequest request = request(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        tracingInterceptor.preHandle(request, response, handler);
+        assertTrue(tracer.isRecording());
+        service.fetch();
+        response.setStatus(404);
+        tracingInterceptor.afterCompletion(request, response, handler, null);
+
+        assertFalse(tracer.isRecording());
+        Map<String, Object> trace = onlyTrace();
+        assertEquals(trace.get("traceId"), response.getHeader("X-Trace-Id"));
+        assertEquals("Controller.getMediaEntries", trace.get("name"));
+        List<Map<String, Object>> spans = spans(trace);
+        assertEquals(Map.of("method", "GET", "uri", "/mediaEntries", "status", 404), spans.get(0).get("tags"));
+        assertEquals("Service.fetch", spans.get(1).get("name"));
+        assertEquals(spans.get(0).get("spanId"), spans.get(1).get("parentId"));
+    }
+
+    @Test
+    void asyncRequestKeepsItsSpanAcrossDispatches() {
+        MockHttpServletRequest request = request(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        tracingInterceptor.preHandle(request, response, handler);
+        tracingInterceptor.afterConcurrentHandlingStarted(request, response, handler);
+        assertFalse(tracer.isRecording());
+        assertEquals(0L, traceCollector.snapshot(10, 0, null).get("collectedSpans"));
+
+        // the dispatch of the finished response continues the same root span
+        tracingInterceptor.preHandle(request, response, handler);
+        service.fetch();
+        tracingInterceptor.afterCompletion(request, response, handler, null);
+
+        assertEquals(2, spans(onlyTrace()).size());
+    }
+
+    @Test
+    void serviceFailuresAreTaggedOnTheirSpan() {
+        MockHttpServletRequest request = request(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        tracingInterceptor.preHandle(request, response, handler);
+        IllegalStateException failure = assertThrows(IllegalStateException.class, service::fail);
+        tracingInterceptor.afterCompletion(request, response, handler, failure);
+
+        List<Map<String, Object>> spans = spans(onlyTrace());
+        assertEquals("IllegalStateException: down", ((Map<?, ?>) spans.get(0).get("tags")).get("error"));
+        assertEquals(Map.of("error", "IllegalStateException: down"), spans.get(1).get("tags"));
+    }
+
+    @Test
+    void unsampledRequestsAreNotTraced() {
+        MockHttpServletRequest request = request(false);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        tracingInterceptor.preHandle(request, response, handler);
+        assertFalse(tracer.isRecording());
+        service.fetch();
+        tracingInterceptor.afterCompletion(request, response, handler, null);
+
+        assertNull(response.getHeader("X-Trace-Id"));
+        assertEquals(0L, traceCollector.snapshot(10, 0, null).get("collectedSpans"));
+    }
+
+    private static MockHttpServletRequest request(boolean trace) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/mediaEntries");
+        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/mediaEntries");
+        if(trace)
+            request.addHeader("X-Trace", "1");
+        return request;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> onlyTrace() {
+        List<Map<String, Object>> traces = (List<Map<String, Object>>) traceCollector.snapshot(10, 0, null).get("traces");
+        assertEquals(1, traces.size());
+        return traces.get(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> spans(Map<String, Object> trace) {
+        return (List<Map<String, Object>>) trace.get("spans");
+    }
+
+    static class Controller {
+        public void getMediaEntries() {
+        }
+    }
+
+    static class Service {
+        public String fetch() {
+            return "entries";
+        }
+
+        public String fail() {
+            throw new IllegalStateException("down");
+        }
+    }
+}
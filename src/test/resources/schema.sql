@@ -0,0 +1,49 @@
+CREATE TABLE IF NOT EXISTS UserAccount (
+    username VARCHAR(50) PRIMARY KEY,
+    password VARCHAR(100),
+    email VARCHAR(100),
+    birthDate DATETIME,
+    token VARCHAR(64),
+    lastLogin DATETIME,
+    changeSeq BIGINT
+);
+
+CREATE TABLE IF NOT EXISTS MediaEntry (
+    id INT PRIMARY KEY,
+    title VARCHAR(255),
+    username VARCHAR(50),
+    type VARCHAR(50),
+    platform VARCHAR(50),
+    description VARCHAR(2000),
+    imageUrl VARCHAR(500),
+    watched BIT,
+    changeSeq BIGINT
+);
+
+CREATE SEQUENCE IF NOT EXISTS MediaEntryChangeSeq START WITH 1;
+CREATE SEQUENCE IF NOT EXISTS MediaEntryIdSeq START WITH 2048 INCREMENT BY 2048;
+
+CREATE TABLE IF NOT EXISTS MediaEntryTombstone (
+    id INT PRIMARY KEY,
+    username VARCHAR(50),
+    changeSeq BIGINT
+);
+
+CREATE INDEX IF NOT EXISTS MediaEntry_username_id ON MediaEntry(username, id);
+CREATE INDEX IF NOT EXISTS MediaEntry_username_title ON MediaEntry(username, title, id);
+
+CREATE INDEX IF NOT EXISTS MediaEntry_username_changeSeq ON MediaEntry(username, changeSeq);
+CREATE INDEX IF NOT EXISTS MediaEntryTombstone_username_changeSeq ON MediaEntryTombstone(username, changeSeq);
+
+CREATE TABLE IF NOT EXISTS ReplicaHeartbeat (
+    nodeId VARCHAR(64) PRIMARY KEY,
+    beatAt BIGINT
+);
+
+CREATE TABLE IF NOT EXISTS ShardMove (
+    username VARCHAR(50) PRIMARY KEY,
+    toShard INT,
+    movedAt BIGINT
+);
+
+CREATE INDEX IF NOT EXISTS ShardMove_movedAt ON ShardMove(movedAt);